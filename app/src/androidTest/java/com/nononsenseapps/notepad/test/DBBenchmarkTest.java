@@ -0,0 +1,1124 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.preference.PreferenceManager;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.notepad.database.DAO;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.DatabaseMaintenance;
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
+import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.SearchIndex;
+import com.nononsenseapps.notepad.database.SectionedDateCursor;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.fragments.TaskListFragment;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how long the slow database operations take. Results are written to the logcat,
+ * filter by "NNN" and "DBBenchmarkTest" to see them
+ */
+public class DBBenchmarkTest extends TestCase {
+
+	private Context mContext;
+	private ContentResolver mResolver;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		mResolver = mContext.getContentResolver();
+
+		// clear app data
+		PreferenceManager.getDefaultSharedPreferences(mContext).edit().clear().commit();
+		DatabaseHandler.resetDatabase(mContext);
+	}
+
+	private long[] insertLists(final int count) {
+		final long[] ids = new long[count];
+		for (int i = 0; i < count; i++) {
+			final TaskList tl = new TaskList();
+			tl.title = "benchmark list " + i;
+			tl.save(mContext);
+			ids[i] = tl._id;
+		}
+		return ids;
+	}
+
+	private ContentValues newTaskValues(final long listId, final int i) {
+		final Task t = new Task();
+		t.title = "benchmark task " + i;
+		t.note = "a note for task " + i;
+		t.dblist = listId;
+		return t.getContent();
+	}
+
+	private int countTasks() {
+		final Cursor c = mResolver.query(Task.URI, new String[] { Task.Columns._ID },
+				null, null, null);
+		assertNotNull(c);
+		final int count = c.getCount();
+		c.close();
+		return count;
+	}
+
+	private static void report(final String what, final int rows, final long startNanos) {
+		final long ms = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1_000_000;
+		NnnLogger.debug(DBBenchmarkTest.class,
+				what + ": " + rows + " rows in " + ms + " ms");
+	}
+
+	/**
+	 * 10k single inserts against the same 10k rows in one batch. Tasks are spread over
+	 * 100 lists, so that the cost of the nested-set triggers does not hide the cost of
+	 * transactions and notifications, which is what we are measuring here
+	 */
+	@LargeTest
+	public void testSingleInsertsVersusBatch() throws Exception {
+		final int rows = 10_000;
+		final long[] lists = insertLists(100);
+		final int before = countTasks();
+
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < rows; i++) {
+			assertNotNull(mResolver.insert(Task.URI, newTaskValues(lists[i % lists.length], i)));
+		}
+		report("single inserts", rows, start);
+		assertEquals(before + rows, countTasks());
+
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++) {
+			ops.add(ContentProviderOperation
+					.newInsert(Task.URI)
+					.withValues(newTaskValues(lists[i % lists.length], i))
+					.withYieldAllowed(i % 500 == 0)
+					.build());
+		}
+		start = SystemClock.elapsedRealtimeNanos();
+		mResolver.applyBatch(MyContentProvider.AUTHORITY, ops);
+		report("applyBatch", rows, start);
+		assertEquals(before + 2 * rows, countTasks());
+
+		final ContentValues[] values = new ContentValues[rows];
+		for (int i = 0; i < rows; i++) {
+			values[i] = newTaskValues(lists[i % lists.length], i);
+		}
+		start = SystemClock.elapsedRealtimeNanos();
+		assertEquals(rows, mResolver.bulkInsert(Task.URI, values));
+		report("bulkInsert", rows, start);
+		assertEquals(before + 3 * rows, countTasks());
+	}
+
+	/**
+	 * Runs the queries of the drawer and of a list sorted by due date, and records how long
+	 * each one takes, until {@code stop} is set or {@code maxQueries} are done
+	 *
+	 * @return the latencies in milliseconds, sorted
+	 */
+	private long[] measureQueries(final long listId, final int maxQueries,
+								  final AtomicBoolean stop) {
+		final long[] latencies = new long[maxQueries];
+		int done = 0;
+		while (done < maxQueries && !stop.get()) {
+			final long start = SystemClock.elapsedRealtimeNanos();
+			final Cursor c;
+			if (done % 2 == 0) {
+				c = mResolver.query(TaskList.URI_WITH_COUNT, null, null, null, null);
+			} else {
+				c = mResolver.query(Task.URI_SECTIONED_BY_DATE, Task.Columns.FIELDS,
+						Task.Columns.DBLIST + " = ?",
+						new String[] { Long.toString(listId) }, null);
+			}
+			assertNotNull(c);
+			// a query only runs when the cursor is filled
+			c.getCount();
+			c.close();
+			latencies[done++] = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+		}
+		final long[] result = Arrays.copyOf(latencies, done);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static void reportPercentiles(final String what, final long[] sorted) {
+		assertTrue(sorted.length > 0);
+		NnnLogger.debug(DBBenchmarkTest.class, what + ": " + sorted.length + " queries, "
+				+ "p50 = " + sorted[sorted.length / 2] + " ms, "
+				+ "p90 = " + sorted[sorted.length * 9 / 10] + " ms, "
+				+ "p99 = " + sorted[sorted.length * 99 / 100] + " ms, "
+				+ "max = " + sorted[sorted.length - 1] + " ms");
+	}
+
+	/**
+	 * Query latency on an idle database, and then while another thread writes as much as a
+	 * sync would. Readers should not wait for the writer
+	 */
+	@LargeTest
+	public void testQueryLatencyDuringWrites() throws Exception {
+		final long[] lists = insertLists(20);
+		final ContentValues[] values = new ContentValues[2000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(lists[i % lists.length], i);
+		}
+		mResolver.bulkInsert(Task.URI, values);
+
+		reportPercentiles("idle database", measureQueries(lists[0], 200, new AtomicBoolean()));
+
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final Thread writer = new Thread(() -> {
+			// like a sync: many small writes, each one a transaction
+			for (int i = 0; i < 2000 && !stop.get(); i++) {
+				mResolver.insert(Task.URI, newTaskValues(lists[i % lists.length], i));
+			}
+			stop.set(true);
+		});
+		writer.start();
+		final long[] underLoad = measureQueries(lists[0], 100_000, stop);
+		stop.set(true);
+		writer.join();
+		reportPercentiles("during writes", underLoad);
+	}
+
+	/**
+	 * Opens a list the way TaskListFragment does, {@code times} times
+	 *
+	 * @return the latencies in milliseconds, sorted
+	 */
+	private long[] measureListOpen(final Uri uri, final String where, final String sortOrder,
+								   final long listId, final int times) {
+		final long[] latencies = new long[times];
+		for (int i = 0; i < times; i++) {
+			final long start = SystemClock.elapsedRealtimeNanos();
+			final Cursor c = mResolver.query(uri, Task.Columns.FIELDS, where,
+					new String[] { Long.toString(listId) }, sortOrder);
+			assertNotNull(c);
+			assertTrue(c.getCount() > 0);
+			c.close();
+			latencies[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	/**
+	 * Opening one list of a 50k task database, with the "CAST(dblist AS INTEGER) IS ?"
+	 * workaround for issue #525 and with the plain "dblist = ?" that can use the index
+	 */
+	@LargeTest
+	public void testListOpenOnLargeDatabase() throws Exception {
+		final long[] lists = insertLists(500);
+		final ContentValues[] values = new ContentValues[50_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(lists[i % lists.length], i);
+		}
+		long start = SystemClock.elapsedRealtimeNanos();
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+		report("50k tasks bulkInsert", values.length, start);
+
+		final long listId = lists[lists.length / 2];
+		final String cast = "CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ?";
+		final String plain = Task.Columns.DBLIST + " = ?";
+
+		reportPercentiles("manual order, CAST",
+				measureListOpen(Task.URI, cast, Task.Columns.LEFT, listId, 50));
+		reportPercentiles("manual order, dblist = ?",
+				measureListOpen(Task.URI, plain, Task.Columns.LEFT, listId, 50));
+		reportPercentiles("by due date, CAST",
+				measureListOpen(Task.URI_SECTIONED_BY_DATE, cast, null, listId, 50));
+		reportPercentiles("by due date, dblist = ?",
+				measureListOpen(Task.URI_SECTIONED_BY_DATE, plain, null, listId, 50));
+	}
+
+	/**
+	 * Moving 500 tasks to another list, with one update of "dblist" and with the batched
+	 * {@link Task#moveToList} that renumbers each list once
+	 */
+	@LargeTest
+	public void testMoveToList() throws Exception {
+		final int rows = 1000;
+		final long[] lists = insertLists(2);
+		final ContentValues[] values = new ContentValues[rows];
+		for (int i = 0; i < rows; i++) {
+			values[i] = newTaskValues(lists[0], i);
+		}
+		mResolver.bulkInsert(Task.URI, values);
+
+		final Cursor c = mResolver.query(Task.URI, new String[] { Task.Columns._ID },
+				Task.Columns.DBLIST + " = ?", new String[] { Long.toString(lists[0]) },
+				Task.Columns.LEFT);
+		assertNotNull(c);
+		final long[] ids = new long[rows / 2];
+		for (int i = 0; i < ids.length && c.moveToPosition(2 * i); i++) {
+			ids[i] = c.getLong(0);
+		}
+		c.close();
+
+		final ContentValues toList = new ContentValues();
+		toList.put(Task.Columns.DBLIST, lists[1]);
+		long start = SystemClock.elapsedRealtimeNanos();
+		assertEquals(ids.length, mResolver.update(Task.URI, toList,
+				Task.Columns._ID + " IN (" + DAO.arrayToCommaString(ids) + ")", null));
+		report("move to list, update of dblist", ids.length, start);
+
+		start = SystemClock.elapsedRealtimeNanos();
+		assertEquals(ids.length, Task.moveToList(mResolver, lists[0], ids));
+		report("move to list, Task.moveToList", ids.length, start);
+	}
+
+	private ArrayList<Task> getTasks(final long listId) {
+		final Cursor c = mResolver.query(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " = ?", new String[] { Long.toString(listId) },
+				Task.Columns.LEFT);
+		assertNotNull(c);
+		final ArrayList<Task> tasks = new ArrayList<>(c.getCount());
+		while (c.moveToNext()) {
+			tasks.add(new Task(c));
+		}
+		c.close();
+		return tasks;
+	}
+
+	/**
+	 * Cost of a single insert, move and delete, in lists of growing size. With positions
+	 * that have gaps between them, it should not grow with the size of the list
+	 */
+	@LargeTest
+	public void testPositionCostByListSize() throws Exception {
+		final int ops = 100;
+		for (int size : new int[] { 250, 2_500, 25_000 }) {
+			final long listId = insertLists(1)[0];
+			final ContentValues[] values = new ContentValues[size];
+			for (int i = 0; i < size; i++) {
+				values[i] = newTaskValues(listId, i);
+			}
+			mResolver.bulkInsert(Task.URI, values);
+
+			long start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < ops; i++) {
+				assertNotNull(mResolver.insert(Task.URI, newTaskValues(listId, i)));
+			}
+			report("inserts in a list of " + size, ops, start);
+
+			final ArrayList<Task> tasks = getTasks(listId);
+			start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < ops; i++) {
+				// from the bottom to the top, each one in a different gap
+				final Task moving = tasks.get(tasks.size() - 1 - i);
+				assertEquals(1, moving.moveTo(mResolver, tasks.get(i)));
+			}
+			report("moves in a list of " + size, ops, start);
+
+			start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < ops; i++) {
+				assertEquals(1, mResolver.delete(tasks.get(i).getUri(), null, null));
+			}
+			report("deletes in a list of " + size, ops, start);
+		}
+	}
+
+	/**
+	 * Deleting tasks from a 5000 task list, and then the same with the COUNT(DISTINCT)
+	 * check that the triggers used to run after each write. See
+	 * {@link DatabaseHandler#verifyTaskPositions}, which replaced it
+	 */
+	@LargeTest
+	public void testWriteLatencyWithInlineChecks() throws Exception {
+		final int ops = 200;
+		final long listId = insertLists(1)[0];
+		final ContentValues[] values = new ContentValues[5000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(listId, i);
+		}
+		mResolver.bulkInsert(Task.URI, values);
+		final ArrayList<Task> tasks = getTasks(listId);
+
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < ops; i++) {
+			assertEquals(1, mResolver.delete(tasks.get(i).getUri(), null, null));
+		}
+		report("deletes without checks", ops, start);
+
+		// Writes run on the primary connection, and so does this
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		final String count = "(SELECT COUNT(DISTINCT %1$s) FROM " + Task.TABLE_NAME
+				+ " WHERE " + Task.Columns.DBLIST + " = old." + Task.Columns.DBLIST + ")";
+		final String ids = String.format(count, Task.Columns._ID);
+		db.execSQL("CREATE TEMP TRIGGER benchmark_inline_check AFTER DELETE ON "
+				+ Task.TABLE_NAME + " BEGIN SELECT CASE WHEN " + ids + " != "
+				+ String.format(count, Task.Columns.LEFT) + " OR " + ids + " != "
+				+ String.format(count, Task.Columns.RIGHT)
+				+ " THEN RAISE (ABORT, 'pos not unique') END; END;");
+		try {
+			start = SystemClock.elapsedRealtimeNanos();
+			for (int i = ops; i < 2 * ops; i++) {
+				assertEquals(1, mResolver.delete(tasks.get(i).getUri(), null, null));
+			}
+			report("deletes with checks", ops, start);
+		} finally {
+			db.execSQL("DROP TRIGGER IF EXISTS temp.benchmark_inline_check");
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by the whole process since it started
+	 */
+	private static long allocatedBytes() {
+		return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+	}
+
+	/**
+	 * Reads every row the way TaskListFragment does, and measures it with the query
+	 */
+	private static void readSectioned(final String what, final Cursor c, final long startNanos,
+									  final long startBytes) {
+		int headers = 0;
+		while (c.moveToNext()) {
+			if (c.getLong(0) < 1) headers++;
+			c.getString(1);
+			c.getLong(4);
+		}
+		final int rows = c.getCount();
+		c.close();
+		report(what + " (" + headers + " headers)", rows, startNanos);
+		NnnLogger.debug(DBBenchmarkTest.class, what + ": "
+				+ (allocatedBytes() - startBytes) / 1024 + " KiB allocated");
+	}
+
+	/**
+	 * A 20k task list sorted by due date, with the UNION of {@link Task#SECTIONED_DATE_QUERY}
+	 * and with the {@link SectionedDateCursor} that adds the headers in java
+	 */
+	@LargeTest
+	public void testSectionedByDateOnLargeList() throws Exception {
+		final long listId = insertLists(1)[0];
+		final long now = System.currentTimeMillis();
+		final long day = 24 * 60 * 60 * 1000L;
+		final ContentValues[] values = new ContentValues[20_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(listId, i);
+			// from a month ago to more than 2 years from now, with some undated and completed
+			if (i % 10 == 1) {
+				values[i].put(Task.Columns.COMPLETED, now);
+			} else if (i % 10 != 2) {
+				values[i].put(Task.Columns.DUE, now + (i % 900 - 30) * day + i);
+			}
+		}
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getReadableDatabase();
+		final String where = Task.Columns.DBLIST + " = ?";
+		final String[] args = new String[] { Long.toString(listId) };
+		for (int i = 0; i < 3; i++) {
+			long bytes = allocatedBytes();
+			long start = SystemClock.elapsedRealtimeNanos();
+			readSectioned("by due date, UNION query", db.query("("
+							+ Task.SECTIONED_DATE_QUERY(args[0]) + ")", Task.Columns.FIELDS,
+					where, args, null, null, Task.SECRET_TYPEID + "," + Task.Columns.DUE
+							+ "," + Task.SECRET_TYPEID2), start, bytes);
+
+			bytes = allocatedBytes();
+			start = SystemClock.elapsedRealtimeNanos();
+			readSectioned("by due date, SectionedDateCursor", SectionedDateCursor.query(db,
+					Task.Columns.FIELDS, where, args, args[0]), start, bytes);
+		}
+	}
+
+	/**
+	 * @return the first column of the only row of the query
+	 */
+	private int queryCount(final Uri uri, final String[] projection, final String where) {
+		final Cursor c = mResolver.query(uri, projection, where, null, null);
+		assertNotNull(c);
+		assertTrue(c.moveToFirst());
+		final int count = c.getInt(0);
+		c.close();
+		return count;
+	}
+
+	/**
+	 * Refreshing the "overdue", "today" and "week" counts of the drawer with 20k tasks, with
+	 * a COUNT query for each one and with the single query of {@link Task#URI_SMART_COUNTS}
+	 */
+	@LargeTest
+	public void testDrawerCounts() throws Exception {
+		final long[] lists = insertLists(20);
+		final long now = System.currentTimeMillis();
+		final long hour = 60 * 60 * 1000L;
+		final ContentValues[] values = new ContentValues[20_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(lists[i % lists.length], i);
+			// from 10 days ago to 30 days from now
+			values[i].put(Task.Columns.DUE, now + (i % 960 - 240) * hour);
+			if (i % 7 == 0) values[i].put(Task.Columns.COMPLETED, now);
+		}
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+
+		final String[] countRows = new String[] { "COUNT(1)" };
+		final String notCompleted = Task.Columns.COMPLETED + " IS NULL ";
+		final int times = 50;
+		int[] separate = null;
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < times; i++) {
+			separate = new int[] {
+					queryCount(Task.URI, countRows,
+							notCompleted + TaskListFragment.andWhereOverdue()),
+					queryCount(Task.URI, countRows,
+							notCompleted + TaskListFragment.andWhereToday()),
+					queryCount(Task.URI, countRows,
+							notCompleted + TaskListFragment.andWhereWeek()) };
+		}
+		report("drawer counts, 3 queries", times, start);
+
+		int[] single = null;
+		start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < times; i++) {
+			final Cursor c = mResolver.query(Task.URI_SMART_COUNTS, new String[] {
+					Task.SMART_COUNT_OVERDUE, Task.SMART_COUNT_TODAY, Task.SMART_COUNT_WEEK },
+					null, null, null);
+			assertNotNull(c);
+			assertTrue(c.moveToFirst());
+			single = new int[] { c.getInt(0), c.getInt(1), c.getInt(2) };
+			c.close();
+		}
+		report("drawer counts, 1 query", times, start);
+
+		assertTrue(Arrays.toString(separate), separate[0] > 0 && separate[2] > 0);
+		assertTrue(Arrays.equals(separate, single));
+	}
+
+	private static void reportRate(final String what, final int rows, final long startNanos) {
+		final long nanos = Math.max(1, SystemClock.elapsedRealtimeNanos() - startNanos);
+		NnnLogger.debug(DBBenchmarkTest.class,
+				what + ": " + (rows * 1_000_000_000L / nanos) + " rows per second");
+	}
+
+	/**
+	 * Rows per second of task inserts with {@link SQLiteDatabase#insert}, which compiles
+	 * the SQL for every row, and with {@link DAO#insert}, which binds the values to a
+	 * statement compiled once. Then the same for moves, whose SQL no longer changes with
+	 * the positions
+	 */
+	@LargeTest
+	public void testCompiledStatements() throws Exception {
+		final int rows = 5000;
+		final long listId = insertLists(1)[0];
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+
+		db.beginTransaction();
+		try {
+			final long start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < rows; i++) {
+				assertTrue(db.insert(Task.TABLE_NAME, null, newTaskValues(listId, i)) > 0);
+			}
+			reportRate("inserts, SQLiteDatabase.insert", rows, start);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		db.beginTransaction();
+		try {
+			final long start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < rows; i++) {
+				final Task t = new Task();
+				t.title = "benchmark task " + i;
+				t.note = "a note for task " + i;
+				t.dblist = listId;
+				assertNotNull(t.insert(mContext, db));
+			}
+			reportRate("inserts, DAO.insert", rows, start);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		assertEquals(2 * rows, getTasks(listId).size());
+
+		final int ops = 500;
+		final ArrayList<Task> tasks = getTasks(listId);
+		final long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < ops; i++) {
+			// from the bottom to the top, each one in a different gap
+			final Task moving = tasks.get(tasks.size() - 1 - i);
+			assertEquals(1, moving.moveTo(mResolver, tasks.get(i)));
+		}
+		reportRate("moves", ops, start);
+	}
+
+	/**
+	 * @return the bytes of the pages in use, without the free ones
+	 */
+	private static long usedBytes(final SQLiteDatabase db) {
+		return (DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+				- DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null))
+				* DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+	}
+
+	/**
+	 * Size of the database after editing 20 long notes 200 times each, before and after
+	 * {@link TaskHistory#compactAll}
+	 */
+	@LargeTest
+	public void testHistoryCompaction() throws Exception {
+		final long listId = insertLists(1)[0];
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			text.append("This is line ").append(i).append(" of a long note\n");
+		}
+		final long before = usedBytes(db);
+		for (int n = 0; n < 20; n++) {
+			final Task t = new Task();
+			t.title = "edited note " + n;
+			t.note = text.toString();
+			t.dblist = listId;
+			// Not through the provider, which would start compacting in the background
+			assertNotNull(t.insert(mContext, db));
+			final StringBuilder note = new StringBuilder(t.note);
+			for (int i = 0; i < 200; i++) {
+				note.insert((i * 7919) % note.length(), "edit " + i + " ");
+				t.note = note.toString();
+				assertTrue(t.update(mContext, db));
+			}
+		}
+		final long edited = usedBytes(db);
+
+		final long start = SystemClock.elapsedRealtimeNanos();
+		final int changed = TaskHistory.compactAll(db, 0, 0);
+		report("history compaction", changed, start);
+		final long compacted = usedBytes(db);
+		NnnLogger.debug(DBBenchmarkTest.class, "history of 20 notes edited 200 times: "
+				+ (edited - before) / 1024 + " kB, compacted to "
+				+ (compacted - before) / 1024 + " kB");
+		assertTrue(compacted < edited);
+	}
+
+	/**
+	 * Inserts tasks whose notes have 40 of the words "word0" to "word1999"
+	 */
+	private void insertSearchableTasks(final SQLiteDatabase db, final int rows) {
+		final long listId = insertLists(1)[0];
+		db.beginTransaction();
+		try {
+			final long start = SystemClock.elapsedRealtimeNanos();
+			for (int i = 0; i < rows; i++) {
+				final Task t = new Task();
+				t.title = "task " + (i * 7919 % 1000) + " of the benchmark";
+				final StringBuilder note = new StringBuilder();
+				for (int w = 0; w < 40; w++) {
+					note.append(" word").append((i * 31 + w * 17) % 2000);
+				}
+				t.note = note.toString();
+				t.dblist = listId;
+				assertNotNull(t.insert(mContext, db));
+			}
+			reportRate("inserts with the search index", rows, start);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Size of the search index of 5000 tasks, against the FTS3 copy of the text used until
+	 * version 22. Then the cost of the index for each insert, and the latency of searches
+	 * ranked by {@link SearchIndex}
+	 */
+	@LargeTest
+	public void testSearchIndex() throws Exception {
+		final int rows = 5000;
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		insertSearchableTasks(db, rows);
+
+		final long withIndex = usedBytes(db);
+		db.execSQL("INSERT INTO " + Task.FTS_TABLE_NAME + "(" + Task.FTS_TABLE_NAME
+				+ ") VALUES('delete-all')");
+		final long indexBytes = withIndex - usedBytes(db);
+		SearchIndex.rebuild(db);
+		SearchIndex.optimize(db);
+
+		final long beforeCopy = usedBytes(db);
+		db.execSQL("CREATE VIRTUAL TABLE bench_fts3 USING FTS3(" + Task.Columns._ID + ", "
+				+ Task.Columns.TITLE + ", " + Task.Columns.NOTE + ")");
+		db.execSQL("INSERT INTO bench_fts3 SELECT " + Task.Columns._ID + ", "
+				+ Task.Columns.TITLE + ", " + Task.Columns.NOTE + " FROM " + Task.TABLE_NAME);
+		final long copyBytes = usedBytes(db) - beforeCopy;
+		db.execSQL("DROP TABLE bench_fts3");
+		NnnLogger.debug(DBBenchmarkTest.class, "search index of " + rows + " tasks: "
+				+ indexBytes / 1024 + " kB, FTS3 copy: " + copyBytes / 1024 + " kB");
+		assertTrue(indexBytes < copyBytes);
+
+		final int times = 200;
+		final long[] latencies = new long[times];
+		for (int i = 0; i < times; i++) {
+			final long start = SystemClock.elapsedRealtimeNanos();
+			final Cursor c = mResolver.query(Task.URI_SEARCH, null, null,
+					new String[] { "word" + (i * 37 % 200) }, null);
+			assertNotNull(c);
+			assertTrue(c.getCount() > 0);
+			c.close();
+			latencies[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+		}
+		Arrays.sort(latencies);
+		reportPercentiles("ranked searches", latencies);
+	}
+
+	/**
+	 * @return how long the search of each prefix of the text took, in milliseconds
+	 */
+	private long[] type(final String text, final boolean narrow) {
+		final long[] latencies = new long[text.length()];
+		for (int i = 1; i <= text.length(); i++) {
+			if (!narrow) SearchIndex.invalidate();
+			final long start = SystemClock.elapsedRealtimeNanos();
+			final Cursor c = mResolver.query(Task.URI_SEARCH, null, null,
+					new String[] { text.substring(0, i) }, null);
+			assertNotNull(c);
+			c.getCount();
+			c.close();
+			latencies[i - 1] = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+		}
+		return latencies;
+	}
+
+	/**
+	 * Time from a key to the results, while typing a search in 50k notes, with and without
+	 * filtering the results of the previous key. The UI adds its debounce delay to this
+	 */
+	@LargeTest
+	public void testSearchAsYouType() throws Exception {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		insertSearchableTasks(db, 50_000);
+		final String text = "word123 word1456 task";
+
+		final long[] fresh = type(text, false);
+		final long[] narrowed = type(text, true);
+		NnnLogger.debug(DBBenchmarkTest.class, "ms for each key of \"" + text
+				+ "\", every search in the index: " + Arrays.toString(fresh));
+		NnnLogger.debug(DBBenchmarkTest.class, "ms for each key of \"" + text
+				+ "\", narrowing the previous results: " + Arrays.toString(narrowed));
+		Arrays.sort(fresh);
+		Arrays.sort(narrowed);
+		reportPercentiles("keys, every search in the index", fresh);
+		reportPercentiles("keys, narrowing the previous results", narrowed);
+	}
+
+	/**
+	 * Writes a database like the one of the versions before 4.0, with the tables and columns
+	 * that {@link DatabaseHandler} reads from it
+	 */
+	private static void createLegacyDB(final SQLiteDatabase legacyDB, final int lists,
+									   final int notes) {
+		legacyDB.beginTransaction();
+		try {
+			legacyDB.execSQL("CREATE TABLE " + NotePad.Lists.TABLE_NAME
+					+ " (_id INTEGER PRIMARY KEY, title TEXT, deleted INTEGER DEFAULT 0)");
+			legacyDB.execSQL("CREATE TABLE " + NotePad.GTaskLists.TABLE_NAME
+					+ " (_id INTEGER PRIMARY KEY, dbid INTEGER, googleid TEXT,"
+					+ " googleaccount TEXT)");
+			legacyDB.execSQL("CREATE TABLE " + NotePad.Notes.TABLE_NAME
+					+ " (_id INTEGER PRIMARY KEY, title TEXT DEFAULT '' NOT NULL,"
+					+ " note TEXT DEFAULT '' NOT NULL, duedate TEXT, gtaskstatus TEXT,"
+					+ " list INTEGER, modified INTEGER DEFAULT 0, deleted INTEGER DEFAULT 0,"
+					+ " hiddenflag INTEGER DEFAULT 0)");
+			legacyDB.execSQL("CREATE TABLE " + NotePad.GTasks.TABLE_NAME
+					+ " (_id INTEGER PRIMARY KEY, dbid INTEGER, googleid TEXT,"
+					+ " googleaccount TEXT)");
+			legacyDB.execSQL("CREATE TABLE " + NotePad.Notifications.TABLE_NAME
+					+ " (_id INTEGER PRIMARY KEY, time INTEGER, permanent INTEGER DEFAULT 0,"
+					+ " noteid INTEGER)");
+
+			final ContentValues values = new ContentValues();
+			for (int i = 1; i <= lists; i++) {
+				values.clear();
+				values.put("_id", i);
+				values.put("title", "legacy list " + i);
+				legacyDB.insert(NotePad.Lists.TABLE_NAME, null, values);
+			}
+			for (int i = 1; i <= notes; i++) {
+				values.clear();
+				values.put("_id", i);
+				values.put("title", "legacy note " + i);
+				values.put("note", "imported from the old database, note " + i
+						+ (i % 50 == 0 ? " [locked]" : ""));
+				values.put("list", 1 + i % lists);
+				values.put("modified", 1364006615000L + i);
+				values.put("gtaskstatus", i % 3 == 0 ? "completed" : "needsAction");
+				values.put("duedate", i % 4 == 0 ? "2013-03-23T00:00:00.000Z" : "");
+				legacyDB.insert(NotePad.Notes.TABLE_NAME, null, values);
+				if (i % 5 == 0) {
+					values.clear();
+					values.put("dbid", i);
+					values.put("googleid", "remote" + i);
+					values.put("googleaccount", "fake@account.com");
+					legacyDB.insert(NotePad.GTasks.TABLE_NAME, null, values);
+				}
+				if (i % 10 == 0) {
+					values.clear();
+					values.put("time", 1364006615000L + i);
+					values.put("noteid", i);
+					legacyDB.insert(NotePad.Notifications.TABLE_NAME, null, values);
+				}
+			}
+			legacyDB.setTransactionSuccessful();
+		} finally {
+			legacyDB.endTransaction();
+		}
+	}
+
+	/**
+	 * Time to create the database when the user upgrades from a version before 4.0 with
+	 * 20k notes, and when there is no old database
+	 */
+	@LargeTest
+	public void testLegacyMigration() throws Exception {
+		final String prefix = "legacy_benchmark_";
+		final int notes = 20_000;
+		mContext.deleteDatabase(prefix + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		mContext.deleteDatabase(prefix + DatabaseHandler.DATABASE_NAME);
+
+		long start = SystemClock.elapsedRealtimeNanos();
+		DatabaseHandler handler = new DatabaseHandler(mContext, prefix);
+		handler.getWritableDatabase();
+		report("new database, without legacy database", 1, start);
+		handler.close();
+		assertFalse("The legacy database should not be created",
+				mContext.getDatabasePath(prefix + LegacyDBHelper.LEGACY_DATABASE_NAME)
+						.exists());
+		mContext.deleteDatabase(prefix + DatabaseHandler.DATABASE_NAME);
+
+		final LegacyDBHelper legacyHelper = new LegacyDBHelper(mContext, prefix);
+		createLegacyDB(legacyHelper.getWritableDatabase(), 10, notes);
+		legacyHelper.close();
+
+		start = SystemClock.elapsedRealtimeNanos();
+		handler = new DatabaseHandler(mContext, prefix);
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		report("legacy migration", notes, start);
+		try {
+			assertEquals(notes, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME));
+			assertEquals(notes / 5, DatabaseUtils.queryNumEntries(db, RemoteTask.TABLE_NAME));
+			assertEquals(notes / 10,
+					DatabaseUtils.queryNumEntries(db, Notification.TABLE_NAME));
+			assertEquals(notes / 3, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME,
+					Task.Columns.COMPLETED + " IS NOT NULL"));
+			assertEquals(notes / 50, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME,
+					Task.Columns.LOCKED + " = 1"));
+			assertEquals(0, DatabaseHandler.verifyTaskPositions(db).length);
+			// each search index was filled once, at the end
+			assertEquals(notes, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+					+ Task.FTS_TABLE_NAME + " WHERE " + Task.FTS_TABLE_NAME
+					+ " MATCH 'imported'", null));
+			// the last note of a list is on top, as if it was inserted last
+			final Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns.TITLE },
+					Task.Columns.DBLIST + " IS (SELECT MIN(" + Task.Columns.DBLIST + ") FROM "
+							+ Task.TABLE_NAME + ")", null, null, null,
+					Task.Columns.LEFT, "1");
+			assertTrue(c.moveToFirst());
+			assertEquals("legacy note " + notes, c.getString(0));
+			c.close();
+		} finally {
+			handler.close();
+			mContext.deleteDatabase(prefix + LegacyDBHelper.LEGACY_DATABASE_NAME);
+			mContext.deleteDatabase(prefix + DatabaseHandler.DATABASE_NAME);
+		}
+	}
+
+	/**
+	 * @return the bytes of the java heap in use
+	 */
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Opens the list like TaskListFragment, shows the first rows, and then scrolls to the
+	 * bottom, logging the time of the first rows, the slowest row and the peak heap
+	 */
+	private void scrollList(final String what, final Uri uri, final long listId) {
+		Runtime.getRuntime().gc();
+		final long heapBefore = usedHeap();
+		long peakHeap = heapBefore;
+		long start = SystemClock.elapsedRealtimeNanos();
+		final Cursor c = mResolver.query(uri, Task.Columns.FIELDS, Task.Columns.DBLIST + " = ?",
+				new String[] { Long.toString(listId) }, Task.Columns.LEFT);
+		assertNotNull(c);
+		final int count = c.getCount();
+		// about a screen of rows
+		for (int i = 0; i < 20 && c.moveToNext(); i++) {
+			c.getString(1);
+			c.getString(2);
+		}
+		final long firstFrameMs = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+
+		long slowestRowMs = 0;
+		while (true) {
+			start = SystemClock.elapsedRealtimeNanos();
+			if (!c.moveToNext()) break;
+			c.getString(1);
+			c.getString(2);
+			slowestRowMs = Math.max(slowestRowMs,
+					(SystemClock.elapsedRealtimeNanos() - start) / 1_000_000);
+			if (c.getPosition() % 1000 == 0) peakHeap = Math.max(peakHeap, usedHeap());
+		}
+		c.close();
+		NnnLogger.debug(DBBenchmarkTest.class, what + ": " + count + " rows, first rows in "
+				+ firstFrameMs + " ms, slowest row " + slowestRowMs + " ms, peak heap +"
+				+ (peakHeap - heapBefore) / 1024 + " KiB");
+	}
+
+	/**
+	 * A 100k task list, read all at once and a page at a time with {@link Task#URI_PAGED}
+	 */
+	@LargeTest
+	public void testPagedListOnLargeList() throws Exception {
+		final long listId = insertLists(1)[0];
+		final StringBuilder note = new StringBuilder();
+		for (int i = 0; i < 10; i++) note.append("A line of a note in a very long list\n");
+		final ContentValues[] values = new ContentValues[100_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(listId, i);
+			values[i].put(Task.Columns.NOTE, note.toString() + i);
+		}
+		final long start = SystemClock.elapsedRealtimeNanos();
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+		report("100k tasks bulkInsert", values.length, start);
+
+		scrollList("whole list", Task.URI, listId);
+		scrollList("paged list", Task.URI_PAGED, listId);
+	}
+
+	/**
+	 * Reads every row as a list does, counting the times the cursor window was filled
+	 */
+	private static void readWindowed(final String what, final SQLiteCursor c) {
+		final long startBytes = allocatedBytes();
+		final long start = SystemClock.elapsedRealtimeNanos();
+		int fills = 0;
+		int windowStart = -1;
+		while (c.moveToNext()) {
+			c.getString(1);
+			c.getString(2);
+			if (c.getWindow().getStartPosition() != windowStart) {
+				windowStart = c.getWindow().getStartPosition();
+				fills++;
+			}
+		}
+		final int rows = c.getCount();
+		c.close();
+		report(what + " (" + fills + " window fills)", rows, start);
+		NnnLogger.debug(DBBenchmarkTest.class, what + ": "
+				+ (allocatedBytes() - startBytes) / 1024 + " KiB allocated");
+	}
+
+	/**
+	 * A list of 2000 notes of about 10 KB, read with the whole notes and with
+	 * {@link Task.Columns#PREVIEW_FIELDS}
+	 */
+	@LargeTest
+	public void testPreviewOfLongNotes() throws Exception {
+		final long listId = insertLists(1)[0];
+		final StringBuilder note = new StringBuilder();
+		while (note.length() < 10 * 1024) note.append("A line of a long note in the list\n");
+		final ContentValues[] values = new ContentValues[2000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = newTaskValues(listId, i);
+			values[i].put(Task.Columns.NOTE, i + note.toString());
+		}
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getReadableDatabase();
+		final String where = Task.Columns.DBLIST + " = ?";
+		final String[] args = new String[] { Long.toString(listId) };
+		for (int i = 0; i < 3; i++) {
+			readWindowed("whole notes", (SQLiteCursor) db.query(Task.TABLE_NAME,
+					Task.Columns.FIELDS, where, args, null, null, Task.Columns.LEFT));
+			readWindowed("preview of notes", (SQLiteCursor) db.query(Task.TABLE_NAME,
+					Task.Columns.PREVIEW_FIELDS, where, args, null, null, Task.Columns.LEFT));
+		}
+	}
+
+	/**
+	 * A list of 2000 short notes and 10 notes of 5 MB, which are stored as blobs. Measures
+	 * writing the large notes, loading the list and reading one large note whole
+	 */
+	@LargeTest
+	public void testListWithHugeNotes() throws Exception {
+		final long listId = insertLists(1)[0];
+		final ContentValues[] values = new ContentValues[2000];
+		for (int i = 0; i < values.length; i++) values[i] = newTaskValues(listId, i);
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+
+		final Task[] huge = new Task[10];
+		long start = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < huge.length; i++) {
+			final StringBuilder note = new StringBuilder(i + " ");
+			for (int w = 0; note.length() < 5 * 1024 * 1024; w++) {
+				note.append("word").append(w).append(' ');
+			}
+			huge[i] = new Task();
+			huge[i].title = "huge note " + i;
+			huge[i].note = note.toString();
+			huge[i].dblist = listId;
+			huge[i].save(mContext);
+		}
+		report("5 MB notes saved", huge.length, start);
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getReadableDatabase();
+		NnnLogger.debug(DBBenchmarkTest.class, "database is " + usedBytes(db) / 1024 + " KiB");
+		final String where = Task.Columns.DBLIST + " = ?";
+		final String[] args = new String[] { Long.toString(listId) };
+		for (int i = 0; i < 3; i++) {
+			readWindowed("list with huge notes", (SQLiteCursor) db.query(Task.TABLE_NAME,
+					Task.Columns.PREVIEW_FIELDS, where, args, null, null, Task.Columns.LEFT));
+		}
+		scrollList("paged list with huge notes", Task.URI_PAGED, listId);
+
+		for (int i = 0; i < 3; i++) {
+			final Cursor c = mResolver.query(huge[i].getUri(), Task.Columns.FIELDS,
+					null, null, null);
+			assertNotNull(c);
+			assertTrue(c.moveToFirst());
+			final Task t = new Task(c);
+			c.close();
+			start = SystemClock.elapsedRealtimeNanos();
+			t.loadWholeNote(mResolver);
+			report("5 MB note read whole", 1, start);
+			assertEquals(huge[i].note, t.note);
+		}
+	}
+
+	/**
+	 * Completing and un-completing 10k tasks in 10 lists, with one update of "completed"
+	 * and with {@link Task#setCompletedSynced}, which writes them in chunks of arguments
+	 */
+	@LargeTest
+	public void testBatchCompletion() throws Exception {
+		final int rows = 10_000;
+		final long[] lists = insertLists(10);
+		final ContentValues[] values = new ContentValues[rows];
+		for (int i = 0; i < rows; i++) {
+			values[i] = newTaskValues(lists[i % lists.length], i);
+		}
+		mResolver.bulkInsert(Task.URI, values);
+
+		final Cursor c = mResolver.query(Task.URI, new String[] { Task.Columns._ID },
+				null, null, null);
+		assertNotNull(c);
+		final long[] ids = new long[c.getCount()];
+		final Long[] boxedIds = new Long[ids.length];
+		while (c.moveToNext()) {
+			ids[c.getPosition()] = c.getLong(0);
+			boxedIds[c.getPosition()] = c.getLong(0);
+		}
+		c.close();
+
+		final ContentValues completed = new ContentValues();
+		completed.put(Task.Columns.COMPLETED, System.currentTimeMillis());
+		completed.put(Task.Columns.UPDATED, System.currentTimeMillis());
+		long start = SystemClock.elapsedRealtimeNanos();
+		assertEquals(ids.length, mResolver.update(Task.URI, completed,
+				Task.Columns._ID + " IN (" + DAO.arrayToCommaString(ids) + ")", null));
+		report("complete, update of completed", ids.length, start);
+		assertEquals(ids.length, Task.setCompletedSynced(mContext, false, boxedIds));
+
+		for (int i = 0; i < 3; i++) {
+			start = SystemClock.elapsedRealtimeNanos();
+			assertEquals(ids.length, Task.setCompletedSynced(mContext, true, boxedIds));
+			report("complete, Task.setCompletedSynced", ids.length, start);
+			start = SystemClock.elapsedRealtimeNanos();
+			assertEquals(ids.length, Task.setCompletedSynced(mContext, false, boxedIds));
+			report("un-complete, Task.setCompletedSynced", ids.length, start);
+		}
+	}
+
+	/**
+	 * @return the latencies of searches for the words of {@link #insertSearchableTasks}, in
+	 * milliseconds, sorted
+	 */
+	private long[] measureSearches(final int times) {
+		final long[] latencies = new long[times];
+		for (int i = 0; i < times; i++) {
+			SearchIndex.invalidate();
+			final long start = SystemClock.elapsedRealtimeNanos();
+			final Cursor c = mResolver.query(Task.URI_SEARCH, null, null,
+					new String[] { "word" + (i * 37 % 2000) }, null);
+			assertNotNull(c);
+			c.getCount();
+			c.close();
+			latencies[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	/**
+	 * Query latency on a database that was used for a long time: 20k tasks whose notes were
+	 * edited one at a time, and then mostly deleted. Before and after
+	 * {@link DatabaseMaintenance#run}
+	 */
+	@LargeTest
+	public void testMaintenanceOnFragmentedDatabase() throws Exception {
+		final int rows = 20_000;
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		insertSearchableTasks(db, rows);
+		final long listId = DatabaseUtils.longForQuery(db, "SELECT MAX("
+				+ TaskList.Columns._ID + ") FROM " + TaskList.TABLE_NAME, null);
+
+		// each edit in its own transaction adds a segment to the search index
+		long start = SystemClock.elapsedRealtimeNanos();
+		final ContentValues values = new ContentValues();
+		for (int i = 0; i < 2000; i++) {
+			values.put(Task.Columns.NOTE, "edited word" + (i % 2000) + " word" + (i * 7 % 2000));
+			db.update(Task.TABLE_NAME, values, Task.Columns._ID + " IN (SELECT "
+					+ Task.Columns._ID + " FROM " + Task.TABLE_NAME + " LIMIT 1 OFFSET ?)",
+					new String[] { Integer.toString(i * 9) });
+		}
+		report("single edits", 2000, start);
+		db.delete(Task.TABLE_NAME, Task.Columns._ID + " % 4 != 0", null);
+		db.delete(Task.DELETE_TABLE_NAME, null, null);
+
+		final long[] listBefore = measureQueries(listId, 200, new AtomicBoolean());
+		final long[] searchBefore = measureSearches(200);
+
+		start = SystemClock.elapsedRealtimeNanos();
+		final DatabaseMaintenance.Stats stats = DatabaseMaintenance.run(db, Long.MAX_VALUE / 2,
+				null);
+		report("maintenance", (int) (stats.pagesBefore - stats.pagesAfter), start);
+		assertTrue(stats.finished);
+		NnnLogger.debug(DBBenchmarkTest.class, "maintenance: " + stats.getBytesBefore() / 1024
+				+ " kB with " + stats.freePagesBefore + " free pages, to "
+				+ stats.getBytesAfter() / 1024 + " kB");
+
+		final long[] listAfter = measureQueries(listId, 200, new AtomicBoolean());
+		final long[] searchAfter = measureSearches(200);
+		reportPercentiles("fragmented, drawer and list", listBefore);
+		reportPercentiles("maintained, drawer and list", listAfter);
+		reportPercentiles("fragmented, searches", searchBefore);
+		reportPercentiles("maintained, searches", searchAfter);
+	}
+}
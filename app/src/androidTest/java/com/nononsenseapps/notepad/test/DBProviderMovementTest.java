@@ -17,8 +17,6 @@ import com.nononsenseapps.notepad.database.TaskList;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Locale;
 import java.util.Random;
 
 public class DBProviderMovementTest extends TestCase {
@@ -69,7 +67,8 @@ public class DBProviderMovementTest extends TestCase {
 	}
 
 	private void assertTaskLeftRightAreSequential(final long listId) {
-		// Get ordered
+		// There are gaps between the positions, see Task.POSITION_GAP, so
+		// only their order can be checked. Get ordered
 		ArrayList<Task> tasks = getTasks(listId);
 		long prev = 0;
 		for (Task t : tasks) {
@@ -83,39 +82,21 @@ public class DBProviderMovementTest extends TestCase {
 				prev = t.left;
 			}
 		}
+	}
 
-		// Test maximum value
-		Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
-				Task.Columns.DBLIST + " IS ?",
-				new String[] { Long.toString(listId) }, Task.Columns.RIGHT + " DESC");
-		assertCursorGood(c);
-		HashSet<Long> positions = new HashSet<>();
-		if (c.getCount() > 0) {
-			// Right most will be twice the number of tasks
-			assertTrue(c.moveToFirst());
-			final Task last = new Task(c);
-
-			assertEquals(String.format(Locale.US, "%d != 2 * %d", last.right, c.getCount()),
-					(long) last.right, 2L * c.getCount());
-
-			// Make sure there are no duplicates and such
-			for (long i = 1; i <= c.getCount() * 2L; i++) {
-				positions.add(i);
-			}
-
-			positions.remove(last.left);
-			positions.remove(last.right);
-
-			while (c.moveToNext()) {
-				Task task = new Task(c);
-				positions.remove(task.left);
-				positions.remove(task.right);
+	/**
+	 * Tasks that are in both lists must have the same positions in both
+	 */
+	private void assertPositionsUnchanged(final ArrayList<Task> before,
+										  final ArrayList<Task> after) {
+		for (Task a : after) {
+			for (Task b : before) {
+				if (a._id == b._id) {
+					assertEquals("Left of an untouched task changed", b.left, a.left);
+					assertEquals("Right of an untouched task changed", b.right, a.right);
+				}
 			}
 		}
-		c.close();
-
-		assertEquals("Must be duplicate positions in the list", 0,
-				positions.size());
 	}
 
 	private TaskList insertList() {
@@ -248,13 +229,18 @@ public class DBProviderMovementTest extends TestCase {
 		final ArrayList<Task> newtasks = getTasks(tl._id);
 		Task newone = null;
 		Task newtarget = null;
+		int newIndex = -1;
+		int newTargetIndex = -1;
 
-		for (Task t : newtasks) {
+		for (int i = 0; i < newtasks.size(); i++) {
+			final Task t = newtasks.get(i);
 			if (t._id == movingTask._id) {
 				newone = t;
+				newIndex = i;
 			}
 			if (t._id == targetTask._id) {
 				newtarget = t;
+				newTargetIndex = i;
 			}
 		}
 		Log.d("nononsenseapps test", "old, target, new, newtarget: "
@@ -266,15 +252,19 @@ public class DBProviderMovementTest extends TestCase {
 		assertNotNull("Couldnt find the moved task", newone);
 
 		if (targetTask.left < movingTask.left) {
-			assertEquals("Left value does not equal target", targetTask.left,
-					newone.left);
-			assertEquals("Right value does not equal target left + 1",
-					targetTask.left + 1, (long) newone.right);
+			assertEquals("Task should be just before the target", newTargetIndex - 1,
+					newIndex);
 		} else if (targetTask.right > movingTask.right) {
-			assertEquals("Left value does not equal target right - 1",
-					targetTask.right - 1, (long) newone.left);
-			assertEquals("Right value does not equal target", targetTask.right,
-					newone.right);
+			assertEquals("Task should be just after the target", newTargetIndex + 1,
+					newIndex);
+		}
+
+		// All other tasks keep their order
+		oldtasks.remove(fromPos);
+		newtasks.remove(newIndex);
+		for (int i = 0; i < oldtasks.size(); i++) {
+			assertEquals("Order of other tasks changed", oldtasks.get(i)._id,
+					newtasks.get(i)._id);
 		}
 
 		assertEquals("Width should be 1 after a move", 1, newone.right
@@ -319,6 +309,21 @@ public class DBProviderMovementTest extends TestCase {
 		final TaskList tl = insertList();
 		ArrayList<Task> tasks = insertTasks(tl._id, 10);
 		assertTasksCountIs(tl._id, 10);
+
+		// Inserts and deletes only change the positions of the task itself
+		ArrayList<Task> before = getTasks(tl._id);
+		final Task newTask = new Task();
+		newTask.title = "On top";
+		newTask.dblist = tl._id;
+		newTask.setId(resolver.insert(Task.URI, newTask.getContent()));
+		assertEquals("New tasks go on top", newTask._id, getTasks(tl._id).get(0)._id);
+		assertTaskLeftRightAreSequential(tl._id);
+		assertPositionsUnchanged(before, getTasks(tl._id));
+		before = getTasks(tl._id);
+		deleteTask(tasks.remove(5));
+		assertPositionsUnchanged(before, getTasks(tl._id));
+		tasks.add(newTask);
+
 		deleteTasks(tasks);
 		assertTasksCountIs(tl._id, 0);
 		deleteList(tl);
@@ -419,6 +424,23 @@ public class DBProviderMovementTest extends TestCase {
 		deleteList(tl);
 	}
 
+	public void testMoveTaskUntilGapIsFull() {
+		final TaskList tl = insertList();
+		int count = 5;
+		insertTasks(tl._id, count);
+
+		// Each move halves the gap between the first two tasks, until the list is respaced
+		for (int i = 0; i < 40; i++) {
+			moveAndAssert(tl, count - 1, 1);
+		}
+		for (int i = 0; i < 40; i++) {
+			moveAndAssert(tl, 0, count - 2);
+		}
+
+		// Clean up
+		deleteList(tl);
+	}
+
 	public void testMoveTaskToList() {
 		final TaskList tl = insertList();
 		final TaskList tl2 = insertList();
@@ -626,6 +648,47 @@ public class DBProviderMovementTest extends TestCase {
 //	}
 
 
+	public void testMoveManyTasksToList() {
+		final TaskList tl = insertList();
+		final TaskList tl2 = insertList();
+		final TaskList tl3 = insertList();
+		int count = 10;
+		ArrayList<Task> tasks1 = insertTasks(tl._id, count);
+		ArrayList<Task> tasks2 = insertTasks(tl2._id, count);
+		insertTasks(tl3._id, count);
+
+		// every other task of the first list, and the first tasks of the second one
+		final long[] ids = new long[count / 2 + 3];
+		int n = 0;
+		for (int i = 0; i < count; i += 2) {
+			ids[n++] = tasks1.get(i)._id;
+		}
+		for (int i = 0; i < 3; i++) {
+			ids[n++] = tasks2.get(i)._id;
+		}
+		assertEquals(ids.length, Task.moveToList(resolver, tl3._id, ids));
+
+		assertTasksCountIs(tl._id, count - count / 2);
+		assertTasksCountIs(tl2._id, count - 3);
+		assertTasksCountIs(tl3._id, count + ids.length);
+		assertTaskLeftRightAreSequential(tl._id);
+		assertTaskLeftRightAreSequential(tl2._id);
+		assertTaskLeftRightAreSequential(tl3._id);
+
+		// Tasks already in the target list stay where they are
+		assertEquals(0, Task.moveToList(resolver, tl3._id, ids));
+		assertTaskLeftRightAreSequential(tl3._id);
+
+		// And a single task can still be moved by changing its list
+		moveTasksToList(tl, getTask(ids[0]));
+		assertTaskLeftRightAreSequential(tl3._id);
+
+		// Clean up
+		deleteList(tl);
+		deleteList(tl2);
+		deleteList(tl3);
+	}
+
 	public void testTaskContent() {
 		Task t = new Task();
 		t.title = "Hej";
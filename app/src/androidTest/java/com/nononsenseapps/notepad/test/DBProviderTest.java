@@ -1,26 +1,47 @@
 package com.nononsenseapps.notepad.test;
 
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.os.SystemClock;
 
 import androidx.preference.PreferenceManager;
+import androidx.test.filters.LargeTest;
 import androidx.test.filters.MediumTest;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.notepad.database.ChangeDispatcher;
 import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.DatabaseMaintenance;
+import com.nononsenseapps.notepad.database.NoteBlobs;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.ProviderProfiler;
+import com.nononsenseapps.notepad.database.SearchIndex;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TrashPurge;
 
 import junit.framework.TestCase;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DBProviderTest extends TestCase {
 
@@ -107,10 +128,9 @@ public class DBProviderTest extends TestCase {
 		assertUriReturnsResult(
 				Task.URI_SECTIONED_BY_DATE,
 				Task.Columns.FIELDS,
-				// see issue #525: on some android devices, "dblist" is a column of type BLOB,
-				// but we expect it to always be INTEGER. On older devices this cast is redundant,
-				// but on newer OS versions it fixes the bug when selecting notes by due date
-				"CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ?",
+				// see issue #525: the headers must have an INTEGER "dblist" too, or this
+				// returns only the tasks on newer android versions
+				Task.Columns.DBLIST + " = ?",
 				new String[] { Long.toString(list._id) },
 				taskCount + 1);
 
@@ -143,4 +163,893 @@ public class DBProviderTest extends TestCase {
 				Task.Columns.HISTORY_COLUMNS, Task.Columns.HIST_TASK_ID
 						+ " IS ?", new String[] { Long.toString(t._id) }, 0);
 	}
+
+	/**
+	 * @return the ids of the tasks, in order, and a "title due" line for each header
+	 */
+	private static List<String> readSectioned(final Cursor c, final Set<String> headers) {
+		final List<String> ids = new ArrayList<>();
+		while (c.moveToNext()) {
+			if (c.getLong(0) < 1) {
+				assertTrue(headers.add(c.getString(1) + " " + c.getString(4)));
+			} else {
+				ids.add(c.getString(0));
+			}
+		}
+		c.close();
+		return ids;
+	}
+
+	/**
+	 * {@link Task#URI_SECTIONED_BY_DATE} must return the same tasks and headers that the
+	 * UNION query returned, before it was replaced by SectionedDateCursor
+	 */
+	@MediumTest
+	public void testSectionedByDateHeaders() {
+		final TaskList list = getNewList();
+		final long day = 24 * 60 * 60 * 1000L;
+		final long now = Calendar.getInstance().getTimeInMillis();
+		final long[] dues = { now - 3 * day, now + day, now + 3 * day, now + 40 * day,
+				now + 500 * day, now + 900 * day };
+		for (int i = 0; i < dues.length + 2; i++) {
+			final Task t = new Task();
+			t.title = "sectioned" + i;
+			t.dblist = list._id;
+			if (i < dues.length) t.due = dues[i];
+			if (i == dues.length + 1) t.completed = now;
+			t.save(mContext);
+		}
+
+		final String where = Task.Columns.DBLIST + " = ?";
+		final String[] args = new String[] { Long.toString(list._id) };
+		final Set<String> headers = new HashSet<>();
+		final List<String> ids = readSectioned(mResolver.query(Task.URI_SECTIONED_BY_DATE,
+				Task.Columns.FIELDS, where, args, null), headers);
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getReadableDatabase();
+		final Set<String> unionHeaders = new HashSet<>();
+		final List<String> unionIds = readSectioned(db.query("("
+						+ Task.SECTIONED_DATE_QUERY(args[0]) + ")", Task.Columns.FIELDS, where,
+				args, null, null, Task.SECRET_TYPEID + "," + Task.Columns.DUE + ","
+						+ Task.SECRET_TYPEID2), unionHeaders);
+
+		assertEquals(dues.length + 2, ids.size());
+		assertEquals(unionIds, ids);
+		assertEquals(unionHeaders, headers);
+		assertTrue(headers.contains(Task.HEADER_KEY_NODATE + " null"));
+		assertTrue(headers.contains(Task.HEADER_KEY_COMPLETE + " 0"));
+
+		list.delete(mContext);
+	}
+
+	/**
+	 * @return the count of {@link TaskList#URI_WITH_COUNT} for the list, 0 if it is null
+	 */
+	private int getOpenCount(final TaskList list) {
+		final Cursor c = mResolver.query(TaskList.URI_WITH_COUNT,
+				new String[] { TaskList.Columns.VIEW_COUNT }, TaskList.Columns._ID + " = ?",
+				new String[] { Long.toString(list._id) }, null);
+		assertNotNull(c);
+		assertTrue(c.moveToFirst());
+		final int count = c.getInt(0);
+		c.close();
+		return count;
+	}
+
+	/**
+	 * The counts in the drawer come from a table kept up to date by triggers: they must
+	 * follow inserts, completions, moves and deletes
+	 */
+	@MediumTest
+	public void testListCountsFollowTasks() {
+		final TaskList list = getNewList();
+		final TaskList other = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 5);
+		assertEquals(5, getOpenCount(list));
+		assertEquals(0, getOpenCount(other));
+
+		Task.setCompletedSynced(mContext, true, tasks.get(0)._id);
+		assertEquals(4, getOpenCount(list));
+		Task.setCompletedSynced(mContext, false, tasks.get(0)._id);
+		assertEquals(5, getOpenCount(list));
+
+		Task.moveToList(mResolver, other._id, tasks.get(1)._id, tasks.get(2)._id);
+		assertEquals(3, getOpenCount(list));
+		assertEquals(2, getOpenCount(other));
+
+		tasks.get(3).delete(mContext);
+		assertEquals(2, getOpenCount(list));
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		assertEquals(0, DatabaseHandler.verifyListStats(db).length);
+		db.execSQL("UPDATE " + TaskList.STATS_TABLE_NAME + " SET "
+				+ TaskList.Columns.STATS_OPEN_COUNT + " = 99");
+		assertTrue(DatabaseHandler.verifyListStats(db).length >= 2);
+		DatabaseHandler.repairListStats(db);
+		assertEquals(0, DatabaseHandler.verifyListStats(db).length);
+		assertEquals(2, getOpenCount(list));
+		assertEquals(2, getOpenCount(other));
+
+		list.delete(mContext);
+		other.delete(mContext);
+	}
+
+	/**
+	 * Records the {@link Uri}s of each flush of the {@link ChangeDispatcher}
+	 */
+	private static final class FlushRecorder implements ChangeDispatcher.Listener {
+		final List<Set<Uri>> flushes = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void onChangesFlushed(Set<Uri> changed) {
+			flushes.add(changed);
+		}
+
+		/**
+		 * @return how many flushes reached an observer of {@code observed} and its
+		 * descendants, like the loader of a list
+		 */
+		int reached(final Uri observed) {
+			final String o = observed.toString();
+			int result = 0;
+			for (Set<Uri> changed : flushes) {
+				for (Uri u : changed) {
+					final String s = u.toString();
+					if (s.equals(o) || o.startsWith(s + "/") || s.startsWith(o + "/")) {
+						result++;
+						break;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Sends the pending notifications on the main thread, where the dispatcher runs, and
+	 * waits for its listeners
+	 */
+	private static void flushNotifications(final ChangeDispatcher dispatcher) {
+		InstrumentationRegistry.getInstrumentation().runOnMainSync(dispatcher::flush);
+		// the flush posted the calls to the listeners, they run before this
+		InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {});
+	}
+
+	/**
+	 * Checking many tasks one after the other must not notify the observers of the tasks
+	 * once for each of them
+	 */
+	@MediumTest
+	public void testNotificationsAreCollected() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 30);
+		final ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(mContext);
+		flushNotifications(dispatcher);
+
+		final FlushRecorder recorder = new FlushRecorder();
+		dispatcher.addListener(recorder);
+		final long requested = dispatcher.getRequestedCount();
+		final long delivered = dispatcher.getDeliveredCount();
+		final long flushes = dispatcher.getFlushCount();
+		for (Task t : tasks) {
+			Task.setCompletedSynced(mContext, true, t._id);
+		}
+		flushNotifications(dispatcher);
+		dispatcher.removeListener(recorder);
+
+		final long newFlushes = dispatcher.getFlushCount() - flushes;
+		final int reached = recorder.reached(Task.getListUri(list._id));
+		NnnLogger.debug(DBProviderTest.class, "30 updates: "
+				+ (dispatcher.getRequestedCount() - requested) + " notifications requested, "
+				+ (dispatcher.getDeliveredCount() - delivered) + " delivered in "
+				+ newFlushes + " flushes, " + reached + " reached the list");
+		assertTrue(dispatcher.getDeliveredCount() - delivered
+				< dispatcher.getRequestedCount() - requested);
+		assertTrue(reached > 0);
+		assertTrue(reached <= newFlushes);
+		assertTrue(reached < tasks.size());
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testWritesNotifyTheirListOnly() {
+		final TaskList listA = getNewList();
+		final TaskList listB = getNewList();
+		final List<Task> tasksA = insertSomeTasks(listA, 3);
+		insertSomeTasks(listB, 3);
+		final ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(mContext);
+		flushNotifications(dispatcher);
+
+		// The queries of TaskListFragment are notified on the uri of their list
+		final Cursor c = mResolver.query(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " = ?", new String[] { Long.toString(listA._id) },
+				null);
+		assertNotNull(c);
+		assertEquals(Task.getListUri(listA._id), c.getNotificationUri());
+		c.close();
+
+		final FlushRecorder recorder = new FlushRecorder();
+		dispatcher.addListener(recorder);
+
+		// editing a task of A
+		final Task task = tasksA.get(0);
+		task.title = "edited";
+		task.save(mContext);
+		flushNotifications(dispatcher);
+		assertTrue(recorder.reached(Task.getListUri(listA._id)) > 0);
+		assertEquals("Editing a task of list A loaded list B again", 0,
+				recorder.reached(Task.getListUri(listB._id)));
+
+		// moving a task changes both lists
+		recorder.flushes.clear();
+		Task.moveToList(mResolver, listB._id, task._id);
+		flushNotifications(dispatcher);
+		assertTrue(recorder.reached(Task.getListUri(listA._id)) > 0);
+		assertTrue(recorder.reached(Task.getListUri(listB._id)) > 0);
+
+		dispatcher.removeListener(recorder);
+		listA.delete(mContext);
+		listB.delete(mContext);
+	}
+
+	/**
+	 * @return the id of each version of the task's history, the oldest first
+	 */
+	private List<Long> getHistoryIds(final long taskId) {
+		final Cursor c = mResolver.query(Task.URI_TASK_HISTORY,
+				new String[] { Task.Columns._ID }, Task.Columns.HIST_TASK_ID + " IS ?",
+				new String[] { Long.toString(taskId) }, null);
+		assertNotNull(c);
+		final List<Long> ids = new ArrayList<>();
+		while (c.moveToNext()) {
+			ids.add(c.getLong(0));
+		}
+		c.close();
+		return ids;
+	}
+
+	@MediumTest
+	public void testHistoryDeltas() {
+		final TaskList list = getNewList();
+		final Task t = insertSomeTasks(list, 1).get(0);
+		final List<String> notes = new ArrayList<>();
+		notes.add(t.note);
+		final StringBuilder note = new StringBuilder("A long note.\n");
+		for (int i = 0; i < 40; i++) {
+			note.append("Line ").append(i).append(" \uD83D\uDE00\n");
+		}
+		for (int i = 0; i < 40; i++) {
+			// a small change in the middle, sometimes next to an emoji
+			int at = note.length() / 2 + i;
+			if (Character.isLowSurrogate(note.charAt(at))) at++;
+			note.insert(at, i % 2 == 0 ? "\uD83D\uDE00" : "x");
+			t.note = note.toString();
+			t.save(mContext);
+			notes.add(t.note);
+		}
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		assertTrue(TaskHistory.compact(db, t._id, 0, 0) > 0);
+		// nothing left to do
+		assertEquals(0, TaskHistory.compact(db, t._id, 0, 0));
+
+		List<Long> ids = getHistoryIds(t._id);
+		assertEquals(notes.size(), ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			final Cursor c = mResolver.query(Task.getHistoryVersionUri(ids.get(i)),
+					Task.Columns.HISTORY_COLUMNS_UPDATED, null, null, null);
+			assertNotNull(c);
+			assertTrue(c.moveToFirst());
+			assertEquals(t._id, c.getLong(0));
+			assertEquals("Version " + i, notes.get(i), c.getString(2));
+			c.close();
+		}
+
+		// keep the last 5 versions: they are still whole, or deltas of newer ones
+		TaskHistory.compact(db, t._id, 5, 0);
+		ids = getHistoryIds(t._id);
+		assertEquals(5, ids.size());
+		final Cursor c = mResolver.query(Task.getHistoryVersionUri(ids.get(0)),
+				Task.Columns.HISTORY_COLUMNS_UPDATED, null, null, null);
+		assertNotNull(c);
+		assertTrue(c.moveToFirst());
+		assertEquals(notes.get(notes.size() - 5), c.getString(2));
+		c.close();
+
+		list.delete(mContext);
+	}
+
+	/**
+	 * @return the ids of the tasks found, in order
+	 */
+	private List<Long> search(final Uri uri, final String query, final List<String> snippets) {
+		final Cursor c = mResolver.query(uri, null, null, new String[] { query }, null);
+		assertNotNull(c);
+		final List<Long> ids = new ArrayList<>();
+		while (c.moveToNext()) {
+			ids.add(c.getLong(c.getColumnIndexOrThrow(Task.Columns._ID)));
+			if (snippets != null) {
+				snippets.add(c.getString(c.getColumnIndexOrThrow(SearchIndex.COLUMN_SNIPPET)));
+			}
+		}
+		c.close();
+		return ids;
+	}
+
+	@MediumTest
+	public void testSearchRanksAndHighlights() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 3);
+		final Task inTitle = tasks.get(0);
+		inTitle.title = "grocery list";
+		inTitle.note = "milk";
+		inTitle.save(mContext);
+		final Task inNote = tasks.get(1);
+		inNote.title = "errands";
+		inNote.note = "buy the grocery items at the shop before going home tonight";
+		inNote.save(mContext);
+
+		// a word in the title counts more
+		final List<String> snippets = new ArrayList<>();
+		assertEquals(Arrays.asList(inTitle._id, inNote._id),
+				search(Task.URI_SEARCH, "grocer", snippets));
+		final List<Integer> ranges = new ArrayList<>();
+		final String text = SearchIndex.unmark(snippets.get(1), ranges);
+		assertEquals(2, ranges.size());
+		assertEquals("grocery", text.substring(ranges.get(0), ranges.get(1)));
+		assertFalse(text.contains(SearchIndex.MATCH_START));
+
+		// the triggers keep the index up to date
+		final Task other = tasks.get(2);
+		other.note = "grocery";
+		other.save(mContext);
+		assertEquals(3, search(Task.URI_SEARCH, "grocery", null).size());
+		inTitle.delete(mContext);
+		assertEquals(Arrays.asList(other._id, inNote._id),
+				search(Task.URI_SEARCH, "grocery", null));
+		assertEquals(Arrays.asList(inTitle._id), search(Task.URI_DELETED_QUERY, "grocery", null));
+		assertTrue(search(Task.URI_SEARCH, "milk", null).isEmpty());
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		SearchIndex.rebuild(db);
+		SearchIndex.optimize(db);
+		assertEquals(Arrays.asList(other._id, inNote._id),
+				search(Task.URI_SEARCH, "grocery", null));
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testSearchAsYouType() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 3);
+		tasks.get(0).note = "zebra pie";
+		tasks.get(1).note = "zeppelin jam";
+		tasks.get(2).note = "banana bread";
+		for (Task t : tasks) t.save(mContext);
+
+		// each key narrows the results of the one before
+		assertEquals(2, search(Task.URI_SEARCH, "ze", null).size());
+		assertEquals(Arrays.asList(tasks.get(0)._id), search(Task.URI_SEARCH, "zeb", null));
+		assertEquals(Arrays.asList(tasks.get(0)._id), search(Task.URI_SEARCH, "zebra", null));
+		assertTrue(search(Task.URI_SEARCH, "zebra j", null).isEmpty());
+		assertEquals(Arrays.asList(tasks.get(0)._id), search(Task.URI_SEARCH, "zebra p", null));
+
+		// but not after a change
+		tasks.get(2).note = "banana and zebra bread";
+		tasks.get(2).save(mContext);
+		assertEquals(2, search(Task.URI_SEARCH, "zebra", null).size());
+		assertEquals(1, search(Task.URI_SEARCH, "zebra b", null).size());
+
+		final CancellationSignal signal = new CancellationSignal();
+		signal.cancel();
+		try {
+			mResolver.query(Task.URI_SEARCH, null, null, new String[] { "zebra" }, null, signal);
+			fail("The search was not cancelled");
+		} catch (OperationCanceledException e) {
+			// expected
+		}
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testTrashPurge() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		db.delete(Task.DELETE_TABLE_NAME, null, null);
+		final TaskList list = getNewList();
+		for (Task t : insertSomeTasks(list, 10)) t.delete(mContext);
+		assertEquals(10, DatabaseUtils.queryNumEntries(db, Task.DELETE_TABLE_NAME));
+
+		// two of them were deleted long ago
+		db.execSQL("UPDATE " + Task.DELETE_TABLE_NAME + " SET " + Task.Columns.TRIG_DELETED
+				+ " = datetime('now', '-30 days') WHERE " + Task.Columns._ID + " IN (SELECT "
+				+ Task.Columns._ID + " FROM " + Task.DELETE_TABLE_NAME + " LIMIT 2)");
+		TrashPurge.Stats stats = TrashPurge.purge(db, 0, 7);
+		assertEquals(2, stats.purged);
+		assertEquals(8, stats.remaining);
+
+		stats = TrashPurge.purge(db, 3, 0);
+		assertEquals(5, stats.purged);
+		assertEquals(3, stats.remaining);
+		// the search index lost them too
+		assertEquals(3, search(Task.URI_DELETED_QUERY, "testNote", null).size());
+		assertEquals(0, TrashPurge.purge(db, 3, 7).purged);
+
+		list.delete(mContext);
+	}
+
+	/**
+	 * @return the views of the database, and the temporary ones of a connection
+	 */
+	private static long countViews(final SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "SELECT (SELECT COUNT(*) FROM sqlite_master"
+				+ " WHERE type = 'view') + (SELECT COUNT(*) FROM sqlite_temp_master"
+				+ " WHERE type = 'view')", null);
+	}
+
+	/**
+	 * Opening a list must not create views, which only the connection that made them could
+	 * read. Each list is opened in all the ways the app reads it
+	 */
+	@MediumTest
+	public void testOpeningListsCreatesNoViews() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		final long before = countViews(db);
+		final List<TaskList> lists = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			final TaskList list = getNewList();
+			insertSomeTasks(list, 2);
+			lists.add(list);
+		}
+
+		final String where = Task.Columns.DBLIST + " = ?";
+		for (TaskList list : lists) {
+			final String[] args = new String[] { Long.toString(list._id) };
+			assertUriReturnsResult(Task.URI, Task.Columns.FIELDS, where, args, 2);
+			assertUriReturnsResult(Task.URI_SECTIONED_BY_DATE, Task.Columns.FIELDS, where,
+					args, -1);
+			assertUriReturnsResult(Notification.URI_WITH_TASK_PATH, null,
+					Notification.ColumnsWithTask.taskPrefix + Task.Columns.DBLIST + " = ?",
+					args, 0);
+		}
+		assertUriReturnsResult(TaskList.URI_WITH_COUNT, TaskList.Columns.FIELDS);
+		assertEquals(before, countViews(db));
+
+		for (TaskList list : lists) list.delete(mContext);
+	}
+
+	/**
+	 * @return the ids of the cursor, read in the given order of positions
+	 */
+	private static List<Long> readIds(final Cursor c, final int[] positions) {
+		assertNotNull(c);
+		final List<Long> ids = new ArrayList<>();
+		for (int position : positions) {
+			assertTrue(c.moveToPosition(position));
+			ids.add(c.getLong(0));
+		}
+		c.close();
+		return ids;
+	}
+
+	/**
+	 * A list of several pages gives the same rows as the plain query in every sort order of
+	 * the list, also when positions are read out of order, pages are released, and the list
+	 * changes after the cursor was opened
+	 */
+	@MediumTest
+	public void testPagedTasks() {
+		final TaskList list = getNewList();
+		final ContentValues[] values = new ContentValues[1000];
+		for (int i = 0; i < values.length; i++) {
+			final Task t = new Task();
+			// repeated titles and dates, some of them null, so that the ids break the ties
+			t.title = "paged" + (i % 7 == 0 ? "A" : "a") + (i % 37);
+			t.dblist = list._id;
+			t.due = i % 3 == 0 ? null : 1_000_000L * (i % 11);
+			values[i] = t.getContent();
+			if (i % 5 == 0) {
+				values[i].putNull(Task.Columns.UPDATED);
+			} else {
+				values[i].put(Task.Columns.UPDATED, (long) (i % 13));
+			}
+		}
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+
+		// forward, backward, and jumping over pages
+		final int[] positions = new int[3 * values.length];
+		for (int i = 0; i < values.length; i++) {
+			positions[i] = i;
+			positions[values.length + i] = values.length - 1 - i;
+			positions[2 * values.length + i] = (i * 389) % values.length;
+		}
+		final String where = Task.Columns.DBLIST + " = ?";
+		final String[] args = new String[] { Long.toString(list._id) };
+		for (String order : new String[] { Task.Columns.LEFT, Task.Columns.UPDATED + " DESC",
+				Task.Columns.TITLE + " COLLATE NOCASE", Task.Columns.DUE,
+				Task.Columns.DUE + " DESC" }) {
+			final String ties = order.endsWith("DESC") ? " DESC" : "";
+			final List<Long> expected = readIds(mResolver.query(Task.URI, Task.Columns.FIELDS,
+					where, args, order + "," + Task.Columns._ID + ties), positions);
+			final Cursor paged = mResolver.query(Task.URI_PAGED, Task.Columns.FIELDS, where,
+					args, order);
+			assertEquals(values.length, paged.getCount());
+			assertEquals(order, expected, readIds(paged, positions));
+		}
+
+		// the count and the order are those of the moment it was opened, even when tasks
+		// are deleted or added before the other pages are read
+		final List<Long> expected = readIds(mResolver.query(Task.URI, Task.Columns.FIELDS,
+				where, args, Task.Columns.LEFT), positions);
+		final Cursor paged = mResolver.query(Task.URI_PAGED, Task.Columns.FIELDS, where, args,
+				Task.Columns.LEFT);
+		assertTrue(mResolver.delete(Task.URI, where + " AND " + Task.Columns._ID + " % 2 = 0",
+				args) > 0);
+		insertSomeTasks(list, 3);
+		assertEquals(values.length, paged.getCount());
+		assertEquals(expected, readIds(paged, positions));
+
+		list.delete(mContext);
+	}
+
+	/**
+	 * List cursors have the start of long notes, and tell that they were cut. The search
+	 * still finds words in the part of the note that is left out
+	 */
+	@MediumTest
+	public void testPreviewFields() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 2);
+		final StringBuilder longNote = new StringBuilder("zebra ");
+		while (longNote.length() < Task.Columns.PREVIEW_LENGTH) longNote.append("stripes ");
+		longNote.append("jam");
+		final Task longTask = tasks.get(0);
+		longTask.note = longNote.toString();
+		longTask.save(mContext);
+		final Task shortTask = tasks.get(1);
+
+		final String where = Task.Columns.DBLIST + " = ?";
+		final String[] args = new String[] { Long.toString(list._id) };
+		for (Uri uri : new Uri[] { Task.URI, Task.URI_PAGED, Task.URI_SECTIONED_BY_DATE }) {
+			final Cursor c = mResolver.query(uri, Task.Columns.PREVIEW_FIELDS, where, args,
+					null);
+			assertNotNull(c);
+			final int noteCol = c.getColumnIndexOrThrow(Task.Columns.NOTE);
+			final int hasMoreCol = c.getColumnIndexOrThrow(Task.Columns.NOTE_HAS_MORE);
+			int found = 0;
+			while (c.moveToNext()) {
+				if (c.getLong(0) == longTask._id) {
+					assertEquals(uri.toString(),
+							longTask.note.substring(0, Task.Columns.PREVIEW_LENGTH),
+							c.getString(noteCol));
+					assertEquals(1, c.getInt(hasMoreCol));
+					found++;
+				} else if (c.getLong(0) == shortTask._id) {
+					assertEquals(shortTask.note, c.getString(noteCol));
+					assertEquals(0, c.getInt(hasMoreCol));
+					found++;
+				}
+			}
+			c.close();
+			assertEquals(uri.toString(), 2, found);
+		}
+
+		// the task by itself has all of the note
+		final Cursor c = mResolver.query(Task.getUri(longTask._id), Task.Columns.FIELDS,
+				null, null, null);
+		assertNotNull(c);
+		assertTrue(c.moveToFirst());
+		assertEquals(longTask.note, new Task(c).note);
+		c.close();
+
+		// the word after the preview is not missed when the results are narrowed
+		assertEquals(Arrays.asList(longTask._id), search(Task.URI_SEARCH, "zebra", null));
+		assertEquals(Arrays.asList(longTask._id), search(Task.URI_SEARCH, "zebra j", null));
+
+		list.delete(mContext);
+	}
+
+	/**
+	 * @return a note of many different words, ending with the given one
+	 */
+	static String hugeNote(final int length, final String lastWord) {
+		final StringBuilder note = new StringBuilder(length + lastWord.length());
+		for (int i = 0; note.length() < length; i++) note.append("word").append(i).append(' ');
+		return note.append(lastWord).toString();
+	}
+
+	private Task readTask(final long id) {
+		final Cursor c = mResolver.query(Task.getUri(id), Task.Columns.FIELDS, null, null, null);
+		assertNotNull(c);
+		assertTrue(c.moveToFirst());
+		final Task t = new Task(c);
+		c.close();
+		return t;
+	}
+
+	@LargeTest
+	public void testLargeNotes() throws IOException {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		final TaskList list = getNewList();
+		final String huge = hugeNote(5 * 1024 * 1024, "aardvark");
+		final Task t = new Task();
+		t.title = "huge";
+		t.note = huge;
+		t.dblist = list._id;
+		t.save(mContext);
+
+		// the task table has only the start of it
+		final Task read = readTask(t._id);
+		assertNotNull(read.noteBlob);
+		assertTrue(read.note.length() <= Task.Columns.PREVIEW_LENGTH);
+		assertTrue(huge.startsWith(read.note));
+		read.loadWholeNote(mResolver);
+		assertEquals(huge, read.note);
+		assertNull(read.noteBlob);
+
+		// saving the start again keeps the rest
+		final Task completed = readTask(t._id);
+		completed.completed = Calendar.getInstance().getTimeInMillis();
+		completed.save(mContext);
+		completed.loadWholeNote(mResolver);
+		assertEquals(huge, completed.note);
+
+		// the search reads the whole note
+		assertEquals(Arrays.asList(t._id), search(Task.URI_SEARCH, "aardvark", null));
+
+		// the same note is stored once
+		final Task copy = new Task();
+		copy.title = "copy";
+		copy.note = huge;
+		copy.dblist = list._id;
+		copy.save(mContext);
+		assertEquals(1, DatabaseUtils.queryNumEntries(db, NoteBlobs.BLOB_TABLE_NAME));
+		assertEquals(2, search(Task.URI_SEARCH, "aardvark", null).size());
+
+		// a short note drops it
+		copy.note = "short";
+		copy.save(mContext);
+		assertNull(readTask(copy._id).noteBlob);
+		assertEquals("short", readTask(copy._id).note);
+		assertEquals(Arrays.asList(t._id), search(Task.URI_SEARCH, "aardvark", null));
+
+		// a note that can't be read to the end is not taken for the whole note
+		db.delete(NoteBlobs.CHUNK_TABLE_NAME, "seq = (SELECT max(seq) FROM "
+				+ NoteBlobs.CHUNK_TABLE_NAME + ")", null);
+		final Task truncated = readTask(t._id);
+		try {
+			truncated.loadWholeNote(mResolver);
+			fail("Read a note without its last chunk");
+		} catch (IOException e) {
+			assertNotNull(truncated.noteBlob);
+		}
+
+		// the deleted task still has it, until it's purged
+		assertEquals(0, NoteBlobs.collectGarbage(db));
+		t.delete(mContext);
+		assertEquals(0, NoteBlobs.collectGarbage(db));
+		db.delete(Task.DELETE_TABLE_NAME, null, null);
+		assertEquals(1, NoteBlobs.collectGarbage(db));
+		assertEquals(0, DatabaseUtils.queryNumEntries(db, NoteBlobs.CHUNK_TABLE_NAME));
+		assertEquals(0, search(Task.URI_SEARCH, "aardvark", null).size());
+
+		list.delete(mContext);
+	}
+
+	/**
+	 * An edit past the start of a large note is a new version in the history, which keeps
+	 * the blob of the older one
+	 */
+	@LargeTest
+	public void testLargeNoteHistory() throws IOException {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		final TaskList list = getNewList();
+		final String first = hugeNote(2 * NoteBlobs.THRESHOLD, "first");
+		final Task t = new Task();
+		t.title = "history";
+		t.note = first;
+		t.dblist = list._id;
+		t.save(mContext);
+		// the same start, another end
+		t.note = first + " second";
+		t.save(mContext);
+
+		final List<Long> ids = getHistoryIds(t._id);
+		assertEquals(2, ids.size());
+		final Cursor c = mResolver.query(Task.getHistoryVersionUri(ids.get(0)),
+				Task.Columns.HISTORY_COLUMNS_UPDATED, null, null, null);
+		assertNotNull(c);
+		assertTrue(c.moveToFirst());
+		final Task version = new Task();
+		version.note = c.getString(2);
+		assertFalse(c.isNull(4));
+		version.noteBlob = c.getLong(4);
+		c.close();
+		assertTrue(first.startsWith(version.note));
+
+		// no task refers to it, but the version does
+		NoteBlobs.collectGarbage(db);
+		version.loadWholeNote(mResolver);
+		assertEquals(first, version.note);
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testBatchCompletion() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getReadableDatabase();
+		final TaskList listA = getNewList();
+		final TaskList listB = getNewList();
+		// more than SQLite takes as arguments of one statement
+		final ContentValues[] values = new ContentValues[1200];
+		for (int i = 0; i < values.length; i++) {
+			final Task t = new Task();
+			t.title = "batch " + i;
+			t.dblist = listA._id;
+			values[i] = t.getContent();
+		}
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+		insertSomeTasks(listB, 3);
+		final Long[] ids = new Long[values.length];
+		final Cursor c = mResolver.query(Task.URI, new String[] { Task.Columns._ID },
+				Task.Columns.DBLIST + " = ?", new String[] { Long.toString(listA._id) }, null);
+		assertNotNull(c);
+		while (c.moveToNext()) ids[c.getPosition()] = c.getLong(0);
+		c.close();
+		final long versions = DatabaseUtils.queryNumEntries(db, Task.HISTORY_TABLE_NAME);
+
+		final ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(mContext);
+		flushNotifications(dispatcher);
+		final FlushRecorder recorder = new FlushRecorder();
+		dispatcher.addListener(recorder);
+
+		assertEquals(ids.length, Task.setCompletedSynced(mContext, true, ids));
+		flushNotifications(dispatcher);
+		dispatcher.removeListener(recorder);
+		assertTrue(recorder.reached(Task.getListUri(listA._id)) > 0);
+		assertEquals("Completing tasks of list A loaded list B again", 0,
+				recorder.reached(Task.getListUri(listB._id)));
+		assertEquals(0, getOpenCount(listA));
+		assertEquals(3, getOpenCount(listB));
+		// no new versions for the completion
+		assertEquals(versions, DatabaseUtils.queryNumEntries(db, Task.HISTORY_TABLE_NAME));
+
+		// those already completed are skipped
+		assertEquals(0, Task.setCompletedSynced(mContext, true, ids));
+		assertEquals(ids.length, Task.setCompletedSynced(mContext, false, ids));
+		assertEquals(ids.length, getOpenCount(listA));
+
+		listA.delete(mContext);
+		listB.delete(mContext);
+	}
+
+	/**
+	 * Deletes the tasks of the list whose id is not a multiple of the given one, and then
+	 * removes them from the archive
+	 */
+	private void deleteMostTasks(final SQLiteDatabase db, final TaskList list,
+								 final int keepMultiplesOf) {
+		assertTrue(mResolver.delete(Task.URI, Task.Columns.DBLIST + " = ? AND "
+						+ Task.Columns._ID + " % " + keepMultiplesOf + " != 0",
+				new String[] { Long.toString(list._id) }) > 0);
+		db.delete(Task.DELETE_TABLE_NAME, null, null);
+	}
+
+	@MediumTest
+	public void testDatabaseMaintenance() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(mContext).getWritableDatabase();
+		final TaskList list = getNewList();
+		final StringBuilder note = new StringBuilder();
+		while (note.length() < 1024) note.append("a note to fill the pages ");
+		final ContentValues[] values = new ContentValues[2000];
+		for (int i = 0; i < values.length; i++) {
+			final Task t = new Task();
+			t.title = "maintenance " + i;
+			t.note = note.toString() + i;
+			t.dblist = list._id;
+			values[i] = t.getContent();
+		}
+		assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+		deleteMostTasks(db, list, 4);
+
+		// without time, nothing is done
+		DatabaseMaintenance.Stats stats = DatabaseMaintenance.run(db, 0, null);
+		assertFalse(stats.finished);
+		assertEquals(stats.pagesBefore, stats.pagesAfter);
+
+		// the first run turns on the incremental vacuum
+		stats = DatabaseMaintenance.run(db, 60_000, null);
+		assertTrue(stats.finished);
+		assertTrue(stats.freePagesBefore > 0);
+		assertEquals(0, stats.freePagesAfter);
+		assertTrue(stats.pagesAfter < stats.pagesBefore);
+		assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+		assertTrue(DatabaseUtils.queryNumEntries(db, "sqlite_stat1") > 0);
+
+		// which frees the pages of the next runs
+		deleteMostTasks(db, list, 16);
+		stats = DatabaseMaintenance.run(db, 60_000, null);
+		assertTrue(stats.finished);
+		assertTrue(stats.freePagesBefore > 0);
+		assertEquals(0, stats.freePagesAfter);
+		assertTrue(stats.pagesAfter < stats.pagesBefore);
+
+		// the merged index still finds the tasks
+		assertEquals(values.length / 16, search(Task.URI_SEARCH, "maintenance", null).size());
+
+		list.delete(mContext);
+	}
+
+	private static ProviderProfiler.OpStats findStats(final String op, final int code) {
+		for (ProviderProfiler.OpStats s : ProviderProfiler.getStats()) {
+			if (s.op.equals(op) && s.code == code) return s;
+		}
+		return null;
+	}
+
+	@MediumTest
+	public void testProviderProfiler() throws JSONException {
+		ProviderProfiler.clear();
+		ProviderProfiler.setEnabled(true);
+		ProviderProfiler.setSlowQueryMs(0);
+		try {
+			final TaskList list = getNewList();
+			insertSomeTasks(list, 150);
+			final Cursor c = mResolver.query(Task.URI, Task.Columns.FIELDS,
+					Task.Columns.DBLIST + " = ?", new String[] { Long.toString(list._id) },
+					null);
+			assertNotNull(c);
+			c.close();
+			// each task is copied to the archive by a trigger
+			assertEquals(150, mResolver.delete(Task.URI, Task.Columns.DBLIST + " = ?",
+					new String[] { Long.toString(list._id) }));
+
+			final ProviderProfiler.OpStats inserts =
+					findStats(ProviderProfiler.OP_INSERT, Task.BASEURICODE);
+			assertNotNull(inserts);
+			assertEquals(150, inserts.count);
+			assertEquals(150, inserts.rows);
+			final ProviderProfiler.OpStats queries =
+					findStats(ProviderProfiler.OP_QUERY, Task.BASEURICODE);
+			assertNotNull(queries);
+			assertTrue(queries.rows >= 150);
+			final ProviderProfiler.OpStats deletes =
+					findStats(ProviderProfiler.OP_DELETE, Task.BASEURICODE);
+			assertNotNull(deletes);
+			assertTrue(deletes.triggerChanges >= 150);
+
+			// every query is slow now, and explained. The delete changed many rows
+			boolean explained = false;
+			boolean triggerHeavy = false;
+			for (ProviderProfiler.LogEntry e : ProviderProfiler.getLog()) {
+				if (ProviderProfiler.OP_QUERY.equals(e.op) && Task.URI.equals(e.uri)) {
+					assertNotNull(e.sql);
+					explained = !e.plan.isEmpty();
+				} else if (ProviderProfiler.OP_DELETE.equals(e.op)) {
+					triggerHeavy = e.triggerChanges >= 150;
+				}
+			}
+			assertTrue(explained);
+			assertTrue(triggerHeavy);
+			assertTrue(ProviderProfiler.getLog().size() <= ProviderProfiler.MAX_LOG_ENTRIES);
+
+			final JSONObject json = new JSONObject(ProviderProfiler.toJson());
+			assertEquals(ProviderProfiler.getStats().size(),
+					json.getJSONArray("operations").length());
+
+			// nothing is recorded when it's off
+			ProviderProfiler.setEnabled(false);
+			mResolver.query(Task.URI, null, null, null, null).close();
+			assertEquals(queries.count,
+					findStats(ProviderProfiler.OP_QUERY, Task.BASEURICODE).count);
+
+			list.delete(mContext);
+		} finally {
+			ProviderProfiler.setEnabled(false);
+			ProviderProfiler.setSlowQueryMs(100);
+			ProviderProfiler.clear();
+		}
+	}
 }
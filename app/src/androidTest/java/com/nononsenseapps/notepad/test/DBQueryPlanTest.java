@@ -0,0 +1,177 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.PagedTaskCursor;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.SearchIndex;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.fragments.TaskListFragment;
+
+import junit.framework.TestCase;
+
+import java.util.regex.Pattern;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the queries made by the provider find their rows
+ * through an index, instead of reading the whole table
+ */
+public class DBQueryPlanTest extends TestCase {
+
+	static final String PREFIX = "queryplan_test_";
+
+	/**
+	 * A line of the query plan that reads all rows of one of the big tables. For example
+	 * "SCAN TABLE task" or "SCAN task AS t", but not "SCAN task USING INDEX ..."
+	 */
+	private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?("
+			+ Task.TABLE_NAME + "|" + Task.HISTORY_TABLE_NAME + "|"
+			+ Notification.TABLE_NAME + "|" + RemoteTask.TABLE_NAME + ")( AS \\w+)?$");
+
+	private Context context;
+	private SQLiteDatabase db;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		db = new DatabaseHandler(context, PREFIX).getWritableDatabase();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		db.close();
+		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	private static String select(final String table, final String[] columns,
+								 final String where, final String orderBy) {
+		return SQLiteQueryBuilder.buildQueryString(false, table, columns, where,
+				null, null, orderBy, null);
+	}
+
+	private static String subquery(final String select, final String name) {
+		return "(" + select + ") AS " + name;
+	}
+
+	private void assertUsesIndexes(final String sql, final String... args) {
+		final Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+		final int detailCol = c.getColumnIndexOrThrow("detail");
+		final StringBuilder plan = new StringBuilder();
+		String fullScan = null;
+		while (c.moveToNext()) {
+			final String detail = c.getString(detailCol);
+			plan.append(detail).append('\n');
+			if (fullScan == null && FULL_SCAN.matcher(detail).matches()) {
+				fullScan = detail;
+			}
+		}
+		c.close();
+		assertNull("Full table scan (" + fullScan + ") in the plan of:\n" + sql
+				+ "\n" + plan, fullScan);
+	}
+
+	/**
+	 * Checks the two queries of a {@link PagedTaskCursor}: the one of the ids, in order, when
+	 * it is opened, and the one of a page of rows by id
+	 */
+	private void assertPagedUsesIndexes(final String where, final String sortOrder,
+										final String... args) {
+		final String idOrder = PagedTaskCursor.idOrderBy(sortOrder);
+		assertNotNull("Sort order can't be paged: " + sortOrder, idOrder);
+		assertUsesIndexes(select(Task.TABLE_NAME, new String[] { Task.Columns._ID }, where,
+				idOrder), args);
+
+		final String[] ids = new String[PagedTaskCursor.PAGE_SIZE];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = Integer.toString(i + 1);
+		}
+		assertUsesIndexes(select(Task.TABLE_NAME, Task.Columns.FIELDS,
+				PagedTaskCursor.whereIdIn(ids.length), null), ids);
+	}
+
+	@SmallTest
+	public void testTaskQueriesUseIndexes() {
+		// Task.PAGEDQUERYCODE, a list in each sort order of TaskListFragment
+		final String inList = Task.Columns.DBLIST + " = ?";
+		assertPagedUsesIndexes(inList, Task.Columns.LEFT, "1");
+		assertPagedUsesIndexes(inList, Task.Columns.UPDATED + " DESC", "1");
+		assertPagedUsesIndexes(inList,
+				context.getString(R.string.const_as_alphabetic, Task.Columns.TITLE), "1");
+		// Task.PAGEDQUERYCODE, the "overdue", "today" and "week" lists. The list of all
+		// tasks has no selection: it reads every task
+		final String notCompleted = Task.Columns.COMPLETED + " IS NULL";
+		assertPagedUsesIndexes(notCompleted + TaskListFragment.andWhereOverdue(),
+				Task.Columns.DUE);
+		assertPagedUsesIndexes(notCompleted + TaskListFragment.andWhereToday(),
+				Task.Columns.DUE);
+		assertPagedUsesIndexes(notCompleted + TaskListFragment.andWhereWeek(),
+				Task.Columns.DUE);
+		// Task.SECTIONEDDATEQUERYCODE, as loaded by TaskListFragment and the widgets
+		// through SectionedDateCursor: its ORDER BY needs a sort, the WHERE must not
+		assertUsesIndexes(select(Task.TABLE_NAME, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " = ?", Task.Columns.COMPLETED + "," + Task.Columns.DUE),
+				"1");
+		// Task.SMARTCOUNTSCODE, as loaded by the drawer
+		assertUsesIndexes(Task.SMART_COUNTS_QUERY);
+		// Task.BASEITEMCODE
+		assertUsesIndexes(select(Task.TABLE_NAME, Task.Columns.FIELDS,
+				Task.whereIdIs(null), null), "1");
+		// Task.HISTORYQUERYCODE
+		assertUsesIndexes(select(Task.HISTORY_TABLE_NAME, Task.Columns.HISTORY_COLUMNS,
+				Task.Columns.HIST_TASK_ID + " IS ?", Task.Columns.UPDATED + " ASC"), "1");
+		// Task.SEARCHCODE
+		assertUsesIndexes(SearchIndex.SEARCH_QUERY, "'a*'");
+		assertUsesIndexes(SearchIndex.SEARCH_QUERY + " ORDER BY " + Task.Columns.DUE, "'a*'");
+	}
+
+	@SmallTest
+	public void testListQueriesUseIndexes() {
+		// TaskList.VIEWCOUNTCODE, as loaded by the drawer
+		assertUsesIndexes(select(subquery(TaskList.COUNT_QUERY, TaskList.VIEWCOUNT_NAME),
+				null, null, TaskList.Columns.TITLE));
+	}
+
+	@SmallTest
+	public void testNotificationQueriesUseIndexes() {
+		final String joined = subquery(Notification.JOINED_QUERY,
+				Notification.WITH_TASK_VIEW_NAME);
+		// Notification.WITHTASKQUERYCODE, when scheduling the next reminder
+		assertUsesIndexes(select(joined, null, Notification.Columns.TIME + " <= ? AND "
+				+ Notification.Columns.RADIUS + " IS NULL", Notification.Columns.TIME), "1");
+		// Notification.WITHTASKQUERYCODE, reminders of a task
+		assertUsesIndexes(select(joined, null, Notification.Columns.TASKID + " IS ?",
+				Notification.Columns.TIME), "1");
+		// Notification.BASEURICODE, when deleting the reminders of a task
+		assertUsesIndexes(select(Notification.TABLE_NAME, Notification.Columns.FIELDS,
+				Notification.Columns.TASKID + " IN (1,2,3)", null));
+	}
+
+	@SmallTest
+	public void testRemoteQueriesUseIndexes() {
+		// RemoteTask.BASEURICODE, as used by DBSyncBase
+		assertUsesIndexes(select(RemoteTask.TABLE_NAME, RemoteTask.Columns.FIELDS,
+						RemoteTask.Columns.SERVICE + " IS ? AND "
+								+ RemoteTask.Columns.ACCOUNT + " IS ? AND "
+								+ RemoteTask.Columns.LISTDBID + " IS ? AND "
+								+ RemoteTask.Columns.DBID + " > 0", null),
+				"service", "account", "1");
+		assertUsesIndexes(select(RemoteTask.TABLE_NAME, RemoteTask.Columns.FIELDS,
+				RemoteTask.Columns.DBID + " IS ?", null), "1");
+	}
+}
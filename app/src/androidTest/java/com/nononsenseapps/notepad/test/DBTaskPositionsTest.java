@@ -0,0 +1,128 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Tests {@link DatabaseHandler#verifyTaskPositions} and
+ * {@link DatabaseHandler#repairTaskPositions}, on a separate database
+ */
+public class DBTaskPositionsTest extends TestCase {
+
+	static final String PREFIX = "positions_test_";
+
+	private Context context;
+	private SQLiteDatabase db;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		db = new DatabaseHandler(context, PREFIX).getWritableDatabase();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		db.close();
+		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	private long insertList(final int taskCount) {
+		final ContentValues list = new ContentValues();
+		list.put(TaskList.Columns.TITLE, "positions");
+		final long listId = db.insert(TaskList.TABLE_NAME, null, list);
+		for (int i = 0; i < taskCount; i++) {
+			final ContentValues task = new ContentValues();
+			task.put(Task.Columns.TITLE, "task " + i);
+			task.put(Task.Columns.DBLIST, listId);
+			db.insert(Task.TABLE_NAME, null, task);
+		}
+		return listId;
+	}
+
+	private ArrayList<Long> getIdsInOrder(final long listId) {
+		final Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns._ID },
+				Task.Columns.DBLIST + " = ?", new String[] { Long.toString(listId) },
+				null, null, Task.Columns.LEFT);
+		final ArrayList<Long> ids = new ArrayList<>();
+		while (c.moveToNext()) {
+			ids.add(c.getLong(0));
+		}
+		c.close();
+		return ids;
+	}
+
+	private void setPositions(final long taskId, final long left, final long right) {
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.LEFT, left);
+		values.put(Task.Columns.RIGHT, right);
+		assertEquals(1, db.update(Task.TABLE_NAME, values, Task.Columns._ID + " = ?",
+				new String[] { Long.toString(taskId) }));
+	}
+
+	private long getLeft(final long taskId) {
+		final Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns.LEFT },
+				Task.Columns._ID + " = ?", new String[] { Long.toString(taskId) },
+				null, null, null);
+		assertTrue(c.moveToFirst());
+		final long left = c.getLong(0);
+		c.close();
+		return left;
+	}
+
+	@SmallTest
+	public void testNewDatabaseIsValid() {
+		insertList(10);
+		assertEquals(0, DatabaseHandler.verifyTaskPositions(db).length);
+		assertEquals(0, DatabaseHandler.repairTaskPositions(db));
+	}
+
+	@SmallTest
+	public void testRepairDuplicateAndOverlappingPositions() {
+		final long good = insertList(5);
+		final long duplicate = insertList(5);
+		final long overlapping = insertList(5);
+
+		// Two tasks at the same position
+		ArrayList<Long> ids = getIdsInOrder(duplicate);
+		final long left = getLeft(ids.get(1));
+		setPositions(ids.get(3), left, left + 1);
+
+		// One task that contains the next ones
+		ids = getIdsInOrder(overlapping);
+		setPositions(ids.get(0), getLeft(ids.get(0)), getLeft(ids.get(2)) + 1);
+
+		final long[] broken = DatabaseHandler.verifyTaskPositions(db);
+		assertEquals(2, broken.length);
+		assertEquals(duplicate, broken[0]);
+		assertEquals(overlapping, broken[1]);
+
+		final ArrayList<Long> goodOrder = getIdsInOrder(good);
+		final ArrayList<Long> overlappingOrder = getIdsInOrder(overlapping);
+		assertEquals(2, DatabaseHandler.repairTaskPositions(db));
+		assertEquals(0, DatabaseHandler.verifyTaskPositions(db).length);
+
+		// Lists keep the order they had
+		assertEquals(goodOrder, getIdsInOrder(good));
+		assertEquals(overlappingOrder, getIdsInOrder(overlapping));
+		assertEquals(5, getIdsInOrder(duplicate).size());
+	}
+}
@@ -12,8 +12,12 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.nononsenseapps.notepad.database.DatabaseHandler;
 import com.nononsenseapps.notepad.database.LegacyDBHelper;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.NoteBlobs;
 import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.RemoteTaskList;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
 import com.nononsenseapps.notepad.database.TaskList;
 
 import junit.framework.TestCase;
@@ -309,4 +313,99 @@ public class DBUpgradeTest extends TestCase {
 		assertTrue("Could not delete database",
 				context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME));
 	}
+
+	/**
+	 * The tables of version 15, before the columns and triggers of the later versions
+	 */
+	private static void createVersion15(final SQLiteDatabase db) {
+		db.execSQL(TaskList.CREATE_TABLE);
+		db.execSQL("CREATE TABLE " + Task.TABLE_NAME + "(" + Task.Columns._ID
+				+ " INTEGER PRIMARY KEY," + Task.Columns.TITLE + " TEXT NOT NULL DEFAULT '',"
+				+ Task.Columns.NOTE + " TEXT NOT NULL DEFAULT ''," + Task.Columns.COMPLETED
+				+ " INTEGER DEFAULT NULL," + Task.Columns.UPDATED + " INTEGER DEFAULT NULL,"
+				+ Task.Columns.DUE + " INTEGER DEFAULT NULL," + Task.Columns.LOCKED
+				+ " INTEGER NOT NULL DEFAULT 0," + Task.Columns.LEFT
+				+ " INTEGER NOT NULL DEFAULT 1," + Task.Columns.RIGHT
+				+ " INTEGER NOT NULL DEFAULT 2," + Task.Columns.DBLIST + " INTEGER NOT NULL,"
+				+ "FOREIGN KEY(" + Task.Columns.DBLIST + ") REFERENCES " + TaskList.TABLE_NAME
+				+ "(" + TaskList.Columns._ID + ") ON DELETE CASCADE)");
+		db.execSQL("CREATE TABLE " + Task.DELETE_TABLE_NAME + "(" + Task.Columns._ID
+				+ " INTEGER PRIMARY KEY," + Task.Columns.TITLE + " TEXT NOT NULL DEFAULT '',"
+				+ Task.Columns.NOTE + " TEXT NOT NULL DEFAULT ''," + Task.Columns.COMPLETED
+				+ " INTEGER DEFAULT NULL," + Task.Columns.DUE + " INTEGER DEFAULT NULL,"
+				+ Task.Columns.DBLIST + " INTEGER DEFAULT NULL," + Task.Columns.TRIG_DELETED
+				+ " TIMESTAMP NOT NULL DEFAULT current_timestamp)");
+		db.execSQL("CREATE TABLE " + Task.HISTORY_TABLE_NAME + "(" + Task.Columns._ID
+				+ " INTEGER PRIMARY KEY," + Task.Columns.HIST_TASK_ID + " INTEGER NOT NULL,"
+				+ Task.Columns.TITLE + " TEXT NOT NULL DEFAULT ''," + Task.Columns.NOTE
+				+ " TEXT NOT NULL DEFAULT ''," + Task.Columns.UPDATED
+				+ " TIMESTAMP NOT NULL DEFAULT current_timestamp, FOREIGN KEY("
+				+ Task.Columns.HIST_TASK_ID + ") REFERENCES " + Task.TABLE_NAME + "("
+				+ Task.Columns._ID + ") ON DELETE CASCADE)");
+		db.execSQL(Notification.CREATE_TABLE);
+		db.execSQL(RemoteTaskList.CREATE_TABLE);
+		db.execSQL(RemoteTask.CREATE_TABLE);
+
+		final String saveVersion = " INSERT INTO " + Task.HISTORY_TABLE_NAME + " ("
+				+ Task.Columns.HIST_TASK_ID + "," + Task.Columns.TITLE + ","
+				+ Task.Columns.NOTE + ") VALUES (new." + Task.Columns._ID + ",new."
+				+ Task.Columns.TITLE + ",new." + Task.Columns.NOTE + "); ";
+		db.execSQL("CREATE TRIGGER " + Task.HISTORY_INSERT_TRIGGER_NAME + " AFTER INSERT ON "
+				+ Task.TABLE_NAME + " BEGIN" + saveVersion + "END");
+		db.execSQL("CREATE TRIGGER " + Task.HISTORY_UPDATE_TRIGGER_NAME + " AFTER UPDATE OF "
+				+ Task.Columns.TITLE + "," + Task.Columns.NOTE + " ON " + Task.TABLE_NAME
+				+ " WHEN old." + Task.Columns.TITLE + " IS NOT new." + Task.Columns.TITLE
+				+ " OR old." + Task.Columns.NOTE + " IS NOT new." + Task.Columns.NOTE
+				+ " BEGIN" + saveVersion + "END");
+	}
+
+	/**
+	 * Upgrading moves a note too large for the task table to a blob, without saving a
+	 * version of it in the history that has only its start
+	 */
+	@MediumTest
+	public void testUpgradeMovesLargeNotes() {
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		final String huge = DBProviderTest.hugeNote(2 * NoteBlobs.THRESHOLD, "end");
+
+		final SQLiteDatabase old = context.openOrCreateDatabase(
+				PREFIX + DatabaseHandler.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		createVersion15(old);
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "large notes");
+		final long listId = old.insert(TaskList.TABLE_NAME, null, values);
+		values.clear();
+		values.put(Task.Columns.TITLE, "huge");
+		values.put(Task.Columns.NOTE, huge);
+		values.put(Task.Columns.DBLIST, listId);
+		final long taskId = old.insert(Task.TABLE_NAME, null, values);
+		assertTrue(taskId > 0);
+		old.setVersion(15);
+		old.close();
+
+		final SQLiteDatabase db = new DatabaseHandler(context, PREFIX).getWritableDatabase();
+		Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns.NOTE_BLOB },
+				Task.Columns._ID + " = ?", new String[] { Long.toString(taskId) }, null, null,
+				null);
+		assertTrue(c.moveToFirst());
+		assertFalse("The note was not moved", c.isNull(0));
+		c.close();
+
+		// still the one version saved when the task was written
+		c = db.query(Task.HISTORY_TABLE_NAME, new String[] { Task.Columns._ID },
+				Task.Columns.HIST_TASK_ID + " = ?", new String[] { Long.toString(taskId) },
+				null, null, Task.Columns._ID + " DESC");
+		assertEquals(1, c.getCount());
+		assertTrue(c.moveToFirst());
+		final long newest = c.getLong(0);
+		c.close();
+		c = TaskHistory.queryVersion(db, newest);
+		assertTrue(c.moveToFirst());
+		assertEquals(huge, c.getString(2));
+		c.close();
+
+		db.close();
+		assertTrue("Could not delete database",
+				context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME));
+	}
 }
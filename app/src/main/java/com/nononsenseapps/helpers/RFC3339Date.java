@@ -81,6 +81,58 @@ public final class RFC3339Date {
 		return d;
 	}
 
+	/**
+	 * Like {@link #parseRFC3339Date(String)}, but reads the UTC form, such as
+	 * "2013-03-23T02:43:35Z" or "2013-03-23T02:43:35.000Z", without creating a
+	 * {@link SimpleDateFormat} or catching exceptions. Other forms are given to
+	 * {@link #parseRFC3339Date(String)}. Use it to parse many dates in a loop
+	 *
+	 * @param utc a calendar in UTC, reused by each call
+	 * @return the time in milliseconds, or NULL if the string is not a date
+	 */
+	public static Long parseRFC3339Millis(final String datestring, final Calendar utc) {
+		if (datestring == null || datestring.isEmpty()) {
+			return null;
+		}
+		final int length = datestring.length();
+		final int year = digits(datestring, 0, 4);
+		final int month = digits(datestring, 5, 7);
+		final int day = digits(datestring, 8, 10);
+		final int hour = digits(datestring, 11, 13);
+		final int minute = digits(datestring, 14, 16);
+		final int second = digits(datestring, 17, 19);
+		// the fractional seconds are read as milliseconds, like the lenient
+		// SimpleDateFormat does
+		final int millis = length == 20 ? 0 : digits(datestring, 20, length - 1);
+		if (length < 20 || length > 26 || length == 21 || datestring.charAt(length - 1) != 'Z'
+				|| datestring.charAt(4) != '-' || datestring.charAt(7) != '-'
+				|| datestring.charAt(10) != 'T' || datestring.charAt(13) != ':'
+				|| datestring.charAt(16) != ':' || (length > 20 && datestring.charAt(19) != '.')
+				|| year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0
+				|| millis < 0) {
+			final Date d = parseRFC3339Date(datestring);
+			return d == null ? null : d.getTime();
+		}
+		utc.clear();
+		utc.set(year, month - 1, day, hour, minute, second);
+		return utc.getTimeInMillis() + millis;
+	}
+
+	/**
+	 * @return the number written in the given part of the string, or -1 if it is not all
+	 * digits
+	 */
+	private static int digits(final String s, final int start, final int end) {
+		if (end > s.length() || start >= end) return -1;
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			final char c = s.charAt(i);
+			if (c < '0' || c > '9') return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
 	/**
 	 * Given a UTC date (2013-02-21), and a local time(13:23), will combine them
 	 * into 2013-02-21T13:23 local time.
@@ -26,9 +26,11 @@ import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.widget.list.ListWidgetConfig;
 import com.nononsenseapps.notepad.widget.list.ListWidgetProvider;
 import com.nononsenseapps.notepad.widget.list.WidgetPrefs;
 
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -99,6 +101,17 @@ public final class UpdateNotifier {
 	 * Update all widgets's views as this database has changed somehow
 	 */
 	public static void updateWidgets(Context context) {
+		updateWidgets(context, null);
+	}
+
+	/**
+	 * Same as {@link #updateWidgets(Context)}, but only for the widgets that show one of the
+	 * given lists, or all of them
+	 *
+	 * @param listIds the lists whose tasks changed. If null, all widgets are updated
+	 */
+	public static void updateWidgets(Context context, Set<Long> listIds) {
+		if (listIds != null && listIds.isEmpty()) return;
 		final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
 		int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
 				new ComponentName(context, ListWidgetProvider.class));
@@ -111,6 +124,11 @@ public final class UpdateNotifier {
 		mExecutor.execute(() -> {
 			for (int widgetId : appWidgetIds) { // Only update widgets that exist
 				final WidgetPrefs prefs = new WidgetPrefs(context, widgetId);
+				final long listId = prefs.getLong(ListWidgetConfig.KEY_LIST,
+						ListWidgetConfig.ALL_LISTS_ID);
+				if (listIds != null && listId > 0 && !listIds.contains(listId)) {
+					continue;
+				}
 				if (prefs.isPresent()) {
 					// Tell the widgets that the list items should be invalidated and refreshed!
 					// Will call onDatasetChanged in ListWidgetService, doing a new requery
@@ -8,6 +8,7 @@ import androidx.annotation.RequiresApi;
 
 import com.google.android.material.color.DynamicColors;
 import com.nononsenseapps.notepad.activities.main.ActivityMain;
+import com.nononsenseapps.notepad.database.MaintenanceJobService;
 
 /**
  * Represents this app. The application object is not guaranteed to stay
@@ -26,6 +27,7 @@ public class NnnApp extends Application {
 		super.onCreate();
 		// use dynamic colors for android >= 13
 		DynamicColors.applyToActivitiesIfAvailable(this);
+		MaintenanceJobService.schedule(this);
 	}
 
 	/**
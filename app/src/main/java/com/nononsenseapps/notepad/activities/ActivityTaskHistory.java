@@ -40,10 +40,28 @@ import java.util.TimeZone;
 public class ActivityTaskHistory extends AppCompatActivity {
 
 	public static final String RESULT_TEXT_KEY = "task_text_key";
+	/**
+	 * The {@link Task.Columns#NOTE_BLOB} of the version, if its note is large. Then
+	 * {@link #RESULT_TEXT_KEY} has only the start of it
+	 */
+	public static final String RESULT_NOTE_BLOB_KEY = "task_note_blob_key";
 	private long mTaskID;
 	private boolean loaded = false;
+
+	/**
+	 * The id and time of each version, without their text
+	 */
 	private Cursor mCursor;
 
+	/**
+	 * The blob of the version on screen, or null
+	 */
+	private Long mNoteBlob = null;
+
+	private static final int LOADER_VERSIONS = 0;
+	private static final int LOADER_TEXT = 1;
+	private static final String ARG_HISTORY_ID = "history_id";
+
 	private SimpleDateFormat timeFormatter;
 	private SimpleDateFormat dbTimeParser;
 
@@ -107,6 +125,9 @@ public class ActivityTaskHistory extends AppCompatActivity {
 					String txt = mBinding.taskText.getText().toString();
 					final Intent returnIntent = new Intent();
 					returnIntent.putExtra(RESULT_TEXT_KEY, txt);
+					if (mNoteBlob != null) {
+						returnIntent.putExtra(RESULT_NOTE_BLOB_KEY, mNoteBlob.longValue());
+					}
 					setResult(RESULT_OK, returnIntent);
 					finish();
 				});
@@ -128,14 +149,16 @@ public class ActivityTaskHistory extends AppCompatActivity {
 	@Override
 	public void onStart() {
 		super.onStart();
-		LoaderManager.getInstance(this).restartLoader(0, null,
+		LoaderManager.getInstance(this).restartLoader(LOADER_VERSIONS, null,
 				new LoaderCallbacks<Cursor>() {
 
 					@NonNull
 					@Override
 					public Loader<Cursor> onCreateLoader(int arg0, Bundle arg1) {
+						// Only the text of the version on screen is rebuilt, see onSeekBarChanged
 						return new CursorLoader(ActivityTaskHistory.this,
-								Task.URI_TASK_HISTORY, Task.Columns.HISTORY_COLUMNS_UPDATED,
+								Task.URI_TASK_HISTORY,
+								new String[] { Task.Columns._ID, Task.Columns.UPDATED },
 								Task.Columns.HIST_TASK_ID + " IS ?",
 								new String[] { Long.toString(mTaskID) }, null);
 					}
@@ -146,6 +169,8 @@ public class ActivityTaskHistory extends AppCompatActivity {
 						setSeekBarProperties();
 						if (!loaded) {
 							mBinding.seekBar.setProgress(c.getCount() - 1);
+							// the listener is not called if the progress was already there
+							onSeekBarChanged(c.getCount() - 1);
 							loaded = true;
 						}
 					}
@@ -161,19 +186,45 @@ public class ActivityTaskHistory extends AppCompatActivity {
 	void onSeekBarChanged(int progress) {
 		if (mCursor == null) return;
 
-		if (progress < mCursor.getCount()) {
+		if (progress >= 0 && progress < mCursor.getCount()) {
 			mCursor.moveToPosition(progress);
-			mBinding.taskText.setTextTitle(mCursor.getString(1));
-			mBinding.taskText.setTextRest(mCursor.getString(2));
 			try {
-				Date x = dbTimeParser.parse(mCursor.getString(3));
+				Date x = dbTimeParser.parse(mCursor.getString(1));
 				mBinding.timestamp.setText(timeFormatter.format(x));
 			} catch (ParseException e) {
 				Log.d("nononsenseapps time", e.getLocalizedMessage());
 			}
+			final Bundle args = new Bundle();
+			args.putLong(ARG_HISTORY_ID, mCursor.getLong(0));
+			LoaderManager.getInstance(this).restartLoader(LOADER_TEXT, args, mTextCallbacks);
 		}
 	}
 
+	/**
+	 * Loads the title and note of one version
+	 */
+	private final LoaderCallbacks<Cursor> mTextCallbacks = new LoaderCallbacks<Cursor>() {
+		@NonNull
+		@Override
+		public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+			return new CursorLoader(ActivityTaskHistory.this,
+					Task.getHistoryVersionUri(args.getLong(ARG_HISTORY_ID)),
+					Task.Columns.HISTORY_COLUMNS_UPDATED, null, null, null);
+		}
+
+		@Override
+		public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor c) {
+			if (c != null && c.moveToFirst()) {
+				mBinding.taskText.setTextTitle(c.getString(1));
+				mBinding.taskText.setTextRest(c.getString(2));
+				mNoteBlob = c.isNull(4) ? null : c.getLong(4);
+			}
+		}
+
+		@Override
+		public void onLoaderReset(@NonNull Loader<Cursor> loader) {}
+	};
+
 	void setSeekBarProperties() {
 		if (mCursor == null) {
 			mBinding.seekBar.setEnabled(false);
@@ -853,13 +853,7 @@ public class ActivityMain extends AppCompatActivity
 		// special views
 		LoaderManager
 				.getInstance(this)
-				.restartLoader(TaskListFragment.LIST_ID_OVERDUE, null, callbacks);
-		LoaderManager
-				.getInstance(this)
-				.restartLoader(TaskListFragment.LIST_ID_TODAY, null, callbacks);
-		LoaderManager
-				.getInstance(this)
-				.restartLoader(TaskListFragment.LIST_ID_WEEK, null, callbacks);
+				.restartLoader(DrawerCursorLoader.LOADER_SMART_COUNTS, null, callbacks);
 	}
 
 	@Override
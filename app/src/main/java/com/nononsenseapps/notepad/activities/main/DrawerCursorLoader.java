@@ -12,7 +12,6 @@ import androidx.loader.content.Loader;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
-import com.nononsenseapps.notepad.fragments.TaskListFragment;
 import com.nononsenseapps.ui.ExtraTypesCursorAdapter;
 
 import java.util.ArrayList;
@@ -22,8 +21,10 @@ import java.util.ArrayList;
  */
 class DrawerCursorLoader implements LoaderManager.LoaderCallbacks<Cursor> {
 
-	final String[] COUNTROWS = new String[] { "COUNT(1)" };
-	final String NOTCOMPLETED = Task.Columns.COMPLETED + " IS NULL ";
+	/**
+	 * ID of the loader of {@link Task#URI_SMART_COUNTS}. The lists use 0
+	 */
+	static final int LOADER_SMART_COUNTS = 1;
 
 	/**
 	 * the instance of {@link ActivityMain} that hosts this loader object
@@ -50,15 +51,11 @@ class DrawerCursorLoader implements LoaderManager.LoaderCallbacks<Cursor> {
 	public Loader<Cursor> onCreateLoader(int id, Bundle arg1) {
 		// Normal lists
 		return switch (id) {
-			case TaskListFragment.LIST_ID_OVERDUE -> new CursorLoader(mContext, Task.URI, COUNTROWS,
-					NOTCOMPLETED + TaskListFragment.andWhereOverdue(),
-					null, null);
-			case TaskListFragment.LIST_ID_TODAY -> new CursorLoader(mContext, Task.URI, COUNTROWS,
-					NOTCOMPLETED + TaskListFragment.andWhereToday(),
-					null, null);
-			case TaskListFragment.LIST_ID_WEEK -> new CursorLoader(mContext, Task.URI, COUNTROWS,
-					NOTCOMPLETED + TaskListFragment.andWhereWeek(),
-					null, null);
+			// Overdue, today and week, all counted in one query
+			case LOADER_SMART_COUNTS -> new CursorLoader(mContext, Task.URI_SMART_COUNTS,
+					new String[] { Task.SMART_COUNT_OVERDUE, Task.SMART_COUNT_TODAY,
+							Task.SMART_COUNT_WEEK },
+					null, null, null);
 			default -> new CursorLoader(mContext,
 					TaskList.URI_WITH_COUNT,
 					new String[] { TaskList.Columns._ID, TaskList.Columns.TITLE,
@@ -71,45 +68,31 @@ class DrawerCursorLoader implements LoaderManager.LoaderCallbacks<Cursor> {
 
 	@Override
 	public void onLoadFinished(Loader<Cursor> l, Cursor c) {
-		switch (l.getId()) {
-			case TaskListFragment.LIST_ID_OVERDUE -> {
-				if (c.moveToFirst()) {
-					updateExtra(1, c.getInt(0));
-				}
-			}
-			case TaskListFragment.LIST_ID_TODAY -> {
-				if (c.moveToFirst()) {
-					updateExtra(2, c.getInt(0));
-				}
-			}
-			case TaskListFragment.LIST_ID_WEEK -> {
-				if (c.moveToFirst()) {
-					updateExtra(3, c.getInt(0));
-				}
+		if (l.getId() == LOADER_SMART_COUNTS) {
+			if (c.moveToFirst()) {
+				// Same order as the projection above
+				setExtra(1, c.getInt(0));
+				setExtra(2, c.getInt(1));
+				setExtra(3, c.getInt(2));
+				mAdapter.notifyDataSetChanged();
 			}
-			default -> mAdapter.swapCursor(c);
+		} else {
+			mAdapter.swapCursor(c);
 		}
 	}
 
-	private void updateExtra(final int pos, final int count) {
+	private void setExtra(final int pos, final int count) {
 		while (mExtraData.get(pos).size() < 2) {
 			// To avoid crashes
 			mExtraData.get(pos).add("0");
 		}
 		mExtraData.get(pos).set(1, Integer.toString(count));
-		mAdapter.notifyDataSetChanged();
 	}
 
 	@Override
 	public void onLoaderReset(Loader<Cursor> l) {
-		switch (l.getId()) {
-			case TaskListFragment.LIST_ID_OVERDUE:
-			case TaskListFragment.LIST_ID_TODAY:
-			case TaskListFragment.LIST_ID_WEEK:
-				break;
-			case 0:
-			default:
-				mAdapter.swapCursor(null);
+		if (l.getId() != LOADER_SMART_COUNTS) {
+			mAdapter.swapCursor(null);
 		}
 	}
 
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nononsenseapps.helpers.UpdateNotifier;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the change notifications of the database. The {@link Uri}s changed during
+ * {@link #WINDOW_MS} are collected, and then each one is notified only once. Widgets and
+ * {@link Listener}s get a single signal for all of them.
+ *
+ * Checking 30 tasks in a row, or a sync, used to restart every loader and rebuild every
+ * widget a few times for each task. See {@link #getRequestedCount()} and
+ * {@link #getDeliveredCount()} to know how many notifications are saved
+ */
+public final class ChangeDispatcher {
+
+	/**
+	 * How long changes are collected before they are notified, in milliseconds
+	 */
+	static final long WINDOW_MS = 100;
+
+	/**
+	 * Told once for each flush, after the observers of the {@link Uri}s
+	 */
+	public interface Listener {
+		/**
+		 * Runs on the main thread
+		 *
+		 * @param changed the {@link Uri}s notified, without those that have an ancestor
+		 *                in the set
+		 */
+		void onChangesFlushed(Set<Uri> changed);
+	}
+
+	private static ChangeDispatcher singleton;
+
+	public static synchronized ChangeDispatcher getInstance(final Context context) {
+		if (singleton == null) {
+			singleton = new ChangeDispatcher(context);
+		}
+		return singleton;
+	}
+
+	private final Context mContext;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Runnable mFlush = this::flush;
+	private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Changed since the last flush, in the order they were first changed. Guarded by this
+	 */
+	private Set<Uri> mPending = new LinkedHashSet<>();
+	private boolean mWidgetsPending = false;
+
+	private final AtomicLong mRequested = new AtomicLong();
+	private final AtomicLong mDelivered = new AtomicLong();
+	private final AtomicLong mFlushes = new AtomicLong();
+
+	private ChangeDispatcher(final Context context) {
+		// the provider's context lives as long as the app
+		mContext = context.getApplicationContext();
+	}
+
+	/**
+	 * Marks the {@link Uri}s as changed. They are notified at the end of the window
+	 *
+	 * @param updateWidgets if the widgets should be refreshed too
+	 */
+	public void post(final boolean updateWidgets, final Uri... uris) {
+		post(updateWidgets, Arrays.asList(uris));
+	}
+
+	/**
+	 * Same as {@link #post(boolean, Uri...)}
+	 */
+	public void post(final boolean updateWidgets, final Iterable<Uri> uris) {
+		final boolean schedule;
+		synchronized (this) {
+			final boolean wasIdle = mPending.isEmpty() && !mWidgetsPending;
+			for (Uri u : uris) {
+				mRequested.incrementAndGet();
+				mPending.add(u);
+			}
+			mWidgetsPending |= updateWidgets;
+			// the first change of the window starts it
+			schedule = wasIdle && (!mPending.isEmpty() || mWidgetsPending);
+		}
+		if (schedule) {
+			mHandler.postDelayed(mFlush, WINDOW_MS);
+		}
+	}
+
+	/**
+	 * Notifies everything that is pending now, instead of at the end of the window
+	 */
+	public void flush() {
+		mHandler.removeCallbacks(mFlush);
+		final Set<Uri> changed;
+		final boolean widgets;
+		synchronized (this) {
+			changed = mPending;
+			widgets = mWidgetsPending;
+			mPending = new LinkedHashSet<>();
+			mWidgetsPending = false;
+		}
+		if (changed.isEmpty() && !widgets) {
+			return;
+		}
+		mFlushes.incrementAndGet();
+
+		final Set<Uri> notified = withoutDescendants(changed);
+		for (Uri u : notified) {
+			try {
+				mContext.getContentResolver().notifyChange(u, null, false);
+				mDelivered.incrementAndGet();
+			} catch (UnsupportedOperationException e) {
+				// Catch this for test suite. Mock provider cant notify
+			}
+		}
+		if (widgets) {
+			UpdateNotifier.updateWidgets(mContext, changedLists(notified));
+		}
+		if (!notified.isEmpty()) {
+			final Set<Uri> readOnly = Collections.unmodifiableSet(notified);
+			for (Listener l : mListeners) {
+				mHandler.post(() -> l.onChangesFlushed(readOnly));
+			}
+		}
+	}
+
+	/**
+	 * @return the {@link Uri}s that have no ancestor in the set: notifying the ancestor
+	 * already reaches their observers
+	 */
+	private static Set<Uri> withoutDescendants(final Set<Uri> changed) {
+		final HashSet<String> all = new HashSet<>();
+		for (Uri u : changed) all.add(u.toString());
+
+		final Set<Uri> result = new LinkedHashSet<>();
+		for (Uri u : changed) {
+			boolean hasAncestor = false;
+			String path = u.toString();
+			int slash;
+			while (!hasAncestor
+					&& (slash = path.lastIndexOf('/')) > MyContentProvider.SCHEME.length()) {
+				path = path.substring(0, slash);
+				hasAncestor = all.contains(path);
+			}
+			if (!hasAncestor) {
+				result.add(u);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the IDs of the lists whose tasks changed, or null if it is not known: when
+	 * all tasks or the lists themselves were notified
+	 */
+	private static Set<Long> changedLists(final Set<Uri> notified) {
+		final String tasks = Task.URI.toString();
+		final String lists = TaskList.URI.toString();
+		final Set<Long> result = new HashSet<>();
+		for (Uri u : notified) {
+			final String s = u.toString();
+			if (s.equals(tasks) || s.startsWith(lists)
+					&& !s.startsWith(TaskList.URI_WITH_COUNT.toString())) {
+				return null;
+			}
+			final long listId = Task.getListIdOf(u);
+			if (listId > 0) result.add(listId);
+		}
+		return result;
+	}
+
+	public void addListener(final Listener listener) {
+		mListeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(final Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * @return how many notifications were asked for, duplicates included
+	 */
+	public long getRequestedCount() {
+		return mRequested.get();
+	}
+
+	/**
+	 * @return how many notifications were sent to the {@link android.content.ContentResolver}
+	 */
+	public long getDeliveredCount() {
+		return mDelivered.get();
+	}
+
+	/**
+	 * @return how many times the pending changes were sent
+	 */
+	public long getFlushCount() {
+		return mFlushes.get();
+	}
+}
@@ -29,11 +29,12 @@ import com.nononsenseapps.helpers.NnnLogger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
 
 public abstract class DAO {
 
-	private static final String whereIdIs = "" + BaseColumns._ID + " IS ?";
-
 	/**
 	 * Append where is id ? to string
 	 */
@@ -86,6 +87,19 @@ public abstract class DAO {
 		return list.toArray(new String[0]);
 	}
 
+	/**
+	 * The names a cursor has for the columns of a projection. Example:
+	 * [_id, substr(note, 1, 9) AS note] -> [_id, note]
+	 */
+	public static String[] columnNames(final String[] projection) {
+		final String[] result = new String[projection.length];
+		for (int i = 0; i < projection.length; i++) {
+			final int as = projection[i].toUpperCase(Locale.US).lastIndexOf(" AS ");
+			result[i] = as < 0 ? projection[i] : projection[i].substring(as + 4).trim();
+		}
+		return result;
+	}
+
 	/**
 	 * Examples: <br/>
 	 * [] -> "" <br/>
@@ -148,7 +162,7 @@ public abstract class DAO {
 	 *
 	 * So it is useful to return a name & value pair for the header of the {@link DragSortListView}
 	 * when it is sorted by date. In that case you use this function to run a query that returns
-	 * special values: see {@link Task#CREATE_SECTIONED_DATE_VIEW}
+	 * special values: see {@link Task#SECTIONED_DATE_QUERY}
 	 */
 	protected static String asEmptyCommaStringExcept(final String[] asColumns,
 													 final String exceptCol1, final String asValue1,
@@ -216,7 +230,7 @@ public abstract class DAO {
 
 		try {
 			if (_id > 0) {
-				result += db.update(getTableName(), getContent(), whereIdIs, whereIdArg());
+				result += StatementCache.of(db).update(getTableName(), getContent(), _id);
 			}
 
 			if (result > 0) {
@@ -243,7 +257,8 @@ public abstract class DAO {
 		try {
 			beforeInsert(context, db);
 
-			final long id = db.insert(getTableName(), null, getContent());
+			// The statement for these columns is compiled once, for the first row
+			final long id = StatementCache.of(db).insert(getTableName(), getContent());
 
 			if (id == -1) {
 				throw new SQLException("Insert failed in " + getTableName());
@@ -268,8 +283,7 @@ public abstract class DAO {
 
 	public synchronized int remove(final Context context,
 								   final SQLiteDatabase db) {
-		final int result = db.delete(getTableName(), BaseColumns._ID + " IS ?",
-				new String[] { Long.toString(_id) });
+		final int result = StatementCache.of(db).delete(getTableName(), _id);
 
 		if (result > 1) {
 			notifyProviderOnChange(context);
@@ -278,13 +292,55 @@ public abstract class DAO {
 		return result;
 	}
 
+	/**
+	 * The {@link Uri}s changed by the batch running on this thread, or NULL if no batch is
+	 * running. See {@link #beginBatchNotifications()}
+	 */
+	private static final ThreadLocal<Set<Uri>> sPendingUris = new ThreadLocal<>();
+
+	/**
+	 * From now on, {@link #notifyProviderOnChange(Context, Uri)} called on this thread will
+	 * only remember the {@link Uri}, until {@link #endBatchNotifications()} is called.
+	 * Used by {@link MyContentProvider} to send a single set of notifications for a batch
+	 *
+	 * @return TRUE if this call started the batch, FALSE if one was already running. Only the
+	 * caller that started it should end it
+	 */
+	static boolean beginBatchNotifications() {
+		if (sPendingUris.get() != null) return false;
+		sPendingUris.set(new LinkedHashSet<>());
+		return true;
+	}
+
+	/**
+	 * @return TRUE if a batch started with {@link #beginBatchNotifications()} is running
+	 * on this thread
+	 */
+	static boolean isBatchRunning() {
+		return sPendingUris.get() != null;
+	}
+
+	/**
+	 * Stops collecting notifications on this thread
+	 *
+	 * @return the {@link Uri}s collected since {@link #beginBatchNotifications()}, each
+	 * one only once, in the order they were first changed
+	 */
+	static Set<Uri> endBatchNotifications() {
+		final Set<Uri> pending = sPendingUris.get();
+		sPendingUris.remove();
+		return pending == null ? new LinkedHashSet<>() : pending;
+	}
+
 	public static void notifyProviderOnChange(final Context context,
 											  final Uri uri) {
-		try {
-			context.getContentResolver().notifyChange(uri, null, false);
-		} catch (UnsupportedOperationException e) {
-			// Catch this for test suite. Mock provider cant notify
+		final Set<Uri> pending = sPendingUris.get();
+		if (pending != null) {
+			// a batch is running: notify once, when it's committed
+			pending.add(uri);
+			return;
 		}
+		ChangeDispatcher.getInstance(context).post(false, uri);
 	}
 
 	protected void notifyProviderOnChange(final Context context) {
@@ -23,35 +23,51 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.helpers.RFC3339Date;
+import com.nononsenseapps.notepad.BuildConfig;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.prefs.Constants;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTask;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DatabaseHandler extends SQLiteOpenHelper {
 
 	private static DatabaseHandler singleton;
 
-	public static DatabaseHandler getInstance(final Context context) {
+	public static synchronized DatabaseHandler getInstance(final Context context) {
 		if (singleton == null) {
 			singleton = new DatabaseHandler(context);
 		}
 		return singleton;
 	}
 
-	private static final int DATABASE_VERSION = 15;
+	private static final int DATABASE_VERSION = 26;
 	public static final String DATABASE_NAME = "nononsense_notes.db";
 
 	private final Context context;
 	private final String testPrefix;
 
+	/**
+	 * Debug builds check the positions and counts once, see {@link #onOpen}
+	 */
+	private static final AtomicBoolean sVerified = new AtomicBoolean(false);
+	private static final ExecutorService sVerifier = Executors.newSingleThreadExecutor();
+
 	/**
 	 * Should use the singleton for normal cases
 	 */
@@ -63,22 +79,23 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * Use only for JUNIT tests
 	 */
 	public DatabaseHandler(Context context, String testPrefix) {
-		super(context, testPrefix + DATABASE_NAME, null, DATABASE_VERSION);
+		// the factory lets the profiler explain the slow queries
+		super(context, testPrefix + DATABASE_NAME, ProviderProfiler.CURSOR_FACTORY,
+				DATABASE_VERSION);
 		// Good idea to have the context that doesn't die with the window
 		this.context = context.getApplicationContext();
 		this.testPrefix = testPrefix;
+		// With write-ahead logging, readers don't wait for writers: each query runs on one
+		// of the connections in the pool, while the writer keeps the primary connection
+		setWriteAheadLoggingEnabled(true);
 	}
 
 	@Override
-	public void onOpen(SQLiteDatabase db) {
-		super.onOpen(db);
-		if (!db.isReadOnly()) {
-			// Enable foreign key constraints
-			// This would require android16
-			// db.setForeignKeyConstraintsEnabled(true);
-			// This works everywhere
-			db.execSQL("PRAGMA foreign_keys=ON;");
-		}
+	public void onConfigure(SQLiteDatabase db) {
+		super.onConfigure(db);
+		// Enable foreign key constraints. Unlike "PRAGMA foreign_keys=ON;" in onOpen(),
+		// this applies to every connection in the pool
+		db.setForeignKeyConstraintsEnabled(true);
 	}
 
 	@Override
@@ -90,16 +107,18 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		db.execSQL(Notification.CREATE_TABLE);
 		db.execSQL(RemoteTaskList.CREATE_TABLE);
 		db.execSQL(RemoteTask.CREATE_TABLE);
+		NoteBlobs.create(db);
 
-		db.execSQL(Notification.CREATE_JOINED_VIEW);
+		// No views: temporary views exist only in the connection that created them, so the
+		// provider reads them as subqueries, which any connection of the pool can run
 
-		db.execSQL(Task.TRIGGER_PRE_INSERT);
 		db.execSQL(Task.TRIGGER_PRE_DELETE);
-		db.execSQL(Task.TRIGGER_POST_DELETE);
 		db.execSQL(Task.TRIGGER_MOVE_LIST);
 		db.execSQL(Task.CREATE_HISTORY_INSERT_TRIGGER);
 		db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
 
+		createListStats(db);
+
 		db.execSQL(RemoteTask.TRIGGER_LISTDELETE_CASCADE);
 		// Mark as deleted when real item deleted
 		db.execSQL(RemoteTask.TRIGGER_REALDELETE_MARK);
@@ -107,21 +126,58 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		// Create move list trigger
 		db.execSQL(RemoteTask.TRIGGER_MOVE_LIST);
 
-		// Search tables
-		db.execSQL(Task.CREATE_FTS3_TABLE);
-		db.execSQL(Task.CREATE_FTS3_INSERT_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_UPDATE_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETE_TRIGGER);
+		// The imported tasks get their positions from importLegacyDB() and are indexed all
+		// at once, so the indexes and the triggers that do it for each new task come after
+		final boolean imported = importLegacyDB(db);
+		if (imported) {
+			NoteBlobs.moveLargeNotes(db);
+		}
+
+		createIndexes(db);
 
-		// Delete search tables
-		db.execSQL(Task.CREATE_FTS3_DELETE_TABLE);
-		db.execSQL(Task.CREATE_FTS3_DELETED_INSERT_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETED_UPDATE_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETED_DELETE_TRIGGER);
+		db.execSQL(Task.TRIGGER_POST_INSERT_POSITION);
+		// Search tables, for tasks and deleted tasks
+		SearchIndex.create(db);
+		if (imported) {
+			SearchIndex.rebuild(db);
+		}
 
 		initializedDB(db);
 	}
 
+	/**
+	 * Creates the {@link TaskList#STATS_TABLE_NAME} table and the triggers that keep it up
+	 * to date. It is filled by {@link #repairListStats(SQLiteDatabase)}
+	 */
+	private static void createListStats(final SQLiteDatabase db) {
+		db.execSQL(TaskList.CREATE_STATS_TABLE);
+		db.execSQL(TaskList.TRIGGER_STATS_LIST_INSERT);
+		db.execSQL(TaskList.TRIGGER_STATS_TASK_INSERT);
+		db.execSQL(TaskList.TRIGGER_STATS_TASK_DELETE);
+		db.execSQL(TaskList.TRIGGER_STATS_TASK_UPDATE);
+	}
+
+	/**
+	 * Creates the indexes of all tables, if they don't exist, and then collects the statistics
+	 * that the query planner uses to choose between them
+	 */
+	private static void createIndexes(final SQLiteDatabase db) {
+		for (String sql : Task.CREATE_INDEXES) db.execSQL(sql);
+		for (String sql : Notification.CREATE_INDEXES) db.execSQL(sql);
+		for (String sql : RemoteTask.CREATE_INDEXES) db.execSQL(sql);
+		db.execSQL("ANALYZE");
+	}
+
+	/**
+	 * Stores every non-INTEGER value of the {@link Task.Columns#DBLIST} column of the given
+	 * table as an INTEGER
+	 */
+	private static void normalizeListIds(final SQLiteDatabase db, final String table) {
+		db.execSQL("UPDATE " + table + " SET " + Task.Columns.DBLIST + " = CAST("
+				+ Task.Columns.DBLIST + " AS INTEGER) WHERE " + Task.Columns.DBLIST
+				+ " IS NOT NULL AND typeof(" + Task.Columns.DBLIST + ") IS NOT 'integer'");
+	}
+
 	public static Cursor getLegacyLists(final SQLiteDatabase legacyDB) {
 		return legacyDB.rawQuery("SELECT lists."
 				+ BaseColumns._ID
@@ -163,23 +219,33 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 				null, null, null, null);
 	}
 
-	private void initializedDB(final SQLiteDatabase db) throws SQLiteException {
-		// Load legacy DB if it exists
-		// Open database and copy information
-		// Remember to do try except
+	/**
+	 * Copies the lists, notes and reminders of the database used before version 4.0, if
+	 * there is one. Notes are written with one compiled statement, and get the positions that
+	 * {@link Task#TRIGGER_POST_INSERT_POSITION} would give them, one above the other: call it
+	 * before that trigger and the search index are created
+	 *
+	 * @return true if there was a legacy database to import
+	 */
+	private boolean importLegacyDB(final SQLiteDatabase db) {
+		final File legacyFile =
+				context.getDatabasePath(testPrefix + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		if (!legacyFile.exists()) {
+			// the app was installed after 4.0: opening it would only create an empty file
+			return false;
+		}
 
-		db.beginTransaction();
+		final long start = SystemClock.elapsedRealtime();
+		int notes = 0;
+		final LegacyDBHelper legacyDBHelper = new LegacyDBHelper(context, testPrefix);
 		try {
+			final SQLiteDatabase legacyDB = legacyDBHelper.getReadableDatabase();
 			final HashMap<Long, Long> listIDMap = new HashMap<>();
 			final HashMap<Long, Long> taskIDMap = new HashMap<>();
-			final LegacyDBHelper legacyDBHelper = new LegacyDBHelper(context, testPrefix);
-			final SQLiteDatabase legacyDB = legacyDBHelper.getReadableDatabase();
 
 			// First copy lists
-			// if there's no legacy DB, this call crashes and the whole try-block is skipped
 			Cursor c = getLegacyLists(legacyDB);
-
-			while (!c.isClosed() && c.moveToNext()) {
+			while (c.moveToNext()) {
 				TaskList tl = new TaskList();
 				tl.title = c.getString(1);
 				tl.updated = Calendar.getInstance().getTimeInMillis();
@@ -190,84 +256,99 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 				listIDMap.put(c.getLong(0), tl._id);
 
 				// handle gtask info
-				GoogleTaskList rl;
 				if (c.getString(2) != null
 						&& !c.getString(2).isEmpty()
 						&& c.getString(3) != null
 						&& !c.getString(3).isEmpty()) {
-					rl = new GoogleTaskList(tl._id, c.getString(2), tl.updated,
-							c.getString(3));
-					rl.insert(context, db);
+					new GoogleTaskList(tl._id, c.getString(2), tl.updated, c.getString(3))
+							.insert(context, db);
 				}
 			}
 			c.close();
 
 			// Then notes
 			if (!listIDMap.isEmpty()) {
-				// query
-				c = getLegacyNotes(legacyDB);
+				final SQLiteStatement insertTask = db.compileStatement("INSERT INTO "
+						+ Task.TABLE_NAME + " (" + Task.Columns.TITLE + "," + Task.Columns.NOTE
+						+ "," + Task.Columns.DBLIST + "," + Task.Columns.UPDATED + ","
+						+ Task.Columns.DUE + "," + Task.Columns.COMPLETED + ","
+						+ Task.Columns.LOCKED + "," + Task.Columns.LEFT + ","
+						+ Task.Columns.RIGHT + ") VALUES (?,?,?,?,?,?,?,?,?)");
+				// how many tasks were put in each list, to compute the next position
+				final HashMap<Long, Long> listSizes = new HashMap<>();
+				final Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+				final long now = Calendar.getInstance().getTimeInMillis();
 
-				// iterate over notes
-				while (!c.isClosed() && c.moveToNext()) {
-					Task t = new Task();
-					t.title = c.getString(1);
-					t.note = c.getString(2);
-
-					if (t.note.contains("[locked]")) {
-						t.locked = true;
-						t.note = t.note.replace("[locked]", "");
-					}
-
-					try {
-						t.due = RFC3339Date
-								.parseRFC3339Date(c.getString(3))
-								.getTime();
-					} catch (Exception e) {
-						NnnLogger.warning(DatabaseHandler.class, "date error");
-					}
-
-					// completed must be converted
-					if (c.getString(4) != null
-							&& "completed".equals(c.getString(4))) {
-						t.setAsCompletedForLegacy();
-					}
-					t.dblist = listIDMap.get(c.getLong(5));
-
-					t.updated = c.getLong(6);
-
-					// insert
+				c = getLegacyNotes(legacyDB);
+				while (c.moveToNext()) {
+					final Long dblist = listIDMap.get(c.getLong(5));
 					// Just make extra sure list exists
-					if (t.dblist != null) {
-						t.insert(context, db);
+					if (dblist == null) continue;
 
-						// put in idmap
-						taskIDMap.put(c.getLong(0), t._id);
+					final String title = c.getString(1);
+					String note = c.getString(2);
+					final boolean locked = note.contains("[locked]");
+					if (locked) {
+						note = note.replace("[locked]", "");
 					}
+					final Long due = RFC3339Date.parseRFC3339Millis(c.getString(3), utc);
+					// completed must be converted
+					final Long completed = "completed".equals(c.getString(4)) ? now : null;
+					final long updated = c.getLong(6);
+
+					// each task goes above the previous one, like the trigger would put it
+					final Long size = listSizes.get(dblist);
+					final long listSize = size == null ? 0 : size;
+					listSizes.put(dblist, listSize + 1);
+					final long left = Task.FIRST_POSITION - Task.POSITION_GAP * listSize;
+
+					insertTask.clearBindings();
+					insertTask.bindString(1, title);
+					insertTask.bindString(2, note);
+					insertTask.bindLong(3, dblist);
+					insertTask.bindLong(4, updated);
+					if (due != null) insertTask.bindLong(5, due);
+					if (completed != null) insertTask.bindLong(6, completed);
+					insertTask.bindLong(7, locked ? 1 : 0);
+					insertTask.bindLong(8, left);
+					insertTask.bindLong(9, left + 1);
+					final long id = insertTask.executeInsert();
+					notes++;
+
+					// put in idmap
+					taskIDMap.put(c.getLong(0), id);
 
 					// gtask
-					GoogleTask gt;
 					if (!c.isNull(7)
 							&& !c.getString(7).isEmpty()
 							&& !c.isNull(8)
 							&& !c.getString(8).isEmpty()) {
-						gt = new GoogleTask(t, c.getString(8));
+						final Task t = new Task();
+						t._id = id;
+						t.title = title;
+						t.note = note;
+						t.dblist = dblist;
+						t.due = due;
+						t.completed = completed;
+						final GoogleTask gt = new GoogleTask(t, c.getString(8));
 						gt.remoteId = c.getString(7);
-						gt.updated = t.updated;
+						gt.updated = updated;
 						gt.insert(context, db);
 					}
-
 				}
 				c.close();
+				insertTask.close();
 			}
 
 			// Then notifications
 			if (!taskIDMap.isEmpty()) {
 				c = getLegacyNotifications(legacyDB);
 
-				while (!c.isClosed() && c.moveToNext()) {
+				while (c.moveToNext()) {
 					// Make sure id exists
-					if (taskIDMap.containsValue(c.getLong(2))) {
-						var n = new Notification(taskIDMap.get(c.getLong(2)));
+					final Long taskId = taskIDMap.get(c.getLong(2));
+					if (taskId != null) {
+						var n = new Notification(taskId);
 						n.time = c.getLong(0);
 						// permanent was not supported at the time
 						// insert
@@ -276,12 +357,20 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 				}
 				c.close();
 			}
-
-			// Complete, close the legacy db
-			legacyDB.close();
 		} catch (SQLException e) {
 			// Database must have been empty. Ignore it
+			NnnLogger.exception(e);
+		} finally {
+			// Complete, close the legacy db
+			legacyDBHelper.close();
 		}
+		NnnLogger.debug(DatabaseHandler.class, "Imported " + notes + " legacy notes in "
+				+ (SystemClock.elapsedRealtime() - start) + " ms");
+		return true;
+	}
+
+	private void initializedDB(final SQLiteDatabase db) throws SQLiteException {
+		db.beginTransaction();
 
 		// ------------
 		// If no lists, insert a list and example note.
@@ -336,10 +425,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(preName + Notification.Columns.LATITUDE + postReal);
 			db.execSQL(preName + Notification.Columns.LONGITUDE + postReal);
 			db.execSQL(preName + Notification.Columns.RADIUS + postReal);
-			// Drop view
+			// Drop view. The provider now reads it as a subquery
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
-			// Recreate view with additional tables
-			db.execSQL(Notification.CREATE_JOINED_VIEW);
 		}
 		if (oldVersion < 11) {
 			// Mark as deleted when real item deleted
@@ -347,9 +434,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(RemoteTaskList.TRIGGER_REALDELETE_MARK);
 		}
 		if (oldVersion < 12) {
-			// Recreate trigger
+			// Drop trigger. Since version 20 it is no longer needed
 			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
-			db.execSQL(Task.TRIGGER_POST_DELETE);
 		}
 		if (oldVersion < 13) {
 			// Create move list trigger
@@ -358,15 +444,269 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(Task.TRIGGER_MOVE_LIST);
 		}
 		if (oldVersion < 14) {
-			// Update history update trigger
+			// Update history update trigger. Since version 26 it is created below, once the
+			// history has the columns it writes
 			db.execSQL("DROP TRIGGER IF EXISTS " + Task.HISTORY_UPDATE_TRIGGER_NAME);
-			db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
 		}
 		if (oldVersion < 15) {
 			// Drop view, changing to temporary view instead
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
 		}
+		if (oldVersion < 16) {
+			// Indexes for lists, reminders, sync and history
+			createIndexes(db);
+		}
+		if (oldVersion < 17) {
+			// Some "dblist" values were saved as BLOB or TEXT, see issue #525. Make them INTEGER
+			// again, so that "dblist = ?" finds them through the index. The triggers would see
+			// '1' -> 1 as a move to another list, so they are recreated afterwards
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_move_list_" + RemoteTask.TABLE_NAME);
+			normalizeListIds(db, Task.TABLE_NAME);
+			normalizeListIds(db, Task.DELETE_TABLE_NAME);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+			db.execSQL(RemoteTask.TRIGGER_MOVE_LIST);
+		}
+		if (oldVersion < 18) {
+			// Move list trigger skips tasks placed by Task.moveToList()
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+		}
+		if (oldVersion < 19) {
+			// Positions with gaps: inserts, deletes and moves no longer shift the whole list
+			db.execSQL("DROP TRIGGER IF EXISTS task_pre_insert");
+			db.execSQL(Task.TRIGGER_POST_INSERT_POSITION);
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+			Task.respace(db, null);
+		}
+		if (oldVersion < 20) {
+			// Positions are no longer checked by the triggers, see repairTaskPositions()
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_insert");
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+		}
+		if (oldVersion < 21) {
+			// The drawer reads the counts of open tasks from this, see TaskList.COUNT_QUERY
+			createListStats(db);
+		}
+		if (oldVersion < 22) {
+			// Older versions of notes are stored as deltas, see TaskHistory
+			db.execSQL("ALTER TABLE " + Task.HISTORY_TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.HIST_KIND + " INTEGER NOT NULL DEFAULT "
+					+ TaskHistory.KIND_FULL);
+			// after the upgrade, it needs the database
+			TaskHistory.compactAllLater(context);
+		}
+		if (oldVersion < 23) {
+			// Search tables with external content, see SearchIndex
+			for (String name : new String[] { "task_fts3_insert", "task_fts3_update",
+					"task_fts3_delete", "deletedtask_fts3_insert", "deletedtask_fts3_update",
+					"deletedtask_fts3_delete" }) {
+				db.execSQL("DROP TRIGGER IF EXISTS " + name);
+			}
+			db.execSQL("DROP TABLE IF EXISTS " + Task.FTS3_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + Task.FTS3_DELETE_TABLE_NAME);
+			SearchIndex.create(db);
+			SearchIndex.rebuild(db);
+		}
+		if (oldVersion < 24) {
+			// Index to purge the deleted tasks, see TrashPurge
+			createIndexes(db);
+		}
+		if (oldVersion < 25) {
+			// Large notes are stored out of the task table, see NoteBlobs
+			db.execSQL("ALTER TABLE " + Task.TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.NOTE_BLOB + " INTEGER DEFAULT NULL");
+			db.execSQL("ALTER TABLE " + Task.DELETE_TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.NOTE_BLOB + " INTEGER DEFAULT NULL");
+			NoteBlobs.create(db);
+			// deleted tasks keep their blob
+			db.execSQL("DROP TRIGGER IF EXISTS task_pre_delete");
+			db.execSQL(Task.TRIGGER_PRE_DELETE);
+			// Moving a note is not an edit of it. The old trigger would save a version with
+			// only the start of the note and no blob. It is created again below
+			db.execSQL("DROP TRIGGER IF EXISTS " + Task.HISTORY_UPDATE_TRIGGER_NAME);
+			NoteBlobs.moveLargeNotes(db);
+		}
+		if (oldVersion < 26) {
+			// The history keeps the blob of large notes, see NoteBlobs
+			db.execSQL("ALTER TABLE " + Task.HISTORY_TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.NOTE_BLOB + " INTEGER DEFAULT NULL");
+			db.execSQL("DROP TRIGGER IF EXISTS " + Task.HISTORY_INSERT_TRIGGER_NAME);
+			db.execSQL(Task.CREATE_HISTORY_INSERT_TRIGGER);
+			db.execSQL("DROP TRIGGER IF EXISTS " + Task.HISTORY_UPDATE_TRIGGER_NAME);
+			db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
+		}
 		// TODO if you want to change the database, add code here to handle the upgrade!
+
+		// Whatever the old version did to the positions, leave them in order
+		repairTaskPositions(db);
+		// and count the tasks again, the steps above may have changed them without triggers
+		repairListStats(db);
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		if (BuildConfig.DEBUG && sVerified.compareAndSet(false, true)) {
+			// Find bugs in the code that moves tasks early, where they are made. Only looks,
+			// in the background: repairing is for the action in the settings
+			sVerifier.execute(() -> {
+				try {
+					final long[] broken = verifyTaskPositions(db);
+					if (broken.length > 0) {
+						NnnLogger.error(DatabaseHandler.class, "Task positions are broken in"
+								+ " lists " + Arrays.toString(broken));
+					}
+					final long[] wrong = verifyListStats(db);
+					if (wrong.length > 0) {
+						NnnLogger.error(DatabaseHandler.class, "Task counts are wrong in"
+								+ " lists " + Arrays.toString(wrong));
+					}
+				} catch (SQLException | IllegalStateException e) {
+					// the database was closed meanwhile
+					NnnLogger.exception(e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Finds the lists where two tasks have the same or overlapping positions, or a task has
+	 * {@link Task.Columns#LEFT} >= {@link Task.Columns#RIGHT}.
+	 * A UNIQUE constraint can't do this, because SQLite checks it after each row and not
+	 * after each statement, and checking in the triggers made every write as slow as a scan
+	 * of the whole list. So the positions are checked here instead, only when needed
+	 *
+	 * @return the IDs of the broken lists
+	 */
+	public static long[] verifyTaskPositions(final SQLiteDatabase db) {
+		final Cursor c = db.query(Task.TABLE_NAME,
+				new String[] { Task.Columns.DBLIST, Task.Columns.LEFT, Task.Columns.RIGHT },
+				null, null, null, null, Task.Columns.DBLIST + "," + Task.Columns.LEFT);
+		final ArrayList<Long> broken = new ArrayList<>();
+		long list = -1;
+		long prevRight = 0;
+		boolean listBroken = false;
+		while (c.moveToNext()) {
+			if (c.getLong(0) != list) {
+				list = c.getLong(0);
+				prevRight = 0;
+				listBroken = false;
+			}
+			final long left = c.getLong(1);
+			final long right = c.getLong(2);
+			if (!listBroken && (left >= right || left <= prevRight)) {
+				broken.add(list);
+				listBroken = true;
+			}
+			prevRight = Math.max(prevRight, right);
+		}
+		c.close();
+
+		final long[] result = new long[broken.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = broken.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Renumbers the lists found by {@link #verifyTaskPositions(SQLiteDatabase)}, in one pass
+	 * each. The order of tasks in a list is kept, as far as it can be known
+	 *
+	 * @return how many lists were repaired
+	 */
+	public static int repairTaskPositions(final SQLiteDatabase db) {
+		final long[] broken = verifyTaskPositions(db);
+		if (broken.length == 0) {
+			return 0;
+		}
+		db.beginTransaction();
+		try {
+			for (long listId : broken) {
+				Task.respace(db, listId);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return broken.length;
+	}
+
+	/**
+	 * Checks and repairs the positions of tasks and the counts of open tasks in the app's
+	 * database, for the maintenance action in the settings. They are too slow to repair
+	 * every time the database opens: debug builds only check them once, in
+	 * {@link #onOpen}. See {@link #repairTaskPositions(SQLiteDatabase)} and
+	 * {@link #repairListStats(SQLiteDatabase)}
+	 *
+	 * @return how many lists had broken positions
+	 */
+	public static int repairTaskPositions(final Context context) {
+		final SQLiteDatabase db = getInstance(context).getWritableDatabase();
+		final int repaired = repairTaskPositions(db);
+		if (repaired > 0) {
+			NnnLogger.error(DatabaseHandler.class,
+					"Task positions were broken in " + repaired + " lists");
+			DAO.notifyProviderOnChange(context, Task.URI);
+		}
+		final int recounted = repairListStats(db);
+		if (recounted > 0) {
+			NnnLogger.error(DatabaseHandler.class,
+					"Task counts were wrong in " + recounted + " lists");
+			DAO.notifyProviderOnChange(context, TaskList.URI_WITH_COUNT);
+		}
+		return repaired;
+	}
+
+	/**
+	 * Finds the lists whose row in {@link TaskList#STATS_TABLE_NAME} is missing, or does not
+	 * have the number of open tasks in the list
+	 *
+	 * @return the IDs of these lists
+	 */
+	public static long[] verifyListStats(final SQLiteDatabase db) {
+		final Cursor c = db.rawQuery("SELECT counted." + TaskList.Columns._ID + " FROM ("
+				+ TaskList.COUNT_OPEN_TASKS + ") AS counted LEFT JOIN "
+				+ TaskList.STATS_TABLE_NAME + " ON counted." + TaskList.Columns._ID + " = "
+				+ TaskList.Columns.STATS_LIST_ID + " WHERE counted." + TaskList.Columns.VIEW_COUNT
+				+ " IS NOT " + TaskList.Columns.STATS_OPEN_COUNT, null);
+		final long[] result = new long[c.getCount()];
+		for (int i = 0; c.moveToNext(); i++) {
+			result[i] = c.getLong(0);
+		}
+		c.close();
+		return result;
+	}
+
+	/**
+	 * Counts again the open tasks of the lists found by
+	 * {@link #verifyListStats(SQLiteDatabase)}, and removes the rows of lists that don't
+	 * exist anymore
+	 *
+	 * @return how many lists were counted again
+	 */
+	public static int repairListStats(final SQLiteDatabase db) {
+		final long[] wrong = verifyListStats(db);
+		db.beginTransaction();
+		try {
+			if (wrong.length > 0) {
+				db.execSQL("INSERT OR REPLACE INTO " + TaskList.STATS_TABLE_NAME + " ("
+						+ TaskList.Columns.STATS_LIST_ID + "," + TaskList.Columns.STATS_OPEN_COUNT
+						+ ") " + TaskList.COUNT_OPEN_TASKS + " WHERE " + TaskList.Columns._ID
+						+ " IN (" + DAO.arrayToCommaString(wrong) + ")");
+			}
+			db.execSQL("DELETE FROM " + TaskList.STATS_TABLE_NAME + " WHERE "
+					+ TaskList.Columns.STATS_LIST_ID + " NOT IN (SELECT " + TaskList.Columns._ID
+					+ " FROM " + TaskList.TABLE_NAME + ")");
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return wrong.length;
 	}
 
 	/**
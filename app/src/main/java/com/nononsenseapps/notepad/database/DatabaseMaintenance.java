@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+
+import androidx.preference.PreferenceManager;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+/**
+ * Keeps the database file compact and the query planner informed. Years of moved tasks,
+ * history versions and deleted tasks leave free pages in the file, many small segments in
+ * the search indexes and old statistics for the planner. {@link #run} fixes them a step at
+ * a time, each one short, until its time is up:
+ *
+ * 1. removes the large notes no task uses anymore, see {@link NoteBlobs}
+ * 2. merges the segments of the search indexes, a few pages per statement
+ * 3. runs ANALYZE
+ * 4. frees the unused pages of the file with an incremental vacuum. The first run turns
+ * it on, with a full VACUUM
+ *
+ * The next run continues where this one stopped. It's scheduled by
+ * {@link MaintenanceJobService}, and can be started from the preferences
+ */
+public final class DatabaseMaintenance {
+
+	/**
+	 * How long a run may take, in milliseconds. A step that started goes on until it's
+	 * done, so a run can take a little longer
+	 */
+	public static final long DEFAULT_BUDGET_MS = 30_000;
+
+	/**
+	 * Pages of the search index merged by each statement, see "merge=X,Y" in the FTS4 docs
+	 */
+	private static final int MERGE_PAGES = 200;
+
+	/**
+	 * Merge the segments of a level once there are this many
+	 */
+	private static final int MERGE_MIN_SEGMENTS = 2;
+
+	/**
+	 * Free pages given back to the file system by each statement of the incremental vacuum
+	 */
+	private static final int VACUUM_PAGES = 256;
+
+	/**
+	 * Rows read by ANALYZE from each index. Ignored by SQLite before 3.32
+	 */
+	private static final int ANALYSIS_LIMIT = 1000;
+
+	// PRAGMA auto_vacuum
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+	// the results of the last run, in the default shared preferences
+	private static final String KEY_LAST_TIME = "db_maintenance_time";
+	private static final String KEY_LAST_DURATION = "db_maintenance_duration";
+	private static final String KEY_LAST_PAGE_SIZE = "db_maintenance_page_size";
+	private static final String KEY_LAST_PAGES_BEFORE = "db_maintenance_pages_before";
+	private static final String KEY_LAST_PAGES_AFTER = "db_maintenance_pages_after";
+	private static final String KEY_LAST_FREE_BEFORE = "db_maintenance_free_before";
+	private static final String KEY_LAST_FREE_AFTER = "db_maintenance_free_after";
+	private static final String KEY_LAST_FINISHED = "db_maintenance_finished";
+
+	private DatabaseMaintenance() {}
+
+	/**
+	 * What a run did
+	 */
+	public static final class Stats {
+		/**
+		 * When it ran, in milliseconds, or 0 if it never did
+		 */
+		public final long time;
+		/**
+		 * How long it took, in milliseconds
+		 */
+		public final long durationMs;
+		public final long pageSize;
+		/**
+		 * Pages of the file, before and after
+		 */
+		public final long pagesBefore;
+		public final long pagesAfter;
+		/**
+		 * Pages of the file that were not used, before and after
+		 */
+		public final long freePagesBefore;
+		public final long freePagesAfter;
+		/**
+		 * False if it was stopped, or its time was up, before all steps were done
+		 */
+		public final boolean finished;
+
+		Stats(final long time, final long durationMs, final long pageSize,
+			  final long pagesBefore, final long pagesAfter, final long freePagesBefore,
+			  final long freePagesAfter, final boolean finished) {
+			this.time = time;
+			this.durationMs = durationMs;
+			this.pageSize = pageSize;
+			this.pagesBefore = pagesBefore;
+			this.pagesAfter = pagesAfter;
+			this.freePagesBefore = freePagesBefore;
+			this.freePagesAfter = freePagesAfter;
+			this.finished = finished;
+		}
+
+		public long getBytesBefore() {
+			return pagesBefore * pageSize;
+		}
+
+		public long getBytesAfter() {
+			return pagesAfter * pageSize;
+		}
+	}
+
+	private static SharedPreferences prefs(final Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context);
+	}
+
+	/**
+	 * Runs {@link #run(SQLiteDatabase, long, CancellationSignal)} and saves its
+	 * {@link Stats}. Call it from a background thread
+	 *
+	 * @param signal to stop it early, or null
+	 */
+	public static Stats run(final Context context, final long budgetMs,
+							final CancellationSignal signal) {
+		final Stats stats = run(DatabaseHandler.getInstance(context).getWritableDatabase(),
+				budgetMs, signal);
+		prefs(context).edit()
+				.putLong(KEY_LAST_TIME, stats.time)
+				.putLong(KEY_LAST_DURATION, stats.durationMs)
+				.putLong(KEY_LAST_PAGE_SIZE, stats.pageSize)
+				.putLong(KEY_LAST_PAGES_BEFORE, stats.pagesBefore)
+				.putLong(KEY_LAST_PAGES_AFTER, stats.pagesAfter)
+				.putLong(KEY_LAST_FREE_BEFORE, stats.freePagesBefore)
+				.putLong(KEY_LAST_FREE_AFTER, stats.freePagesAfter)
+				.putBoolean(KEY_LAST_FINISHED, stats.finished)
+				.apply();
+		return stats;
+	}
+
+	/**
+	 * @return what the last {@link #run(Context, long, CancellationSignal)} did
+	 */
+	public static Stats getLastStats(final Context context) {
+		final SharedPreferences prefs = prefs(context);
+		return new Stats(prefs.getLong(KEY_LAST_TIME, 0), prefs.getLong(KEY_LAST_DURATION, 0),
+				prefs.getLong(KEY_LAST_PAGE_SIZE, 0), prefs.getLong(KEY_LAST_PAGES_BEFORE, 0),
+				prefs.getLong(KEY_LAST_PAGES_AFTER, 0), prefs.getLong(KEY_LAST_FREE_BEFORE, 0),
+				prefs.getLong(KEY_LAST_FREE_AFTER, 0), prefs.getBoolean(KEY_LAST_FINISHED, false));
+	}
+
+	/**
+	 * Runs the steps of the maintenance, until they are done or the time is up
+	 *
+	 * @param budgetMs how long it may take, in milliseconds
+	 * @param signal   to stop it early, or null
+	 */
+	public static Stats run(final SQLiteDatabase db, final long budgetMs,
+							final CancellationSignal signal) {
+		final long start = SystemClock.elapsedRealtime();
+		final long deadline = start + budgetMs;
+		final long pageSize = pragma(db, "page_size");
+		final long pagesBefore = pragma(db, "page_count");
+		final long freeBefore = pragma(db, "freelist_count");
+
+		boolean finished = false;
+		if (hasTime(deadline, signal)) {
+			NoteBlobs.collectGarbage(db);
+			finished = mergeIndex(db, Task.FTS_TABLE_NAME, deadline, signal)
+					&& mergeIndex(db, Task.FTS_DELETE_TABLE_NAME, deadline, signal)
+					&& mergeIndex(db, NoteBlobs.FTS_TABLE_NAME, deadline, signal)
+					&& analyze(db, deadline, signal)
+					&& vacuum(db, deadline, signal);
+		}
+
+		final Stats stats = new Stats(System.currentTimeMillis(),
+				SystemClock.elapsedRealtime() - start, pageSize, pagesBefore,
+				pragma(db, "page_count"), freeBefore, pragma(db, "freelist_count"), finished);
+		NnnLogger.debug(DatabaseMaintenance.class, "Pages " + stats.pagesBefore + " -> "
+				+ stats.pagesAfter + ", free " + stats.freePagesBefore + " -> "
+				+ stats.freePagesAfter + ", in " + stats.durationMs + " ms"
+				+ (finished ? "" : ", not finished"));
+		return stats;
+	}
+
+	private static boolean hasTime(final long deadline, final CancellationSignal signal) {
+		return SystemClock.elapsedRealtime() < deadline
+				&& (signal == null || !signal.isCanceled());
+	}
+
+	private static long pragma(final SQLiteDatabase db, final String name) {
+		return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+	}
+
+	/**
+	 * Merges the segments of the index, {@link #MERGE_PAGES} at a time. Each merge is short,
+	 * so writes don't wait for it
+	 *
+	 * @return true if there is nothing left to merge
+	 */
+	private static boolean mergeIndex(final SQLiteDatabase db, final String table,
+									  final long deadline, final CancellationSignal signal) {
+		while (hasTime(deadline, signal)) {
+			final long changes;
+			// total_changes() is of the connection: the transaction keeps both on the same one
+			db.beginTransaction();
+			try {
+				final long before = DatabaseUtils.longForQuery(db,
+						"SELECT total_changes()", null);
+				db.execSQL("INSERT INTO " + table + "(" + table + ") VALUES('merge="
+						+ MERGE_PAGES + "," + MERGE_MIN_SEGMENTS + "')");
+				changes = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null)
+						- before;
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			// as the FTS4 docs say: less than 2 changes means the merge is done
+			if (changes < 2) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gathers the statistics of the tables and indexes for the query planner
+	 *
+	 * @return true if it ran
+	 */
+	private static boolean analyze(final SQLiteDatabase db, final long deadline,
+								   final CancellationSignal signal) {
+		if (!hasTime(deadline, signal)) return false;
+		db.execSQL("PRAGMA analysis_limit = " + ANALYSIS_LIMIT);
+		db.execSQL("ANALYZE");
+		return true;
+	}
+
+	/**
+	 * Gives the free pages back to the file system, {@link #VACUUM_PAGES} at a time. The
+	 * incremental vacuum needs auto_vacuum, which only a full VACUUM can turn on for a file
+	 * that has tables: it's done once, by the first run
+	 *
+	 * @return true if no free pages are left
+	 */
+	private static boolean vacuum(final SQLiteDatabase db, final long deadline,
+								  final CancellationSignal signal) {
+		if (pragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+			if (!hasTime(deadline, signal)) return false;
+			db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+			db.execSQL("VACUUM");
+			return true;
+		}
+		while (pragma(db, "freelist_count") > 0) {
+			if (!hasTime(deadline, signal)) return false;
+			// as a query: execSQL() would step it only once, freeing a single page
+			try (Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")",
+					null)) {
+				while (c.moveToNext()) {
+					// each row is a page that was freed
+				}
+			}
+		}
+		return true;
+	}
+}
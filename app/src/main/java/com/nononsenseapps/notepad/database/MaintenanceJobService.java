@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.SQLException;
+import android.os.CancellationSignal;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link DatabaseMaintenance} about once a day, when the device is idle and charging
+ */
+public class MaintenanceJobService extends JobService {
+
+	// Unique ID for the job
+	private static final int JOB_ID = 2833;
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+	private CancellationSignal mSignal;
+
+	/**
+	 * Schedules the job, if it isn't already. It stays scheduled after a reboot
+	 */
+	public static void schedule(final Context context) {
+		final JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+		if (scheduler == null) return;
+		for (JobInfo job : scheduler.getAllPendingJobs()) {
+			// scheduling it again would start the wait for the next run over
+			if (job.getId() == JOB_ID) return;
+		}
+		scheduler.schedule(new JobInfo.Builder(JOB_ID,
+				new ComponentName(context, MaintenanceJobService.class))
+				.setRequiresDeviceIdle(true)
+				.setRequiresCharging(true)
+				.setPeriodic(TimeUnit.DAYS.toMillis(1))
+				.setPersisted(true)
+				.build());
+	}
+
+	@Override
+	public boolean onStartJob(final JobParameters params) {
+		final CancellationSignal signal = new CancellationSignal();
+		mSignal = signal;
+		sExecutor.execute(() -> {
+			try {
+				// an unfinished run goes on the next time
+				DatabaseMaintenance.run(getApplicationContext(),
+						DatabaseMaintenance.DEFAULT_BUDGET_MS, signal);
+			} catch (SQLException | IllegalStateException e) {
+				// such as SQLiteFullException: VACUUM needs about as much free space as the
+				// database. The next run tries again
+				NnnLogger.exception(e);
+			} finally {
+				jobFinished(params, false);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean onStopJob(final JobParameters params) {
+		// the device is in use again
+		if (mSignal != null) mSignal.cancel();
+		return false;
+	}
+}
@@ -19,23 +19,39 @@ package com.nononsenseapps.notepad.database;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.NonNull;
 
 import com.nononsenseapps.helpers.NnnLogger;
-import com.nononsenseapps.helpers.UpdateNotifier;
 import com.nononsenseapps.notepad.BuildConfig;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MyContentProvider extends ContentProvider {
 
@@ -47,8 +63,18 @@ public class MyContentProvider extends ContentProvider {
 	public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".MyContentAuthority";
 
 	public static final String SCHEME = "content://";
+
+	/**
+	 * {@link #bulkInsert} lets other threads use the database after this many rows
+	 */
+	private static final int BULK_INSERT_YIELD_STEP = 500;
 	private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+	/**
+	 * Writes the notes opened by {@link #openFile} into their pipes
+	 */
+	private static final ExecutorService sPipeWriter = Executors.newCachedThreadPool();
+
 	static {
 		TaskList.addMatcherUris(sURIMatcher);
 		Task.addMatcherUris(sURIMatcher);
@@ -57,9 +83,23 @@ public class MyContentProvider extends ContentProvider {
 		RemoteTask.addMatcherUris(sURIMatcher);
 	}
 
+	/**
+	 * Serializes the writes. Queries don't take it: with write-ahead logging they run in
+	 * parallel on their own connections, and see the last committed data
+	 */
+	private final ReentrantLock mWriteLock = new ReentrantLock();
+
 	public MyContentProvider() {
 	}
 
+	/**
+	 * Temporary views exist only in the connection that created them, but queries can run on
+	 * any connection of the pool. So the provider reads "views" as named subqueries
+	 */
+	private static String asSubquery(final String select, final String name) {
+		return "(" + select + ") AS " + name;
+	}
+
 	@Override
 	public String getType(@NonNull Uri uri) {
 		switch (sURIMatcher.match(uri)) {
@@ -77,6 +117,7 @@ public class MyContentProvider extends ContentProvider {
 				return TaskList.CONTENT_TYPE;
 			case Task.BASEITEMCODE:
 			case Task.BASEURICODE:
+			case Task.PAGEDQUERYCODE:
 			case Task.SECTIONEDDATEITEMCODE:
 			case Task.SECTIONEDDATEQUERYCODE:
 			case Task.LEGACYBASEITEMCODE:
@@ -86,6 +127,8 @@ public class MyContentProvider extends ContentProvider {
 			case Task.SEARCHCODE:
 			case Task.SEARCHSUGGESTIONSCODE:
 				return Task.CONTENT_TYPE;
+			case Task.NOTEBLOBCODE:
+				return NoteBlobs.CONTENT_TYPE;
 			default:
 				// throw new IllegalArgumentException("Unknown URI " + uri);
 		}
@@ -106,61 +149,348 @@ public class MyContentProvider extends ContentProvider {
 
 	@Override
 	public boolean onCreate() {
+		ProviderProfiler.init(Objects.requireNonNull(getContext()));
 		return true;
 	}
 
+	/**
+	 * Opens the whole note of a {@link NoteBlobs} blob, for reading only. It's uncompressed
+	 * on another thread as the caller reads it, so the note is never whole in memory here.
+	 * If it can't be read to the end, the pipe is closed with an error, which the caller
+	 * finds with {@link ParcelFileDescriptor#checkError()}
+	 */
+	@Override
+	public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+			throws FileNotFoundException {
+		if (sURIMatcher.match(uri) != Task.NOTEBLOBCODE || !"r".equals(mode)) {
+			throw new FileNotFoundException("Can't open " + uri + " in mode " + mode);
+		}
+		final long id = Long.parseLong(uri.getLastPathSegment());
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getReadableDatabase();
+		if (!NoteBlobs.exists(db, id)) {
+			throw new FileNotFoundException("No note blob " + id);
+		}
+		final ParcelFileDescriptor[] pipe;
+		try {
+			pipe = ParcelFileDescriptor.createReliablePipe();
+		} catch (IOException e) {
+			throw new FileNotFoundException("Can't open a pipe for " + uri);
+		}
+		final ParcelFileDescriptor output = pipe[1];
+		sPipeWriter.execute(() -> {
+			final byte[] buffer = new byte[8192];
+			try {
+				try (InputStream in = NoteBlobs.open(db, id);
+					 OutputStream out = new FileOutputStream(output.getFileDescriptor())) {
+					int read;
+					while ((read = in.read(buffer)) >= 0) out.write(buffer, 0, read);
+				}
+				output.close();
+			} catch (IOException | SQLException e) {
+				NnnLogger.exception(e);
+				try {
+					// so that the reader does not take what it got for the whole note
+					output.closeWithError(e.toString());
+				} catch (IOException closeError) {
+					// the reader went away
+				}
+			}
+		});
+		return pipe[0];
+	}
+
 	@Override
-	synchronized public Uri insert(@NonNull Uri uri, ContentValues values) {
+	public Uri insert(@NonNull Uri uri, ContentValues values) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 
 		Uri result = null;
+		final ProviderProfiler.Write profile =
+				ProviderProfiler.startWrite(ProviderProfiler.OP_INSERT, uri);
 
+		mWriteLock.lock();
 		db.beginTransaction();
-		// Do not add legacy URIs
 		try {
-			final DAO item = switch (sURIMatcher.match(uri)) {
-				case TaskList.BASEURICODE -> new TaskList(values);
-				case Task.BASEURICODE -> new Task(values);
-				case Notification.BASEURICODE, Notification.WITHTASKQUERYITEMCODE ->
-						new Notification(values);
-				case RemoteTaskList.BASEURICODE -> new RemoteTaskList(values);
-				case RemoteTask.BASEURICODE -> new RemoteTask(values);
-				default -> throw new IllegalArgumentException("Faulty insertURI provided: " + uri);
-			};
-
-			result = item.insert(getContext(), db);
+			if (profile != null) profile.changesBefore(db);
+			result = insertItem(db, uri, values);
+			if (profile != null) profile.changesAfter(db);
 			db.setTransactionSuccessful();
 		} catch (SQLException e) {
 			// Crap...
 		} finally {
 			db.endTransaction();
+			mWriteLock.unlock();
 		}
+		ProviderProfiler.endWrite(profile, sURIMatcher.match(uri), result == null ? 0 : 1);
 
 		if (result != null) {
-			Objects.requireNonNull(getContext());
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
-			UpdateNotifier.notifyChangeList(getContext());
+			invalidateSearch(uri);
+			notifyOnWrite(insertedUris(uri, values));
 		}
 
 		return result;
 	}
 
+	/**
+	 * @return what to notify after inserting {@code values} in {@code uri}. A new task only
+	 * changes its list, the item itself is notified by {@link DAO#insert}
+	 */
+	private static Uri[] insertedUris(final Uri uri, final ContentValues values) {
+		if (sURIMatcher.match(uri) == Task.BASEURICODE
+				&& values.getAsLong(Task.Columns.DBLIST) != null) {
+			return new Uri[] { Task.getListUri(values.getAsLong(Task.Columns.DBLIST)),
+					Task.URI_SMART_COUNTS, TaskList.URI_WITH_COUNT };
+		}
+		return new Uri[] { uri, TaskList.URI_WITH_COUNT };
+	}
+
+	/**
+	 * More tasks than this are notified through their lists only
+	 */
+	private static final int MAX_TASK_URIS = 100;
+
+	/**
+	 * Adds the {@link Uri}s to notify for a write to the tasks matching the selection: their
+	 * lists, the tasks themselves and the counts of the drawer. Must run before the write,
+	 * so that tasks which are moved or deleted still notify the list they were in
+	 */
+	private static void addTaskUris(final SQLiteDatabase db, final String selection,
+									final String[] selectionArgs, final Set<Uri> uris) {
+		final Cursor c = db.query(Task.TABLE_NAME,
+				new String[] { Task.Columns._ID, Task.Columns.DBLIST },
+				selection, selectionArgs, null, null, null);
+		final boolean withItems = c.getCount() <= MAX_TASK_URIS;
+		while (c.moveToNext()) {
+			if (withItems) uris.add(Task.getUri(c.getLong(0)));
+			uris.add(Task.getListUri(c.getLong(1)));
+		}
+		c.close();
+		uris.add(Task.URI_SMART_COUNTS);
+		uris.add(TaskList.URI_WITH_COUNT);
+	}
+
+	/**
+	 * @return the notification {@link Uri} for a query of tasks: the list's own uri if the
+	 * selection only takes tasks of one list, like TaskListFragment and the widgets do,
+	 * or {@link Task#URI}
+	 */
+	private static Uri taskNotificationUri(final String selection,
+										   final String[] selectionArgs) {
+		if (selection != null && selectionArgs != null && selectionArgs.length > 0
+				&& (isInList(selection, " = ?") || isInList(selection, " IS ?"))
+				&& !selection.toUpperCase(Locale.ROOT).contains(" OR ")) {
+			try {
+				return Task.getListUri(Long.parseLong(selectionArgs[0]));
+			} catch (NumberFormatException e) {
+				// not a list id
+			}
+		}
+		return Task.URI;
+	}
+
+	private static boolean isInList(final String selection, final String operator) {
+		final String inList = Task.Columns.DBLIST + operator;
+		return selection.equals(inList) || selection.startsWith(inList + " AND ");
+	}
+
+	/**
+	 * Inserts a single row. The caller must handle the transaction and the notifications
+	 *
+	 * @return the {@link Uri} of the new item
+	 * @throws SQLException if the insert failed
+	 */
+	private Uri insertItem(final SQLiteDatabase db, final Uri uri, final ContentValues values) {
+		// Do not add legacy URIs
+		final DAO item = switch (sURIMatcher.match(uri)) {
+			case TaskList.BASEURICODE -> new TaskList(values);
+			case Task.BASEURICODE -> new Task(NoteBlobs.prepare(db, values));
+			case Notification.BASEURICODE, Notification.WITHTASKQUERYITEMCODE ->
+					new Notification(values);
+			case RemoteTaskList.BASEURICODE -> new RemoteTaskList(values);
+			case RemoteTask.BASEURICODE -> new RemoteTask(values);
+			default -> throw new IllegalArgumentException("Faulty insertURI provided: " + uri);
+		};
+		return item.insert(getContext(), db);
+	}
+
+	/**
+	 * Inserts all rows in a single transaction, and notifies observers only once at the end,
+	 * instead of once for each row like {@link ContentProvider#bulkInsert} does.
+	 * Every {@link #BULK_INSERT_YIELD_STEP} rows the transaction is committed if another
+	 * thread is waiting for the database, so a big import does not block the UI.
+	 *
+	 * @throws SQLException if a row could not be inserted. Rows committed at a yield
+	 *                      point remain in the database
+	 */
+	@Override
+	public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final boolean ownsBatch = DAO.beginBatchNotifications();
+		boolean committed = false;
+		int result = 0;
+		final ProviderProfiler.Write profile =
+				ProviderProfiler.startWrite(ProviderProfiler.OP_BULK_INSERT, uri);
+
+		mWriteLock.lock();
+		db.beginTransaction();
+		try {
+			if (profile != null) profile.changesBefore(db);
+			for (ContentValues row : values) {
+				insertItem(db, uri, row);
+				result++;
+				if (result % BULK_INSERT_YIELD_STEP == 0) {
+					db.yieldIfContendedSafely();
+				}
+			}
+			if (profile != null) profile.changesAfter(db);
+			db.setTransactionSuccessful();
+			committed = true;
+		} finally {
+			db.endTransaction();
+			mWriteLock.unlock();
+			ProviderProfiler.endWrite(profile, sURIMatcher.match(uri), result);
+			if (ownsBatch) {
+				final Set<Uri> changed = DAO.endBatchNotifications();
+				if (committed && result > 0) {
+					invalidateSearch(uri);
+					for (ContentValues row : values) {
+						changed.addAll(Arrays.asList(insertedUris(uri, row)));
+					}
+					flushNotifications(changed);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Applies all operations in a single transaction. Observers and widgets are notified once,
+	 * after the commit, for each {@link Uri} changed by the batch. Operations built with
+	 * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)} let other threads
+	 * use the database before they run: everything before them is committed.
+	 */
+	@NonNull
+	@Override
+	public ContentProviderResult[] applyBatch(
+			@NonNull ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final boolean ownsBatch = DAO.beginBatchNotifications();
+		final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+		boolean committed = false;
+
+		mWriteLock.lock();
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < operations.size(); i++) {
+				final ContentProviderOperation op = operations.get(i);
+				if (i > 0 && op.isYieldAllowed()) {
+					db.yieldIfContendedSafely();
+				}
+				results[i] = op.apply(this, results, i);
+			}
+			db.setTransactionSuccessful();
+			committed = true;
+		} finally {
+			db.endTransaction();
+			mWriteLock.unlock();
+			if (ownsBatch) {
+				final Set<Uri> changed = DAO.endBatchNotifications();
+				if (committed) flushNotifications(changed);
+			}
+		}
+		if (committed) {
+			// the operations did it before the commit: a search may have kept old results since
+			for (ContentProviderOperation op : operations) {
+				if (changesTasks(op.getUri())) {
+					SearchIndex.invalidate();
+					break;
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return false if a write on the uri can't change the results of a search: the
+	 * reminders and the sync tables are not searched
+	 */
+	private static boolean changesTasks(final Uri uri) {
+		switch (sURIMatcher.match(uri)) {
+			case Notification.BASEITEMCODE:
+			case Notification.BASEURICODE:
+			case Notification.WITHTASKQUERYITEMCODE:
+			case RemoteTaskList.BASEITEMCODE:
+			case RemoteTaskList.BASEURICODE:
+			case RemoteTask.BASEITEMCODE:
+			case RemoteTask.BASEURICODE:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Forgets the results of the last search if the write on the uri changed tasks. Call it
+	 * after the commit, so that the next search reads the new data
+	 */
+	private static void invalidateSearch(final Uri uri) {
+		if (changesTasks(uri)) SearchIndex.invalidate();
+	}
+
+	/**
+	 * Tells observers and widgets that the given {@link Uri}s changed. If a batch is running,
+	 * they are collected and notified when it ends. See {@link #flushNotifications(Set)}
+	 */
+	private void notifyOnWrite(final Uri... uris) {
+		Objects.requireNonNull(getContext());
+		for (Uri u : uris) {
+			DAO.notifyProviderOnChange(getContext(), u);
+		}
+		if (!DAO.isBatchRunning()) {
+			notifyWidgets();
+		}
+	}
+
+	/**
+	 * Gives the {@link Uri}s changed by a batch to the {@link ChangeDispatcher}, which
+	 * notifies each one once, and then updates the widgets
+	 */
+	private void flushNotifications(final Set<Uri> changed) {
+		Objects.requireNonNull(getContext());
+		ChangeDispatcher.getInstance(getContext()).post(false, changed);
+		notifyWidgets();
+	}
+
+	/**
+	 * The reminders and the widgets are refreshed after every write, together with the
+	 * other changes of the same moment. Widgets only load again if they show a list that
+	 * changed, see {@link ChangeDispatcher#flush()}
+	 */
+	private void notifyWidgets() {
+		ChangeDispatcher.getInstance(getContext()).post(true, Notification.URI);
+	}
+
 	@Override
-	synchronized public int update(@NonNull Uri uri, ContentValues values,
-								   String selection, String[] selectionArgs) {
+	public int update(@NonNull Uri uri, ContentValues values,
+					  String selection, String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
 		final Task t;
-		final SQLiteStatement stmt;
-		final String sql;
-		final ArrayList<Uri> updateUris = new ArrayList<>();
+		final Set<Uri> updateUris = new LinkedHashSet<>();
+		final ProviderProfiler.Write profile =
+				ProviderProfiler.startWrite(ProviderProfiler.OP_UPDATE, uri);
+		mWriteLock.lock();
 		db.beginTransaction();
 
 		try {
+			if (profile != null) profile.changesBefore(db);
 			// Do not add legacy URIs
 			switch (sURIMatcher.match(uri)) {
 				case TaskList.BASEITEMCODE:
@@ -172,45 +502,80 @@ public class MyContentProvider extends ContentProvider {
 							TaskList.whereIdArg(list._id, selectionArgs));
 					break;
 				case Task.MOVEITEMLEFTCODE:
-					updateUris.add(Task.URI);
+					addTaskUris(db, Task.whereIdIs(null),
+							new String[] { uri.getLastPathSegment() }, updateUris);
 					t = new Task(values);
-					sql = t.getSQLMoveItemLeft(values);
-					if (sql != null) {
-						stmt = db.compileStatement(sql);
-						result += stmt.executeUpdateDelete();
-					}
+					result += t.moveItemLeft(db, values);
 					break;
 				case Task.MOVEITEMRIGHTCODE:
-					updateUris.add(Task.URI);
+					addTaskUris(db, Task.whereIdIs(null),
+							new String[] { uri.getLastPathSegment() }, updateUris);
 					t = new Task(values);
-					sql = t.getSQLMoveItemRight(values);
-					if (sql != null) {
-						stmt = db.compileStatement(sql);
-						result += stmt.executeUpdateDelete();
+					result += t.moveItemRight(db, values);
+					break;
+				case Task.MOVETOLISTCODE:
+					// both the lists it leaves and the one it goes to
+					addTaskUris(db, selection, selectionArgs, updateUris);
+					updateUris.add(Task.getListUri(values.getAsLong(Task.Columns.DBLIST)));
+					result += Task.moveToList(db, values.getAsLong(Task.Columns.DBLIST),
+							selection, selectionArgs);
+					break;
+				case Task.SETCOMPLETEDCODE:
+					// the ids are the arguments. Only the lists that changed are notified
+					final Map<Long, Integer> completedIn = Task.setCompleted(db,
+							values.getAsLong(Task.Columns.COMPLETED),
+							values.getAsLong(Task.Columns.UPDATED), selectionArgs);
+					for (Map.Entry<Long, Integer> e : completedIn.entrySet()) {
+						updateUris.add(Task.getListUri(e.getKey()));
+						result += e.getValue();
+					}
+					if (result > 0) {
+						if (selectionArgs.length <= MAX_TASK_URIS) {
+							for (String id : selectionArgs) {
+								updateUris.add(Task.getUri(Long.parseLong(id)));
+							}
+						}
+						updateUris.add(Task.URI_SMART_COUNTS);
+						updateUris.add(TaskList.URI_WITH_COUNT);
 					}
 					break;
 				case Task.BASEITEMCODE:
-					updateUris.add(Task.URI);
-					updateUris.add(Task.URI_SECTIONED_BY_DATE);
+					t = new Task(uri, NoteBlobs.prepare(db, values));
+					addTaskUris(db, Task.whereIdIs(selection),
+							Task.whereIdArg(t._id, selectionArgs), updateUris);
+					if (t.dblist != null) updateUris.add(Task.getListUri(t.dblist));
 					updateUris.add(Task.URI_TASK_HISTORY);
-					updateUris.add(TaskList.URI);
-					updateUris.add(TaskList.URI_WITH_COUNT);
 					// regular update
-					t = new Task(uri, values);
 					if (t.getContent().size() > 0) {
 						// Something changed in task
-
-						result += db.update(Task.TABLE_NAME, t.getContent(),
-								Task.whereIdIs(selection),
-								Task.whereIdArg(t._id, selectionArgs));
+						if (selection == null) {
+							// what the sync does, row after row
+							result += StatementCache.of(db)
+									.update(Task.TABLE_NAME, t.getContent(), t._id);
+						} else {
+							result += db.update(Task.TABLE_NAME, t.getContent(),
+									Task.whereIdIs(selection),
+									Task.whereIdArg(t._id, selectionArgs));
+						}
+						if (values.containsKey(Task.Columns.TITLE)
+								|| values.containsKey(Task.Columns.NOTE)) {
+							// the trigger saved a new version
+							TaskHistory.compactLater(getContext(), t._id);
+						}
+						if (values.containsKey(Task.Columns.NOTE)) {
+							// the large note it had may not be used anymore
+							NoteBlobs.collectGarbageLater(getContext());
+						}
 					}
 					break;
 				case Task.BASEURICODE:
-					updateUris.add(Task.URI);
-					updateUris.add(TaskList.URI);
-					updateUris.add(TaskList.URI_WITH_COUNT);
+					addTaskUris(db, selection, selectionArgs, updateUris);
+					if (values.getAsLong(Task.Columns.DBLIST) != null) {
+						updateUris.add(Task.getListUri(values.getAsLong(Task.Columns.DBLIST)));
+					}
 					// Batch. No checks made
-					result += db.update(Task.TABLE_NAME, values, selection, selectionArgs);
+					result += db.update(Task.TABLE_NAME, NoteBlobs.prepare(db, values),
+							selection, selectionArgs);
 					break;
 				case Notification.BASEITEMCODE:
 				case Notification.WITHTASKQUERYITEMCODE:
@@ -252,28 +617,34 @@ public class MyContentProvider extends ContentProvider {
 					throw new IllegalArgumentException("Faulty URI provided: " + uri);
 			}
 
+			if (profile != null) profile.changesAfter(db);
 			if (result >= 0) {
 				db.setTransactionSuccessful();
 			}
 		} finally {
 			db.endTransaction();
+			mWriteLock.unlock();
 		}
+		ProviderProfiler.endWrite(profile, sURIMatcher.match(uri), result);
 
 		if (result >= 0) {
+			if (result > 0) invalidateSearch(uri);
 			for (Uri u : updateUris) {
 				DAO.notifyProviderOnChange(getContext(), u);
 			}
-			UpdateNotifier.notifyChangeList(getContext());
+			if (!DAO.isBatchRunning()) {
+				notifyWidgets();
+			}
 		}
 
 		return result;
 	}
 
-	synchronized private int safeDeleteItem(final SQLiteDatabase db,
-											final String tableName,
-											final Uri uri,
-											final String selection,
-											final String[] selectionArgs) {
+	private int safeDeleteItem(final SQLiteDatabase db,
+							   final String tableName,
+							   final Uri uri,
+							   final String selection,
+							   final String[] selectionArgs) {
 		db.beginTransaction();
 		int result = 0;
 		try {
@@ -291,11 +662,69 @@ public class MyContentProvider extends ContentProvider {
 	}
 
 	@Override
-	synchronized public int delete(@NonNull Uri uri, String selection,
-								   String[] selectionArgs) {
+	public int delete(@NonNull Uri uri, String selection,
+					  String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
+		final Set<Uri> deleteUris = new LinkedHashSet<>();
+		boolean deletesTasks = true;
+		final ProviderProfiler.Write profile =
+				ProviderProfiler.startWrite(ProviderProfiler.OP_DELETE, uri);
+		mWriteLock.lock();
+		// like the other writes, so that the profiler reads the changes of this connection
+		db.beginTransaction();
+		try {
+			if (profile != null) profile.changesBefore(db);
+			switch (sURIMatcher.match(uri)) {
+				case Task.BASEITEMCODE:
+					addTaskUris(db, Task.whereIdIs(selection), Task.whereIdArg(
+							Long.parseLong(uri.getLastPathSegment()), selectionArgs), deleteUris);
+					break;
+				case Task.BASEURICODE:
+					addTaskUris(db, selection, selectionArgs, deleteUris);
+					break;
+				case TaskList.BASEITEMCODE:
+					// its tasks are deleted with it
+					deleteUris.add(uri);
+					deleteUris.add(Task.getListUri(Long.parseLong(uri.getLastPathSegment())));
+					break;
+				case TaskList.BASEURICODE:
+					deleteUris.add(uri);
+					deleteUris.add(Task.URI);
+					break;
+				default:
+					deleteUris.add(uri);
+					deletesTasks = false;
+			}
+			result = deleteItems(db, uri, selection, selectionArgs);
+			if (profile != null) profile.changesAfter(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			mWriteLock.unlock();
+		}
+		ProviderProfiler.endWrite(profile, sURIMatcher.match(uri), result);
+
+		if (result > 0) {
+			invalidateSearch(uri);
+			deleteUris.add(TaskList.URI_WITH_COUNT);
+			notifyOnWrite(deleteUris.toArray(new Uri[0]));
+			if (deletesTasks) {
+				// they were copied to the archive, which may hold too many now
+				TrashPurge.purgeLater(getContext());
+			} else if (sURIMatcher.match(uri) == Task.DELETEDQUERYCODE
+					|| sURIMatcher.match(uri) == Task.DELETEDITEMCODE) {
+				// the large notes of the archive may not be used anymore
+				NoteBlobs.collectGarbageLater(getContext());
+			}
+		}
+		return result;
+	}
+
+	private int deleteItems(final SQLiteDatabase db, final Uri uri, final String selection,
+							final String[] selectionArgs) {
+		int result = 0;
 		// Do not add legacy URIs
 		switch (sURIMatcher.match(uri)) {
 			case TaskList.BASEITEMCODE:
@@ -348,20 +777,50 @@ public class MyContentProvider extends ContentProvider {
 			default:
 				throw new IllegalArgumentException("Faulty delete-URI provided: " + uri);
 		}
+		return result;
+	}
 
-		if (result > 0) {
-			Objects.requireNonNull(getContext());
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
-			UpdateNotifier.notifyChangeList(getContext());
+	/**
+	 * Searches can be cancelled, the other queries ignore the signal. Every query comes here,
+	 * it's where the {@link ProviderProfiler} measures them
+	 */
+	@Override
+	public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+						String[] selectionArgs, String sortOrder,
+						CancellationSignal cancellationSignal) {
+		final long start = ProviderProfiler.startQuery();
+		final int code = sURIMatcher.match(uri);
+		final Cursor result;
+		if (code == Task.SEARCHCODE) {
+			result = search(selectionArgs, sortOrder, cancellationSignal);
+		} else {
+			result = query(uri, projection, selection, selectionArgs, sortOrder);
+		}
+		if (start != 0) {
+			ProviderProfiler.endQuery(DatabaseHandler.getInstance(getContext())
+					.getReadableDatabase(), start, code, uri, result);
 		}
 		return result;
 	}
 
+	/**
+	 * The query of {@link Task#URI_SEARCH}
+	 */
+	private Cursor search(final String[] selectionArgs, final String sortOrder,
+						  final CancellationSignal signal) {
+		Objects.requireNonNull(getContext());
+		// the best matches first, unless another order is asked for
+		final Cursor result = SearchIndex.search(
+				DatabaseHandler.getInstance(getContext()).getReadableDatabase(),
+				selectionArgs != null && selectionArgs.length == 1 ? selectionArgs[0] : null,
+				sanitize(selectionArgs)[0], sortOrder, signal);
+		result.setNotificationUri(getContext().getContentResolver(), Task.URI_SEARCH);
+		return result;
+	}
+
 	@Override
-	synchronized public Cursor query(@NonNull Uri uri, String[] projection, String selection,
-									 String[] selectionArgs, String sortOrder) {
+	public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+						String[] selectionArgs, String sortOrder) {
 		Cursor result;
 		final long id;
 		Objects.requireNonNull(getContext());
@@ -388,18 +847,21 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case TaskList.VIEWCOUNTCODE:
-				// Create view if not exists
-				DatabaseHandler
+				result = DatabaseHandler
 						.getInstance(getContext())
-						.getWritableDatabase()
-						.execSQL(TaskList.CREATE_COUNT_VIEW);
-
+						.getReadableDatabase()
+						.query(asSubquery(TaskList.COUNT_QUERY, TaskList.VIEWCOUNT_NAME),
+								projection, selection, selectionArgs, null, null, sortOrder);
+				result.setNotificationUri(getContext().getContentResolver(), uri);
+				break;
+			case Task.SMARTCOUNTSCODE:
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						// may crash here. android.database.sqlite.SQLiteException: no such table: lists_with_count (code 1 SQLITE_ERROR): , while compiling: SELECT _id, title, count FROM lists_with_count ORDER BY title COLLATE NOCASE
-						.query(TaskList.VIEWCOUNT_NAME, projection, selection,
-								selectionArgs, null, null, sortOrder);
+						.query(asSubquery(Task.SMART_COUNTS_QUERY, Task.SMARTCOUNTS),
+								projection, selection, selectionArgs, null, null, sortOrder);
+				// Notified by every write to Task.URI, since it is under it, but a change to
+				// this uri alone does not reload the lists of tasks
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Task.DELETEDQUERYCODE:
@@ -409,10 +871,9 @@ public class MyContentProvider extends ContentProvider {
 						.getReadableDatabase()
 						.query(Task.DELETE_TABLE_NAME,
 								Task.Columns.DELETEFIELDS,
-								Task.Columns._ID + " IN (SELECT " + Task.Columns._ID
-										+ " FROM " + Task.FTS3_DELETE_TABLE_NAME
-										+ ((query[0].isEmpty() || query[0].equals("'*'")) ? ")"
-										: (" WHERE " + Task.FTS3_DELETE_TABLE_NAME + " MATCH ?)")),
+								(query[0].isEmpty() || query[0].equals("'*'")) ? null
+										: Task.Columns._ID + " IN ("
+										+ SearchIndex.DELETED_MATCH + ")",
 								(query[0].isEmpty() || query[0].equals("'*'")) ? null : query,
 								null, null, sortOrder);
 
@@ -426,7 +887,16 @@ public class MyContentProvider extends ContentProvider {
 								selectionArgs, null, null, sortOrder);
 
 				result.setNotificationUri(getContext().getContentResolver(),
-						Task.URI);
+						taskNotificationUri(selection, selectionArgs));
+				break;
+			case Task.PAGEDQUERYCODE:
+				// only the first rows are read now, the others while the list is scrolled
+				result = PagedTaskCursor.query(DatabaseHandler
+								.getInstance(getContext())
+								.getReadableDatabase(),
+						projection, selection, selectionArgs, sortOrder);
+				result.setNotificationUri(getContext().getContentResolver(),
+						taskNotificationUri(selection, selectionArgs));
 				break;
 			case Task.BASEITEMCODE:
 				id = Long.parseLong(uri.getLastPathSegment());
@@ -452,37 +922,23 @@ public class MyContentProvider extends ContentProvider {
 					listId = selectionArgs[0];
 				}
 
-				// Create view if not exists
-				// TODO as explained in issue #525, on older OS versions (API 34 emulator, ...)
-				//  this function returns a query to make a view with a column "dblist" of type
-				//  INTEGER, as expected. On the Google Pixel 8a with android 14, and on API 35
-				//  emulators, the column "dblist" is of type BLOB, which is not correct
-				String NNN_DATE_VIEW_QUERY = Task.CREATE_SECTIONED_DATE_VIEW(listId);
-				DatabaseHandler
-						.getInstance(getContext())
-						.getWritableDatabase()
-						.execSQL(NNN_DATE_VIEW_QUERY);
-
 				// this cursor contains the real notes (read from the database)
-				// and some "artificial" records used as headers for the groups of notes
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.getSECTION_DATE_VIEW_NAME(listId),
-								projection,
-								selection,
-								selectionArgs,
-								null,
-								null,
-								Task.SECRET_TYPEID + "," + Task.Columns.DUE + ","
-										+ Task.SECRET_TYPEID2);
+				// and some "artificial" records used as headers for the groups of notes,
+				// which it adds while reading the notes sorted by due date
+				result = SectionedDateCursor.query(DatabaseHandler
+								.getInstance(getContext())
+								.getReadableDatabase(),
+						projection,
+						selection,
+						selectionArgs,
+						listId);
 
 				// You can see that the cursor contains both fake records like "today+1"
 				// and real notes taken from the database
 				// String DBG_READABLE_CURSOR_DUMP = DatabaseUtils.dumpCursorToString(result);
 
 				result.setNotificationUri(getContext().getContentResolver(),
-						Task.URI);
+						taskNotificationUri(selection, selectionArgs));
 				break;
 			case Task.HISTORYQUERYCODE:
 				result = DatabaseHandler
@@ -495,6 +951,14 @@ public class MyContentProvider extends ContentProvider {
 
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
+			case Task.HISTORYVERSIONCODE:
+				// rebuilt from the deltas, only this version
+				result = TaskHistory.queryVersion(DatabaseHandler
+								.getInstance(getContext())
+								.getReadableDatabase(),
+						Long.parseLong(uri.getLastPathSegment()));
+				result.setNotificationUri(getContext().getContentResolver(), uri);
+				break;
 			case Notification.BASEITEMCODE:
 				id = Long.parseLong(uri.getLastPathSegment());
 				result = DatabaseHandler
@@ -509,14 +973,12 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Notification.WITHTASKQUERYITEMCODE:
-				// Create view if not exists
-				DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-						.execSQL(Notification.CREATE_JOINED_VIEW);
 				id = Long.parseLong(uri.getLastPathSegment());
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						.query(Notification.WITH_TASK_VIEW_NAME,
+						.query(asSubquery(Notification.JOINED_QUERY,
+										Notification.WITH_TASK_VIEW_NAME),
 								projection,
 								Notification.whereIdIs(selection),
 								Notification.joinArrays(selectionArgs,
@@ -533,13 +995,11 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Notification.WITHTASKQUERYCODE:
-				// Create view if not exists
-				DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-						.execSQL(Notification.CREATE_JOINED_VIEW);
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						.query(Notification.WITH_TASK_VIEW_NAME, projection,
+						.query(asSubquery(Notification.JOINED_QUERY,
+										Notification.WITH_TASK_VIEW_NAME), projection,
 								selection, selectionArgs, null, null, sortOrder);
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
@@ -560,18 +1020,7 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Task.SEARCHCODE:
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.TABLE_NAME,
-								Task.Columns.FIELDS,
-								Task.Columns._ID + " IN (SELECT "
-										+ Task.Columns._ID + " FROM "
-										+ Task.FTS3_TABLE_NAME + " WHERE "
-										+ Task.FTS3_TABLE_NAME + " MATCH ?)",
-								sanitize(selectionArgs), null, null, sortOrder);
-				result.setNotificationUri(getContext().getContentResolver(),
-						Task.URI_SEARCH);
+				result = search(selectionArgs, sortOrder, null);
 				break;
 
 			case TaskList.LEGACYBASEURICODE:
@@ -624,19 +1073,18 @@ public class MyContentProvider extends ContentProvider {
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						.query(Task.FTS3_TABLE_NAME,
+						.query(Task.FTS_TABLE_NAME,
 								new String[] {
-										Task.Columns._ID,
-										Task.Columns._ID
-												+ " AS "
+										"docid AS " + Task.Columns._ID,
+										"docid AS "
 												+ SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
 										Task.Columns.TITLE
 												+ " AS "
 												+ SearchManager.SUGGEST_COLUMN_TEXT_1,
-										Task.Columns.NOTE
-												+ " AS "
+										"substr(" + Task.Columns.NOTE + ",1,"
+												+ Task.Columns.PREVIEW_LENGTH + ") AS "
 												+ SearchManager.SUGGEST_COLUMN_TEXT_2 },
-								Task.FTS3_TABLE_NAME + " MATCH ?",
+								Task.FTS_TABLE_NAME + " MATCH ?",
 								sanitize(selectionArgs), null, null,
 								SearchManager.SUGGEST_COLUMN_TEXT_1, limit);
 				result.setNotificationUri(getContext().getContentResolver(),
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores the notes longer than {@link #THRESHOLD} characters out of the task table. A large
+ * note is compressed and split in chunks of {@link #CHUNK_SIZE} bytes, which fit in a
+ * cursor window, and saved once for each content hash. The task row keeps the first part
+ * of the note, so that lists and triggers never read the rest, and the id of the blob in
+ * {@link Task.Columns#NOTE_BLOB}. {@link Task#loadWholeNote} reads it back through
+ * {@link Task#getNoteBlobUri(long)}, uncompressed as it is read.
+ *
+ * The text of each blob is indexed in {@link #FTS_TABLE_NAME}, which keeps no copy of it.
+ * Blobs never change, so the index only grows: {@link #collectGarbage} builds it again when
+ * most of it belongs to blobs that were removed
+ */
+public final class NoteBlobs {
+
+	/**
+	 * Notes with more characters than this are stored as blobs
+	 */
+	public static final int THRESHOLD = 64 * 1024;
+
+	/**
+	 * Compressed bytes in each row of {@link #CHUNK_TABLE_NAME}
+	 */
+	static final int CHUNK_SIZE = 128 * 1024;
+
+	/**
+	 * What {@link Task#getNoteBlobUri(long)} opens: the note, in UTF-8
+	 */
+	public static final String CONTENT_TYPE = "text/plain";
+
+	public static final String BLOB_TABLE_NAME = "note_blob";
+	public static final String CHUNK_TABLE_NAME = "note_blob_chunk";
+	public static final String FTS_TABLE_NAME = "fts4_note_blob";
+
+	static final String COLUMN_HASH = "hash";
+	static final String COLUMN_LENGTH = "length";
+	static final String COLUMN_BLOB_ID = "blobid";
+	static final String COLUMN_SEQ = "seq";
+	static final String COLUMN_DATA = "data";
+
+	// Ids are never reused, so that the index can't point a removed blob to a new one
+	private static final String CREATE_BLOB_TABLE = "CREATE TABLE IF NOT EXISTS "
+			+ BLOB_TABLE_NAME + "(" + Task.Columns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+			+ COLUMN_HASH + " TEXT NOT NULL UNIQUE," + COLUMN_LENGTH + " INTEGER NOT NULL)";
+
+	private static final String CREATE_CHUNK_TABLE = "CREATE TABLE IF NOT EXISTS "
+			+ CHUNK_TABLE_NAME + "(" + COLUMN_BLOB_ID + " INTEGER NOT NULL," + COLUMN_SEQ
+			+ " INTEGER NOT NULL," + COLUMN_DATA + " BLOB NOT NULL," + "PRIMARY KEY("
+			+ COLUMN_BLOB_ID + "," + COLUMN_SEQ + ")," + "FOREIGN KEY(" + COLUMN_BLOB_ID
+			+ ") REFERENCES " + BLOB_TABLE_NAME + "(" + Task.Columns._ID
+			+ ") ON DELETE CASCADE) WITHOUT ROWID";
+
+	// Contentless: the text is only in the chunks
+	private static final String CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+			+ FTS_TABLE_NAME + " USING fts4(content=\"\", " + Task.Columns.NOTE + ")";
+
+	/**
+	 * The ids of the tasks whose blob matches the argument
+	 */
+	static final String MATCH = "SELECT " + Task.TABLE_NAME + "." + Task.Columns._ID
+			+ " FROM " + FTS_TABLE_NAME + " CROSS JOIN " + Task.TABLE_NAME + " ON "
+			+ Task.TABLE_NAME + "." + Task.Columns.NOTE_BLOB + " = " + FTS_TABLE_NAME
+			+ ".docid WHERE " + FTS_TABLE_NAME + " MATCH ?";
+
+	/**
+	 * The blobs that no task, no deleted task and no version in the history refer to
+	 */
+	private static final String UNUSED = notIn(Task.TABLE_NAME) + " AND "
+			+ notIn(Task.DELETE_TABLE_NAME) + " AND " + notIn(Task.HISTORY_TABLE_NAME);
+
+	/**
+	 * Characters read with each query when notes are moved out of the task table: a whole
+	 * note may not fit in a cursor window
+	 */
+	private static final int MOVE_PIECE = 256 * 1024;
+
+	/**
+	 * How long to wait after a large note changed before removing its old blob
+	 */
+	private static final long COLLECT_DELAY_SECONDS = 30;
+
+	private static final ScheduledExecutorService sExecutor =
+			Executors.newSingleThreadScheduledExecutor();
+	private static final AtomicBoolean sPending = new AtomicBoolean(false);
+
+	private NoteBlobs() {}
+
+	private static String notIn(final String table) {
+		return Task.Columns._ID + " NOT IN (SELECT " + Task.Columns.NOTE_BLOB + " FROM " + table
+				+ " WHERE " + Task.Columns.NOTE_BLOB + " NOT NULL)";
+	}
+
+	/**
+	 * Creates the tables. The columns of the tasks and deleted tasks that refer to them are
+	 * in {@link Task#CREATE_TABLE} and {@link Task#CREATE_DELETE_TABLE}
+	 */
+	static void create(final SQLiteDatabase db) {
+		db.execSQL(CREATE_BLOB_TABLE);
+		db.execSQL(CREATE_CHUNK_TABLE);
+		db.execSQL(CREATE_FTS_TABLE);
+	}
+
+	/**
+	 * Stores the note of the values out of the task table, if it is too long
+	 *
+	 * @param values of a task, to be inserted or updated. They are not changed
+	 * @return the values to write: the same ones, or a copy with the first part of the
+	 * note and its {@link Task.Columns#NOTE_BLOB}
+	 */
+	static ContentValues prepare(final SQLiteDatabase db, final ContentValues values) {
+		final String note = values.getAsString(Task.Columns.NOTE);
+		if (note == null) {
+			return values;
+		}
+		if (note.length() <= THRESHOLD) {
+			if (values.containsKey(Task.Columns.NOTE_BLOB)) {
+				// the first part of a note whose blob is known, like a restored task
+				return values;
+			}
+			// a short note replaces the large one the task may have had
+			final ContentValues result = new ContentValues(values);
+			result.putNull(Task.Columns.NOTE_BLOB);
+			return result;
+		}
+		final ContentValues result = new ContentValues(values);
+		result.put(Task.Columns.NOTE, prefix(note));
+		result.put(Task.Columns.NOTE_BLOB, store(db, note));
+		return result;
+	}
+
+	/**
+	 * @return the part of the note kept in the task table. It ends before a word, so that
+	 * the search does not find the start of a word that was cut
+	 */
+	static String prefix(final String note) {
+		final int limit = Math.min(note.length(), Task.Columns.PREVIEW_LENGTH);
+		int end = limit;
+		while (end > limit / 2 && !Character.isWhitespace(note.charAt(end - 1))) end--;
+		if (end == limit / 2) {
+			// a very long word
+			end = Character.isHighSurrogate(note.charAt(limit - 1)) ? limit - 1 : limit;
+		}
+		return note.substring(0, end);
+	}
+
+	/**
+	 * Saves the note as a blob, unless one with the same content exists, and indexes it
+	 *
+	 * @return the id of the blob
+	 */
+	static long store(final SQLiteDatabase db, final String note) {
+		final byte[] bytes = note.getBytes(StandardCharsets.UTF_8);
+		final String hash = sha256(bytes);
+		try (Cursor c = db.query(BLOB_TABLE_NAME, new String[] { Task.Columns._ID },
+				COLUMN_HASH + " = ?", new String[] { hash }, null, null, null)) {
+			if (c.moveToFirst()) return c.getLong(0);
+		}
+
+		final ContentValues blob = new ContentValues();
+		blob.put(COLUMN_HASH, hash);
+		blob.put(COLUMN_LENGTH, note.length());
+		final long id = db.insertOrThrow(BLOB_TABLE_NAME, null, blob);
+
+		final Deflater deflater = new Deflater();
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO " + CHUNK_TABLE_NAME
+				+ " (" + COLUMN_BLOB_ID + "," + COLUMN_SEQ + "," + COLUMN_DATA
+				+ ") VALUES (?,?,?)");
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			final byte[] buffer = new byte[CHUNK_SIZE];
+			int seq = 0;
+			while (!deflater.finished()) {
+				int length = 0;
+				while (length < buffer.length && !deflater.finished()) {
+					length += deflater.deflate(buffer, length, buffer.length - length);
+				}
+				insert.bindLong(1, id);
+				insert.bindLong(2, seq++);
+				insert.bindBlob(3, Arrays.copyOf(buffer, length));
+				insert.executeInsert();
+			}
+		} finally {
+			insert.close();
+			deflater.end();
+		}
+
+		index(db, id, note);
+		return id;
+	}
+
+	private static void index(final SQLiteDatabase db, final long id, final String note) {
+		db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (docid," + Task.Columns.NOTE
+				+ ") VALUES (?,?)", new Object[] { id, note });
+	}
+
+	private static String sha256(final byte[] bytes) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			final StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every android version has it
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return if the blob exists
+	 */
+	static boolean exists(final SQLiteDatabase db, final long id) {
+		return DatabaseUtils.queryNumEntries(db, BLOB_TABLE_NAME, Task.Columns._ID + " = ?",
+				new String[] { Long.toString(id) }) > 0;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of the note, which are uncompressed as the stream is read. The
+	 * compressed chunks are all read at once, in a transaction, so that the blob can't be
+	 * removed halfway through
+	 * @throws FileNotFoundException if the blob does not exist
+	 */
+	static InputStream open(final SQLiteDatabase db, final long id) throws IOException {
+		final List<InputStream> chunks = new ArrayList<>();
+		db.beginTransactionNonExclusive();
+		try {
+			if (!exists(db, id)) throw new FileNotFoundException("No note blob " + id);
+			try (Cursor c = db.query(CHUNK_TABLE_NAME, new String[] { COLUMN_DATA },
+					COLUMN_BLOB_ID + " = ?", new String[] { Long.toString(id) }, null, null,
+					COLUMN_SEQ)) {
+				while (c.moveToNext()) chunks.add(new ByteArrayInputStream(c.getBlob(0)));
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		// it throws an EOFException if the chunks end before the note
+		return new InflaterInputStream(new SequenceInputStream(Collections.enumeration(chunks)));
+	}
+
+	/**
+	 * @return the whole note of the blob
+	 */
+	static String read(final SQLiteDatabase db, final long id) throws IOException {
+		try (Reader reader = new InputStreamReader(open(db, id), StandardCharsets.UTF_8)) {
+			return readAll(reader);
+		}
+	}
+
+	/**
+	 * @return all the characters of the reader
+	 */
+	public static String readAll(final Reader reader) throws IOException {
+		final StringBuilder text = new StringBuilder();
+		final char[] buffer = new char[8192];
+		int read;
+		while ((read = reader.read(buffer)) >= 0) text.append(buffer, 0, read);
+		return text.toString();
+	}
+
+	/**
+	 * Moves the notes longer than {@link #THRESHOLD} out of the task table, for databases
+	 * written before the blobs existed. Each note is read in pieces, since it may not fit
+	 * in a cursor window
+	 *
+	 * @return the number of notes moved
+	 */
+	static int moveLargeNotes(final SQLiteDatabase db) {
+		final List<Long> ids = new ArrayList<>();
+		try (Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns._ID },
+				"length(" + Task.Columns.NOTE + ") > " + THRESHOLD + " AND "
+						+ Task.Columns.NOTE_BLOB + " IS NULL", null, null, null, null)) {
+			while (c.moveToNext()) ids.add(c.getLong(0));
+		}
+		final SQLiteStatement piece = db.compileStatement("SELECT substr("
+				+ Task.Columns.NOTE + ",?," + MOVE_PIECE + ") FROM " + Task.TABLE_NAME
+				+ " WHERE " + Task.Columns._ID + " = ?");
+		try {
+			for (long id : ids) {
+				final StringBuilder note = new StringBuilder();
+				String read;
+				do {
+					piece.bindLong(1, note.length() + 1);
+					piece.bindLong(2, id);
+					read = piece.simpleQueryForString();
+					note.append(read);
+				} while (read.length() == MOVE_PIECE);
+				final ContentValues values = new ContentValues();
+				values.put(Task.Columns.NOTE, note.toString());
+				db.update(Task.TABLE_NAME, prepare(db, values), Task.Columns._ID + " = ?",
+						new String[] { Long.toString(id) });
+			}
+		} finally {
+			piece.close();
+		}
+		return ids.size();
+	}
+
+	/**
+	 * Removes the unused blobs in the background, a few seconds from now
+	 */
+	static void collectGarbageLater(final Context context) {
+		if (!sPending.compareAndSet(false, true)) return;
+		final Context appContext = context.getApplicationContext();
+		sExecutor.schedule(() -> {
+			sPending.set(false);
+			collectGarbage(DatabaseHandler.getInstance(appContext).getWritableDatabase());
+		}, COLLECT_DELAY_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Removes the blobs that no task, no deleted task and no version refer to. The index
+	 * can't forget them one by one: when it has more removed blobs than used ones, it is
+	 * built again
+	 *
+	 * @return the number of blobs removed
+	 */
+	public static int collectGarbage(final SQLiteDatabase db) {
+		int removed;
+		db.beginTransaction();
+		try {
+			// their chunks go with them
+			removed = db.delete(BLOB_TABLE_NAME, UNUSED, null);
+			if (removed > 0) {
+				final long indexed = DatabaseUtils.longForQuery(db,
+						"SELECT count(*) FROM " + FTS_TABLE_NAME + "_docsize", null);
+				final long used = DatabaseUtils.queryNumEntries(db, BLOB_TABLE_NAME);
+				if (indexed > 2 * used) reindex(db);
+			}
+			db.setTransactionSuccessful();
+		} catch (IOException e) {
+			NnnLogger.exception(e);
+			removed = 0;
+		} finally {
+			db.endTransaction();
+		}
+		if (removed > 0) {
+			NnnLogger.debug(NoteBlobs.class, "Removed " + removed + " unused note blobs");
+		}
+		return removed;
+	}
+
+	/**
+	 * Indexes the text of every blob again, read from its chunks
+	 */
+	static void reindex(final SQLiteDatabase db) throws IOException {
+		db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME);
+		db.execSQL(CREATE_FTS_TABLE);
+		final List<Long> ids = new ArrayList<>();
+		try (Cursor c = db.query(BLOB_TABLE_NAME, new String[] { Task.Columns._ID },
+				null, null, null, null, null)) {
+			while (c.moveToNext()) ids.add(c.getLong(0));
+		}
+		for (long id : ids) index(db, id, read(db, id));
+	}
+}
@@ -160,10 +160,19 @@ public class Notification extends DAO {
 			")";
 
 	/**
-	 * View that joins relevant data from tasks and lists tables
+	 * Reminders are scheduled in order of time, and deleted with their task
 	 */
-	public static final String CREATE_JOINED_VIEW = "CREATE TEMP VIEW IF NOT EXISTS " +
-			WITH_TASK_VIEW_NAME + " AS " + " SELECT " +
+	public static final String[] CREATE_INDEXES = {
+			"CREATE INDEX IF NOT EXISTS notification_time_idx ON " + TABLE_NAME
+					+ "(" + Columns.TIME + ")",
+			"CREATE INDEX IF NOT EXISTS notification_taskid_idx ON " + TABLE_NAME
+					+ "(" + Columns.TASKID + ")" };
+
+	/**
+	 * Query that joins relevant data from tasks and lists tables. The provider runs it as a
+	 * subquery named {@link #WITH_TASK_VIEW_NAME}
+	 */
+	public static final String JOINED_QUERY = "SELECT " +
 			// Notifications as normal column names
 			arrayToCommaString(TABLE_NAME + ".", Columns.FIELDS) + "," +
 			// Rest gets prefixed
@@ -174,7 +183,7 @@ public class Notification extends DAO {
 			" FROM " + TABLE_NAME + "," + Task.TABLE_NAME + " AS t," + TaskList.TABLE_NAME
 			+ " AS l " + " WHERE " + TABLE_NAME + "." + Columns.TASKID + " = t."
 			+ Task.Columns._ID + " AND t." + Task.Columns.DBLIST + " = l." +
-			TaskList.Columns._ID + ";";
+			TaskList.Columns._ID;
 
 	/**
 	 * A {@link Task} can have reminders, which are {@link Notification} objects.
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The tasks of a list, read {@link #PAGE_SIZE} rows at a time. Only the pages around the
+ * position of the cursor are kept in memory, so a list with many thousands of tasks is not
+ * copied into a {@link android.database.CursorWindow} all at once.
+ *
+ * Opening it reads the ids of all the tasks in order, which the index on the sort column
+ * gives without reading the rows, and the first page. The other pages are read by id, so
+ * the rows and the count stay those of the moment the cursor was opened, even if tasks are
+ * added, moved or deleted meanwhile. When the cursor gets near the end of a page, the next
+ * one is read in the background. See {@link #query}
+ */
+public class PagedTaskCursor extends AbstractCursor {
+
+	/**
+	 * Rows read by each query
+	 */
+	public static final int PAGE_SIZE = 128;
+
+	/**
+	 * Pages kept in memory. The least recently used one is released when another is read
+	 */
+	static final int MAX_PAGES = 6;
+
+	/**
+	 * The next or the previous page is read in the background when the cursor is this many
+	 * rows from it
+	 */
+	private static final int PREFETCH_DISTANCE = PAGE_SIZE / 4;
+
+	/**
+	 * Sort orders that can be paged: a column, maybe with the NOCASE collation, and maybe
+	 * descending. Like those of TaskListFragment
+	 */
+	private static final Pattern SORT_ORDER = Pattern.compile(
+			"\\s*(\\w+)(\\s+COLLATE\\s+NOCASE)?(?:\\s+(ASC|DESC))?\\s*",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final ExecutorService sLoader = Executors.newSingleThreadExecutor();
+
+	private final SQLiteDatabase mDb;
+	/**
+	 * The names of the requested columns, without the expressions before "AS"
+	 */
+	private final String[] mColumns;
+
+	/**
+	 * The requested columns, then the id, to put each row in its place
+	 */
+	private final String[] mSqlColumns;
+
+	/**
+	 * The ids of the tasks when the cursor was opened, in order. Their number is the count
+	 */
+	private final long[] mIds;
+
+	/**
+	 * The pages in memory, the least recently used first. Guarded by this
+	 */
+	private final LinkedHashMap<Integer, Object[][]> mPages =
+			new LinkedHashMap<>(MAX_PAGES * 2, 0.75f, true);
+
+	/**
+	 * The pages being read in the background. Guarded by this
+	 */
+	private final Set<Integer> mLoading = new HashSet<>();
+
+	/**
+	 * The row at the current position, with a value for each of {@link #mSqlColumns}
+	 */
+	private Object[] mRow = null;
+
+	/**
+	 * Runs the query for {@link Task#URI_PAGED}. Sort orders other than a single column
+	 * can't be paged: for those it returns a normal cursor
+	 *
+	 * @param projection the columns, by default {@link Task.Columns#FIELDS}
+	 * @param sortOrder  such as "lft", "updated DESC" or "title COLLATE NOCASE". By default
+	 *                   {@link Task.Columns#LEFT}
+	 */
+	public static Cursor query(final SQLiteDatabase db, final String[] projection,
+							   final String selection, final String[] selectionArgs,
+							   final String sortOrder) {
+		final String[] columns = projection != null ? projection : Task.Columns.FIELDS;
+		final String idOrder = idOrderBy(sortOrder);
+		if (idOrder == null) {
+			return db.query(Task.TABLE_NAME, columns, selection, selectionArgs, null, null,
+					sortOrder);
+		}
+		return new PagedTaskCursor(db, columns, selection, selectionArgs, idOrder);
+	}
+
+	/**
+	 * @param sortOrder as given to {@link #query}
+	 * @return the order in which the ids are read: the sort order, then the id to keep tasks
+	 * with the same key in place. Null if the sort order can't be paged
+	 */
+	public static String idOrderBy(final String sortOrder) {
+		final Matcher m = SORT_ORDER.matcher(sortOrder == null ? Task.Columns.LEFT : sortOrder);
+		if (!m.matches() || !Arrays.asList(Task.Columns.FIELDS).contains(m.group(1))) {
+			return null;
+		}
+		final String key = m.group(1) + (m.group(2) == null ? "" : " COLLATE NOCASE");
+		final String direction = "DESC".equalsIgnoreCase(m.group(3)) ? " DESC" : "";
+		return key + direction + "," + Task.Columns._ID + direction;
+	}
+
+	/**
+	 * @return the selection of a page of {@code size} rows, with an argument for each id
+	 */
+	public static String whereIdIn(final int size) {
+		final StringBuilder where = new StringBuilder(Task.Columns._ID).append(" IN (");
+		for (int i = 0; i < size; i++) {
+			where.append(i == 0 ? "?" : ",?");
+		}
+		return where.append(')').toString();
+	}
+
+	private PagedTaskCursor(final SQLiteDatabase db, final String[] columns,
+							final String selection, final String[] selectionArgs,
+							final String idOrder) {
+		mDb = db;
+		mColumns = DAO.columnNames(columns);
+		mSqlColumns = Arrays.copyOf(columns, columns.length + 1);
+		mSqlColumns[columns.length] = Task.Columns._ID;
+		mIds = readIds(db, selection, selectionArgs, idOrder);
+		// on the thread of the query, so that the first rows are shown without waiting
+		if (mIds.length > 0) readPage(0);
+	}
+
+	/**
+	 * @return the ids of the tasks, in order
+	 */
+	private static long[] readIds(final SQLiteDatabase db, final String selection,
+								  final String[] selectionArgs, final String orderBy) {
+		final Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns._ID },
+				selection, selectionArgs, null, null, orderBy);
+		try {
+			final long[] ids = new long[c.getCount()];
+			while (c.moveToNext()) {
+				ids[c.getPosition()] = c.getLong(0);
+			}
+			return ids;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads a page from the database, and keeps it in memory. A task deleted since the
+	 * cursor was opened keeps its place, with its id and NULL in the other columns: the
+	 * provider notified the loader, which will query the list again
+	 */
+	private Object[][] readPage(final int page) {
+		final int start = page * PAGE_SIZE;
+		final int size = Math.min(PAGE_SIZE, mIds.length - start);
+		final String[] ids = new String[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = Long.toString(mIds[start + i]);
+		}
+
+		final HashMap<Long, Object[]> byId = new HashMap<>(size * 2);
+		final Cursor c = mDb.query(Task.TABLE_NAME, mSqlColumns, whereIdIn(size), ids,
+				null, null, null);
+		try {
+			while (c.moveToNext()) {
+				final Object[] row = readRow(c);
+				byId.put((Long) row[mColumns.length], row);
+			}
+		} finally {
+			c.close();
+		}
+		final Object[][] rows = new Object[size][];
+		for (int i = 0; i < size; i++) {
+			rows[i] = byId.get(mIds[start + i]);
+			if (rows[i] == null) rows[i] = deletedRow(mIds[start + i]);
+		}
+
+		synchronized (this) {
+			mPages.put(page, rows);
+			// release the pages that were used least recently, but not the current one
+			final Iterator<Integer> it = mPages.keySet().iterator();
+			while (mPages.size() > MAX_PAGES && it.hasNext()) {
+				final int p = it.next();
+				if (p != page && p != getPosition() / PAGE_SIZE) it.remove();
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @return a row with only the id of the task
+	 */
+	private Object[] deletedRow(final long id) {
+		final Object[] row = new Object[mSqlColumns.length];
+		row[mColumns.length] = id;
+		final int idColumn = Arrays.asList(mColumns).indexOf(Task.Columns._ID);
+		if (idColumn >= 0) row[idColumn] = id;
+		return row;
+	}
+
+	private static Object[] readRow(final Cursor c) {
+		final Object[] row = new Object[c.getColumnCount()];
+		for (int i = 0; i < row.length; i++) {
+			switch (c.getType(i)) {
+				case FIELD_TYPE_INTEGER:
+					row[i] = c.getLong(i);
+					break;
+				case FIELD_TYPE_FLOAT:
+					row[i] = c.getDouble(i);
+					break;
+				case FIELD_TYPE_STRING:
+					row[i] = c.getString(i);
+					break;
+				case FIELD_TYPE_BLOB:
+					row[i] = c.getBlob(i);
+					break;
+				default:
+					row[i] = null;
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * Reads the page in the background, if it exists and is not in memory
+	 */
+	private void prefetch(final int page) {
+		if (page < 0 || page * PAGE_SIZE >= mIds.length) return;
+		synchronized (this) {
+			if (isClosed() || mPages.containsKey(page) || !mLoading.add(page)) return;
+		}
+		sLoader.execute(() -> {
+			try {
+				if (!isClosed()) readPage(page);
+			} catch (SQLiteException | IllegalStateException e) {
+				// the database was closed. The page will be read when it is needed
+				NnnLogger.warning(PagedTaskCursor.class, "Could not read page " + page);
+			} finally {
+				synchronized (this) {
+					mLoading.remove(page);
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean onMove(final int oldPosition, final int newPosition) {
+		final int page = newPosition / PAGE_SIZE;
+		final int index = newPosition % PAGE_SIZE;
+		Object[][] rows;
+		synchronized (this) {
+			rows = mPages.get(page);
+		}
+		if (rows == null) rows = readPage(page);
+
+		if (index >= PAGE_SIZE - PREFETCH_DISTANCE) {
+			prefetch(page + 1);
+		} else if (index < PREFETCH_DISTANCE) {
+			prefetch(page - 1);
+		}
+		// every position below the count has a row, see readPage()
+		mRow = rows[index];
+		return true;
+	}
+
+	@Override
+	public int getCount() {
+		return mIds.length;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return mColumns;
+	}
+
+	private Object get(final int column) {
+		checkPosition();
+		if (mRow == null || column < 0 || column >= mColumns.length) {
+			throw new IllegalStateException(String.format(Locale.US,
+					"Couldn't read column %d of row %d", column, getPosition()));
+		}
+		return mRow[column];
+	}
+
+	@Override
+	public String getString(final int column) {
+		final Object value = get(column);
+		return value == null ? null : value.toString();
+	}
+
+	@Override
+	public short getShort(final int column) {
+		return (short) getLong(column);
+	}
+
+	@Override
+	public int getInt(final int column) {
+		return (int) getLong(column);
+	}
+
+	@Override
+	public long getLong(final int column) {
+		final Object value = get(column);
+		if (value instanceof Number) return ((Number) value).longValue();
+		if (value instanceof String) {
+			try {
+				return Long.parseLong((String) value);
+			} catch (NumberFormatException e) {
+				// like SQLite does for text that is not a number
+				return 0L;
+			}
+		}
+		return 0L;
+	}
+
+	@Override
+	public float getFloat(final int column) {
+		return (float) getDouble(column);
+	}
+
+	@Override
+	public double getDouble(final int column) {
+		final Object value = get(column);
+		if (value instanceof Number) return ((Number) value).doubleValue();
+		if (value instanceof String) {
+			try {
+				return Double.parseDouble((String) value);
+			} catch (NumberFormatException e) {
+				return 0.0;
+			}
+		}
+		return 0.0;
+	}
+
+	@Override
+	public byte[] getBlob(final int column) {
+		final Object value = get(column);
+		return value instanceof byte[] ? (byte[]) value : null;
+	}
+
+	@Override
+	public int getType(final int column) {
+		final Object value = get(column);
+		if (value == null) return FIELD_TYPE_NULL;
+		if (value instanceof Long) return FIELD_TYPE_INTEGER;
+		if (value instanceof Double) return FIELD_TYPE_FLOAT;
+		return value instanceof byte[] ? FIELD_TYPE_BLOB : FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public boolean isNull(final int column) {
+		return get(column) == null;
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		synchronized (this) {
+			mPages.clear();
+			mRow = null;
+		}
+	}
+}
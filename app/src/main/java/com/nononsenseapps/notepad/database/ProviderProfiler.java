@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.preference.PreferenceManager;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records how long the operations of {@link MyContentProvider} take, for each operation and
+ * URI code: a histogram of the latencies, the rows they return or write, and the rows
+ * changed by the triggers of the writes. Queries slower than {@link #getSlowQueryMs()} are
+ * kept with their EXPLAIN QUERY PLAN, and writes whose triggers change many rows are kept
+ * too, in a ring buffer of the last {@link #MAX_LOG_ENTRIES}.
+ *
+ * It's off by default, and only lives in memory. When it's off, the provider only reads
+ * {@link #isEnabled()}. When it's on, queries are run in the provider to count their rows,
+ * and each write reads total_changes() twice. See the profiler in the preferences
+ */
+public final class ProviderProfiler {
+
+	/**
+	 * Key of the switch in the preferences
+	 */
+	public static final String KEY_ENABLED = "profiler_enabled";
+
+	public static final String OP_QUERY = "query";
+	public static final String OP_INSERT = "insert";
+	public static final String OP_BULK_INSERT = "bulkInsert";
+	public static final String OP_UPDATE = "update";
+	public static final String OP_DELETE = "delete";
+
+	/**
+	 * Upper bounds of the buckets of the histograms, in milliseconds. The last bucket has
+	 * the slower ones
+	 */
+	private static final long[] BUCKETS_MS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+
+	/**
+	 * Length of the log of slow queries and trigger-heavy writes
+	 */
+	public static final int MAX_LOG_ENTRIES = 50;
+
+	/**
+	 * A write is logged when its triggers change this many rows more than it wrote
+	 */
+	private static final long TRIGGER_HEAVY_CHANGES = 100;
+
+	private static final String SQL_PREFIX = "SQLiteQuery: ";
+
+	private static volatile boolean sEnabled = false;
+	private static volatile long sSlowQueryMs = 100;
+
+	/**
+	 * The SQL of the last cursor opened by each thread, see {@link #CURSOR_FACTORY}
+	 */
+	private static final ThreadLocal<String> sLastSql = new ThreadLocal<>();
+
+	// ordered by operation and code, guarded by the class
+	private static final Map<String, OpStats> sStats = new TreeMap<>();
+	private static final ArrayDeque<LogEntry> sLog = new ArrayDeque<>(MAX_LOG_ENTRIES);
+
+	private ProviderProfiler() {}
+
+	/**
+	 * Remembers the SQL of each cursor while the profiler is on, so that a slow query can
+	 * be explained. Given to {@link DatabaseHandler}
+	 */
+	static final SQLiteDatabase.CursorFactory CURSOR_FACTORY =
+			(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+			 SQLiteQuery query) -> {
+				if (sEnabled) sLastSql.set(query.toString());
+				return new SQLiteCursor(driver, editTable, query);
+			};
+
+	/**
+	 * What was recorded for one operation on one URI code
+	 */
+	public static final class OpStats {
+		public final String op;
+		public final int code;
+		/**
+		 * The path of the first URI, with numbers replaced by #
+		 */
+		public final String path;
+		public long count;
+		public long totalNanos;
+		public long maxNanos;
+		public long rows;
+		/**
+		 * Rows changed by the triggers of writes, beyond the rows written
+		 */
+		public long triggerChanges;
+		/**
+		 * Operations in each bucket of {@link #BUCKETS_MS}, and one more for the slower ones
+		 */
+		public final long[] histogram = new long[BUCKETS_MS.length + 1];
+
+		OpStats(final String op, final int code, final String path) {
+			this.op = op;
+			this.code = code;
+			this.path = path;
+		}
+
+		/**
+		 * @return an upper bound of the given percentile of the latency, in milliseconds,
+		 * or -1 if it's above the last bucket
+		 */
+		public long percentileMs(final int percent) {
+			long seen = 0;
+			for (int i = 0; i < BUCKETS_MS.length; i++) {
+				seen += histogram[i];
+				if (seen * 100 >= count * percent) return BUCKETS_MS[i];
+			}
+			return -1;
+		}
+
+		JSONObject toJson() throws JSONException {
+			final JSONArray buckets = new JSONArray();
+			for (int i = 0; i < histogram.length; i++) {
+				buckets.put(new JSONObject()
+						.put("lessThanMs", i < BUCKETS_MS.length ? BUCKETS_MS[i] : null)
+						.put("count", histogram[i]));
+			}
+			return new JSONObject()
+					.put("op", op)
+					.put("code", code)
+					.put("path", path)
+					.put("count", count)
+					.put("totalMs", totalNanos / 1_000_000)
+					.put("maxMs", maxNanos / 1_000_000)
+					.put("rows", rows)
+					.put("triggerChanges", triggerChanges)
+					.put("histogram", buckets);
+		}
+	}
+
+	/**
+	 * A slow query, or a write whose triggers changed many rows
+	 */
+	public static final class LogEntry {
+		public final long time;
+		public final String op;
+		public final Uri uri;
+		public final long durationMs;
+		public final long rows;
+		public final long triggerChanges;
+		/**
+		 * The SQL of a query, or null
+		 */
+		public final String sql;
+		/**
+		 * The lines of its EXPLAIN QUERY PLAN, empty if it could not be explained
+		 */
+		public final List<String> plan;
+
+		LogEntry(final String op, final Uri uri, final long durationMs, final long rows,
+				 final long triggerChanges, final String sql, final List<String> plan) {
+			this.time = System.currentTimeMillis();
+			this.op = op;
+			this.uri = uri;
+			this.durationMs = durationMs;
+			this.rows = rows;
+			this.triggerChanges = triggerChanges;
+			this.sql = sql;
+			this.plan = plan;
+		}
+
+		JSONObject toJson() throws JSONException {
+			return new JSONObject()
+					.put("time", time)
+					.put("op", op)
+					.put("uri", uri.toString())
+					.put("durationMs", durationMs)
+					.put("rows", rows)
+					.put("triggerChanges", triggerChanges)
+					.put("sql", sql)
+					.put("plan", new JSONArray(plan));
+		}
+	}
+
+	/**
+	 * A write being measured, see {@link #startWrite}
+	 */
+	public static final class Write {
+		private final String op;
+		private final Uri uri;
+		private final long startNanos;
+		private long changesBefore;
+		private long changes;
+
+		private Write(final String op, final Uri uri) {
+			this.op = op;
+			this.uri = uri;
+			this.startNanos = SystemClock.elapsedRealtimeNanos();
+		}
+
+		/**
+		 * Call it in the transaction, before writing. total_changes() counts the rows
+		 * changed by the connection, which is only the same one inside the transaction
+		 */
+		public void changesBefore(final SQLiteDatabase db) {
+			changesBefore = totalChanges(db);
+		}
+
+		/**
+		 * Call it in the transaction, after writing
+		 */
+		public void changesAfter(final SQLiteDatabase db) {
+			changes = totalChanges(db) - changesBefore;
+		}
+
+		private static long totalChanges(final SQLiteDatabase db) {
+			return DatabaseUtils.longForQuery(db, "SELECT total_changes()", null);
+		}
+	}
+
+	/**
+	 * Reads the switch from the preferences. Called when the provider starts
+	 */
+	public static void init(final Context context) {
+		setEnabled(PreferenceManager.getDefaultSharedPreferences(context)
+				.getBoolean(KEY_ENABLED, false));
+	}
+
+	public static boolean isEnabled() {
+		return sEnabled;
+	}
+
+	/**
+	 * Turns it on or off. What was recorded is kept until {@link #clear()}
+	 */
+	public static void setEnabled(final boolean enabled) {
+		sEnabled = enabled;
+		if (!enabled) sLastSql.remove();
+	}
+
+	public static long getSlowQueryMs() {
+		return sSlowQueryMs;
+	}
+
+	/**
+	 * Queries that take at least this long are logged with their plan
+	 */
+	public static void setSlowQueryMs(final long ms) {
+		sSlowQueryMs = ms;
+	}
+
+	public static synchronized void clear() {
+		sStats.clear();
+		sLog.clear();
+	}
+
+	/**
+	 * @return the start of a query, to give to {@link #endQuery}, or 0 if the profiler is off
+	 */
+	public static long startQuery() {
+		if (!sEnabled) return 0;
+		sLastSql.remove();
+		return SystemClock.elapsedRealtimeNanos();
+	}
+
+	/**
+	 * Records a query that started at {@code startNanos}. The cursor is filled to count its
+	 * rows, which runs the query: this is done anyway by the first caller that reads it
+	 */
+	public static void endQuery(final SQLiteDatabase db, final long startNanos, final int code,
+								final Uri uri, final Cursor result) {
+		if (startNanos == 0) return;
+		final long rows = result == null ? 0 : result.getCount();
+		final long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+		record(OP_QUERY, code, uri, nanos, rows, 0);
+
+		// SQLiteQuery.toString() is the prefix and the SQL
+		final String query = sLastSql.get();
+		sLastSql.remove();
+		if (nanos / 1_000_000 >= sSlowQueryMs) {
+			final String sql = query == null || !query.startsWith(SQL_PREFIX) ? null
+					: query.substring(SQL_PREFIX.length());
+			log(new LogEntry(OP_QUERY, uri, nanos / 1_000_000, rows, 0, sql, explain(db, sql)));
+		}
+	}
+
+	/**
+	 * @return a new {@link Write}, or null if the profiler is off
+	 */
+	public static Write startWrite(final String op, final Uri uri) {
+		return sEnabled ? new Write(op, uri) : null;
+	}
+
+	/**
+	 * Records a write, after its transaction ended
+	 *
+	 * @param write from {@link #startWrite}, or null
+	 * @param rows  the rows it returned as written
+	 */
+	public static void endWrite(final Write write, final int code, final long rows) {
+		if (write == null) return;
+		final long nanos = SystemClock.elapsedRealtimeNanos() - write.startNanos;
+		final long triggerChanges = Math.max(0, write.changes - rows);
+		record(write.op, code, write.uri, nanos, rows, triggerChanges);
+		if (triggerChanges >= TRIGGER_HEAVY_CHANGES) {
+			log(new LogEntry(write.op, write.uri, nanos / 1_000_000, rows, triggerChanges,
+					null, new ArrayList<>()));
+		}
+	}
+
+	private static synchronized void record(final String op, final int code, final Uri uri,
+											final long nanos, final long rows,
+											final long triggerChanges) {
+		final String key = op + " " + code;
+		OpStats stats = sStats.get(key);
+		if (stats == null) {
+			stats = new OpStats(op, code, uri.getPath() == null ? ""
+					: uri.getPath().replaceAll("\\d+", "#"));
+			sStats.put(key, stats);
+		}
+		stats.count++;
+		stats.totalNanos += nanos;
+		stats.maxNanos = Math.max(stats.maxNanos, nanos);
+		stats.rows += rows;
+		stats.triggerChanges += triggerChanges;
+		int bucket = 0;
+		while (bucket < BUCKETS_MS.length && nanos >= BUCKETS_MS[bucket] * 1_000_000) {
+			bucket++;
+		}
+		stats.histogram[bucket]++;
+	}
+
+	private static synchronized void log(final LogEntry entry) {
+		if (sLog.size() == MAX_LOG_ENTRIES) sLog.removeFirst();
+		sLog.addLast(entry);
+	}
+
+	/**
+	 * @return the lines of EXPLAIN QUERY PLAN for the SQL. Its arguments are not known here,
+	 * they are left NULL, which gives the same plan for the queries of this app
+	 */
+	private static List<String> explain(final SQLiteDatabase db, final String sql) {
+		final List<String> plan = new ArrayList<>();
+		if (sql == null) return plan;
+		try (Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+			final int detail = c.getColumnIndexOrThrow("detail");
+			while (c.moveToNext()) {
+				plan.add(c.getString(detail));
+			}
+		} catch (SQLException | IllegalArgumentException e) {
+			NnnLogger.exception(e);
+		}
+		return plan;
+	}
+
+	/**
+	 * @return a copy of the statistics, by operation and URI code
+	 */
+	public static synchronized List<OpStats> getStats() {
+		final List<OpStats> copy = new ArrayList<>(sStats.size());
+		for (OpStats s : sStats.values()) {
+			final OpStats c = new OpStats(s.op, s.code, s.path);
+			c.count = s.count;
+			c.totalNanos = s.totalNanos;
+			c.maxNanos = s.maxNanos;
+			c.rows = s.rows;
+			c.triggerChanges = s.triggerChanges;
+			System.arraycopy(s.histogram, 0, c.histogram, 0, s.histogram.length);
+			copy.add(c);
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the slow queries and the trigger-heavy writes, the last one first
+	 */
+	public static synchronized List<LogEntry> getLog() {
+		final List<LogEntry> copy = new ArrayList<>(sLog);
+		Collections.reverse(copy);
+		return copy;
+	}
+
+	/**
+	 * @return everything that was recorded, to export it
+	 */
+	public static String toJson() {
+		try {
+			final JSONArray stats = new JSONArray();
+			for (OpStats s : getStats()) stats.put(s.toJson());
+			final JSONArray log = new JSONArray();
+			for (LogEntry e : getLog()) log.put(e.toJson());
+			return new JSONObject()
+					.put("enabled", sEnabled)
+					.put("slowQueryMs", sSlowQueryMs)
+					.put("operations", stats)
+					.put("slowLog", log)
+					.toString(2);
+		} catch (JSONException e) {
+			// only thrown for NaN numbers and null keys
+			throw new RuntimeException(e);
+		}
+	}
+}
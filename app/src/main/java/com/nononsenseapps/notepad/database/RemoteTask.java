@@ -93,6 +93,17 @@ public class RemoteTask extends DAO {
 			// Cant delete on cascade because we must sync before!
 			")";
 
+	/**
+	 * Sync looks up the items of a list by service, account and list. Triggers look them up
+	 * by the id of the local task
+	 */
+	public static final String[] CREATE_INDEXES = {
+			"CREATE INDEX IF NOT EXISTS remotetask_service_account_list_idx ON " + TABLE_NAME
+					+ "(" + Columns.SERVICE + "," + Columns.ACCOUNT + "," + Columns.LISTDBID
+					+ "," + Columns.DBID + ")",
+			"CREATE INDEX IF NOT EXISTS remotetask_dbid_idx ON " + TABLE_NAME
+					+ "(" + Columns.DBID + ")" };
+
 	/*
 	 * Trigger to delete items when their list is deleted
 	 */
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The full-text indexes of {@link Task#TABLE_NAME} and {@link Task#DELETE_TABLE_NAME}.
+ *
+ * Up to version 22 the search tables were FTS3 tables with a copy of every title and note.
+ * Now they are FTS4 tables with external content: they keep only the index, and read the
+ * text from the tables of tasks when it is needed, for {@link #COLUMN_SNIPPET}. The Android
+ * builds of SQLite have no FTS5, so the results are ranked here with BM25, from the
+ * statistics of matchinfo()
+ */
+public final class SearchIndex {
+
+	/**
+	 * The part of the note around the words found, in the results of
+	 * {@link Task#URI_SEARCH}. The words are between {@link #MATCH_START} and
+	 * {@link #MATCH_END}, see {@link #unmark(String, List)}
+	 */
+	public static final String COLUMN_SNIPPET = "snippet";
+	public static final String MATCH_START = "\u0002";
+	public static final String MATCH_END = "\u0003";
+	private static final String ELLIPSIS = "…";
+	private static final int SNIPPET_TOKENS = 24;
+
+	private static final String COLUMN_MATCHINFO = "matchinfo";
+
+	/**
+	 * A match in the title counts twice as much as one in the note
+	 */
+	private static final double[] WEIGHTS = { 2.0, 1.0 };
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+
+	/**
+	 * The columns of {@link Task#URI_SEARCH}
+	 */
+	public static final String[] SEARCH_FIELDS = Task.joinArrays(
+			DAO.columnNames(Task.Columns.PREVIEW_FIELDS), new String[] { COLUMN_SNIPPET });
+
+	/**
+	 * The tasks whose title or note match the argument, with their {@link #COLUMN_SNIPPET}
+	 * and matchinfo. The index is read first, then each task by its ID. Only the start of
+	 * the notes is read, as in {@link Task.Columns#PREVIEW_FIELDS}
+	 */
+	public static final String SEARCH_QUERY = "SELECT " + previewColumns()
+			+ ", snippet(" + Task.FTS_TABLE_NAME + ",'" + MATCH_START + "','" + MATCH_END
+			+ "','" + ELLIPSIS + "',1," + SNIPPET_TOKENS + ") AS " + COLUMN_SNIPPET
+			+ ", matchinfo(" + Task.FTS_TABLE_NAME + ",'pcnalx') AS " + COLUMN_MATCHINFO
+			+ " FROM " + Task.FTS_TABLE_NAME + " CROSS JOIN " + Task.TABLE_NAME + " ON "
+			+ Task.TABLE_NAME + "." + Task.Columns._ID + " = " + Task.FTS_TABLE_NAME + ".docid"
+			+ " WHERE " + Task.FTS_TABLE_NAME + " MATCH ?";
+
+	/**
+	 * The tasks whose large note matches the argument, see {@link NoteBlobs}. They have the
+	 * columns of {@link #SEARCH_QUERY}, with an empty snippet and no matchinfo
+	 */
+	static final String BLOB_SEARCH_QUERY = "SELECT " + previewColumns() + ", '' AS "
+			+ COLUMN_SNIPPET + ", NULL AS " + COLUMN_MATCHINFO + " FROM " + Task.TABLE_NAME
+			+ " WHERE " + Task.TABLE_NAME + "." + Task.Columns._ID + " IN ("
+			+ NoteBlobs.MATCH + ")";
+
+	/**
+	 * @return {@link Task.Columns#PREVIEW_FIELDS}, with the name of the table before the
+	 * plain columns, which the index also has
+	 */
+	private static String previewColumns() {
+		final StringBuilder result = new StringBuilder();
+		for (String column : Task.Columns.PREVIEW_FIELDS) {
+			if (result.length() > 0) result.append(",");
+			if (column.contains(" AS ")) {
+				result.append(column);
+			} else {
+				result.append(Task.TABLE_NAME).append(".").append(column)
+						.append(" AS ").append(column);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The IDs of the deleted tasks that match the argument
+	 */
+	public static final String DELETED_MATCH = "SELECT docid FROM "
+			+ Task.FTS_DELETE_TABLE_NAME + " WHERE " + Task.FTS_DELETE_TABLE_NAME + " MATCH ?";
+
+	/**
+	 * Words that MATCH reads as operators when they are in upper case
+	 */
+	private static final Set<String> OPERATORS = new HashSet<>(
+			Arrays.asList("AND", "OR", "NOT", "NEAR"));
+
+	/**
+	 * Results with more tasks than this are not kept for the next search
+	 */
+	static final int MAX_KEPT_ROWS = 10_000;
+
+	/**
+	 * Incremented by {@link #invalidate()}
+	 */
+	private static final AtomicLong sGeneration = new AtomicLong();
+	private static volatile LastSearch sLastSearch = null;
+
+	private SearchIndex() {}
+
+	/**
+	 * Creates the search tables, and the triggers that keep them up to date
+	 */
+	static void create(final SQLiteDatabase db) {
+		db.execSQL(Task.CREATE_FTS_TABLE);
+		for (String sql : Task.CREATE_FTS_TRIGGERS) db.execSQL(sql);
+		db.execSQL(Task.CREATE_FTS_DELETE_TABLE);
+		for (String sql : Task.CREATE_FTS_DELETE_TRIGGERS) db.execSQL(sql);
+	}
+
+	/**
+	 * Indexes again all tasks and deleted tasks. Needed only if the tables were changed
+	 * without the triggers
+	 */
+	public static void rebuild(final SQLiteDatabase db) {
+		command(db, Task.FTS_TABLE_NAME, "rebuild");
+		command(db, Task.FTS_DELETE_TABLE_NAME, "rebuild");
+	}
+
+	/**
+	 * Merges the b-trees of the indexes into one. Each write adds a small one, and a search
+	 * reads all of them, so this makes the searches faster after many edits
+	 */
+	public static void optimize(final SQLiteDatabase db) {
+		command(db, Task.FTS_TABLE_NAME, "optimize");
+		command(db, Task.FTS_DELETE_TABLE_NAME, "optimize");
+	}
+
+	/**
+	 * Same as {@link #optimize(SQLiteDatabase)}, for the index of the deleted tasks only
+	 */
+	static void optimizeDeleted(final SQLiteDatabase db) {
+		command(db, Task.FTS_DELETE_TABLE_NAME, "optimize");
+	}
+
+	private static void command(final SQLiteDatabase db, final String table,
+								final String command) {
+		db.execSQL("INSERT INTO " + table + "(" + table + ") VALUES('" + command + "')");
+	}
+
+	/**
+	 * Runs {@link #SEARCH_QUERY}. When the text typed only got longer since the last search,
+	 * and no task changed, the tasks found last time are filtered instead. They keep the
+	 * order of the last search
+	 *
+	 * @param query     the text typed, or null if the results must not be reused
+	 * @param match     the argument of MATCH made from the query
+	 * @param sortOrder of the results, or null to have the best matches first
+	 * @param signal    to stop the search when its results are not needed anymore
+	 * @return the {@link #SEARCH_FIELDS} of the tasks found
+	 */
+	static Cursor search(final SQLiteDatabase db, final String query, final String match,
+						 final String sortOrder, final CancellationSignal signal) {
+		final long generation = sGeneration.get();
+		final LastSearch last = sLastSearch;
+		if (query != null && last != null && last.canNarrow(db, generation, query, sortOrder)) {
+			final List<Object[]> narrowed = last.narrow(query, signal);
+			sLastSearch = new LastSearch(db, generation, query, sortOrder, narrowed);
+			return toCursor(narrowed);
+		}
+
+		final List<Object[]> rows = query(db, match, sortOrder, signal);
+		// if a task changed during the search, the results may be old already
+		if (query != null && rows.size() <= MAX_KEPT_ROWS && sGeneration.get() == generation) {
+			sLastSearch = new LastSearch(db, generation, query, sortOrder, rows);
+		}
+		return toCursor(rows);
+	}
+
+	/**
+	 * Forgets the results of the last search. Called by {@link MyContentProvider} after
+	 * every write of the tasks
+	 */
+	public static void invalidate() {
+		sGeneration.incrementAndGet();
+		sLastSearch = null;
+	}
+
+	private static MatrixCursor toCursor(final List<Object[]> rows) {
+		final MatrixCursor result = new MatrixCursor(SEARCH_FIELDS, rows.size());
+		for (Object[] row : rows) result.addRow(row);
+		return result;
+	}
+
+	/**
+	 * @return the rows of {@link #SEARCH_FIELDS} found by MATCH, in order
+	 */
+	private static List<Object[]> query(final SQLiteDatabase db, final String match,
+										final String sortOrder,
+										final CancellationSignal signal) {
+		// the tasks found by both queries are kept once, with the matchinfo of the first
+		final Cursor c = db.rawQuery(SEARCH_QUERY + " UNION ALL " + BLOB_SEARCH_QUERY
+				+ (sortOrder == null ? "" : " ORDER BY " + sortOrder),
+				new String[] { match, match }, signal);
+		try {
+			final int infoCol = c.getColumnIndexOrThrow(COLUMN_MATCHINFO);
+			final List<Object[]> rows = new ArrayList<>(c.getCount());
+			final List<Double> scores = new ArrayList<>(c.getCount());
+			final Set<Long> found = new HashSet<>();
+			while (c.moveToNext()) {
+				if (signal != null && c.getPosition() % 256 == 0) {
+					signal.throwIfCanceled();
+				}
+				if (!found.add(c.getLong(0))) continue;
+				final Object[] row = new Object[SEARCH_FIELDS.length];
+				for (int i = 0; i < row.length; i++) {
+					row[i] = switch (c.getType(i)) {
+						case Cursor.FIELD_TYPE_NULL -> null;
+						case Cursor.FIELD_TYPE_INTEGER -> c.getLong(i);
+						case Cursor.FIELD_TYPE_FLOAT -> c.getDouble(i);
+						case Cursor.FIELD_TYPE_BLOB -> c.getBlob(i);
+						default -> c.getString(i);
+					};
+				}
+				rows.add(row);
+				scores.add(sortOrder == null && !c.isNull(infoCol)
+						? bm25(c.getBlob(infoCol)) : 0.0);
+			}
+
+			if (sortOrder != null) {
+				return rows;
+			}
+			final Integer[] order = new Integer[rows.size()];
+			for (int i = 0; i < order.length; i++) order[i] = i;
+			// stable, so tasks with the same score keep the order of the index
+			Arrays.sort(order, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+			final List<Object[]> ranked = new ArrayList<>(order.length);
+			for (int i : order) ranked.add(rows.get(i));
+			return ranked;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * The words of a text as the "simple" tokenizer of SQLite finds them: runs of ASCII
+	 * letters and digits, or of any other character above 127. ASCII letters are lower case
+	 */
+	static List<String> tokenize(final String text) {
+		final List<String> tokens = new ArrayList<>();
+		if (text == null) return tokens;
+		final StringBuilder token = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			final char ch = text.charAt(i);
+			if (ch > 127 || Character.isLetterOrDigit(ch)) {
+				token.append(ch < 128 ? Character.toLowerCase(ch) : ch);
+			} else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if (token.length() > 0) tokens.add(token.toString());
+		return tokens;
+	}
+
+	/**
+	 * The results of the last search, kept to be filtered when the next query adds letters
+	 * to this one
+	 */
+	private static final class LastSearch {
+		final SQLiteDatabase db;
+		final long generation;
+		final String query;
+		final String sortOrder;
+		final List<Object[]> rows;
+
+		/**
+		 * If no note of the rows was cut. The words of the query may be in the part of a
+		 * note that was left out, so only a search can tell if such a row matches
+		 */
+		final boolean whole;
+
+		LastSearch(final SQLiteDatabase db, final long generation, final String query,
+				   final String sortOrder, final List<Object[]> rows) {
+			this.db = db;
+			this.generation = generation;
+			this.query = query;
+			this.sortOrder = sortOrder;
+			this.rows = rows;
+			final int hasMoreCol = Arrays.asList(SEARCH_FIELDS)
+					.indexOf(Task.Columns.NOTE_HAS_MORE);
+			boolean whole = true;
+			for (Object[] row : rows) {
+				if (row[hasMoreCol] instanceof Long hasMore && hasMore != 0) {
+					whole = false;
+					break;
+				}
+			}
+			this.whole = whole;
+		}
+
+		/**
+		 * Each word of the query but the last must be found whole, the last one as the
+		 * start of a word. If the new query only adds letters, words or spaces, its tasks
+		 * are a part of these, as long as their notes are {@link #whole}
+		 */
+		boolean canNarrow(final SQLiteDatabase db, final long generation, final String query,
+						  final String sortOrder) {
+			return whole && this.db == db && this.generation == generation
+					&& Objects.equals(this.sortOrder, sortOrder)
+					&& query.startsWith(this.query) && isPlain(this.query) && isPlain(query)
+					&& !tokenize(this.query).isEmpty();
+		}
+
+		/**
+		 * @return if the text has no characters or words that MATCH reads as operators
+		 */
+		private static boolean isPlain(final String query) {
+			for (int i = 0; i < query.length(); i++) {
+				final char ch = query.charAt(i);
+				if (ch < 128 && !Character.isLetterOrDigit(ch) && !Character.isWhitespace(ch)) {
+					return false;
+				}
+			}
+			for (String word : query.split("\\s+")) {
+				if (OPERATORS.contains(word)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the rows whose title or note have all the words of the query
+		 */
+		List<Object[]> narrow(final String query, final CancellationSignal signal) {
+			final List<String> words = tokenize(query);
+			// "'" + query + "*'": the last word is a prefix, unless a space follows it
+			final boolean lastIsPrefix = !query.isEmpty()
+					&& (query.charAt(query.length() - 1) > 127
+					|| Character.isLetterOrDigit(query.charAt(query.length() - 1)));
+			final int titleCol = Arrays.asList(SEARCH_FIELDS).indexOf(Task.Columns.TITLE);
+			final int noteCol = Arrays.asList(SEARCH_FIELDS).indexOf(Task.Columns.NOTE);
+			final List<Object[]> result = new ArrayList<>();
+			for (int r = 0; r < rows.size(); r++) {
+				if (signal != null && r % 256 == 0) {
+					signal.throwIfCanceled();
+				}
+				final Object[] row = rows.get(r);
+				final List<String> tokens = tokenize((String) row[titleCol]);
+				tokens.addAll(tokenize((String) row[noteCol]));
+				boolean all = true;
+				for (int w = 0; all && w < words.size(); w++) {
+					final String word = words.get(w);
+					final boolean prefix = lastIsPrefix && w == words.size() - 1;
+					boolean found = false;
+					for (int t = 0; !found && t < tokens.size(); t++) {
+						found = prefix ? tokens.get(t).startsWith(word)
+								: tokens.get(t).equals(word);
+					}
+					all = found;
+				}
+				if (all) result.add(row);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Okapi BM25 of a row, from its matchinfo(fts,'pcnalx'). Higher is better
+	 */
+	static double bm25(final byte[] matchinfo) {
+		final IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder())
+				.asIntBuffer();
+		final int phrases = info.get(0);
+		final int columns = info.get(1);
+		final int rows = info.get(2);
+		double score = 0;
+		for (int col = 0; col < columns; col++) {
+			final double avgTokens = Math.max(1, info.get(3 + col));
+			final double tokens = info.get(3 + columns + col);
+			final double weight = col < WEIGHTS.length ? WEIGHTS[col] : 1.0;
+			for (int p = 0; p < phrases; p++) {
+				final int x = 3 + 2 * columns + 3 * (p * columns + col);
+				final double hits = info.get(x);
+				final double docs = info.get(x + 2);
+				if (hits == 0) continue;
+				// + 1, so that a word found in most tasks still counts a little
+				final double idf = Math.log(1 + (rows - docs + 0.5) / (docs + 0.5));
+				score += weight * idf * hits * (K1 + 1)
+						/ (hits + K1 * (1 - B + B * tokens / avgTokens));
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Removes {@link #MATCH_START} and {@link #MATCH_END} from a {@link #COLUMN_SNIPPET}
+	 *
+	 * @param ranges where the start and end of each match are added, as offsets in the
+	 *               text returned
+	 * @return the text of the snippet
+	 */
+	public static String unmark(final String snippet, final List<Integer> ranges) {
+		final StringBuilder text = new StringBuilder(snippet.length());
+		int from = 0;
+		int start;
+		while ((start = snippet.indexOf(MATCH_START, from)) >= 0) {
+			int end = snippet.indexOf(MATCH_END, start);
+			if (end < 0) end = snippet.length();
+			text.append(snippet, from, start);
+			ranges.add(text.length());
+			text.append(snippet, start + MATCH_START.length(), end);
+			ranges.add(text.length());
+			from = Math.min(snippet.length(), end + MATCH_END.length());
+		}
+		text.append(snippet, from, snippet.length());
+		return text.toString();
+	}
+}
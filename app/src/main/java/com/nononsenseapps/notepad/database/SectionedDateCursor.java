@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.nononsenseapps.helpers.TimeFormatter;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * The tasks of a list sorted by due date, with the "today", "tomorrow", ..., "no date" and
+ * "completed" headers between them. It reads the tasks with a single SELECT on the
+ * {@link Task#TABLE_NAME} table and adds the header rows in java, while walking through it,
+ * instead of asking SQLite for the UNION of {@link Task#SECTIONED_DATE_QUERY}.
+ *
+ * The rows and columns are the same as those of the old query: headers have -1 as id, the
+ * header key as title, the start of their range as due date and the list id in
+ * {@link Task.Columns#DBLIST}. See {@link #query}
+ */
+public class SectionedDateCursor extends AbstractCursor {
+
+	/**
+	 * {@link Task#SECRET_TYPEID} of a task: 0 if it has a due date, 1 if it has none,
+	 * 3 if it is completed. Headers use 0, 1 and 2, so that each one comes before its tasks
+	 */
+	private static final String TYPEID = "CASE WHEN " + Task.Columns.COMPLETED
+			+ " IS NOT NULL THEN 3 WHEN " + Task.Columns.DUE + " IS NULL THEN 1 ELSE 0 END";
+
+	/**
+	 * The dated headers, in order. Each one is shown only if a task is due in its range,
+	 * including both ends, like in {@link Task#SECTIONED_DATE_QUERY}
+	 */
+	private static final String[] DATED_KEYS = { Task.HEADER_KEY_OVERDUE,
+			Task.HEADER_KEY_TODAY, Task.HEADER_KEY_PLUS1, Task.HEADER_KEY_PLUS2,
+			Task.HEADER_KEY_PLUS3, Task.HEADER_KEY_PLUS4, Task.HEADER_KEY_NEXT_MONTH,
+			Task.HEADER_KEY_NEXT_YEAR, Task.HEADER_KEY_LATER };
+
+	private final Cursor mCursor;
+	private final String[] mColumns;
+
+	/**
+	 * The header rows, with a value for each of {@link #mColumns}
+	 */
+	private final Object[][] mHeaders;
+
+	/**
+	 * For each row of this cursor, its position in {@link #mCursor}, or -1 - the index
+	 * of the header in {@link #mHeaders}
+	 */
+	private final int[] mRows;
+	private final int mCount;
+
+	/**
+	 * The row at the current position, if it is a header
+	 */
+	private Object[] mHeader = null;
+
+	/**
+	 * Runs the query for {@link Task#URI_SECTIONED_BY_DATE}
+	 *
+	 * @param projection the columns, by default {@link Task.Columns#FIELDS} and the
+	 *                   {@link Task#SECRET_TYPEID} columns
+	 * @param selection  for the tasks only: the headers are shown if the tasks they
+	 *                   refer to are selected
+	 * @param listId     the list id to put in the header rows, may be null
+	 */
+	public static Cursor query(final SQLiteDatabase db, final String[] projection,
+							   final String selection, final String[] selectionArgs,
+							   final String listId) {
+		final String[] columns = projection != null ? projection : Task.joinArrays(
+				Task.Columns.FIELDS, new String[] { Task.SECRET_TYPEID, Task.SECRET_TYPEID2 });
+
+		// The due and completed columns are needed to place the headers. They are added
+		// after the requested ones, so that getColumnNames() can leave them out
+		final String[] sqlColumns = new String[columns.length + 2];
+		for (int i = 0; i < columns.length; i++) {
+			if (Task.SECRET_TYPEID.equals(columns[i])) {
+				sqlColumns[i] = TYPEID + " AS " + Task.SECRET_TYPEID;
+			} else if (Task.SECRET_TYPEID2.equals(columns[i])) {
+				sqlColumns[i] = "1 AS " + Task.SECRET_TYPEID2;
+			} else {
+				sqlColumns[i] = columns[i];
+			}
+		}
+		sqlColumns[columns.length] = Task.Columns.DUE;
+		sqlColumns[columns.length + 1] = Task.Columns.COMPLETED;
+
+		final Cursor c = db.query(Task.TABLE_NAME, sqlColumns, selection, selectionArgs,
+				null, null, TYPEID + "," + Task.Columns.DUE);
+		return new SectionedDateCursor(c, columns,
+				listId == null ? null : Long.parseLong(listId));
+	}
+
+	/**
+	 * @param cursor  tasks, sorted by {@link #TYPEID} and due date, with the columns of
+	 *                {@code columns} followed by the due and completed columns
+	 * @param columns the columns to show, as they were requested
+	 */
+	private SectionedDateCursor(final Cursor cursor, final String[] columns,
+								final Long listId) {
+		mCursor = cursor;
+		mColumns = DAO.columnNames(columns);
+
+		// Same as Task.TODAY_START and Task.TODAY_PLUS(), which have a precision of seconds
+		final long now = System.currentTimeMillis() / 1000 * 1000;
+		final int daysUntilNextMonth = TimeFormatter.getHowManyDaysUntilFirstOfNextMonth();
+		final int toEndOfNextMonth = daysUntilNextMonth
+				+ TimeFormatter.getHowManyDaysInTheNextMonth();
+		final int daysUntilNextYear = TimeFormatter.getHowManyDaysUntilFirstOfNextYear();
+		final int toEndOfNextYear = daysUntilNextYear
+				+ TimeFormatter.getHowManyDaysInNextYear();
+		// Start and end of the range of each of DATED_KEYS
+		final long[] from = { 0, now, todayPlus(1), todayPlus(2), todayPlus(3), todayPlus(4),
+				todayPlus(daysUntilNextMonth), todayPlus(daysUntilNextYear),
+				todayPlus(toEndOfNextYear) };
+		final long[] to = { now, todayPlus(1), todayPlus(2), todayPlus(3), todayPlus(4),
+				todayPlus(5), todayPlus(toEndOfNextMonth), todayPlus(toEndOfNextYear),
+				Long.MAX_VALUE };
+		// Headers come before the tasks due at their start. Sort them by it, the next
+		// month or year may begin before today + 4
+		final int[] order = new int[DATED_KEYS.length];
+		for (int i = 0; i < order.length; i++) {
+			int j = i;
+			while (j > 0 && from[order[j - 1]] > from[i]) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+
+		final int count = cursor.getCount();
+		final int dueCol = columns.length;
+		final int completedCol = columns.length + 1;
+		final Object[][] headers = new Object[DATED_KEYS.length + 2][];
+		final int[] rows = new int[count + headers.length];
+		int headerCount = 0;
+		int size = 0;
+		int nextDated = 0;
+		boolean noDateShown = false;
+		boolean completeShown = false;
+
+		// One pass over the due and completed columns. The tasks come sorted like the rows
+		// of this cursor, so the first task due after the start of a header is the only
+		// one that can tell if the header has tasks
+		cursor.moveToPosition(-1);
+		while (cursor.moveToNext()) {
+			if (!cursor.isNull(completedCol)) {
+				if (!completeShown) {
+					completeShown = true;
+					headers[headerCount] = headerRow(Task.HEADER_KEY_COMPLETE, 0L, 1L,
+							listId, 2);
+					rows[size++] = -1 - headerCount++;
+				}
+			} else if (cursor.isNull(dueCol)) {
+				if (!noDateShown) {
+					noDateShown = true;
+					headers[headerCount] = headerRow(Task.HEADER_KEY_NODATE, null, null,
+							listId, 1);
+					rows[size++] = -1 - headerCount++;
+				}
+			} else {
+				final long due = cursor.getLong(dueCol);
+				while (nextDated < order.length && from[order[nextDated]] <= due) {
+					final int h = order[nextDated++];
+					if (due <= to[h]) {
+						headers[headerCount] = headerRow(DATED_KEYS[h], from[h], null,
+								listId, 0);
+						rows[size++] = -1 - headerCount++;
+					}
+				}
+			}
+			rows[size++] = cursor.getPosition();
+		}
+
+		mHeaders = headers;
+		mRows = rows;
+		mCount = size;
+	}
+
+	/**
+	 * @return the same value as {@link Task#TODAY_PLUS}, the start of the day that comes
+	 * {@code offset} days after today, in milliseconds
+	 */
+	private static long todayPlus(final int offset) {
+		return LocalDate.now().plusDays(offset).atStartOfDay(ZoneId.systemDefault())
+				.toInstant().toEpochMilli();
+	}
+
+	private Object[] headerRow(final String key, final Long due, final Long completed,
+							   final Long listId, final long typeId) {
+		final Object[] row = new Object[mColumns.length];
+		for (int i = 0; i < mColumns.length; i++) {
+			switch (mColumns[i]) {
+				case Task.Columns._ID:
+					row[i] = -1L;
+					break;
+				case Task.Columns.TITLE:
+					row[i] = key;
+					break;
+				case Task.Columns.DUE:
+					row[i] = due;
+					break;
+				case Task.Columns.COMPLETED:
+					row[i] = completed;
+					break;
+				case Task.Columns.DBLIST:
+					row[i] = listId;
+					break;
+				case Task.SECRET_TYPEID:
+					row[i] = typeId;
+					break;
+				case Task.SECRET_TYPEID2:
+					row[i] = 0L;
+					break;
+				default:
+					row[i] = null;
+			}
+		}
+		return row;
+	}
+
+	@Override
+	public boolean onMove(final int oldPosition, final int newPosition) {
+		final int row = mRows[newPosition];
+		if (row < 0) {
+			mHeader = mHeaders[-1 - row];
+			return true;
+		}
+		mHeader = null;
+		return mCursor.moveToPosition(row);
+	}
+
+	@Override
+	public int getCount() {
+		return mCount;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return mColumns;
+	}
+
+	@Override
+	public String getString(final int column) {
+		if (mHeader == null) return mCursor.getString(column);
+		final Object value = mHeader[column];
+		return value == null ? null : value.toString();
+	}
+
+	@Override
+	public short getShort(final int column) {
+		return (short) getLong(column);
+	}
+
+	@Override
+	public int getInt(final int column) {
+		return (int) getLong(column);
+	}
+
+	@Override
+	public long getLong(final int column) {
+		if (mHeader == null) return mCursor.getLong(column);
+		final Object value = mHeader[column];
+		// like SQLite does for null and text values
+		return value instanceof Number ? ((Number) value).longValue() : 0L;
+	}
+
+	@Override
+	public float getFloat(final int column) {
+		if (mHeader == null) return mCursor.getFloat(column);
+		return getLong(column);
+	}
+
+	@Override
+	public double getDouble(final int column) {
+		if (mHeader == null) return mCursor.getDouble(column);
+		return getLong(column);
+	}
+
+	@Override
+	public byte[] getBlob(final int column) {
+		if (mHeader == null) return mCursor.getBlob(column);
+		return null;
+	}
+
+	@Override
+	public int getType(final int column) {
+		if (mHeader == null) return mCursor.getType(column);
+		final Object value = mHeader[column];
+		if (value == null) return FIELD_TYPE_NULL;
+		return value instanceof Number ? FIELD_TYPE_INTEGER : FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public boolean isNull(final int column) {
+		if (mHeader == null) return mCursor.isNull(column);
+		return mHeader[column] == null;
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		mCursor.close();
+	}
+}
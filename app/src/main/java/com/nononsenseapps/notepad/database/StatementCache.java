@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The {@link SQLiteStatement}s used for the writes of {@link DAO} and the moves of
+ * {@link Task}, compiled once for each database and kept for the next rows.
+ *
+ * {@link SQLiteDatabase#insert} and {@link SQLiteDatabase#update} build a new SQL string
+ * and compile it for every row. A sync or a restore writes thousands of rows with the same
+ * columns, so here the statements are kept by table and column names, and only the values
+ * are bound again.
+ *
+ * Each thread has its own statements, so no lock is held while a statement waits for a
+ * connection. A shared statement had to be locked while it ran: a thread outside a
+ * transaction could hold it while waiting for the primary connection, held by another
+ * thread whose transaction needed the same statement
+ */
+final class StatementCache {
+
+	/**
+	 * How many statements each thread keeps for a database. The least recently used one is
+	 * dropped when another is needed
+	 */
+	static final int MAX_STATEMENTS = 32;
+
+	private static final ThreadLocal<Map<SQLiteDatabase, StatementCache>> sCaches =
+			new ThreadLocal<Map<SQLiteDatabase, StatementCache>>() {
+				@Override
+				protected Map<SQLiteDatabase, StatementCache> initialValue() {
+					return new HashMap<>();
+				}
+			};
+
+	/**
+	 * @return the statements of this database for the calling thread. Only use them on this
+	 * thread. Those of databases that were closed are dropped
+	 */
+	static StatementCache of(final SQLiteDatabase db) {
+		final Map<SQLiteDatabase, StatementCache> caches = sCaches.get();
+		final Iterator<Map.Entry<SQLiteDatabase, StatementCache>> it =
+				caches.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<SQLiteDatabase, StatementCache> entry = it.next();
+			if (!entry.getKey().isOpen()) {
+				it.remove();
+			}
+		}
+		StatementCache cache = caches.get(db);
+		if (cache == null) {
+			cache = new StatementCache(db);
+			caches.put(db, cache);
+		}
+		return cache;
+	}
+
+	private final SQLiteDatabase mDb;
+
+	/**
+	 * By SQL, in the order they were last used
+	 */
+	private final LinkedHashMap<String, SQLiteStatement> mStatements =
+			new LinkedHashMap<String, SQLiteStatement>(MAX_STATEMENTS, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						final Map.Entry<String, SQLiteStatement> eldest) {
+					if (size() <= MAX_STATEMENTS) return false;
+					// no other thread uses it
+					eldest.getValue().close();
+					return true;
+				}
+			};
+
+	private StatementCache(final SQLiteDatabase db) {
+		mDb = db;
+	}
+
+	/**
+	 * @param sql with ? for the values, which must be bound before each use
+	 * @return the compiled statement for the SQL
+	 */
+	SQLiteStatement get(final String sql) {
+		SQLiteStatement stmt = mStatements.get(sql);
+		if (stmt == null) {
+			stmt = mDb.compileStatement(sql);
+			mStatements.put(sql, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * Same as {@link SQLiteDatabase#insert}, without a nullColumnHack
+	 *
+	 * @return the id of the new row
+	 */
+	long insert(final String table, final ContentValues values) {
+		if (values.size() == 0) {
+			return mDb.insertOrThrow(table, null, values);
+		}
+		final TreeSet<String> columns = new TreeSet<>(values.keySet());
+		final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+		final StringBuilder params = new StringBuilder();
+		for (String column : columns) {
+			if (params.length() > 0) {
+				sql.append(',');
+				params.append(',');
+			}
+			sql.append(column);
+			params.append('?');
+		}
+		sql.append(") VALUES (").append(params).append(')');
+
+		final SQLiteStatement stmt = get(sql.toString());
+		bind(stmt, columns, values);
+		return stmt.executeInsert();
+	}
+
+	/**
+	 * Same as {@link SQLiteDatabase#update}, for the row with the given id
+	 *
+	 * @return the number of rows changed, 0 or 1
+	 */
+	int update(final String table, final ContentValues values, final long id) {
+		if (values.size() == 0) {
+			throw new IllegalArgumentException("Empty values");
+		}
+		final TreeSet<String> columns = new TreeSet<>(values.keySet());
+		final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+		boolean first = true;
+		for (String column : columns) {
+			if (!first) sql.append(',');
+			sql.append(column).append("=?");
+			first = false;
+		}
+		sql.append(" WHERE ").append(BaseColumns._ID).append(" IS ?");
+
+		final SQLiteStatement stmt = get(sql.toString());
+		bind(stmt, columns, values);
+		stmt.bindLong(columns.size() + 1, id);
+		return stmt.executeUpdateDelete();
+	}
+
+	/**
+	 * @return the number of rows deleted, 0 or 1
+	 */
+	int delete(final String table, final long id) {
+		final SQLiteStatement stmt = get("DELETE FROM " + table + " WHERE "
+				+ BaseColumns._ID + " IS ?");
+		stmt.bindLong(1, id);
+		return stmt.executeUpdateDelete();
+	}
+
+	/**
+	 * Runs a query that returns a single number, like
+	 * {@link DatabaseUtils#longForQuery(SQLiteDatabase, String, String[])}
+	 */
+	long longForQuery(final String sql, final long... args) {
+		final SQLiteStatement stmt = get(sql);
+		for (int i = 0; i < args.length; i++) {
+			stmt.bindLong(i + 1, args[i]);
+		}
+		return stmt.simpleQueryForLong();
+	}
+
+	/**
+	 * Runs an UPDATE or DELETE with the given arguments
+	 *
+	 * @return the number of rows changed
+	 */
+	int updateDelete(final String sql, final long... args) {
+		final SQLiteStatement stmt = get(sql);
+		for (int i = 0; i < args.length; i++) {
+			stmt.bindLong(i + 1, args[i]);
+		}
+		return stmt.executeUpdateDelete();
+	}
+
+	private static void bind(final SQLiteStatement stmt, final Iterable<String> columns,
+							 final ContentValues values) {
+		stmt.clearBindings();
+		int i = 1;
+		for (String column : columns) {
+			// Binds Booleans as 1 or 0, like SQLiteDatabase does
+			DatabaseUtils.bindObjectToProgram(stmt, i++, values.get(column));
+		}
+	}
+}
@@ -23,7 +23,9 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.BaseColumns;
 
 import androidx.annotation.NonNull;
@@ -35,10 +37,19 @@ import com.nononsenseapps.notepad.R;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -57,15 +68,14 @@ public class Task extends DAO {
 	// SQL convention says Table name should be "singular"
 	public static final String TABLE_NAME = "task";
 	public static final String DELETE_TABLE_NAME = "deleted_task";
-	public static final String FTS3_DELETE_TABLE_NAME = "fts3_deleted_task";
+	public static final String FTS_DELETE_TABLE_NAME = "fts4_deleted_task";
 	public static final String HISTORY_TABLE_NAME = "history";
+	// The path of URI_SECTIONED_BY_DATE, once the name of a view
 	private static final String SECTIONED_DATE_VIEW = "sectioned_date_view";
+	public static final String FTS_TABLE_NAME = "fts4_task";
+	// The search tables before version 23. Still the path of URI_SEARCH
 	public static final String FTS3_TABLE_NAME = "fts3_task";
-
-	public static String getSECTION_DATE_VIEW_NAME(final String listId) {
-		// listId CAN be null. Hence the string concat hack
-		return SECTIONED_DATE_VIEW + "_" + listId;
-	}
+	public static final String FTS3_DELETE_TABLE_NAME = "fts3_deleted_task";
 
 	// Used in sectioned view date
 	static final String FAR_FUTURE = "strftime('%s','3999-01-01') * 1000";
@@ -88,6 +98,31 @@ public class Task extends DAO {
 				+ " days','start of day', 'utc') * 1000";
 	}
 
+	// Due dates of the tasks in the "overdue", "today" and "week" lists of the drawer
+	public static final String WHERE_DUE_OVERDUE =
+			Columns.DUE + " BETWEEN " + OVERDUE + " AND " + TODAY_START;
+	public static final String WHERE_DUE_TODAY =
+			Columns.DUE + " BETWEEN " + TODAY_START + " AND " + TODAY_PLUS(1);
+	public static final String WHERE_DUE_WEEK =
+			Columns.DUE + " BETWEEN " + TODAY_START + " AND (" + TODAY_PLUS(5) + " -1)";
+
+	// Columns of URI_SMART_COUNTS
+	public static final String SMART_COUNT_OVERDUE = "overdue";
+	public static final String SMART_COUNT_TODAY = "today";
+	public static final String SMART_COUNT_WEEK = "week";
+
+	/**
+	 * A single row with the number of open tasks in each of the "overdue", "today" and
+	 * "week" lists, counted in one pass over the index of due dates. Queried by the
+	 * provider as a subquery named {@link #SMARTCOUNTS}
+	 */
+	public static final String SMART_COUNTS_QUERY = "SELECT " +
+			"IFNULL(SUM(" + WHERE_DUE_OVERDUE + "),0) AS " + SMART_COUNT_OVERDUE + "," +
+			"IFNULL(SUM(" + WHERE_DUE_TODAY + "),0) AS " + SMART_COUNT_TODAY + "," +
+			"IFNULL(SUM(" + WHERE_DUE_WEEK + "),0) AS " + SMART_COUNT_WEEK +
+			" FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED + " IS NULL AND " +
+			Columns.DUE + " BETWEEN " + OVERDUE + " AND " + TODAY_PLUS(5);
+
 	// Code used to decode title of date header
 	public static final String HEADER_KEY_TODAY = "today+0";
 	public static final String HEADER_KEY_PLUS1 = "today+1";
@@ -112,6 +147,33 @@ public class Task extends DAO {
 		return Uri.withAppendedPath(URI, Long.toString(id));
 	}
 
+	private static final String LIST_PATH = "list";
+
+	/**
+	 * Queries of the tasks of a single list are notified on this {@link Uri}, so that a change
+	 * in another list does not load them again. Writes notify the lists they touch. It is
+	 * under {@link #URI}, so queries of all tasks are notified by every list
+	 */
+	public static Uri getListUri(final long listId) {
+		return URI.buildUpon().appendPath(LIST_PATH).appendPath(Long.toString(listId)).build();
+	}
+
+	/**
+	 * @return the list id of a {@link #getListUri(long)}, or -1 for other {@link Uri}s
+	 */
+	public static long getListIdOf(final Uri uri) {
+		final List<String> segments = uri.getPathSegments();
+		if (segments.size() == 3 && TABLE_NAME.equals(segments.get(0))
+				&& LIST_PATH.equals(segments.get(1))) {
+			try {
+				return Long.parseLong(segments.get(2));
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
 	public static final int BASEURICODE = 201;
 	public static final int BASEITEMCODE = 202;
 	public static final int DELETEDQUERYCODE = 209;
@@ -121,6 +183,12 @@ public class Task extends DAO {
 	public static final int HISTORYQUERYCODE = 213;
 	public static final int MOVEITEMLEFTCODE = 214;
 	public static final int MOVEITEMRIGHTCODE = 215;
+	public static final int MOVETOLISTCODE = 216;
+	public static final int SMARTCOUNTSCODE = 217;
+	public static final int HISTORYVERSIONCODE = 218;
+	public static final int PAGEDQUERYCODE = 219;
+	public static final int NOTEBLOBCODE = 220;
+	public static final int SETCOMPLETEDCODE = 225;
 
 	// Legacy support, these also need to use legacy projections
 	public static final int LEGACYBASEURICODE = 221;
@@ -140,6 +208,16 @@ public class Task extends DAO {
 				TABLE_NAME + "/" + MOVEITEMLEFT + "/#", MOVEITEMLEFTCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
 				TABLE_NAME + "/" + MOVEITEMRIGHT + "/#", MOVEITEMRIGHTCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
+				TABLE_NAME + "/" + MOVETOLIST, MOVETOLISTCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
+				TABLE_NAME + "/" + SMARTCOUNTS, SMARTCOUNTSCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
+				TABLE_NAME + "/" + PAGED, PAGEDQUERYCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
+				TABLE_NAME + "/" + NoteBlobs.BLOB_TABLE_NAME + "/#", NOTEBLOBCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
+				TABLE_NAME + "/" + SETCOMPLETED, SETCOMPLETEDCODE);
 
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
 				TABLE_NAME + "/" + DELETEDQUERY, DELETEDQUERYCODE);
@@ -153,6 +231,8 @@ public class Task extends DAO {
 
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
 				TABLE_NAME + "/" + HISTORY_TABLE_NAME, HISTORYQUERYCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
+				TABLE_NAME + "/" + HISTORY_TABLE_NAME + "/#", HISTORYVERSIONCODE);
 
 		// Legacy URIs
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
@@ -178,7 +258,11 @@ public class Task extends DAO {
 	public static final String TARGETPOS = "targetpos";
 	private static final String MOVEITEMLEFT = "moveitemleft";
 	private static final String MOVEITEMRIGHT = "moveitemright";
+	private static final String MOVETOLIST = "movetolist";
+	private static final String SETCOMPLETED = "setcompleted";
 	private static final String DELETEDQUERY = "deletedquery";
+	static final String SMARTCOUNTS = "smartcounts";
+	private static final String PAGED = "paged";
 
 	// Special URI to look at backup table
 	public static final Uri URI_DELETED_QUERY = Uri.withAppendedPath(URI, DELETEDQUERY);
@@ -186,9 +270,32 @@ public class Task extends DAO {
 	// Query the view with date section headers
 	public static final Uri URI_SECTIONED_BY_DATE = Uri.withAppendedPath(URI, SECTIONED_DATE_VIEW);
 
-	// Query for history of tasks
+	// Query tasks a page at a time, for long lists. See PagedTaskCursor
+	public static final Uri URI_PAGED = Uri.withAppendedPath(URI, PAGED);
+
+	// Query the number of open tasks in each of the "overdue", "today" and "week" lists
+	public static final Uri URI_SMART_COUNTS = Uri.withAppendedPath(URI, SMARTCOUNTS);
+
+	// Query for history of tasks. Title and note are deltas in some rows, see HIST_KIND
 	public static final Uri URI_TASK_HISTORY = Uri.withAppendedPath(URI, HISTORY_TABLE_NAME);
 
+	/**
+	 * @param blobId a {@link Columns#NOTE_BLOB}
+	 * @return the {@link Uri} to open with {@link ContentResolver#openFileDescriptor} to read
+	 * the whole note, as UTF-8 text. See {@link #loadWholeNote(ContentResolver)}
+	 */
+	public static Uri getNoteBlobUri(final long blobId) {
+		return Uri.withAppendedPath(URI, NoteBlobs.BLOB_TABLE_NAME + "/" + blobId);
+	}
+
+	/**
+	 * @param historyId the id of a row of {@link #URI_TASK_HISTORY}
+	 * @return the {@link Uri} of that version, with its whole title and note
+	 */
+	public static Uri getHistoryVersionUri(final long historyId) {
+		return Uri.withAppendedPath(URI_TASK_HISTORY, Long.toString(historyId));
+	}
+
 	// Search URI
 	public static final Uri URI_SEARCH = Uri.withAppendedPath(
 			Uri.parse(MyContentProvider.SCHEME + MyContentProvider.AUTHORITY),
@@ -197,6 +304,8 @@ public class Task extends DAO {
 	// Special URI to use when a move is requested
 	private static final Uri URI_WRITE_MOVEITEMLEFT = Uri.withAppendedPath(URI, MOVEITEMLEFT);
 	private static final Uri URI_WRITE_MOVEITEMRIGHT = Uri.withAppendedPath(URI, MOVEITEMRIGHT);
+	private static final Uri URI_WRITE_MOVETOLIST = Uri.withAppendedPath(URI, MOVETOLIST);
+	private static final Uri URI_WRITE_SETCOMPLETED = Uri.withAppendedPath(URI, SETCOMPLETED);
 
 	private Uri getMoveItemLeftUri() {
 		if (_id < 1) {
@@ -231,26 +340,60 @@ public class Task extends DAO {
 		public static final String LEFT = "lft";
 		public static final String RIGHT = "rgt";
 
+		/**
+		 * The id of the {@link NoteBlobs} blob with the whole note, when {@link #NOTE} only
+		 * has the first part of it. NULL for notes that are whole
+		 */
+		public static final String NOTE_BLOB = "noteblob";
+
 		public static final String[] FIELDS = { _ID, TITLE, NOTE, COMPLETED,
-				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
+				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED, NOTE_BLOB };
 		public static final String[] FIELDS_NO_ID = { TITLE, NOTE, COMPLETED,
-				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
+				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED, NOTE_BLOB };
 		public static final String[] SHALLOWFIELDS = { _ID, TITLE, NOTE,
 				DBLIST, COMPLETED, DUE, UPDATED, LOCKED };
+
+		/**
+		 * Characters of the note in {@link #PREVIEW_FIELDS}: more than a list item can show
+		 */
+		public static final int PREVIEW_LENGTH = 1000;
+
+		/**
+		 * 1 if the {@link #NOTE} of {@link #PREVIEW_FIELDS} was cut, or is stored in a
+		 * {@link #NOTE_BLOB}, else 0
+		 */
+		public static final String NOTE_HAS_MORE = "notehasmore";
+
+		/**
+		 * For lists: like {@link #FIELDS}, in the same order, but with only the first
+		 * {@link #PREVIEW_LENGTH} characters of the note, followed by {@link #NOTE_HAS_MORE}.
+		 * Long notes would fill the cursor window with text that is never shown.
+		 * Read the task again with {@link #FIELDS} to have the whole note
+		 */
+		public static final String[] PREVIEW_FIELDS = { _ID, TITLE,
+				"substr(" + TABLE_NAME + "." + NOTE + ",1," + PREVIEW_LENGTH + ") AS " + NOTE,
+				COMPLETED, DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED, NOTE_BLOB,
+				"(length(" + TABLE_NAME + "." + NOTE + ")>" + PREVIEW_LENGTH + " OR "
+						+ TABLE_NAME + "." + NOTE_BLOB + " NOT NULL) AS " + NOTE_HAS_MORE };
+
 		public static final String TRIG_DELETED = "deletedtime";
 		public static final String HIST_TASK_ID = "taskid";
+		/**
+		 * {@link TaskHistory#KIND_FULL} or {@link TaskHistory#KIND_DELTA}
+		 */
+		public static final String HIST_KIND = "kind";
 		// Used to read the table. Deleted field set by database
 		public static final String[] DELETEFIELDS = { _ID, TITLE, NOTE,
-				COMPLETED, DUE, DBLIST, TRIG_DELETED };
+				COMPLETED, DUE, DBLIST, TRIG_DELETED, NOTE_BLOB };
 		// Used in trigger creation
 		private static final String[] DELETEFIELDS_TRIGGER = { TITLE, NOTE,
-				COMPLETED, DUE, DBLIST };
+				COMPLETED, DUE, DBLIST, NOTE_BLOB };
 
 		// accessible fields in history table
 		public static final String[] HISTORY_COLUMNS = { Columns.HIST_TASK_ID,
-				Columns.TITLE, Columns.NOTE };
+				Columns.TITLE, Columns.NOTE, Columns.NOTE_BLOB };
 		public static final String[] HISTORY_COLUMNS_UPDATED = { Columns.HIST_TASK_ID,
-				Columns.TITLE, Columns.NOTE, Columns.UPDATED };
+				Columns.TITLE, Columns.NOTE, Columns.UPDATED, Columns.NOTE_BLOB };
 
 	}
 
@@ -267,6 +410,9 @@ public class Task extends DAO {
 			Columns.LEFT + " INTEGER NOT NULL DEFAULT 1," + Columns.RIGHT +
 			" INTEGER NOT NULL DEFAULT 2," + Columns.DBLIST + " INTEGER NOT NULL," +
 
+			// large notes, see NoteBlobs
+			Columns.NOTE_BLOB + " INTEGER DEFAULT NULL," +
+
 			// Positions must be positive and ordered!
 			" CHECK(" + Columns.LEFT + " > 0), " + " CHECK(" + Columns.RIGHT + " > 1), " +
 
@@ -292,11 +438,16 @@ public class Task extends DAO {
 			Columns.DUE + " INTEGER DEFAULT NULL," +
 			Columns.DBLIST + " INTEGER DEFAULT NULL," +
 			Columns.TRIG_DELETED +
-			" TIMESTAMP NOT NULL DEFAULT current_timestamp" +
+			" TIMESTAMP NOT NULL DEFAULT current_timestamp," +
+			Columns.NOTE_BLOB + " INTEGER DEFAULT NULL" +
 			")";
 
 	/**
-	 * Every change to a note gets saved here
+	 * Every change to a note gets saved here. The triggers save the whole title and note,
+	 * then {@link TaskHistory#compact} turns most of the older versions into deltas. Read a
+	 * version with {@link #getHistoryVersionUri(long)}. A large note is saved like in the
+	 * task table: its first part, and its blob, which {@link NoteBlobs} keeps while a version
+	 * refers to it
 	 */
 	public static final String CREATE_HISTORY_TABLE = "CREATE TABLE " +
 			HISTORY_TABLE_NAME + "(" +
@@ -306,113 +457,117 @@ public class Task extends DAO {
 			Columns.NOTE + " TEXT NOT NULL DEFAULT ''," +
 			Columns.UPDATED +
 			" TIMESTAMP NOT NULL DEFAULT current_timestamp," +
+			Columns.HIST_KIND + " INTEGER NOT NULL DEFAULT " + TaskHistory.KIND_FULL + "," +
+			Columns.NOTE_BLOB + " INTEGER DEFAULT NULL," +
 			" FOREIGN KEY(" + Columns.HIST_TASK_ID +
 			" ) REFERENCES " + TABLE_NAME + " ( " +
 			Columns._ID + ") ON DELETE CASCADE " + " ) ";
 
+	/**
+	 * Indexes for the columns used to filter and sort tasks: lists are always read one at a
+	 * time, sorted by position, due date or update time. The nested set triggers search by
+	 * list and position. The count of tasks not completed, and the date headers, can be
+	 * computed from {@code (dblist, completed, due)} alone
+	 */
+	public static final String[] CREATE_INDEXES = {
+			"CREATE INDEX IF NOT EXISTS task_dblist_lft_idx ON " + TABLE_NAME
+					+ "(" + Columns.DBLIST + "," + Columns.LEFT + ")",
+			"CREATE INDEX IF NOT EXISTS task_dblist_rgt_idx ON " + TABLE_NAME
+					+ "(" + Columns.DBLIST + "," + Columns.RIGHT + ")",
+			"CREATE INDEX IF NOT EXISTS task_dblist_completed_due_idx ON " + TABLE_NAME
+					+ "(" + Columns.DBLIST + "," + Columns.COMPLETED + "," + Columns.DUE + ")",
+			"CREATE INDEX IF NOT EXISTS task_dblist_updated_idx ON " + TABLE_NAME
+					+ "(" + Columns.DBLIST + "," + Columns.UPDATED + ")",
+			// for the "overdue", "today", ... lists, which show tasks of all lists
+			"CREATE INDEX IF NOT EXISTS task_completed_due_idx ON " + TABLE_NAME
+					+ "(" + Columns.COMPLETED + "," + Columns.DUE + ")",
+			// for the history of a task, and to cascade deletes of tasks
+			"CREATE INDEX IF NOT EXISTS history_taskid_idx ON " + HISTORY_TABLE_NAME
+					+ "(" + Columns.HIST_TASK_ID + "," + Columns.UPDATED + ")",
+			// for the archive, the newest first, and to purge the oldest
+			"CREATE INDEX IF NOT EXISTS deleted_task_deletedtime_idx ON " + DELETE_TABLE_NAME
+					+ "(" + Columns.TRIG_DELETED + ")" };
+
 	static final String HISTORY_TRIGGER_BODY = " INSERT INTO " + HISTORY_TABLE_NAME + " (" +
 			arrayToCommaString(Columns.HISTORY_COLUMNS) + ")" + " VALUES (" +
-			arrayToCommaString("new.",
-					new String[] { Columns._ID, Columns.TITLE, Columns.NOTE }) + ");";
+			arrayToCommaString("new.", new String[] { Columns._ID, Columns.TITLE, Columns.NOTE,
+					Columns.NOTE_BLOB }) + ");";
 
+	// An edit past the first part of a large note changes only its blob
 	public static final String HISTORY_UPDATE_TRIGGER_NAME = "trigger_update_" + HISTORY_TABLE_NAME;
 	public static final String CREATE_HISTORY_UPDATE_TRIGGER = "CREATE TRIGGER " +
 			HISTORY_UPDATE_TRIGGER_NAME + " AFTER UPDATE OF " +
-			arrayToCommaString(Columns.TITLE, Columns.NOTE) + " ON " + TABLE_NAME + " WHEN old." +
-			Columns.TITLE + " IS NOT new." + Columns.TITLE + " OR old." + Columns.NOTE +
-			" IS NOT new." + Columns.NOTE + " BEGIN " + HISTORY_TRIGGER_BODY + " END;";
+			arrayToCommaString(Columns.TITLE, Columns.NOTE, Columns.NOTE_BLOB) + " ON " +
+			TABLE_NAME + " WHEN old." + Columns.TITLE + " IS NOT new." + Columns.TITLE +
+			" OR old." + Columns.NOTE + " IS NOT new." + Columns.NOTE + " OR old." +
+			Columns.NOTE_BLOB + " IS NOT new." + Columns.NOTE_BLOB + " BEGIN " +
+			HISTORY_TRIGGER_BODY + " END;";
 
-	public static final String CREATE_HISTORY_INSERT_TRIGGER = "CREATE TRIGGER trigger_insert_" +
-			HISTORY_TABLE_NAME + " AFTER INSERT ON " + TABLE_NAME + " BEGIN " +
+	public static final String HISTORY_INSERT_TRIGGER_NAME = "trigger_insert_" +
+			HISTORY_TABLE_NAME;
+	public static final String CREATE_HISTORY_INSERT_TRIGGER = "CREATE TRIGGER " +
+			HISTORY_INSERT_TRIGGER_NAME + " AFTER INSERT ON " + TABLE_NAME + " BEGIN " +
 			HISTORY_TRIGGER_BODY + " END;";
 
-	// Delete search table
-	public static final String CREATE_FTS3_DELETE_TABLE = "CREATE VIRTUAL TABLE "
-			+ FTS3_DELETE_TABLE_NAME + " USING FTS3(" + Columns._ID + ", "
+	// Search tables. They index the title and note of the rows in TABLE_NAME and
+	// DELETE_TABLE_NAME without keeping a copy of them, see SearchIndex
+	public static final String CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE "
+			+ FTS_TABLE_NAME + " USING fts4(content=\"" + TABLE_NAME + "\", "
 			+ Columns.TITLE + ", " + Columns.NOTE + ");";
 
-	public static final String CREATE_FTS3_DELETED_INSERT_TRIGGER =
-			"CREATE TRIGGER deletedtask_fts3_insert AFTER INSERT ON " + DELETE_TABLE_NAME +
-					" BEGIN " + " INSERT INTO " + FTS3_DELETE_TABLE_NAME + " (" +
-					arrayToCommaString(Columns._ID, Columns.TITLE, Columns.NOTE) + ") VALUES (" +
-					arrayToCommaString("new.",
-							new String[] { Columns._ID, Columns.TITLE, Columns.NOTE }) +
-					");" + " END;";
-
-	public static final String CREATE_FTS3_DELETED_UPDATE_TRIGGER =
-			"CREATE TRIGGER deletedtask_fts3_update AFTER UPDATE OF " +
-					arrayToCommaString(Columns.TITLE, Columns.NOTE) +
-					" ON " +
-					DELETE_TABLE_NAME +
-					" BEGIN " +
-					" UPDATE " +
-					FTS3_DELETE_TABLE_NAME +
-					" SET " +
-					Columns.TITLE + " = new." + Columns.TITLE +
-					"," + Columns.NOTE + " = new." +
-					Columns.NOTE + " WHERE " + Columns._ID +
-					" IS new." + Columns._ID + ";" + " END;";
-
-	public static final String CREATE_FTS3_DELETED_DELETE_TRIGGER =
-			"CREATE TRIGGER deletedtask_fts3_delete AFTER DELETE ON " +
-					DELETE_TABLE_NAME + " BEGIN " +
-					" DELETE FROM " + FTS3_DELETE_TABLE_NAME +
-					" WHERE " + Columns._ID + " IS old." +
-					Columns._ID + ";" + " END;";
-
-	// Search table
-	public static final String CREATE_FTS3_TABLE = "CREATE VIRTUAL TABLE "
-			+ FTS3_TABLE_NAME + " USING FTS3(" + Columns._ID + ", "
+	public static final String CREATE_FTS_DELETE_TABLE = "CREATE VIRTUAL TABLE "
+			+ FTS_DELETE_TABLE_NAME + " USING fts4(content=\"" + DELETE_TABLE_NAME + "\", "
 			+ Columns.TITLE + ", " + Columns.NOTE + ");";
 
-	public static final String CREATE_FTS3_INSERT_TRIGGER =
-			"CREATE TRIGGER task_fts3_insert AFTER INSERT ON " +
-					TABLE_NAME +
-					" BEGIN " +
-					" INSERT INTO " +
-					FTS3_TABLE_NAME +
-					" (" +
-					arrayToCommaString(Columns._ID, Columns.TITLE, Columns.NOTE) +
-					") VALUES (" +
-					arrayToCommaString("new.", new String[] { Columns._ID,
-							Columns.TITLE, Columns.NOTE }) +
-					");" +
-					" END;";
-
-	public static final String CREATE_FTS3_UPDATE_TRIGGER =
-			"CREATE TRIGGER task_fts3_update AFTER UPDATE OF " +
-					arrayToCommaString(Columns.TITLE, Columns.NOTE) + " ON " + TABLE_NAME +
-					" BEGIN " + " UPDATE " + FTS3_TABLE_NAME + " SET " + Columns.TITLE + " = new." +
-					Columns.TITLE + "," + Columns.NOTE + " = new." + Columns.NOTE + " WHERE " +
-					Columns._ID + " IS new." + Columns._ID + ";" + " END;";
-
-	public static final String CREATE_FTS3_DELETE_TRIGGER =
-			"CREATE TRIGGER task_fts3_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN " +
-					" DELETE FROM " + FTS3_TABLE_NAME + " WHERE " + Columns._ID + " IS old." +
-					Columns._ID + ";" + " END;";
+	public static final String[] CREATE_FTS_TRIGGERS = ftsTriggers("task_fts",
+			TABLE_NAME, FTS_TABLE_NAME);
+
+	public static final String[] CREATE_FTS_DELETE_TRIGGERS = ftsTriggers("deletedtask_fts",
+			DELETE_TABLE_NAME, FTS_DELETE_TABLE_NAME);
+
+	/**
+	 * An index with external content reads the old text from the table to remove it, so it
+	 * must be removed before the row changes, and added again after
+	 */
+	private static String[] ftsTriggers(final String name, final String table,
+										 final String ftsTable) {
+		final String columns = arrayToCommaString(Columns.TITLE, Columns.NOTE);
+		final String remove = " BEGIN DELETE FROM " + ftsTable + " WHERE docid = old."
+				+ Columns._ID + "; END;";
+		final String add = " BEGIN INSERT INTO " + ftsTable + " (docid," + columns
+				+ ") VALUES (" + arrayToCommaString("new.",
+				new String[] { Columns._ID, Columns.TITLE, Columns.NOTE }) + "); END;";
+		return new String[] {
+				"CREATE TRIGGER " + name + "_insert AFTER INSERT ON " + table + add,
+				"CREATE TRIGGER " + name + "_pre_update BEFORE UPDATE OF " + columns + " ON "
+						+ table + remove,
+				"CREATE TRIGGER " + name + "_update AFTER UPDATE OF " + columns + " ON "
+						+ table + add,
+				"CREATE TRIGGER " + name + "_delete BEFORE DELETE ON " + table + remove };
+	}
 
 	/**
-	 * This is a SQLite view which returns the tasks in the specified list with headers
-	 * suitable for dates, if any tasks would be sorted under them. Headers are used
-	 * in the {@link DragSortListView} when notes are ordered by date.
-	 * Provider hardcodes the sort order for this.
+	 * A query which returns the tasks in the specified list with headers suitable for dates,
+	 * if any tasks would be sorted under them. Headers are used in the
+	 * {@link DragSortListView} when notes are ordered by date. The provider used to create it
+	 * as a temporary view for each list, and then as a subquery. It now uses
+	 * {@link SectionedDateCursor}, which gives the same rows with a single query on the task
+	 * table: this is left to compare the two in the tests
 	 *
-	 * @param listId if it is null, the function will return (a query) for all lists
-	 * @return a SQL query to create this view
+	 * @param listId if it is null, the function will return a query for all lists
 	 */
-	public static String CREATE_SECTIONED_DATE_VIEW(final String listId) {
+	public static String SECTIONED_DATE_QUERY(final String listId) {
 
-		// TODO on the API 35 emulator (and on the Google Pixel 8a), this function creates a view
-		//  where the "dblist" column is (erroneously) of type BLOB, while on the API 34 emulator
-		//  (and in previous android versions) "dblist" correctly maintains the INTEGER TYPE.
-		//  I think it's because we supply sListId and listId with arrayToCommaString(), so
-		//	 we get '1' instead of 1. On older android versions this is ignored, but since API 35
-		//   it becomes a problem.
-		final String sListId = listId == null ? " NOT NULL " : "'" + listId + "'";
+		// The list id must be an INTEGER, not '1': the headers used to have the TEXT '1' in the
+		// "dblist" column, while tasks have the INTEGER 1. Newer SQLite versions (android 15)
+		// give no affinity to a column that is different in each part of the UNION, so
+		// "dblist = ?" could not match tasks anymore, see issue #525
+		final String sListId = listId == null ? " NOT NULL " : Long.toString(Long.parseLong(listId));
+		final String sqlListId = "CAST(" + (listId == null ? "null" : sListId) + " AS INTEGER)";
 
-		String beginning = "CREATE TEMP VIEW IF NOT EXISTS " + getSECTION_DATE_VIEW_NAME(listId) +
+		String beginning =
 				// Tasks WITH dates NOT completed, secret 0
-				" AS SELECT " + arrayToCommaString(Columns.FIELDS) + ",0" + " AS " + SECRET_TYPEID +
+				" SELECT " + arrayToCommaString(Columns.FIELDS) + ",0" + " AS " + SECRET_TYPEID +
 				",1" + " AS " + SECRET_TYPEID2 + " FROM " + TABLE_NAME + " WHERE " +
 				Columns.COMPLETED + " IS null " + " AND " + Columns.DUE + " IS NOT null " +
 				" UNION ALL " +
@@ -426,36 +581,32 @@ public class Task extends DAO {
 				",1" + " AS " + SECRET_TYPEID2 + " FROM " + TABLE_NAME + " WHERE " +
 				Columns.COMPLETED + " IS NOT null ";
 
-		String TODAY = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_START, Columns.TITLE, HEADER_KEY_TODAY, Columns.DBLIST, listId) +
-				",0,0" +
+		String TODAY = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_START, null, HEADER_KEY_TODAY, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
 				" BETWEEN " + TODAY_START + " AND " + TODAY_PLUS(1) + ") ";
 
 		// TOMORROW = Today + 1
-		String PLUS_1 = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(1), Columns.TITLE, HEADER_KEY_PLUS1, Columns.DBLIST,
-				listId) + ",0,0" +
+		String PLUS_1 = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(1), null, HEADER_KEY_PLUS1, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
 				" BETWEEN " + TODAY_PLUS(1) + " AND " + TODAY_PLUS(2) + ") ";
 
 		// Today + 2
-		String PLUS_2 = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(2), Columns.TITLE, HEADER_KEY_PLUS2, Columns.DBLIST,
-				listId) + ",0,0" +
+		String PLUS_2 = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(2), null, HEADER_KEY_PLUS2, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
 				" BETWEEN " + TODAY_PLUS(2) + " AND " + TODAY_PLUS(3) + ") ";
 
 		// Today + 3
-		String PLUS_3 = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(3), Columns.TITLE, HEADER_KEY_PLUS3, Columns.DBLIST,
-				listId) + ",0,0" +
+		String PLUS_3 = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(3), null, HEADER_KEY_PLUS3, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
@@ -465,9 +616,8 @@ public class Task extends DAO {
 		// notes list is sorted by due date, but I think these are enough already
 
 		// Today + 4
-		String PLUS_4 = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(4), Columns.TITLE, HEADER_KEY_PLUS4, Columns.DBLIST,
-				listId) + ",0,0" +
+		String PLUS_4 = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(4), null, HEADER_KEY_PLUS4, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
@@ -481,9 +631,8 @@ public class Task extends DAO {
 		// This "fake note" will then show up in the drag-sort-listview (but not as an
 		// user-iteractable note, just a header) to show that the next month starts there.
 		// Any note after that is due after the next month begins
-		String nextMonth = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(daysUntilNextMonth), Columns.TITLE, HEADER_KEY_NEXT_MONTH,
-				Columns.DBLIST, listId) + ",0,0" +
+		String nextMonth = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(daysUntilNextMonth), null, HEADER_KEY_NEXT_MONTH, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it, so if there are task with a due
 				// time in the next month
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
@@ -494,9 +643,8 @@ public class Task extends DAO {
 		int daysUntilNextYear = TimeFormatter.getHowManyDaysUntilFirstOfNextYear();
 		int toEndOfNextYear = daysUntilNextYear + TimeFormatter.getHowManyDaysInNextYear();
 
-		String nextYear = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(daysUntilNextYear), Columns.TITLE, HEADER_KEY_NEXT_YEAR,
-				Columns.DBLIST, listId) + ",0,0" +
+		String nextYear = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(daysUntilNextYear), null, HEADER_KEY_NEXT_YEAR, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
@@ -504,27 +652,24 @@ public class Task extends DAO {
 				+ ") ";
 
 		// Overdue (0)
-		String overdue = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, OVERDUE, Columns.TITLE, HEADER_KEY_OVERDUE, Columns.DBLIST, listId) +
-				",0,0" +
+		String overdue = " UNION ALL " + " SELECT -1," + headerColumns(
+				OVERDUE, null, HEADER_KEY_OVERDUE, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
 				" BETWEEN " + OVERDUE + " AND " + TODAY_START + ") ";
 
 		// Later. As of now, later = "after the end of the next year"
-		String later = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, TODAY_PLUS(toEndOfNextYear), Columns.TITLE, HEADER_KEY_LATER, Columns.DBLIST,
-				listId) + ",0,0" +
+		String later = " UNION ALL " + " SELECT -1," + headerColumns(
+				TODAY_PLUS(toEndOfNextYear), null, HEADER_KEY_LATER, sqlListId) + ",0,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.COMPLETED +
 				" IS NULL " + " AND " + Columns.DBLIST + " IS " + sListId + " AND " + Columns.DUE +
 				" >= " + TODAY_PLUS(toEndOfNextYear) + ") ";
 
 		// No date
-		String noDate = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, "null", Columns.TITLE, HEADER_KEY_NODATE, Columns.DBLIST,
-				listId) + ",1,0" +
+		String noDate = " UNION ALL " + " SELECT -1," + headerColumns(
+				"null", null, HEADER_KEY_NODATE, sqlListId) + ",1,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST +
 				" IS " + sListId + " AND " + Columns.DUE + " IS null " + " AND " +
@@ -532,23 +677,54 @@ public class Task extends DAO {
 
 		// Complete, overdue to catch all
 		// Set complete time to 1
-		String finalSql = " UNION ALL " + " SELECT -1," + asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-				Columns.DUE, OVERDUE, Columns.COMPLETED, "1", Columns.TITLE,
-				HEADER_KEY_COMPLETE, Columns.DBLIST, listId) + ",2,0" +
+		String finalSql = " UNION ALL " + " SELECT -1," + headerColumns(
+				OVERDUE, "1", HEADER_KEY_COMPLETE, sqlListId) + ",2,0" +
 				// Only show header if there are tasks under it
 				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST +
-				" IS " + sListId + " AND " + Columns.COMPLETED + " IS NOT null " + ") " + ";";
+				" IS " + sListId + " AND " + Columns.COMPLETED + " IS NOT null " + ") ";
 
 		return beginning + TODAY + PLUS_1 + PLUS_2 + PLUS_3 + PLUS_4 + nextMonth + nextYear +
 				overdue + later + noDate + finalSql;
 	}
 
+	/**
+	 * @return the columns {@link Columns#FIELDS_NO_ID} of a date header row in
+	 * {@link #SECTIONED_DATE_QUERY}. All are null, except due, completed, title and dblist
+	 */
+	private static String headerColumns(final String due, final String completed,
+										final String headerKey, final String sqlListId) {
+		final StringBuilder result = new StringBuilder();
+		for (final String colName : Columns.FIELDS_NO_ID) {
+			if (result.length() > 0) result.append(",");
+
+			if (colName.equals(Columns.DUE)) {
+				result.append(due);
+			} else if (colName.equals(Columns.COMPLETED) && completed != null) {
+				result.append(completed);
+			} else if (colName.equals(Columns.TITLE)) {
+				result.append("'").append(headerKey).append("'");
+			} else if (colName.equals(Columns.DBLIST)) {
+				// same type as task.dblist, see issue #525
+				result.append(sqlListId);
+			} else {
+				result.append("null");
+			}
+		}
+		return result.toString();
+	}
+
 	/**
 	 * Fields of this note
 	 */
 	public String title = null;
 	public String note = null;
 
+	/**
+	 * Set if {@link #note} is only the first part of the note, see
+	 * {@link #loadWholeNote(ContentResolver)}
+	 */
+	public Long noteBlob = null;
+
 	/**
 	 * When this Task was completed, in milliseconds since 1970-01-01 UTC
 	 */
@@ -613,6 +789,8 @@ public class Task extends DAO {
 		} else {
 			note = "";
 		}
+		// the note is whole now
+		noteBlob = null;
 	}
 
 	/**
@@ -646,6 +824,33 @@ public class Task extends DAO {
 		right = c.getLong(7);
 		dblist = c.getLong(8);
 		locked = c.getInt(9) == 1;
+
+		final int noteBlobCol = c.getColumnIndex(Columns.NOTE_BLOB);
+		if (noteBlobCol >= 0 && !c.isNull(noteBlobCol)) noteBlob = c.getLong(noteBlobCol);
+	}
+
+	/**
+	 * If the task was read with only the first part of its note, reads the rest. Call it
+	 * before the note is shown whole or written elsewhere, and not from the UI thread
+	 *
+	 * @throws IOException if the note could not be read whole
+	 */
+	public void loadWholeNote(final ContentResolver resolver) throws IOException {
+		if (noteBlob == null) return;
+		final ParcelFileDescriptor pipe = resolver.openFileDescriptor(getNoteBlobUri(noteBlob),
+				"r");
+		if (pipe == null) throw new IOException("No note blob " + noteBlob);
+		final String whole;
+		try (Reader reader = new InputStreamReader(new FileInputStream(
+				pipe.getFileDescriptor()), StandardCharsets.UTF_8)) {
+			whole = NoteBlobs.readAll(reader);
+			// the provider closes the pipe with an error if it could not write all of it
+			pipe.checkError();
+		} finally {
+			pipe.close();
+		}
+		note = whole;
+		noteBlob = null;
 	}
 
 	public Task(final long id, final ContentValues values) {
@@ -667,6 +872,7 @@ public class Task extends DAO {
 			} else {
 				this.title = values.getAsString(Columns.TITLE);
 				this.note = values.getAsString(Columns.NOTE);
+				this.noteBlob = values.getAsLong(Columns.NOTE_BLOB);
 				this.completed = values.getAsLong(Columns.COMPLETED);
 				this.due = values.getAsLong(Columns.DUE);
 				this.updated = values.getAsLong(Columns.UPDATED);
@@ -722,6 +928,8 @@ public class Task extends DAO {
 		// Note that ID is NOT included here
 		if (title != null) values.put(Columns.TITLE, title);
 		if (note != null) values.put(Columns.NOTE, note);
+		// the provider keeps the blob of a first part, and drops it for a new note
+		if (note != null) values.put(Columns.NOTE_BLOB, noteBlob);
 
 		if (dblist != null) values.put(Columns.DBLIST, dblist);
 
@@ -806,25 +1014,72 @@ public class Task extends DAO {
 	}
 
 	/**
-	 * Convenience method to complete tasks. Runs on the thread that called it.
+	 * Convenience method to complete tasks. Runs on the thread that called it. Any number of
+	 * tasks is written in a single transaction, see
+	 * {@link #setCompleted(SQLiteDatabase, Long, long, String[])}
+	 *
+	 * @return the number of tasks that were changed. Those that already were (not)
+	 * completed are skipped
 	 */
-	public static void setCompletedSynced(final Context context, final boolean completed,
-										  final Long... ids) {
-		if (ids.length < 1) return;
+	public static int setCompletedSynced(final Context context, final boolean completed,
+										 final Long... ids) {
+		if (ids.length < 1) return 0;
 
 		long thisInstant = Calendar.getInstance().getTimeInMillis();
 		final ContentValues values = new ContentValues();
 		values.put(Columns.COMPLETED, completed ? thisInstant : null);
 		values.put(Columns.UPDATED, thisInstant);
 
-		String idStrings = "(";
-		for (Long id : ids) {
-			idStrings += id + ",";
+		// the ids are the arguments, there is no selection
+		final String[] idArgs = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) idArgs[i] = Long.toString(ids[i]);
+		return context.getContentResolver()
+				.update(URI_WRITE_SETCOMPLETED, values, null, idArgs);
+	}
+
+	/**
+	 * Tasks changed by each statement of
+	 * {@link #setCompleted(SQLiteDatabase, Long, long, String[])}. SQLite on older android
+	 * versions takes at most 999 arguments
+	 */
+	static final int COMPLETE_CHUNK = 500;
+
+	/**
+	 * Does the work of {@link #setCompletedSynced(Context, boolean, Long...)}, in a
+	 * transaction started by the caller. Only {@link Columns#COMPLETED} and
+	 * {@link Columns#UPDATED} are written, so the history and search triggers, which are
+	 * for the title and the note, don't run.
+	 *
+	 * @param completed the completion time, or null to un-complete the tasks
+	 * @param ids       of the tasks, any number of them
+	 * @return the number of tasks changed in each list
+	 */
+	static Map<Long, Integer> setCompleted(final SQLiteDatabase db, final Long completed,
+										   final long updated, final String[] ids) {
+		final ContentValues values = new ContentValues();
+		values.put(Columns.COMPLETED, completed);
+		values.put(Columns.UPDATED, updated);
+		final String toChange = Columns.COMPLETED
+				+ (completed == null ? " IS NOT NULL" : " IS NULL");
+
+		final Map<Long, Integer> counts = new HashMap<>();
+		for (int from = 0; from < ids.length; from += COMPLETE_CHUNK) {
+			final String[] chunk = Arrays.copyOfRange(ids, from,
+					Math.min(ids.length, from + COMPLETE_CHUNK));
+			final StringBuilder where = new StringBuilder(Columns._ID).append(" IN (?");
+			for (int i = 1; i < chunk.length; i++) where.append(",?");
+			where.append(") AND ").append(toChange);
+
+			try (Cursor c = db.query(TABLE_NAME, new String[] { Columns.DBLIST, "count(*)" },
+					where.toString(), chunk, Columns.DBLIST, null, null)) {
+				while (c.moveToNext()) {
+					final Integer before = counts.get(c.getLong(0));
+					counts.put(c.getLong(0), (before == null ? 0 : before) + c.getInt(1));
+				}
+			}
+			db.update(TABLE_NAME, values, where.toString(), chunk);
 		}
-		idStrings = idStrings.substring(0, idStrings.length() - 1);
-		idStrings += ")";
-		context.getContentResolver()
-				.update(URI, values, Columns._ID + " IN " + idStrings, null);
+		return counts;
 	}
 
 	public int moveTo(final ContentResolver resolver, final Task targetTask) {
@@ -842,68 +1097,136 @@ public class Task extends DAO {
 		return 0;
 	}
 
-	@Override
-	protected String getTableName() {
-		return TABLE_NAME;
+	/**
+	 * Moves the given tasks to the top of another list, keeping their order. Faster than
+	 * updating {@link Columns#DBLIST}, which places the tasks one at a time with a trigger
+	 *
+	 * @return the number of tasks that were moved
+	 */
+	public static int moveToList(final ContentResolver resolver, final long toListId,
+								 final long... taskIds) {
+		if (taskIds.length == 0) {
+			return 0;
+		}
+		final ContentValues values = new ContentValues();
+		values.put(Columns.DBLIST, toListId);
+		return resolver.update(URI_WRITE_MOVETOLIST, values,
+				Columns._ID + " IN (" + arrayToCommaString(taskIds) + ")", null);
 	}
 
 	/**
-	 * Can't use unique constraint on positions because SQLite checks
-	 * constraints after every row is updated an not after each statement like
-	 * it should. So have to do the check in a trigger instead.
+	 * Does the work of {@link #moveToList(ContentResolver, long, long...)}, in a transaction
+	 * started by the caller. The positions are written here, so {@link #TRIGGER_MOVE_LIST}
+	 * does not run for the moved tasks.
+	 *
+	 * @param selection which tasks to move. Those already in the target list are skipped
+	 * @return the number of tasks that were moved
 	 */
-	static String countVals(final String col, final String ver) {
-		return String.format("SELECT COUNT(DISTINCT %2$s)"
-						+ " AS ColCount FROM %1$s WHERE %3$s=%4$s.%3$s", TABLE_NAME,
-				col, Columns.DBLIST, ver);
-	}
+	static int moveToList(final SQLiteDatabase db, final long toListId,
+						  final String selection, final String[] selectionArgs) {
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID },
+				Columns.DBLIST + " IS NOT " + toListId
+						+ (selection == null ? "" : " AND (" + selection + ")"),
+				selectionArgs, null, null, Columns.DBLIST + "," + Columns.LEFT);
+		final long[] ids = new long[c.getCount()];
+		while (c.moveToNext()) {
+			ids[c.getPosition()] = c.getLong(0);
+		}
+		c.close();
+		if (ids.length == 0) {
+			return 0;
+		}
 
-	// verify that left are unique
-	// count number of id and compare to number of left and right
-	static String posUniqueConstraint(final String ver, final String msg) {
-		return String.format(
-				" SELECT CASE WHEN ((%1$s) != (%2$s) OR (%1$s) != (%3$s)) THEN "
-						+ " RAISE (ABORT, '" + msg + "')" + " END;",
-				countVals(Columns._ID, ver), countVals(Columns.LEFT, ver),
-				countVals(Columns.RIGHT, ver));
-	}
+		// Positions after all others, so that the final update below always changes them.
+		// The gaps left in the old lists are not closed, see POSITION_GAP
+		final StatementCache statements = StatementCache.of(db);
+		final long staged = statements.longForQuery(SQL_MAX_POSITION);
+		for (long id : ids) {
+			statements.updateDelete(SQL_SHIFT_POSITION, staged, staged, id);
+		}
 
-	// Makes a gap in the list where the task is being inserted
-	private static final String BUMP_TO_RIGHT =
-			" UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %3$s >= new.%3$s AND %4$s IS new.%4$s;";
+		// The tasks go in the gaps above the first task of the target list
+		long top = statements.longForQuery(SQL_FIRST_IN_LIST,
+				FIRST_POSITION + POSITION_GAP, toListId);
+		if (top - POSITION_GAP * ids.length < 1) {
+			respace(db, toListId);
+			top = statements.longForQuery(SQL_FIRST_IN_LIST,
+					FIRST_POSITION + POSITION_GAP, toListId);
+		}
 
-	public static final String TRIGGER_PRE_INSERT = String.format(
-			"CREATE TRIGGER task_pre_insert BEFORE INSERT ON %s BEGIN ",
-			TABLE_NAME)
-			+ String.format(BUMP_TO_RIGHT, TABLE_NAME, Columns.RIGHT,
-			Columns.LEFT, Columns.DBLIST) + " END;";
+		for (int i = 0; i < ids.length; i++) {
+			final long pos = top - POSITION_GAP * (ids.length - i);
+			statements.updateDelete(SQL_SET_LIST_POSITION, toListId, pos, pos + 1, ids[i]);
+		}
+		return ids.length;
+	}
 
-	public static final String TRIGGER_POST_INSERT = String.format(
-			"CREATE TRIGGER task_post_insert AFTER INSERT ON %s BEGIN ",
-			TABLE_NAME)
-			// Enforce integrity
-			+ posUniqueConstraint("new", "pos not unique post insert")
+	/*
+	 * The statements of the moves, with ? for all values. The SQL is always the same, so
+	 * they are compiled once by each thread, see StatementCache
+	 */
+	private static final String SQL_MAX_POSITION = "SELECT IFNULL(MAX(" + Columns.RIGHT
+			+ "), 0) FROM " + TABLE_NAME;
+	private static final String SQL_SHIFT_POSITION = String.format(
+			"UPDATE %1$s SET %2$s = %2$s + ?, %3$s = %3$s + ? WHERE %4$s IS ?",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns._ID);
+	// args: the default, the list
+	private static final String SQL_FIRST_IN_LIST = "SELECT IFNULL(MIN(" + Columns.LEFT
+			+ "), ?) FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST + " IS ?";
+	private static final String SQL_SET_LIST_POSITION = String.format(
+			"UPDATE %1$s SET %2$s = ?, %3$s = ?, %4$s = ? WHERE %5$s IS ?",
+			TABLE_NAME, Columns.DBLIST, Columns.LEFT, Columns.RIGHT, Columns._ID);
+	private static final String SQL_SET_POSITION = String.format(
+			"UPDATE %1$s SET %2$s = ?, %3$s = ? WHERE %4$s IS ?",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns._ID);
+	// args: the list, the left or right
+	private static final String SQL_ID_AT_LEFT = "SELECT IFNULL(MAX(" + Columns._ID
+			+ "), -1) FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST + " IS ? AND "
+			+ Columns.LEFT + " IS ?";
+	private static final String SQL_ID_AT_RIGHT = "SELECT IFNULL(MAX(" + Columns._ID
+			+ "), -1) FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST + " IS ? AND "
+			+ Columns.RIGHT + " IS ?";
+	private static final String SQL_LEFT_OF = "SELECT " + Columns.LEFT + " FROM "
+			+ TABLE_NAME + " WHERE " + Columns._ID + " IS ?";
+	private static final String SQL_RIGHT_OF = "SELECT " + Columns.RIGHT + " FROM "
+			+ TABLE_NAME + " WHERE " + Columns._ID + " IS ?";
+	// args: the default, the list, the edge
+	private static final String SQL_NEIGHBOUR_LEFT = "SELECT IFNULL(MAX(" + Columns.RIGHT
+			+ "), ?) FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST + " IS ? AND "
+			+ Columns.RIGHT + " < ?";
+	private static final String SQL_NEIGHBOUR_RIGHT = "SELECT IFNULL(MIN(" + Columns.LEFT
+			+ "), ?) FROM " + TABLE_NAME + " WHERE " + Columns.DBLIST + " IS ? AND "
+			+ Columns.LEFT + " > ?";
 
-			+ " END;";
+	@Override
+	protected String getTableName() {
+		return TABLE_NAME;
+	}
 
-	// Upgrades children and closes the gap made from the delete
-	private static final String BUMP_TO_LEFT =
-			" UPDATE %1$s SET %2$s = %2$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;";
+	/**
+	 * Space between the positions of two tasks that are next to each other. New and moved
+	 * tasks go into these gaps, so the other tasks of the list keep their positions. When a
+	 * gap is used up, the list is renumbered by {@link #respace(SQLiteDatabase, Long)}
+	 */
+	static final long POSITION_GAP = 1L << 16;
 
-	public static final String TRIGGER_POST_DELETE = String.format(
-			"CREATE TRIGGER task_post_delete AFTER DELETE ON %s BEGIN ",
+	/**
+	 * Position of the first task of a respaced list. Leaves room for 2^32 new tasks on top
+	 */
+	static final long FIRST_POSITION = 1L << 48;
+
+	// Puts task new._id in the gap above the first task of its list
+	private static final String PUT_ON_TOP = String.format(
+			" UPDATE %1$s SET %2$s = IFNULL((SELECT MIN(%2$s) FROM %1$s WHERE %4$s IS new.%4$s"
+					+ " AND %5$s IS NOT new.%5$s), %6$d) - %7$d WHERE %5$s IS new.%5$s;"
+					+ " UPDATE %1$s SET %3$s = %2$s + 1 WHERE %5$s IS new.%5$s;",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST, Columns._ID,
+			FIRST_POSITION + POSITION_GAP, POSITION_GAP);
+
+	public static final String TRIGGER_POST_INSERT_POSITION = String.format(
+			"CREATE TRIGGER task_post_insert_position AFTER INSERT ON %s BEGIN ",
 			TABLE_NAME)
-			// + String.format(UPGRADE_CHILDREN, TABLE_NAME, Columns.LEFT,
-			// Columns.RIGHT, Columns.DBLIST)
-			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.LEFT,
-			Columns.RIGHT, Columns.DBLIST)
-			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.RIGHT,
-			Columns.RIGHT, Columns.DBLIST)
-
-			// Enforce integrity
-			+ posUniqueConstraint("old", "pos not unique post delete")
-
-			+ " END;";
+			+ PUT_ON_TOP + " END;";
 
 	public static final String TRIGGER_PRE_DELETE = String.format(
 			"CREATE TRIGGER task_pre_delete BEFORE DELETE ON %1$s BEGIN "
@@ -916,102 +1239,116 @@ public class Task extends DAO {
 
 					+ " END;", TABLE_NAME, DELETE_TABLE_NAME);
 
-	public String getSQLMoveItemLeft(final ContentValues values) {
+	/**
+	 * Moves this task just before the task at the target position, which must be on its left.
+	 * Values should come from getMoveValues
+	 *
+	 * @return the number of tasks that were moved, 0 or 1
+	 */
+	public int moveItemLeft(final SQLiteDatabase db, final ContentValues values) {
 		if (!values.containsKey(TARGETPOS) || values.getAsLong(TARGETPOS) >= left) {
-			return null;
+			return 0;
 		}
-		return getSQLMoveItem(Columns.LEFT, values.getAsLong(TARGETPOS));
+		return moveItem(db, Columns.LEFT, values.getAsLong(TARGETPOS));
 	}
 
-	public String getSQLMoveItemRight(final ContentValues values) {
+	/**
+	 * Moves this task just after the task at the target position, which must be on its right.
+	 * Values should come from getMoveValues
+	 *
+	 * @return the number of tasks that were moved, 0 or 1
+	 */
+	public int moveItemRight(final SQLiteDatabase db, final ContentValues values) {
 		if (!values.containsKey(TARGETPOS) || values.getAsLong(TARGETPOS) <= right) {
-			return null;
+			return 0;
 		}
-		return getSQLMoveItem(Columns.RIGHT, values.getAsLong(TARGETPOS));
+		return moveItem(db, Columns.RIGHT, values.getAsLong(TARGETPOS));
 	}
 
 	/*
-	 * Trigger to move between lists
+	 * Trigger to move between lists. Not for updates that also change the positions, like
+	 * moveToList(), because those have already placed the task
 	 */
 	public static final String TRIGGER_MOVE_LIST = "CREATE TRIGGER trigger_post_move_list_" +
 			TABLE_NAME + " AFTER UPDATE OF " + Columns.DBLIST + " ON " + Task.TABLE_NAME +
-			" WHEN old." + Columns.DBLIST + " IS NOT new." + Columns.DBLIST + " BEGIN " +
-			// Bump everything to the right, except the item itself (in same list)
-			String.format("UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %4$s IS new.%4$s AND %5$s IS NOT new.%5$s;",
-					TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST, Columns._ID) +
-
-			// Bump everything left in the old list, to the right of position
-			String.format("UPDATE %1$s SET %2$s = %2$s - 2, %3$s = %3$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;",
-					TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST) +
-
-			// Set positions to 1 and 2 for item
-			String.format("UPDATE %1$s SET %2$s = 1, %3$s = 2 WHERE %4$s IS new.%4$s;",
-					TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns._ID) +
-			posUniqueConstraint("new", "Moving list, new positions not unique/ordered") +
-			posUniqueConstraint("old", "Moving list, old positions not unique/ordered") +
-			" END;";
+			" WHEN old." + Columns.DBLIST + " IS NOT new." + Columns.DBLIST +
+			" AND old." + Columns.LEFT + " IS new." + Columns.LEFT +
+			" AND old." + Columns.RIGHT + " IS new." + Columns.RIGHT + " BEGIN " +
+			// Put the item on top of the new list. The old list keeps its gap
+			PUT_ON_TOP + " END;";
 
 	/**
-	 * If moving left, then edgeCol is left and vice-versa. Values should come
-	 * from getMoveValues.
-	 * 1 = table name 2 = left 3 = right 4 = edgecol 5 = old.left 6 = old.right
-	 * 7 = target.pos (actually target.edgecol) 8 = dblist 9 = old.dblist
+	 * Puts this task in the middle of the gap next to the target task: the gap on its left
+	 * if edgeCol is left, on its right otherwise. Only this task changes position, unless
+	 * the gap is full and the list must be respaced first
+	 *
+	 * @param edgeVal the left or right of the target task
 	 */
-	private String getSQLMoveItem(final String edgeCol, final Long edgeVal) {
-		boolean movingLeft = Columns.LEFT.equals(edgeCol);
-		return String.format("UPDATE %1$s SET " +
-						// Left item follows Left = Left + ...
-						"%2$s = %2$s + " +
-						" CASE " +
-						// Moving item jumps to target pos
-						" WHEN %2$s IS %5$d " +
-						// ex: left = 5, target = 2, --> left = 5 + (2 - 5) == 2
-						// ex left = 5, target = 9(right), --> left = 5 + (9 - 5 - 1) = 8
-						" THEN " +
-						" (%7$d - %5$d" +
-						(movingLeft ? ") " : " -1) ") +
-						// Sub items take one step opposite
-						// Careful if moving inside subtree, which can only
-						// happen when moving right.
-						// Then only left position changes
-						" WHEN %2$s BETWEEN (%5$d + 1) AND (%6$d - 1) " +
-						" THEN " +
-						(movingLeft ? " 1 " : " -1 ") +
-						// Items in between from and to positions take two steps opposite
-						" WHEN %2$s BETWEEN " +
-						(movingLeft ? "%7$d" : "%6$d") +
-						" AND " +
-						(movingLeft ? "%5$d" : "%7$d") +
-						" THEN " +
-						(movingLeft ? " 2 " : " -2 ") +
-						// Not in target range, no change
-						" ELSE 0 END, " +
-						/*
-						 * Right item follows Right = Right + ...
-						 */
-						" %3$s = %3$s + " +
-						" CASE " +
-						// Moving item jumps to target pos
-						" WHEN %3$s IS %6$d " +
-						// ex: right = 7, target = 3(left), --> right = 7 + (3 - 7 + 1) == 4
-						// ex right = 2, target = 9(right), --> right = 2 + (9 -  2) = 9
-						" THEN " +
-						" (%7$d - %6$d" +
-						(movingLeft ? " +1) " : ") ") +
-						// Sub items take one step opposite
-						" WHEN %3$s BETWEEN (%5$d + 1) AND (%6$d - 1) " +
-						" THEN " +
-						(movingLeft ? " 1 " : " -1 ") +
-						// Items in between from and to positions take two steps opposite
-						" WHEN %3$s BETWEEN " +
-						(movingLeft ? "%7$d" : "%6$d") + " AND " +
-						(movingLeft ? "%5$d" : "%7$d") + " THEN " +
-						(movingLeft ? " 2 " : " -2 ") +
-						// Not in target range, no change
-						" ELSE 0 END " +
-						// And limit to the list in question
-						" WHERE %8$s IS %9$d;", TABLE_NAME,
-				Columns.LEFT, Columns.RIGHT, edgeCol, left, right, edgeVal, Columns.DBLIST, dblist);
+	private int moveItem(final SQLiteDatabase db, final String edgeCol, final long edgeVal) {
+		final boolean movingLeft = Columns.LEFT.equals(edgeCol);
+		final StatementCache statements = StatementCache.of(db);
+		final long movingId = statements.longForQuery(SQL_ID_AT_LEFT, dblist, left);
+		final long targetId = statements.longForQuery(
+				movingLeft ? SQL_ID_AT_LEFT : SQL_ID_AT_RIGHT, dblist, edgeVal);
+		if (movingId < 0 || targetId < 0) {
+			return 0;
+		}
+
+		// At most twice: if the gap is full, it is not after respacing
+		for (int i = 0; i < 2; i++) {
+			// The target's edge, and the closest edge of its neighbour on that side
+			final long edge = statements.longForQuery(
+					movingLeft ? SQL_LEFT_OF : SQL_RIGHT_OF, targetId);
+			final long neighbour;
+			if (movingLeft) {
+				neighbour = statements.longForQuery(SQL_NEIGHBOUR_LEFT,
+						Math.max(0, edge - 2 * POSITION_GAP), dblist, edge);
+			} else {
+				neighbour = statements.longForQuery(SQL_NEIGHBOUR_RIGHT,
+						edge + 2 * POSITION_GAP, dblist, edge);
+			}
+			final long lo = Math.min(edge, neighbour);
+			final long hi = Math.max(edge, neighbour);
+
+			// lo < left < left + 1 < hi
+			if (hi - lo >= 3) {
+				final long newLeft = lo + (hi - lo - 1) / 2;
+				return statements.updateDelete(SQL_SET_POSITION, newLeft, newLeft + 1,
+						movingId);
+			}
+			respace(db, dblist);
+		}
+		return 0;
+	}
+
+	/**
+	 * Renumbers the tasks of a list, or of all lists if listId is null, so that they are
+	 * {@link #POSITION_GAP} apart again, starting from {@link #FIRST_POSITION}. Their order
+	 * does not change
+	 */
+	static void respace(final SQLiteDatabase db, final Long listId) {
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID, Columns.DBLIST },
+				listId == null ? null : Columns.DBLIST + " IS ?",
+				listId == null ? null : new String[] { Long.toString(listId) },
+				null, null, Columns.DBLIST + "," + Columns.LEFT);
+		// Read all first: the query would give other results while the positions change
+		final long[] ids = new long[c.getCount()];
+		final long[] lists = new long[c.getCount()];
+		while (c.moveToNext()) {
+			ids[c.getPosition()] = c.getLong(0);
+			lists[c.getPosition()] = c.getLong(1);
+		}
+		c.close();
+
+		final StatementCache statements = StatementCache.of(db);
+		long pos = FIRST_POSITION;
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0 && lists[i] != lists[i - 1]) {
+				pos = FIRST_POSITION;
+			}
+			statements.updateDelete(SQL_SET_POSITION, pos, pos + 1, ids[i]);
+			pos += POSITION_GAP;
+		}
 	}
 
 	/*
@@ -1078,8 +1415,8 @@ public class Task extends DAO {
 	 * include all the current month, by design.
 	 *
 	 * @param input         The {@link String} received from the {@link Cursor} which, I think,
-	 *                      comes from the query on the view returned by
-	 *                      {@link #CREATE_SECTIONED_DATE_VIEW}
+	 *                      comes from the query returned by
+	 *                      {@link #SECTIONED_DATE_QUERY}
 	 * @param dueDateMillis the value of {@link Task.Columns#DUE} from the same {@link Cursor}
 	 *                      that gave you the "input" parameter
 	 * @return the name to show on a header of the {@link DragSortListView} when the notes are
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.preference.PreferenceManager;
+
+import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.notepad.R;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link Task#HISTORY_TABLE_NAME} table small. The triggers save the whole title
+ * and note at every change, or the first part and the blob of a large note;
+ * {@link #compact} later replaces the older versions with deltas and deletes those that are
+ * too old, as set in the preferences. Blobs are never turned into deltas.
+ *
+ * Deltas go backwards: a delta row holds what changes from the next newer version of the
+ * same task. The newest version is always whole, and so is one every
+ * {@link #SNAPSHOT_INTERVAL} versions, so that {@link #queryVersion} never reads more than
+ * that many rows to rebuild one version. Deleting the oldest versions never breaks the
+ * others
+ */
+public final class TaskHistory {
+
+	/**
+	 * {@link Task.Columns#HIST_KIND} of a row with the whole title and note
+	 */
+	public static final int KIND_FULL = 0;
+
+	/**
+	 * {@link Task.Columns#HIST_KIND} of a row whose title and note are deltas, see
+	 * {@link #encodeDelta(String, String)}
+	 */
+	public static final int KIND_DELTA = 1;
+
+	/**
+	 * Most deltas between two whole versions
+	 */
+	static final int SNAPSHOT_INTERVAL = 16;
+
+	/**
+	 * Versions kept for each task if the preference was never set. 0 means all of them
+	 */
+	public static final int DEFAULT_KEEP_VERSIONS = 100;
+
+	/**
+	 * Days of history kept if the preference was never set. 0 means forever
+	 */
+	public static final int DEFAULT_KEEP_DAYS = 0;
+
+	/**
+	 * How long to wait after a change before compacting the task, so that a few saves of
+	 * the same note are handled at once
+	 */
+	private static final long COMPACT_DELAY_SECONDS = 10;
+
+	private static final ScheduledExecutorService sExecutor =
+			Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Tasks waiting for {@link #compactLater(Context, long)}. Guarded by itself
+	 */
+	private static final Set<Long> sPending = new HashSet<>();
+
+	private TaskHistory() {}
+
+	/**
+	 * Compacts the history of the task in the background, a few seconds from now
+	 */
+	public static void compactLater(final Context context, final long taskId) {
+		synchronized (sPending) {
+			if (!sPending.add(taskId)) return;
+		}
+		final Context appContext = context.getApplicationContext();
+		sExecutor.schedule(() -> {
+			synchronized (sPending) {
+				sPending.remove(taskId);
+			}
+			final SQLiteDatabase db = DatabaseHandler.getInstance(appContext)
+					.getWritableDatabase();
+			compact(db, taskId, getKeepVersions(appContext), getKeepDays(appContext));
+		}, COMPACT_DELAY_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Compacts the history of all tasks in the background
+	 */
+	public static void compactAllLater(final Context context) {
+		final Context appContext = context.getApplicationContext();
+		sExecutor.execute(() -> compactAll(
+				DatabaseHandler.getInstance(appContext).getWritableDatabase(),
+				getKeepVersions(appContext), getKeepDays(appContext)));
+	}
+
+	private static SharedPreferences prefs(final Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context);
+	}
+
+	public static int getKeepVersions(final Context context) {
+		return prefs(context).getInt(context.getString(R.string.key_pref_history_versions),
+				DEFAULT_KEEP_VERSIONS);
+	}
+
+	public static int getKeepDays(final Context context) {
+		return prefs(context).getInt(context.getString(R.string.key_pref_history_days),
+				DEFAULT_KEEP_DAYS);
+	}
+
+	/**
+	 * Runs {@link #compact} for every task that has a history
+	 *
+	 * @return the number of rows that were changed or deleted
+	 */
+	public static int compactAll(final SQLiteDatabase db, final int keepVersions,
+								 final int keepDays) {
+		final Cursor c = db.query(true, Task.HISTORY_TABLE_NAME,
+				new String[] { Task.Columns.HIST_TASK_ID }, null, null, null, null, null, null);
+		final long[] taskIds = new long[c.getCount()];
+		while (c.moveToNext()) {
+			taskIds[c.getPosition()] = c.getLong(0);
+		}
+		c.close();
+
+		int changed = 0;
+		for (long taskId : taskIds) {
+			changed += compact(db, taskId, keepVersions, keepDays);
+		}
+		return changed;
+	}
+
+	/**
+	 * Deletes the versions of the task that are too many or too old, and turns the whole
+	 * versions that are not needed as snapshots into deltas. The newest version is always
+	 * kept whole. Runs in its own transaction
+	 *
+	 * @param keepVersions how many versions to keep, 0 to keep all
+	 * @param keepDays     delete versions older than this many days, 0 to keep them
+	 * @return the number of rows that were changed or deleted
+	 */
+	public static int compact(final SQLiteDatabase db, final long taskId,
+							  final int keepVersions, final int keepDays) {
+		final String task = Long.toString(taskId);
+		int changed = 0;
+		db.beginTransaction();
+		try {
+			if (keepVersions > 0) {
+				changed += db.delete(Task.HISTORY_TABLE_NAME,
+						Task.Columns.HIST_TASK_ID + " IS ? AND " + Task.Columns._ID
+								+ " NOT IN (SELECT " + Task.Columns._ID + " FROM "
+								+ Task.HISTORY_TABLE_NAME + " WHERE " + Task.Columns.HIST_TASK_ID
+								+ " IS ? ORDER BY " + Task.Columns._ID + " DESC LIMIT "
+								+ keepVersions + ")",
+						new String[] { task, task });
+			}
+			if (keepDays > 0) {
+				// updated is the SQLite timestamp, in UTC
+				changed += db.delete(Task.HISTORY_TABLE_NAME,
+						Task.Columns.HIST_TASK_ID + " IS ? AND " + Task.Columns.UPDATED
+								+ " < datetime('now', ?) AND " + Task.Columns._ID
+								+ " < (SELECT MAX(" + Task.Columns._ID + ") FROM "
+								+ Task.HISTORY_TABLE_NAME + " WHERE "
+								+ Task.Columns.HIST_TASK_ID + " IS ?)",
+						new String[] { task, "-" + keepDays + " days", task });
+			}
+			changed += toDeltas(db, task);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		if (changed > 0) {
+			NnnLogger.debug(TaskHistory.class,
+					"Compacted history of task " + taskId + ": " + changed + " rows");
+		}
+		return changed;
+	}
+
+	/**
+	 * Walks the versions from the newest to the oldest, and writes each one as a delta or a
+	 * snapshot. Rows that are already what they should be are not written
+	 */
+	private static int toDeltas(final SQLiteDatabase db, final String task) {
+		final Cursor c = db.query(Task.HISTORY_TABLE_NAME, new String[] { Task.Columns._ID,
+						Task.Columns.HIST_KIND, Task.Columns.TITLE, Task.Columns.NOTE },
+				Task.Columns.HIST_TASK_ID + " IS ?", new String[] { task }, null, null,
+				Task.Columns._ID + " DESC");
+		int changed = 0;
+		try {
+			String newerTitle = null;
+			String newerNote = null;
+			// deltas since the last whole version
+			int chain = 0;
+			while (c.moveToNext()) {
+				final long id = c.getLong(0);
+				final boolean isDelta = c.getInt(1) == KIND_DELTA;
+				final String title;
+				final String note;
+				if (!isDelta) {
+					title = c.getString(2);
+					note = c.getString(3);
+				} else if (newerTitle != null) {
+					title = applyDelta(newerTitle, c.getString(2));
+					note = applyDelta(newerNote, c.getString(3));
+				} else {
+					// The newest version was lost. Nothing older can be rebuilt
+					NnnLogger.error(TaskHistory.class, "History of task " + task
+							+ " starts with a delta");
+					return changed;
+				}
+
+				if (newerTitle != null) {
+					final String titleDelta = encodeDelta(newerTitle, title);
+					final String noteDelta = encodeDelta(newerNote, note);
+					final boolean snapshot = chain + 1 >= SNAPSHOT_INTERVAL
+							|| titleDelta.length() + noteDelta.length()
+							>= title.length() + note.length();
+					final ContentValues values = new ContentValues();
+					if (snapshot) {
+						chain = 0;
+						if (isDelta) {
+							values.put(Task.Columns.HIST_KIND, KIND_FULL);
+							values.put(Task.Columns.TITLE, title);
+							values.put(Task.Columns.NOTE, note);
+						}
+					} else {
+						chain++;
+						if (!isDelta) {
+							values.put(Task.Columns.HIST_KIND, KIND_DELTA);
+							values.put(Task.Columns.TITLE, titleDelta);
+							values.put(Task.Columns.NOTE, noteDelta);
+						}
+					}
+					if (values.size() > 0) {
+						changed += StatementCache.of(db)
+								.update(Task.HISTORY_TABLE_NAME, values, id);
+					}
+				}
+				newerTitle = title;
+				newerNote = note;
+			}
+		} finally {
+			c.close();
+		}
+		return changed;
+	}
+
+	/**
+	 * @return the version with this id of {@link Task#HISTORY_TABLE_NAME}, with its whole
+	 * title and note, or the first part of a large note and its blob, in a single row with
+	 * the columns {@link Task.Columns#HISTORY_COLUMNS_UPDATED}. Reads only the rows from it
+	 * to the next whole version. Empty if there is no such version
+	 */
+	public static Cursor queryVersion(final SQLiteDatabase db, final long historyId) {
+		final MatrixCursor result = new MatrixCursor(Task.Columns.HISTORY_COLUMNS_UPDATED, 1);
+		final String id = Long.toString(historyId);
+		final String sameTask = "(SELECT " + Task.Columns.HIST_TASK_ID + " FROM "
+				+ Task.HISTORY_TABLE_NAME + " WHERE " + Task.Columns._ID + " IS ?)";
+		// from the first whole version at or after this one, down to this one
+		final Cursor c = db.query(Task.HISTORY_TABLE_NAME, new String[] {
+						Task.Columns.HIST_TASK_ID, Task.Columns.HIST_KIND, Task.Columns.TITLE,
+						Task.Columns.NOTE, Task.Columns.UPDATED, Task.Columns.NOTE_BLOB },
+				Task.Columns.HIST_TASK_ID + " IS " + sameTask + " AND " + Task.Columns._ID
+						+ " >= ? AND " + Task.Columns._ID + " <= IFNULL((SELECT MIN("
+						+ Task.Columns._ID + ") FROM " + Task.HISTORY_TABLE_NAME + " WHERE "
+						+ Task.Columns.HIST_TASK_ID + " IS " + sameTask + " AND "
+						+ Task.Columns._ID + " >= ? AND " + Task.Columns.HIST_KIND + " IS "
+						+ KIND_FULL + "), -1)",
+				new String[] { id, id, id, id }, null, null, Task.Columns._ID + " DESC");
+		try {
+			String title = null;
+			String note = null;
+			while (c.moveToNext()) {
+				if (c.getInt(1) == KIND_FULL) {
+					title = c.getString(2);
+					note = c.getString(3);
+				} else {
+					title = applyDelta(title, c.getString(2));
+					note = applyDelta(note, c.getString(3));
+				}
+				if (c.isLast()) {
+					result.addRow(new Object[] { c.getLong(0), title, note, c.getString(4),
+							c.isNull(5) ? null : c.getLong(5) });
+				}
+			}
+		} finally {
+			c.close();
+		}
+		return result;
+	}
+
+	/**
+	 * A delta is "prefix,suffix,middle": the older text is the first prefix characters of
+	 * the newer one, then middle, then its last suffix characters. Typing in one place of
+	 * a long note gives a delta of a few characters
+	 *
+	 * @return what {@link #applyDelta(String, String)} needs to make older from newer
+	 */
+	static String encodeDelta(final String newer, final String older) {
+		final int max = Math.min(newer.length(), older.length());
+		int prefix = 0;
+		while (prefix < max && newer.charAt(prefix) == older.charAt(prefix)) {
+			prefix++;
+		}
+		// Never split a surrogate pair, SQLite could not store half of it
+		if (prefix > 0 && Character.isHighSurrogate(older.charAt(prefix - 1))) {
+			prefix--;
+		}
+		int suffix = 0;
+		while (suffix < max - prefix && newer.charAt(newer.length() - 1 - suffix)
+				== older.charAt(older.length() - 1 - suffix)) {
+			suffix++;
+		}
+		if (suffix > 0 && Character.isLowSurrogate(older.charAt(older.length() - suffix))) {
+			suffix--;
+		}
+		return prefix + "," + suffix + "," + older.substring(prefix, older.length() - suffix);
+	}
+
+	/**
+	 * @param newer the text of the next newer version
+	 * @param delta made by {@link #encodeDelta(String, String)}
+	 * @return the text of the older version
+	 */
+	static String applyDelta(final String newer, final String delta) {
+		final int first = delta.indexOf(',');
+		final int second = delta.indexOf(',', first + 1);
+		final int prefix = Integer.parseInt(delta.substring(0, first));
+		final int suffix = Integer.parseInt(delta.substring(first + 1, second));
+		return newer.substring(0, prefix) + delta.substring(second + 1)
+				+ newer.substring(newer.length() - suffix);
+	}
+}
@@ -90,6 +90,10 @@ public class TaskList extends DAO {
 
 		public static final String VIEW_COUNT = "count";
 
+		// Columns of the list_stats table
+		public static final String STATS_LIST_ID = "list_id";
+		public static final String STATS_OPEN_COUNT = "open_count";
+
 		public static final String[] FIELDS = { _ID, TITLE, UPDATED, LISTTYPE, SORTING };
 		// GTASKACCOUNT, GTASKID };
 		public static final String[] SHALLOWFIELDS = { _ID, TITLE, UPDATED };
@@ -103,23 +107,75 @@ public class TaskList extends DAO {
 			" TEXT DEFAULT NULL," + Columns.SORTING +
 			" TEXT DEFAULT NULL" + ")";
 
-	public static final String CREATE_COUNT_VIEW = "CREATE TEMP VIEW IF NOT EXISTS " +
-			VIEWCOUNT_NAME +
-			" AS SELECT " +
-			arrayToCommaString(Columns.FIELDS) +
-			"," +
-			Columns.VIEW_COUNT +
-			" FROM " +
-			TABLE_NAME +
-			" LEFT JOIN " +
-			// Select count statement
-			" (SELECT COUNT(1) AS " + Columns.VIEW_COUNT +
-			"," + Task.Columns.DBLIST + " FROM " +
-			Task.TABLE_NAME + " WHERE " +
-			Task.Columns.COMPLETED + " IS NULL " +
-			" GROUP BY " + Task.Columns.DBLIST + ") " +
+	/**
+	 * One row for each list, with the number of tasks in it that are not completed. It is
+	 * kept up to date by the triggers below, so that the drawer does not have to count the
+	 * tasks of every list each time one of them changes
+	 */
+	public static final String STATS_TABLE_NAME = "list_stats";
+
+	public static final String CREATE_STATS_TABLE = "CREATE TABLE " + STATS_TABLE_NAME + "(" +
+			Columns.STATS_LIST_ID + " INTEGER PRIMARY KEY REFERENCES " + TABLE_NAME + "(" +
+			Columns._ID + ") ON DELETE CASCADE," +
+			Columns.STATS_OPEN_COUNT + " INTEGER NOT NULL DEFAULT 0)";
+
+	/**
+	 * Adds {@code value} to the count of the list {@code listId}
+	 */
+	private static String addToStats(final String listId, final String value) {
+		return " UPDATE " + STATS_TABLE_NAME + " SET " + Columns.STATS_OPEN_COUNT + " = " +
+				Columns.STATS_OPEN_COUNT + " + " + value + " WHERE " + Columns.STATS_LIST_ID +
+				" = " + listId + ";";
+	}
+
+	public static final String TRIGGER_STATS_LIST_INSERT = "CREATE TRIGGER " +
+			"list_stats_list_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN " +
+			" INSERT OR IGNORE INTO " + STATS_TABLE_NAME + " (" + Columns.STATS_LIST_ID +
+			") VALUES (new." + Columns._ID + "); END;";
+
+	public static final String TRIGGER_STATS_TASK_INSERT = "CREATE TRIGGER " +
+			"list_stats_task_insert AFTER INSERT ON " + Task.TABLE_NAME +
+			" WHEN new." + Task.Columns.COMPLETED + " IS NULL BEGIN " +
+			addToStats("new." + Task.Columns.DBLIST, "1") + " END;";
+
+	public static final String TRIGGER_STATS_TASK_DELETE = "CREATE TRIGGER " +
+			"list_stats_task_delete AFTER DELETE ON " + Task.TABLE_NAME +
+			" WHEN old." + Task.Columns.COMPLETED + " IS NULL BEGIN " +
+			addToStats("old." + Task.Columns.DBLIST, "-1") + " END;";
+
+	/**
+	 * Completing a task, or moving it to another list
+	 */
+	public static final String TRIGGER_STATS_TASK_UPDATE = "CREATE TRIGGER " +
+			"list_stats_task_update AFTER UPDATE OF " + Task.Columns.COMPLETED + "," +
+			Task.Columns.DBLIST + " ON " + Task.TABLE_NAME +
+			" WHEN (old." + Task.Columns.COMPLETED + " IS NULL) IS NOT (new." +
+			Task.Columns.COMPLETED + " IS NULL) OR old." + Task.Columns.DBLIST +
+			" IS NOT new." + Task.Columns.DBLIST + " BEGIN " +
+			addToStats("old." + Task.Columns.DBLIST,
+					"-(old." + Task.Columns.COMPLETED + " IS NULL)") +
+			addToStats("new." + Task.Columns.DBLIST,
+					"(new." + Task.Columns.COMPLETED + " IS NULL)") + " END;";
+
+	/**
+	 * The number of tasks not completed in each list, counted from the task table
+	 */
+	public static final String COUNT_OPEN_TASKS = "SELECT " + Columns._ID +
+			", (SELECT COUNT(1) FROM " + Task.TABLE_NAME + " WHERE " + Task.Columns.DBLIST +
+			" = " + TABLE_NAME + "." + Columns._ID + " AND " + Task.Columns.COMPLETED +
+			" IS NULL) AS " + Columns.VIEW_COUNT + " FROM " + TABLE_NAME;
+
+	/**
+	 * The lists, each one with the number of tasks not completed, or null if there are none.
+	 * Queried by the provider as a subquery named {@link #VIEWCOUNT_NAME}
+	 */
+	public static final String COUNT_QUERY = "SELECT " +
+			arrayToCommaString(TABLE_NAME + ".", Columns.FIELDS) +
+			", NULLIF(" + Columns.STATS_OPEN_COUNT + ",0) AS " + Columns.VIEW_COUNT +
+			" FROM " + TABLE_NAME +
+			" LEFT JOIN " + STATS_TABLE_NAME +
 			" ON " + TABLE_NAME + "." + Columns._ID +
-			" = " + Task.Columns.DBLIST + ";";
+			" = " + STATS_TABLE_NAME + "." + Columns.STATS_LIST_ID;
 
 	public String title = "";
 
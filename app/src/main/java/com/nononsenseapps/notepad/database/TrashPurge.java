@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.preference.PreferenceManager;
+
+import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.notepad.R;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the {@link Task#DELETE_TABLE_NAME} table small. Every deleted task is copied there
+ * by {@link Task#TRIGGER_PRE_DELETE}, to be found in the archive; {@link #purge} removes
+ * those that are too old or too many, as set in the preferences.
+ *
+ * Rows are deleted a batch at a time, so that other writes don't wait long. Each delete
+ * leaves a small segment in the search index, so the index is optimized once at the end,
+ * and the file is vacuumed if much of it became free
+ */
+public final class TrashPurge {
+
+	/**
+	 * Deleted tasks kept if the preference was never set. 0 means all of them
+	 */
+	public static final int DEFAULT_KEEP_NOTES = 5000;
+
+	/**
+	 * Days a deleted task is kept if the preference was never set. 0 means forever
+	 */
+	public static final int DEFAULT_KEEP_DAYS = 0;
+
+	/**
+	 * Rows deleted in each transaction
+	 */
+	static final int BATCH_SIZE = 500;
+
+	/**
+	 * How long to wait after a delete before purging, so that deleting many tasks one by
+	 * one starts only one purge
+	 */
+	private static final long PURGE_DELAY_SECONDS = 30;
+
+	/**
+	 * VACUUM only when at least this many bytes, and this part of the file, are free
+	 */
+	private static final long VACUUM_MIN_FREE_BYTES = 1024 * 1024;
+	private static final double VACUUM_MIN_FREE_RATIO = 0.25;
+
+	// the results of the last purge, in the default shared preferences
+	private static final String KEY_LAST_TIME = "trash_purge_time";
+	private static final String KEY_LAST_PURGED = "trash_purge_count";
+	private static final String KEY_LAST_FREED = "trash_purge_freed";
+	private static final String KEY_LAST_REMAINING = "trash_purge_remaining";
+
+	private static final ScheduledExecutorService sExecutor =
+			Executors.newSingleThreadScheduledExecutor();
+	private static final AtomicBoolean sPending = new AtomicBoolean(false);
+
+	private TrashPurge() {}
+
+	/**
+	 * What a purge did
+	 */
+	public static final class Stats {
+		/**
+		 * When it ran, in milliseconds, or 0 if it never did
+		 */
+		public final long time;
+		/**
+		 * Deleted tasks that were removed
+		 */
+		public final int purged;
+		/**
+		 * Deleted tasks that are still in the archive
+		 */
+		public final long remaining;
+		/**
+		 * Bytes of the database that are no longer used
+		 */
+		public final long freedBytes;
+
+		Stats(final long time, final int purged, final long remaining, final long freedBytes) {
+			this.time = time;
+			this.purged = purged;
+			this.remaining = remaining;
+			this.freedBytes = freedBytes;
+		}
+	}
+
+	/**
+	 * Purges the deleted tasks in the background, a few seconds from now
+	 */
+	public static void purgeLater(final Context context) {
+		if (!sPending.compareAndSet(false, true)) return;
+		final Context appContext = context.getApplicationContext();
+		sExecutor.schedule(() -> {
+			sPending.set(false);
+			purge(appContext);
+		}, PURGE_DELAY_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private static SharedPreferences prefs(final Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context);
+	}
+
+	public static int getKeepNotes(final Context context) {
+		return prefs(context).getInt(context.getString(R.string.key_pref_trash_notes),
+				DEFAULT_KEEP_NOTES);
+	}
+
+	public static int getKeepDays(final Context context) {
+		return prefs(context).getInt(context.getString(R.string.key_pref_trash_days),
+				DEFAULT_KEEP_DAYS);
+	}
+
+	/**
+	 * Runs {@link #purge(SQLiteDatabase, int, int)} with the values of the preferences, and
+	 * saves its {@link Stats}. Call it from a background thread
+	 */
+	public static Stats purge(final Context context) {
+		final Stats stats = purge(DatabaseHandler.getInstance(context).getWritableDatabase(),
+				getKeepNotes(context), getKeepDays(context));
+		prefs(context).edit()
+				.putLong(KEY_LAST_TIME, stats.time)
+				.putInt(KEY_LAST_PURGED, stats.purged)
+				.putLong(KEY_LAST_FREED, stats.freedBytes)
+				.putLong(KEY_LAST_REMAINING, stats.remaining)
+				.apply();
+		if (stats.purged > 0) {
+			DAO.notifyProviderOnChange(context, Task.URI_DELETED_QUERY);
+		}
+		return stats;
+	}
+
+	/**
+	 * @return what the last {@link #purge(Context)} did
+	 */
+	public static Stats getLastStats(final Context context) {
+		final SharedPreferences prefs = prefs(context);
+		return new Stats(prefs.getLong(KEY_LAST_TIME, 0), prefs.getInt(KEY_LAST_PURGED, 0),
+				prefs.getLong(KEY_LAST_REMAINING, 0), prefs.getLong(KEY_LAST_FREED, 0));
+	}
+
+	/**
+	 * Deletes the deleted tasks that are older than the given days, and then the oldest
+	 * ones beyond the given number
+	 *
+	 * @param keepNotes how many deleted tasks to keep, 0 to keep all
+	 * @param keepDays  delete those deleted longer ago than this many days, 0 to keep them
+	 */
+	public static Stats purge(final SQLiteDatabase db, final int keepNotes,
+							  final int keepDays) {
+		final long usedBefore = usedBytes(db);
+		int purged = 0;
+		if (keepDays > 0) {
+			// deletedtime is the SQLite timestamp, in UTC
+			purged += deleteInBatches(db, Task.Columns.TRIG_DELETED + " < datetime('now', ?)",
+					new String[] { "-" + keepDays + " days" }, 0);
+		}
+		if (keepNotes > 0) {
+			purged += deleteInBatches(db, null, null, keepNotes);
+		}
+
+		if (purged > 0) {
+			SearchIndex.optimizeDeleted(db);
+			// before the vacuum, so that it gets their pages back too
+			NoteBlobs.collectGarbage(db);
+			final long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+			final long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+			final long free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+			if (free * pageSize >= VACUUM_MIN_FREE_BYTES
+					&& free >= pages * VACUUM_MIN_FREE_RATIO) {
+				db.execSQL("VACUUM");
+			}
+			NnnLogger.debug(TrashPurge.class, "Purged " + purged + " deleted tasks");
+		}
+		final long remaining = DatabaseUtils.queryNumEntries(db, Task.DELETE_TABLE_NAME);
+		return new Stats(System.currentTimeMillis(), purged, remaining,
+				Math.max(0, usedBefore - usedBytes(db)));
+	}
+
+	/**
+	 * Deletes the matching rows, {@link #BATCH_SIZE} rows in each transaction
+	 *
+	 * @param skipNewest how many of the newest rows must not be deleted, or 0
+	 * @return how many rows were deleted
+	 */
+	private static int deleteInBatches(final SQLiteDatabase db, final String where,
+									   final String[] whereArgs, final int skipNewest) {
+		final String batch = "SELECT " + Task.Columns._ID + " FROM " + Task.DELETE_TABLE_NAME
+				+ (where == null ? "" : " WHERE " + where)
+				+ (skipNewest > 0
+				? " ORDER BY " + Task.Columns.TRIG_DELETED + " DESC, " + Task.Columns._ID
+				+ " DESC LIMIT " + BATCH_SIZE + " OFFSET " + skipNewest
+				: " LIMIT " + BATCH_SIZE);
+		int total = 0;
+		int deleted;
+		do {
+			db.beginTransaction();
+			try {
+				deleted = db.delete(Task.DELETE_TABLE_NAME,
+						Task.Columns._ID + " IN (" + batch + ")", whereArgs);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			total += deleted;
+		} while (deleted == BATCH_SIZE);
+		return total;
+	}
+
+	/**
+	 * @return the bytes of the pages in use, without the free ones
+	 */
+	private static long usedBytes(final SQLiteDatabase db) {
+		return (DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+				- DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null))
+				* DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+	}
+}
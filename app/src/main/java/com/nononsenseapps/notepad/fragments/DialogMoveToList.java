@@ -17,7 +17,6 @@
 
 package com.nononsenseapps.notepad.fragments;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -36,7 +35,6 @@ import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 
 import com.nononsenseapps.notepad.R;
-import com.nononsenseapps.notepad.database.DAO;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.databinding.FragmentDialogMovetolistBinding;
@@ -154,15 +152,8 @@ public class DialogMoveToList extends DialogFragment {
 	}
 
 	void moveItems(final long toListId, final long[] taskIds) {
-		Executors.newSingleThreadExecutor().execute(() -> {
-			final ContentValues val = new ContentValues();
-			val.put(Task.Columns.DBLIST, toListId);
-
-			// where _ID in (1, 2, 3)
-			final String whereId = Task.Columns._ID + " IN (" + DAO.arrayToCommaString(taskIds) + ")";
-
-			getActivity().getContentResolver().update(Task.URI, val, whereId, null);
-		});
+		Executors.newSingleThreadExecutor().execute(() -> Task.moveToList(
+				getActivity().getContentResolver(), toListId, taskIds));
 	}
 
 	void okClicked() {
@@ -23,6 +23,8 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -43,10 +45,13 @@ import androidx.loader.content.Loader;
 import androidx.preference.PreferenceManager;
 
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.SearchIndex;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.databinding.FragmentSearchBinding;
 import com.nononsenseapps.ui.TitleNoteTextView;
 
+import java.util.ArrayList;
+
 /**
  * This is used only in the "Archive" view, for deleted notes.
  * For the search widget of the "main" view, see
@@ -55,6 +60,19 @@ import com.nononsenseapps.ui.TitleNoteTextView;
 public class FragmentSearch extends Fragment {
 
 	public final static String QUERY = "query";
+
+	/**
+	 * How long to wait for the next key before searching, in milliseconds. The search
+	 * still running is cancelled when a new one starts
+	 */
+	static final long DEBOUNCE_MS = 150;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Runnable mRestartLoader = () -> {
+		if (mCallback != null && isAdded()) {
+			LoaderManager.getInstance(this).restartLoader(0, null, mCallback);
+		}
+	};
 	protected SimpleCursorAdapter mAdapter;
 	protected LoaderCallbacks<Cursor> mCallback;
 	protected String mQuery = "";
@@ -81,6 +99,7 @@ public class FragmentSearch extends Fragment {
 	@Override
 	public void onDestroyView() {
 		super.onDestroyView();
+		mHandler.removeCallbacks(mRestartLoader);
 		mBinding = null;
 	}
 
@@ -171,15 +190,16 @@ public class FragmentSearch extends Fragment {
 			}
 		};
 
-		doSearch(mQuery);
+		mRestartLoader.run();
 	}
 
 	protected void doSearch(final String query) {
 		mQuery = query == null ? "" : query;
 
-		// If not loaded yet, let it load
+		// If not loaded yet, let it load. Else wait for the user to stop typing
+		mHandler.removeCallbacks(mRestartLoader);
 		if (mCallback != null)
-			LoaderManager.getInstance(this).restartLoader(0, null, mCallback);
+			mHandler.postDelayed(mRestartLoader, DEBOUNCE_MS);
 	}
 
 	/**
@@ -193,14 +213,15 @@ public class FragmentSearch extends Fragment {
 	 * Override to give different search behaviour
 	 */
 	protected String[] getFields() {
-		return Task.Columns.FIELDS;
+		return SearchIndex.SEARCH_FIELDS;
 	}
 
 	/**
 	 * Override to give different search behaviour
 	 */
 	protected String getSortOrder() {
-		return Task.Columns.DUE;
+		// the best matches first
+		return null;
 	}
 
 	/**
@@ -261,10 +282,18 @@ public class FragmentSearch extends Fragment {
 				case 2 -> {
 					// Note
 					// Only if task it not locked
-					if (c.getInt(9) != 1) {
+					final int snippetCol = c.getColumnIndex(SearchIndex.COLUMN_SNIPPET);
+					if (c.getInt(9) == 1) {
+						((TitleNoteTextView) view).setTextRest("");
+					} else if (snippetCol < 0 || c.isNull(snippetCol)
+							|| c.getString(snippetCol).isEmpty()) {
 						((TitleNoteTextView) view).setTextRest(c.getString(colIndex));
 					} else {
-						((TitleNoteTextView) view).setTextRest("");
+						// the part of the note with the words found, in bold
+						final ArrayList<Integer> ranges = new ArrayList<>();
+						((TitleNoteTextView) view).setTextRest(
+								SearchIndex.unmark(c.getString(snippetCol), ranges));
+						((TitleNoteTextView) view).highlightRest(ranges);
 					}
 					return true;
 				}
@@ -126,6 +126,8 @@ public class FragmentSearchDeleted extends FragmentSearch {
 						t.note = c.getString(2);
 						t.completed = c.isNull(3) ? null : c.getLong(3);
 						t.due = c.isNull(4) ? null : c.getLong(4);
+						// the rest of a large note, see NoteBlobs
+						t.noteBlob = c.isNull(7) ? null : c.getLong(7);
 						t.save(getActivity());
 					}
 				}
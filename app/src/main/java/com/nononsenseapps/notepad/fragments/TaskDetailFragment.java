@@ -21,6 +21,7 @@ package com.nononsenseapps.notepad.fragments;
 import android.app.Activity;
 import android.app.DatePickerDialog;
 import android.app.TimePickerDialog;
+import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -73,6 +74,7 @@ import com.nononsenseapps.ui.ShowcaseHelper;
 import com.nononsenseapps.ui.StyledEditText;
 
 import org.androidannotations.annotations.AfterViews;
+import org.androidannotations.annotations.Background;
 import org.androidannotations.annotations.Click;
 import org.androidannotations.annotations.EFragment;
 import org.androidannotations.annotations.InstanceState;
@@ -80,7 +82,9 @@ import org.androidannotations.annotations.UiThread;
 import org.androidannotations.annotations.UiThread.Propagation;
 import org.androidannotations.annotations.ViewById;
 
+import java.io.IOException;
 import java.util.Calendar;
+import java.util.Objects;
 
 /**
  * A fragment representing a single Note detail screen.
@@ -142,6 +146,11 @@ public class TaskDetailFragment extends Fragment {
 						if (mTaskOrg == null) {
 							mTaskOrg = new Task(c);
 						}
+						if (mTask.noteBlob != null) {
+							// only the start of a large note was read, see NoteBlobs
+							mLoadingNote = true;
+							loadWholeNote(getActivity().getContentResolver(), mTask.noteBlob);
+						}
 						fillUIFromTask();
 						// Don't want updates while editing
 						// getLoaderManager().destroyLoader(LOADER_EDITOR_TASK);
@@ -268,6 +277,11 @@ public class TaskDetailFragment extends Fragment {
 	//  has not been unlocked, otherwise good to show
 	private boolean mLocked = true;
 
+	/**
+	 * True while the rest of a large note is read. Until then, the note can't be edited
+	 */
+	private boolean mLoadingNote = false;
+
 	private OnFragmentInteractionListener mListener;
 
 	/**
@@ -647,12 +661,43 @@ public class TaskDetailFragment extends Fragment {
 		setFieldStatus();
 	}
 
+	/**
+	 * Streams the whole note of the blob, away from the UI thread
+	 */
+	@Background
+	void loadWholeNote(final ContentResolver resolver, final long blobId) {
+		final Task whole = new Task();
+		whole.noteBlob = blobId;
+		try {
+			whole.loadWholeNote(resolver);
+		} catch (IOException e) {
+			// keep the start of it, which can't be edited
+			NnnLogger.exception(e);
+			return;
+		}
+		onWholeNoteLoaded(blobId, whole.note);
+	}
+
+	@UiThread
+	void onWholeNoteLoaded(final long blobId, final String note) {
+		if (mTask == null || !Objects.equals(mTask.noteBlob, blobId)) return;
+		mTask.note = note;
+		mTask.noteBlob = null;
+		if (mTaskOrg != null && Objects.equals(mTaskOrg.noteBlob, blobId)) {
+			mTaskOrg.note = note;
+			mTaskOrg.noteBlob = null;
+		}
+		mLoadingNote = false;
+		fillUIFromTask();
+	}
+
 	/**
 	 * Set fields to enabled/disabled depending on wether the note is locked
 	 */
 	void setFieldStatus() {
 		final boolean status = !isLocked();
-		taskText.setEnabled(status);
+		// the text is incomplete until the note is loaded
+		taskText.setEnabled(status && !mLoadingNote);
 		taskCompleted.setEnabled(status);
 		dueDateBox.setEnabled(status);
 		dueCancelButton.setEnabled(status);
@@ -847,6 +892,10 @@ public class TaskDetailFragment extends Fragment {
 		if (mTask == null || isLocked()) {
 			return;
 		}
+		// Only the start of the note is known, saving it would cut the note
+		if (mLoadingNote) {
+			return;
+		}
 
 		// Needed for comparison
 		mTask.setText(taskText.getText().toString());
@@ -992,7 +1041,17 @@ public class TaskDetailFragment extends Fragment {
 		if (taskText != null) taskText.setText(restoredText);
 
 		// Need to set here also for password to work
-		if (mTask != null) mTask.setText(restoredText);
+		if (mTask != null) {
+			mTask.setText(restoredText);
+			final long blobId = data.getLongExtra(ActivityTaskHistory.RESULT_NOTE_BLOB_KEY, -1);
+			if (blobId > 0) {
+				// the text has only the start of a large note
+				mTask.noteBlob = blobId;
+				mLoadingNote = true;
+				setFieldStatus();
+				loadWholeNote(getActivity().getContentResolver(), blobId);
+			}
+		}
 	}
 
 	/**
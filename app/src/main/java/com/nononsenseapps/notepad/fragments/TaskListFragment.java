@@ -21,6 +21,7 @@ package com.nononsenseapps.notepad.fragments;
 import android.app.Activity;
 import android.content.ClipData;
 import android.content.ClipboardManager;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -75,10 +76,14 @@ import com.nononsenseapps.ui.TitleNoteTextView;
 import org.androidannotations.annotations.AfterViews;
 import org.androidannotations.annotations.Background;
 import org.androidannotations.annotations.EFragment;
+import org.androidannotations.annotations.UiThread;
 import org.androidannotations.annotations.ViewById;
 
+import java.io.IOException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
@@ -333,19 +338,20 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 					mSortType = prefs.getString(getString(R.string.pref_sorttype),
 							getString(R.string.default_sorttype));
 				}
-				// analyze the note sorting type chosen by the user
+				// analyze the note sorting type chosen by the user. Long lists are read a
+				// page at a time, except when sorted by date, which has headers
 				if (mSortType.equals(getString(R.string.const_alphabetic))) {
-					targetUri = Task.URI;
+					targetUri = Task.URI_PAGED;
 					sortSpec = getString(R.string.const_as_alphabetic, Task.Columns.TITLE);
 				} else if (mSortType.equals(getString(R.string.const_duedate))) {
 					targetUri = Task.URI_SECTIONED_BY_DATE;
 					sortSpec = null;
 				} else if (mSortType.equals(getString(R.string.const_modified))) {
-					targetUri = Task.URI;
+					targetUri = Task.URI_PAGED;
 					sortSpec = Task.Columns.UPDATED + " DESC";
 				} else {
 					// manual sorting
-					targetUri = Task.URI;
+					targetUri = Task.URI_PAGED;
 					sortSpec = Task.Columns.LEFT;
 				}
 
@@ -353,15 +359,12 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 				String[] whereArgs;
 
 				if (mListId > 0) {
-					// Fix for issue #525 which is caused by some android versions (API 35
-					// emulator, Google Pixel 8a on Android 14, ...) incorrectly generating
-					// the dblist column (=Task.Columns.DBLIST) as BLOB instead of INTEGER.
-					// So we cast its value to INTEGER to restore the (expected) behavior
-					// of older android versions
-					where = "CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ?";
+					// No CAST() here: it would make the query read the whole table. Since
+					// database version 17, "dblist" is always an INTEGER, see issue #525
+					where = Task.Columns.DBLIST + " = ?";
 					whereArgs = new String[] { Long.toString(mListId) };
 				} else {
-					targetUri = Task.URI;
+					targetUri = Task.URI_PAGED;
 					sortSpec = Task.Columns.DUE;
 					whereArgs = null;
 					where = Task.Columns.COMPLETED + " IS NULL";
@@ -385,7 +388,7 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 				}
 
 				return new CursorLoader(getActivity(), targetUri,
-						Task.Columns.FIELDS, where, whereArgs, sortSpec);
+						Task.Columns.PREVIEW_FIELDS, where, whereArgs, sortSpec);
 			}
 
 			@Override
@@ -424,7 +427,7 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 	}
 
 	public static String whereOverDue() {
-		return Task.Columns.DUE + " BETWEEN " + Task.OVERDUE + " AND " + Task.TODAY_START;
+		return Task.WHERE_DUE_OVERDUE;
 	}
 
 	public static String andWhereOverdue() {
@@ -432,8 +435,7 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 	}
 
 	public static String whereToday() {
-		return Task.Columns.DUE + " BETWEEN " + Task.TODAY_START + " AND "
-				+ Task.TODAY_PLUS(1);
+		return Task.WHERE_DUE_TODAY;
 	}
 
 	public static String andWhereToday() {
@@ -441,8 +443,7 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 	}
 
 	public static String whereWeek() {
-		return Task.Columns.DUE + " BETWEEN " + Task.TODAY_START + " AND ("
-				+ Task.TODAY_PLUS(5) + " -1)";
+		return Task.WHERE_DUE_WEEK;
 	}
 
 	public static String andWhereWeek() {
@@ -600,17 +601,9 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 				boolean finish = false;
 				int itemId = item.getItemId();
 				if (itemId == R.id.menu_copy) {
-					final ClipboardManager clipboard = (ClipboardManager) getActivity()
-							.getSystemService(Context.CLIPBOARD_SERVICE);
-					clipboard.setPrimaryClip(ClipData.newPlainText(
-							getString(R.string.app_name_short), getShareText()));
-					try {
-						Toast.makeText(getActivity(), getResources().getQuantityString(
-										R.plurals.notecopied_msg, tasks.size(), tasks.size()),
-								Toast.LENGTH_SHORT).show();
-					} catch (Exception e) {
-						// Protect against faulty translations
-					}
+					// a copy: the tasks are cleared when the action mode finishes
+					copyOrShare(getActivity().getContentResolver(),
+							new ArrayList<>(tasks.values()), false);
 					finish = true;
 				} else if (itemId == R.id.menu_delete) {
 					boolean locked = false;
@@ -635,7 +628,8 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 							.show(getParentFragmentManager(), "move_to_list_dialog");
 					finish = true;
 				} else if (itemId == R.id.menu_share) {
-					startActivity(getShareIntent());
+					copyOrShare(getActivity().getContentResolver(),
+							new ArrayList<>(tasks.values()), true);
 					finish = true;
 				} else {
 					finish = false;
@@ -670,47 +664,85 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 					// Protect against faulty translations
 				}
 			}
+		});
+	}
 
-			String getShareText() {
-				final StringBuilder sb = new StringBuilder();
-				for (Task t : tasks.values()) {
-					if (sb.length() > 0) {
-						sb.append("\n\n");
-					}
-					if (t.locked) {
-						sb.append(t.title);
-					} else {
-						sb.append(t.getText());
-					}
-				}
-				return sb.toString();
+	/**
+	 * Copies the text of the tasks to the clipboard, or shares it. The list has only the start
+	 * of each note, see {@link Task.Columns#PREVIEW_FIELDS}, so the whole notes are read
+	 * first, away from the UI thread
+	 *
+	 * @param share true to share the text, false to copy it
+	 */
+	@Background
+	void copyOrShare(final ContentResolver resolver, final List<Task> tasks,
+					 final boolean share) {
+		final StringBuilder sb = new StringBuilder();
+		for (Task t : tasks) {
+			if (sb.length() > 0) {
+				sb.append("\n\n");
 			}
-
-			// when sharing many notes from the list view,
-			// we send a list of their titles as subject
-			String getShareSubject() {
-				StringBuilder result = new StringBuilder();
-				for (Task t : tasks.values()) {
-					result.append(", ").append(t.title);
-				}
-				// if necessary, remove the first ", "
-				return (result.length() == 0) ? "" : result.substring(2);
+			if (t.locked) {
+				sb.append(t.title);
+			} else {
+				sb.append(withWholeNote(resolver, t).getText());
 			}
+		}
+		// when sharing many notes from the list view,
+		// we send a list of their titles as subject
+		final StringBuilder subject = new StringBuilder();
+		for (Task t : tasks) {
+			if (subject.length() > 0) subject.append(", ");
+			subject.append(t.title);
+		}
+		onShareTextRead(sb.toString(), subject.toString(), tasks.size(), share);
+	}
 
-			/**
-			 * When you select multiple notes, and presses 'share' on the menu,
-			 * this function creates the intent to call Android's app picker to choose
-			 * who will receive the shared notes' content
-			 */
-			Intent getShareIntent() {
-				final Intent shareIntent = new Intent(Intent.ACTION_SEND);
-				shareIntent.setType("text/plain");
-				shareIntent.putExtra(Intent.EXTRA_TEXT, getShareText());
-				shareIntent.putExtra(Intent.EXTRA_SUBJECT, getShareSubject());
-				shareIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT);
-				return shareIntent;
+	/**
+	 * @return the task read again, with all of its note
+	 */
+	private static Task withWholeNote(final ContentResolver resolver, final Task t) {
+		try (Cursor c = resolver.query(Task.getUri(t._id),
+				Task.Columns.FIELDS, null, null, null)) {
+			if (c != null && c.moveToFirst()) {
+				final Task whole = new Task(c);
+				// a large note is stored apart, see NoteBlobs
+				whole.loadWholeNote(resolver);
+				return whole;
 			}
-		});
+		} catch (IOException e) {
+			NnnLogger.exception(e);
+		}
+		return t;
+	}
+
+	/**
+	 * Puts the text in the clipboard, or calls Android's app picker to choose who will
+	 * receive the shared notes' content
+	 */
+	@UiThread
+	void onShareTextRead(final String text, final String subject, final int count,
+						 final boolean share) {
+		if (getActivity() == null) return;
+		if (share) {
+			final Intent shareIntent = new Intent(Intent.ACTION_SEND);
+			shareIntent.setType("text/plain");
+			shareIntent.putExtra(Intent.EXTRA_TEXT, text);
+			shareIntent.putExtra(Intent.EXTRA_SUBJECT, subject);
+			shareIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT);
+			startActivity(shareIntent);
+			return;
+		}
+		final ClipboardManager clipboard = (ClipboardManager) getActivity()
+				.getSystemService(Context.CLIPBOARD_SERVICE);
+		clipboard.setPrimaryClip(ClipData.newPlainText(getString(R.string.app_name_short),
+				text));
+		try {
+			Toast.makeText(getActivity(), getResources().getQuantityString(
+					R.plurals.notecopied_msg, count, count), Toast.LENGTH_SHORT).show();
+		} catch (Exception e) {
+			// Protect against faulty translations
+		}
 	}
 
 	@Override
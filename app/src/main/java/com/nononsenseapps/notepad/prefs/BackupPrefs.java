@@ -24,6 +24,8 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -35,11 +37,15 @@ import androidx.preference.PreferenceManager;
 import com.nononsenseapps.helpers.FilePickerHelper;
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.DatabaseMaintenance;
+import com.nononsenseapps.notepad.database.TrashPurge;
 import com.nononsenseapps.notepad.fragments.DialogExportBackup;
 import com.nononsenseapps.notepad.fragments.DialogRestoreBackup;
 import com.nononsenseapps.notepad.sync.files.JSONBackup;
 
 import java.io.FileNotFoundException;
+import java.util.Locale;
 import java.util.concurrent.Executors;
 
 public class BackupPrefs extends PreferenceFragmentCompat {
@@ -47,6 +53,9 @@ public class BackupPrefs extends PreferenceFragmentCompat {
 	// settings IDs from app_pref_backup.xml
 	private static final String KEY_IMPORT = "backup_import";
 	private static final String KEY_EXPORT = "backup_export";
+	private static final String KEY_REPAIR_ORDER = "backup_repair_order";
+	private static final String KEY_TRASH_PURGE = "backup_trash_purge";
+	private static final String KEY_DB_MAINTENANCE = "backup_db_maintenance";
 	private static final String KEY_BACKUP_DIR_URI = "key_backup_dir_uri";
 
 	private JSONBackup mTool;
@@ -76,6 +85,25 @@ public class BackupPrefs extends PreferenceFragmentCompat {
 			return true;
 		});
 
+		findPreference(KEY_REPAIR_ORDER).setOnPreferenceClickListener(pref -> {
+			runRepairOrder();
+			return true;
+		});
+
+		final Preference purgePref = findPreference(KEY_TRASH_PURGE);
+		purgePref.setOnPreferenceClickListener(pref -> {
+			runTrashPurge(pref);
+			return true;
+		});
+		showPurgeStats(purgePref);
+
+		final Preference maintenancePref = findPreference(KEY_DB_MAINTENANCE);
+		maintenancePref.setOnPreferenceClickListener(pref -> {
+			runMaintenance(pref);
+			return true;
+		});
+		showMaintenanceStats(maintenancePref);
+
 		dirUriPref = findPreference(KEY_BACKUP_DIR_URI);
 		dirUriPref.setOnPreferenceClickListener(pref -> {
 			// open the file picker on click
@@ -153,6 +181,87 @@ public class BackupPrefs extends PreferenceFragmentCompat {
 		});
 	}
 
+	/**
+	 * Checks the positions of all notes in the background, and repairs the broken lists
+	 */
+	private void runRepairOrder() {
+		Handler handler = new Handler(Looper.getMainLooper());
+		Context context = this.getContext();
+
+		Executors.newSingleThreadExecutor().execute(() -> {
+			int repaired = DatabaseHandler.repairTaskPositions(context);
+			handler.post(() -> Toast.makeText(context,
+					context.getString(R.string.repair_order_done, repaired),
+					Toast.LENGTH_SHORT).show());
+		});
+	}
+
+	/**
+	 * Removes the deleted notes beyond the limits in the background, then shows what was done
+	 */
+	private void runTrashPurge(final Preference purgePref) {
+		Handler handler = new Handler(Looper.getMainLooper());
+		Context context = this.getContext();
+
+		Executors.newSingleThreadExecutor().execute(() -> {
+			TrashPurge.purge(context);
+			handler.post(() -> showPurgeStats(purgePref));
+		});
+	}
+
+	/**
+	 * Shows in the summary of the preference what the last purge of deleted notes did
+	 */
+	private static void showPurgeStats(final Preference purgePref) {
+		final Context context = purgePref.getContext();
+		final TrashPurge.Stats stats = TrashPurge.getLastStats(context);
+		if (stats.time == 0) {
+			purgePref.setSummary(R.string.trash_purge_never);
+			return;
+		}
+		purgePref.setSummary(context.getString(R.string.trash_purge_stats,
+				DateUtils.formatDateTime(context, stats.time,
+						DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME),
+				stats.purged, Formatter.formatShortFileSize(context, stats.freedBytes),
+				stats.remaining));
+	}
+
+	/**
+	 * Optimizes the database in the background, then shows what was done
+	 */
+	private void runMaintenance(final Preference maintenancePref) {
+		Handler handler = new Handler(Looper.getMainLooper());
+		Context context = this.getContext();
+
+		Executors.newSingleThreadExecutor().execute(() -> {
+			DatabaseMaintenance.run(context, DatabaseMaintenance.DEFAULT_BUDGET_MS, null);
+			handler.post(() -> showMaintenanceStats(maintenancePref));
+		});
+	}
+
+	/**
+	 * Shows in the summary of the preference what the last database maintenance did
+	 */
+	private static void showMaintenanceStats(final Preference maintenancePref) {
+		final Context context = maintenancePref.getContext();
+		final DatabaseMaintenance.Stats stats = DatabaseMaintenance.getLastStats(context);
+		if (stats.time == 0) {
+			maintenancePref.setSummary(R.string.db_maintenance_never);
+			return;
+		}
+		String summary = context.getString(R.string.db_maintenance_stats,
+				DateUtils.formatDateTime(context, stats.time,
+						DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME),
+				String.format(Locale.getDefault(), "%.1f", stats.durationMs / 1000.0),
+				Formatter.formatShortFileSize(context, stats.getBytesBefore()),
+				Formatter.formatShortFileSize(context, stats.getBytesAfter()),
+				stats.freePagesAfter);
+		if (!stats.finished) {
+			summary += ". " + context.getString(R.string.db_maintenance_unfinished);
+		}
+		maintenancePref.setSummary(summary);
+	}
+
 	/**
 	 * the backup/restore work for the background thread
 	 *
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.prefs;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+
+import androidx.annotation.Nullable;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceCategory;
+import androidx.preference.PreferenceFragmentCompat;
+
+import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.ProviderProfiler;
+
+import java.util.List;
+
+/**
+ * Shows what the {@link ProviderProfiler} recorded, and exports it as JSON
+ */
+public class ProfilerPrefs extends PreferenceFragmentCompat {
+
+	// settings IDs from app_pref_profiler.xml
+	private static final String KEY_EXPORT = "profiler_export";
+	private static final String KEY_CLEAR = "profiler_clear";
+	private static final String KEY_OPERATIONS = "profiler_operations";
+	private static final String KEY_SLOW_LOG = "profiler_slow_log";
+
+	@Override
+	public void onCreatePreferences(@Nullable Bundle savInstState, String rootKey) {
+		addPreferencesFromResource(R.xml.app_pref_profiler);
+
+		findPreference(ProviderProfiler.KEY_ENABLED).setOnPreferenceChangeListener(
+				(pref, value) -> {
+					ProviderProfiler.setEnabled((Boolean) value);
+					return true;
+				});
+
+		findPreference(KEY_EXPORT).setOnPreferenceClickListener(pref -> {
+			final Intent shareIntent = new Intent(Intent.ACTION_SEND);
+			shareIntent.setType("application/json");
+			shareIntent.putExtra(Intent.EXTRA_TEXT, ProviderProfiler.toJson());
+			shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.profiler));
+			startActivity(Intent.createChooser(shareIntent, getString(R.string.profiler_export)));
+			return true;
+		});
+
+		findPreference(KEY_CLEAR).setOnPreferenceClickListener(pref -> {
+			ProviderProfiler.clear();
+			showRecorded();
+			return true;
+		});
+	}
+
+	@Override
+	public void onResume() {
+		super.onResume();
+		// the operations of the other screens were recorded meanwhile
+		showRecorded();
+	}
+
+	/**
+	 * Fills the categories with a preference for each operation and each log entry
+	 */
+	private void showRecorded() {
+		final Context context = getPreferenceManager().getContext();
+		final PreferenceCategory operations = findPreference(KEY_OPERATIONS);
+		operations.removeAll();
+		final List<ProviderProfiler.OpStats> stats = ProviderProfiler.getStats();
+		for (ProviderProfiler.OpStats s : stats) {
+			final Preference pref = newItem(context);
+			pref.setTitle(s.op + " " + s.path + " (" + s.code + ")");
+			pref.setSummary(getString(R.string.profiler_operation_stats, s.count,
+					percentile(s, 50), percentile(s, 90), s.maxNanos / 1_000_000, s.rows,
+					s.triggerChanges));
+			operations.addPreference(pref);
+		}
+		if (stats.isEmpty()) operations.addPreference(newEmptyItem(context));
+
+		final PreferenceCategory slowLog = findPreference(KEY_SLOW_LOG);
+		slowLog.removeAll();
+		final List<ProviderProfiler.LogEntry> log = ProviderProfiler.getLog();
+		for (ProviderProfiler.LogEntry e : log) {
+			final Preference pref = newItem(context);
+			pref.setTitle(getString(R.string.profiler_log_entry,
+					DateUtils.formatDateTime(context, e.time, DateUtils.FORMAT_SHOW_TIME),
+					e.durationMs, e.rows, e.triggerChanges));
+			final StringBuilder summary = new StringBuilder(e.op).append(' ').append(e.uri);
+			if (e.sql != null) summary.append('\n').append(e.sql);
+			for (String line : e.plan) summary.append('\n').append(line);
+			pref.setSummary(summary);
+			slowLog.addPreference(pref);
+		}
+		if (log.isEmpty()) slowLog.addPreference(newEmptyItem(context));
+	}
+
+	private static String percentile(final ProviderProfiler.OpStats s, final int percent) {
+		final long ms = s.percentileMs(percent);
+		return ms < 0 ? "∞" : Long.toString(ms);
+	}
+
+	private static Preference newItem(final Context context) {
+		final Preference pref = new Preference(context);
+		pref.setSingleLineTitle(false);
+		pref.setSelectable(false);
+		pref.setIconSpaceReserved(false);
+		return pref;
+	}
+
+	private static Preference newEmptyItem(final Context context) {
+		final Preference pref = newItem(context);
+		pref.setSummary(R.string.profiler_empty);
+		return pref;
+	}
+}
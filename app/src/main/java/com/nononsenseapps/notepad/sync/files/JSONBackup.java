@@ -94,7 +94,7 @@ public class JSONBackup {
 		return remotes;
 	}
 
-	private List<Task> getTasksIn(final TaskList list) {
+	private List<Task> getTasksIn(final TaskList list) throws IOException {
 		final ArrayList<Task> tasks = new ArrayList<>();
 
 		// Reverse order because adding stuff is always done at the top
@@ -104,7 +104,10 @@ public class JSONBackup {
 				Task.Columns.LEFT + " DESC");
 
 		while (c != null && c.moveToNext()) {
-			tasks.add(new Task(c));
+			final Task task = new Task(c);
+			// the backup gets all of it
+			task.loadWholeNote(context.getContentResolver());
+			tasks.add(task);
 		}
 
 		if (c != null)
@@ -155,7 +158,7 @@ public class JSONBackup {
 		return reminders;
 	}
 
-	private JSONObject getJSONBackup() throws JSONException {
+	private JSONObject getJSONBackup() throws JSONException, IOException {
 		final JSONArray listarray = new JSONArray();
 		for (final TaskList list : getTaskLists()) {
 			final JSONObject jsonlist = new JSONObject();
@@ -193,7 +196,8 @@ public class JSONBackup {
 		return remotelistarray;
 	}
 
-	private JSONArray getJSONTasksFor(final TaskList list) throws JSONException {
+	private JSONArray getJSONTasksFor(final TaskList list)
+			throws JSONException, IOException {
 		final JSONArray taskarray = new JSONArray();
 		for (final Task task : getTasksIn(list)) {
 			final JSONObject jsontask = new JSONObject();
@@ -64,9 +64,11 @@ public abstract class DBSyncBase implements SynchronizerInterface {
 	 * @param file The OrgFile containing all the tasks
 	 * @param list The TaskList corresponding to the OrgFile.
 	 * @return A list of all task-related objects necessary for synchronization.
+	 * @throws IOException if the whole note of a task could not be read. Syncing the list
+	 *                     then would write the start of the note only
 	 */
 	protected List<Pair<OrgNode, Pair<RemoteTask, Task>>> getNodesAndDBEntries(
-			OrgFile file, TaskList list) {
+			OrgFile file, TaskList list) throws IOException {
 		final List<Pair<OrgNode, Pair<RemoteTask, Task>>> result = new ArrayList<>();
 
 		final HashMap<Long, Task> tasks = getTasks(list);
@@ -179,13 +181,15 @@ public abstract class DBSyncBase implements SynchronizerInterface {
 		return remoteList;
 	}
 
-	private HashMap<Long, Task> getTasks(final TaskList list) {
+	private HashMap<Long, Task> getTasks(final TaskList list) throws IOException {
 		final HashMap<Long, Task> map = new HashMap<>();
 		try (Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
 				Task.Columns.DBLIST + " IS ?",
 				new String[] { Long.toString(list._id) }, null)) {
 			while (c.moveToNext()) {
 				Task task = new Task(c);
+				// the org file gets all of it
+				task.loadWholeNote(resolver);
 				map.put(task._id, task);
 			}
 		}
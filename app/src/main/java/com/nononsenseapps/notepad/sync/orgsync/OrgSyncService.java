@@ -20,7 +20,6 @@ package com.nononsenseapps.notepad.sync.orgsync;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -35,6 +34,7 @@ import androidx.preference.PreferenceManager;
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.helpers.PreferencesHelper;
 import com.nononsenseapps.notepad.BuildConfig;
+import com.nononsenseapps.notepad.database.ChangeDispatcher;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
@@ -44,6 +44,7 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Set;
 
 public class OrgSyncService extends Service {
 
@@ -258,47 +259,52 @@ public class OrgSyncService extends Service {
 				}
 
 			} catch (IOException e) {
+				// such as a note that could not be read whole. Nothing more is written, and
+				// the next change tries again
 				NnnLogger.exception(e);
+				sendBroadcast(new Intent(SyncAdapter.SYNC_FINISHED));
+				for (final Monitor monitor : monitors) {
+					monitor.startMonitor(this);
+				}
 			} catch (ParseException ignored) {}
 		}
 	}
 
-	private final class DBWatcher extends ContentObserver implements Monitor {
+	/**
+	 * Gets one signal for each set of changes sent by the {@link ChangeDispatcher}, instead of
+	 * one for each notified uri
+	 */
+	private final class DBWatcher implements ChangeDispatcher.Listener, Monitor {
 
 		private final SyncHandler handler;
 
-		// Giving it the service handler, onChange will run on that thread
 		public DBWatcher(SyncHandler handler) {
-			super(handler);
 			this.handler = handler;
 		}
 
-		public boolean deliverSelfNotifications() {
-			return true;
-		}
-
-		@Override
-		public void onChange(boolean selfChange) {
-			onChange(selfChange, null);
-		}
-
 		@Override
-		public void onChange(boolean selfChange, Uri uri) {
-			handler.onMonitorChange();
+		public void onChangesFlushed(Set<Uri> changed) {
+			// Monitor both lists and tasks
+			final String tasks = Task.URI.toString();
+			final String lists = TaskList.URI.toString();
+			for (Uri uri : changed) {
+				final String u = uri.toString();
+				if (u.startsWith(tasks) || u.startsWith(lists)) {
+					// called on the main thread: changeId belongs to the handler's thread
+					handler.post(handler::onMonitorChange);
+					return;
+				}
+			}
 		}
 
 		@Override
 		public void startMonitor(final SyncHandler handler) {
-			// Monitor both lists and tasks
-			getContentResolver()
-					.registerContentObserver(TaskList.URI, true, this);
-			getContentResolver()
-					.registerContentObserver(Task.URI, true, this);
+			ChangeDispatcher.getInstance(OrgSyncService.this).addListener(this);
 		}
 
 		@Override
 		public void pauseMonitor() {
-			getContentResolver().unregisterContentObserver(this);
+			ChangeDispatcher.getInstance(OrgSyncService.this).removeListener(this);
 		}
 
 		@Override
@@ -216,7 +216,8 @@ public abstract class Synchronizer extends DBSyncBase implements SynchronizerInt
 		return shouldSave;
 	}
 
-	private boolean syncTasks(final Context context, final TaskList list, final OrgFile file) {
+	private boolean syncTasks(final Context context, final TaskList list, final OrgFile file)
+			throws IOException {
 		final List<Pair<OrgNode, Pair<RemoteTask, Task>>> pairs = getNodesAndDBEntries(file, list);
 		boolean shouldUpdateFile = false;
 
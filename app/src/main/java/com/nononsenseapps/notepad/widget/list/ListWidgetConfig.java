@@ -307,8 +307,8 @@ public class ListWidgetConfig extends AppCompatActivity {
 					// if user does not want to also show completed tasks in widget, the query
 					// will filter away database records with a "completed" unix time
 					listWhere = isShowingCompleted
-							? "CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ?"
-							: "CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ? AND " + Task.Columns.COMPLETED + " IS NULL";
+							? Task.Columns.DBLIST + " = ?"
+							: Task.Columns.DBLIST + " = ? AND " + Task.Columns.COMPLETED + " IS NULL";
 				} else {
 					// all list ids
 					listArg = null;
@@ -322,7 +322,7 @@ public class ListWidgetConfig extends AppCompatActivity {
 				}
 
 				return new CursorLoader(ListWidgetConfig.this, targetUri,
-						Task.Columns.FIELDS, listWhere, listArg, sortSpec);
+						Task.Columns.PREVIEW_FIELDS, listWhere, listArg, sortSpec);
 			}
 
 			@Override
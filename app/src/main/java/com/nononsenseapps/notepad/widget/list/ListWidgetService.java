@@ -53,7 +53,7 @@ public class ListWidgetService extends RemoteViewsService {
 	static class ListRemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory {
 
 		/**
-		 * column names of this cursor are in {@link Task.Columns#FIELDS}
+		 * column names of this cursor are in {@link Task.Columns#PREVIEW_FIELDS}
 		 */
 		private Cursor mCursor;
 
@@ -311,8 +311,8 @@ public class ListWidgetService extends RemoteViewsService {
 				// if user does not want to also show completed tasks in widget, the query
 				// will filter away database records with a "completed" unix time
 				listWhere = isShowingCompleted
-						? "CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ?"
-						: "CAST(" + Task.Columns.DBLIST + " AS INTEGER) IS ? AND " + Task.Columns.COMPLETED + " IS NULL";
+						? Task.Columns.DBLIST + " = ?"
+						: Task.Columns.DBLIST + " = ? AND " + Task.Columns.COMPLETED + " IS NULL";
 			} else {
 				// all list ids
 				listArg = null;
@@ -325,13 +325,11 @@ public class ListWidgetService extends RemoteViewsService {
 						: Task.Columns.COMPLETED + " IS NULL";
 			}
 
-			// TODO this is a very slow query, it takes 40 seconds. See #574. Of these, 20
-			//  can be shaved off by removing CAST() from listWhere in this function, but
-			//  that would cause notes to disappear from the list widget when sorting by
-			//  due date and showing only one note list, see #560
+			// TODO this is a very slow query, it takes 40 seconds. See #574. The CAST() that
+			//  was needed for #560 is gone, since "dblist" is always an INTEGER now
 			mCursor = mContext
 					.getContentResolver()
-					.query(targetUri, Task.Columns.FIELDS, listWhere, listArg, sortSpec);
+					.query(targetUri, Task.Columns.PREVIEW_FIELDS, listWhere, listArg, sortSpec);
 
 			// Restore the identity - not sure if it's needed since we're going
 			// to return right here, but it just *seems* cleaner
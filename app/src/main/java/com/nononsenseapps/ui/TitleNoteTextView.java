@@ -43,6 +43,8 @@ import androidx.appcompat.widget.AppCompatTextView;
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.notepad.R;
 
+import java.util.List;
+
 /**
  * A TextView that highlights the first line and makes links clickable. The text
  * is not selectable. This is intended to be used in a ListView where the text
@@ -64,6 +66,10 @@ public class TitleNoteTextView extends AppCompatTextView {
 	private String mStyledText;
 	private String mTitle = "";
 	private String mRest = "";
+	/**
+	 * Where the text given to {@link #setTextRest(String)} starts in {@link #mRest}
+	 */
+	private int mRestStart = 0;
 
 	public TitleNoteTextView(Context context, AttributeSet attrs) {
 		super(context, attrs);
@@ -374,11 +380,33 @@ public class TitleNoteTextView extends AppCompatTextView {
 			if (!mRest.isEmpty()) {
 				mRest = (rest.startsWith("\n") ? "" : "\n") + rest;
 			}
+			mRestStart = mRest.length() - rest.length();
 
 			setStyledText(mTitle + mRest);
 		}
 	}
 
+	/**
+	 * Shows in bold some parts of the text given to {@link #setTextRest(String)}, like the
+	 * words found by a search. Call it again after the title or the text change
+	 *
+	 * @param ranges the start and end of each part, as offsets in that text
+	 */
+	public void highlightRest(final List<Integer> ranges) {
+		if (!(getText() instanceof Spannable text)) {
+			return;
+		}
+		final int base = mTitle.length() + mRestStart;
+		for (int i = 0; i + 1 < ranges.size(); i += 2) {
+			final int start = base + ranges.get(i);
+			final int end = Math.min(text.length(), base + ranges.get(i + 1));
+			if (start < end) {
+				text.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), start, end,
+						Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+			}
+		}
+	}
+
 	public String getTextTitle() {
 		return mTitle;
 	}